@@ -0,0 +1,171 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.bdb;
+
+import java.io.IOException;
+
+import org.archive.util.kvstore.KeyValueCursor;
+import org.archive.util.kvstore.KeyValueStore;
+import org.archive.util.kvstore.KeyValueStores;
+import org.archive.util.kvstore.WriteBatch;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * KeyValueStore backed by a (deferred-write) BDB-JE Database opened 
+ * through a BdbModule, so that its contents are checkpointed along 
+ * with all other BdbModule state.
+ */
+public class BdbKeyValueStore implements KeyValueStore {
+    protected BdbModule bdb;
+    protected Database db;
+    protected String name;
+
+    public BdbKeyValueStore(BdbModule bdb, Database db, String name) {
+        this.bdb = bdb;
+        this.db = db;
+        this.name = name;
+    }
+
+    public Database getDatabase() {
+        return db;
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+        DatabaseEntry value = new DatabaseEntry();
+        try {
+            OperationStatus status = 
+                db.get(null, new DatabaseEntry(key), value, LockMode.READ_UNCOMMITTED);
+            return status == OperationStatus.SUCCESS ? dataOf(value) : null;
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void put(byte[] key, byte[] value) throws IOException {
+        try {
+            db.put(null, new DatabaseEntry(key), new DatabaseEntry(value));
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void delete(byte[] key) throws IOException {
+        try {
+            db.delete(null, new DatabaseEntry(key));
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void write(WriteBatch batch) throws IOException {
+        // deferred-write databases buffer writes in the cache anyway; 
+        // reuse entries to spare per-operation allocation
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                key.setData(batch.getKey(i));
+                if (batch.getValue(i) == null) {
+                    db.delete(null, key);
+                } else {
+                    value.setData(batch.getValue(i));
+                    db.put(null, key, value);
+                }
+            }
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public KeyValueCursor openCursor(final byte[] fromKey) throws IOException {
+        final Cursor cursor;
+        try {
+            cursor = db.openCursor(null, null);
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+        return new KeyValueCursor() {
+            boolean started = false;
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+
+            public boolean next() throws IOException {
+                try {
+                    OperationStatus status;
+                    if (!started && fromKey != null) {
+                        key.setData(fromKey);
+                        status = cursor.getSearchKeyRange(key, value, LockMode.READ_UNCOMMITTED);
+                    } else {
+                        status = cursor.getNext(key, value, LockMode.READ_UNCOMMITTED);
+                    }
+                    started = true;
+                    return status == OperationStatus.SUCCESS;
+                } catch (DatabaseException e) {
+                    throw new IOException(e);
+                }
+            }
+            public byte[] getKey() {
+                return dataOf(key);
+            }
+            public byte[] getValue() {
+                return dataOf(value);
+            }
+            public void close() throws IOException {
+                try {
+                    cursor.close();
+                } catch (DatabaseException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    public KeyValueCursor openPrefixCursor(byte[] prefix) throws IOException {
+        return KeyValueStores.prefixCursor(this, prefix);
+    }
+
+    public void sync() throws IOException {
+        try {
+            db.sync();
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void close() throws IOException {
+        bdb.closeDatabase(name);
+    }
+
+    protected static byte[] dataOf(DatabaseEntry entry) {
+        byte[] data = entry.getData();
+        if (entry.getOffset() == 0 && entry.getSize() == data.length) {
+            return data;
+        }
+        byte[] copy = new byte[entry.getSize()];
+        System.arraycopy(data, entry.getOffset(), copy, 0, entry.getSize());
+        return copy;
+    }
+}
@@ -30,6 +30,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,6 +42,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.CheckpointDependent;
 import org.archive.checkpointing.Checkpointable;
 import org.archive.spring.ConfigPath;
 import org.archive.util.FilesystemLinkMaker;
@@ -49,6 +51,8 @@ import org.archive.util.ObjectIdentityBdbManualCache;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.TextUtils;
 import org.archive.util.bdbje.EnhancedEnvironment;
+import org.archive.util.kvstore.KeyValueStore;
+import org.archive.util.kvstore.KeyValueStoreProvider;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
@@ -63,6 +67,8 @@ import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseNotFoundException;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
 import com.sleepycat.je.util.DbBackup;
 
 /**
@@ -71,7 +77,8 @@ import com.sleepycat.je.util.DbBackup;
  * @contributor pjack
  * @contributor gojomo
  */
-public class BdbModule implements Lifecycle, Checkpointable, Closeable, DisposableBean {
+public class BdbModule implements Lifecycle, Checkpointable, CheckpointDependent, 
+        KeyValueStoreProvider, Closeable, DisposableBean {
     final private static Logger LOGGER = 
         Logger.getLogger(BdbModule.class.getName()); 
 
@@ -205,6 +212,19 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.useHardLinkCheckpoints = useHardLinkCheckpoints;
     }
     
+    /**
+     * Optional named set of JE tuning parameters (log buffers, cleaner,
+     * checkpointer, evictor) to apply when opening the environment. 
+     * Default is none, leaving JE's own defaults in place. 
+     */
+    protected BdbPerformanceProfile performanceProfile = null;
+    public BdbPerformanceProfile getPerformanceProfile() {
+        return performanceProfile;
+    }
+    public void setPerformanceProfile(BdbPerformanceProfile performanceProfile) {
+        this.performanceProfile = performanceProfile;
+    }
+    
     private transient EnhancedEnvironment bdbEnvironment;
         
     private transient StoredClassCatalog classCatalog;
@@ -279,6 +299,10 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         // triple this value to 6K because stats show many faults
         config.setConfigParam("je.log.faultReadSize", "6144"); 
 
+        if(getPerformanceProfile() != null) {
+            getPerformanceProfile().applyTo(config);
+        }
+
         if(!getUseHardLinkCheckpoints()) {
             // to support checkpoints by textual manifest only, 
             // prevent BDB's cleaner from deleting log files
@@ -376,6 +400,24 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
     }
 
 
+    /**
+     * Open a generic ordered KeyValueStore over a deferred-write 
+     * Database in this environment (and thus covered by checkpoints).
+     * 
+     * @see KeyValueStoreProvider
+     */
+    public KeyValueStore openKeyValueStore(String name, boolean usePriorData) 
+    throws IOException {
+        BdbConfig config = new BdbConfig();
+        config.setAllowCreate(true);
+        try {
+            return new BdbKeyValueStore(this, 
+                    openDatabase(name, config, usePriorData), name);
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Get an ObjectIdentityBdbCache, backed by a BDB Database of the 
      * given name, with the given value class type. If 'recycle' is true,
@@ -442,6 +484,15 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
     
     public void startCheckpoint(Checkpoint checkpointInProgress) {}
 
+    /**
+     * The environment checkpoint must capture whatever other beans 
+     * flush into their databases during their own doCheckpoint(), so
+     * run after all non-BdbModule Checkpointables.
+     */
+    public boolean checkpointsAfter(Checkpointable other) {
+        return !(other instanceof BdbModule);
+    }
+
     public void doCheckpoint(final Checkpoint checkpointInProgress) throws IOException {
         // First sync objectCaches
         for (@SuppressWarnings("rawtypes") ObjectIdentityCache oic : oiCaches.values()) {
@@ -644,6 +695,55 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         return dpc.database;
     }
 
+    /**
+     * Current statistics of the shared environment, or null if not 
+     * yet started. Only the cheaply-collected values are gathered, and
+     * counters are not reset. 
+     */
+    public EnvironmentStats getEnvironmentStats() {
+        if (bdbEnvironment == null) {
+            return null;
+        }
+        StatsConfig statsConfig = new StatsConfig();
+        statsConfig.setFast(true);
+        try {
+            return bdbEnvironment.getStats(statsConfig);
+        } catch (DatabaseException e) {
+            LOGGER.log(Level.WARNING, "unable to collect environment stats", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Map of the most tuning-relevant environment statistics (cache 
+     * misses, cleaner backlog, evictions, checkpoint and I/O counts), 
+     * suitable for reports and the REST API.
+     */
+    public Map<String,Object> environmentStatsReportData() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("performanceProfile", getPerformanceProfile() == null 
+                ? "none" : getPerformanceProfile().getPreset());
+        EnvironmentStats stats = getEnvironmentStats();
+        if (stats == null) {
+            return map;
+        }
+        map.put("cacheTotalBytes", stats.getCacheTotalBytes());
+        map.put("cacheMisses", stats.getNCacheMiss());
+        map.put("notResident", stats.getNNotResident());
+        map.put("cleanerBacklog", stats.getCleanerBacklog());
+        map.put("cleanerRuns", stats.getNCleanerRuns());
+        map.put("cleanerDeletions", stats.getNCleanerDeletions());
+        map.put("evictPasses", stats.getNEvictPasses());
+        map.put("nodesEvicted", stats.getNNodesExplicitlyEvicted());
+        map.put("checkpoints", stats.getNCheckpoints());
+        map.put("logFsyncs", stats.getNLogFSyncs());
+        map.put("randomReads", stats.getNRandomReads());
+        map.put("randomWrites", stats.getNRandomWrites());
+        map.put("sequentialReads", stats.getNSequentialReads());
+        map.put("sequentialWrites", stats.getNSequentialWrites());
+        return map;
+    }
+
     /** uniqueness serial number for temp map databases */
     protected long sn = 0;
         
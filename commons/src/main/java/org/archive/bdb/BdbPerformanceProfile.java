@@ -0,0 +1,166 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.bdb;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.sleepycat.je.EnvironmentConfig;
+
+/**
+ * Named set of BDB-JE environment tuning parameters (log buffers,
+ * cleaner threads, checkpoint byte interval, evictor) applied by
+ * BdbModule when it opens its environment.
+ *
+ * Presets are:
+ * <ul>
+ * <li>default: leave JE's own defaults in place</li>
+ * <li>throughput: larger log buffers and files, more cleaner and
+ * evictor threads, and infrequent checkpoints, favoring bulk
+ * deferred-write frontier traffic</li>
+ * <li>low-latency: frequent small checkpoints and eviction ahead of
+ * cache pressure, so that no single operation stalls for long</li>
+ * <li>low-disk: aggressive log cleaning, trading background I/O for
+ * a smaller on-disk footprint</li>
+ * </ul>
+ *
+ * Any entry in 'parameters' is applied after (and so overrides) the
+ * preset's value for the same JE parameter name.
+ */
+public class BdbPerformanceProfile {
+    final private static Logger LOGGER =
+        Logger.getLogger(BdbPerformanceProfile.class.getName());
+
+    public enum Preset {
+        DEFAULT,
+        THROUGHPUT,
+        LOW_LATENCY,
+        LOW_DISK;
+
+        /**
+         * Look up a preset by its configuration name, such as
+         * 'low-latency'.
+         */
+        public static Preset forName(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+
+        public String getName() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    protected static final Map<Preset,Map<String,String>> PRESET_PARAMETERS =
+        new LinkedHashMap<Preset,Map<String,String>>();
+    static {
+        PRESET_PARAMETERS.put(Preset.DEFAULT,
+                Collections.<String,String>emptyMap());
+
+        Map<String,String> throughput = new LinkedHashMap<String,String>();
+        throughput.put("je.log.numBuffers", "6");
+        throughput.put("je.log.bufferSize", "4194304");
+        throughput.put("je.log.fileMax", "100000000");
+        throughput.put("je.cleaner.threads", "4");
+        throughput.put("je.cleaner.lookAheadCacheSize", "32768");
+        throughput.put("je.checkpointer.bytesInterval", "200000000");
+        throughput.put("je.evictor.coreThreads", "2");
+        throughput.put("je.evictor.nodesPerScan", "20");
+        PRESET_PARAMETERS.put(Preset.THROUGHPUT,
+                Collections.unmodifiableMap(throughput));
+
+        Map<String,String> lowLatency = new LinkedHashMap<String,String>();
+        lowLatency.put("je.log.numBuffers", "4");
+        lowLatency.put("je.log.bufferSize", "1048576");
+        lowLatency.put("je.cleaner.threads", "2");
+        lowLatency.put("je.checkpointer.bytesInterval", "10000000");
+        lowLatency.put("je.evictor.coreThreads", "2");
+        lowLatency.put("je.evictor.criticalPercentage", "5");
+        lowLatency.put("je.evictor.evictBytes", "262144");
+        PRESET_PARAMETERS.put(Preset.LOW_LATENCY,
+                Collections.unmodifiableMap(lowLatency));
+
+        Map<String,String> lowDisk = new LinkedHashMap<String,String>();
+        lowDisk.put("je.log.fileMax", "10000000");
+        lowDisk.put("je.cleaner.threads", "2");
+        lowDisk.put("je.cleaner.minUtilization", "75");
+        lowDisk.put("je.cleaner.minFileUtilization", "20");
+        lowDisk.put("je.checkpointer.bytesInterval", "20000000");
+        PRESET_PARAMETERS.put(Preset.LOW_DISK,
+                Collections.unmodifiableMap(lowDisk));
+    }
+
+    protected Preset preset = Preset.DEFAULT;
+    public String getPreset() {
+        return preset.getName();
+    }
+    /**
+     * Name of the preset to apply: 'default', 'throughput',
+     * 'low-latency' or 'low-disk'.
+     */
+    public void setPreset(String name) {
+        this.preset = Preset.forName(name);
+    }
+
+    protected Map<String,String> parameters = new LinkedHashMap<String,String>();
+    public Map<String,String> getParameters() {
+        return parameters;
+    }
+    /**
+     * Additional raw JE parameters (such as 'je.cleaner.threads'),
+     * overriding the preset's value for the same name.
+     */
+    public void setParameters(Map<String,String> parameters) {
+        this.parameters = parameters;
+    }
+
+    public BdbPerformanceProfile() {
+    }
+
+    public BdbPerformanceProfile(String preset) {
+        setPreset(preset);
+    }
+
+    /**
+     * @return all JE parameters this profile will set, preset values
+     * first then overrides
+     */
+    public Map<String,String> getEffectiveParameters() {
+        Map<String,String> effective =
+            new LinkedHashMap<String,String>(PRESET_PARAMETERS.get(preset));
+        effective.putAll(parameters);
+        return effective;
+    }
+
+    /**
+     * Apply this profile's parameters to the given EnvironmentConfig.
+     *
+     * @param config EnvironmentConfig about to be used to open an
+     * Environment
+     */
+    public void applyTo(EnvironmentConfig config) {
+        for (Map.Entry<String,String> param : getEffectiveParameters().entrySet()) {
+            config.setConfigParam(param.getKey(), param.getValue());
+        }
+        LOGGER.info("applied bdb performance profile '" + getPreset()
+                + "': " + getEffectiveParameters());
+    }
+}
@@ -21,9 +21,10 @@ package org.archive.bdb;
 
 import java.io.Serializable;
 import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
 import java.util.logging.Logger;
 
 import com.sleepycat.bind.EntryBinding;
@@ -31,11 +32,28 @@ import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Cursor;
 import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
 
 /**
- * Queue backed by a JE Collections StoredSortedMap. 
+ * Queue backed by a JE Database of Long index keys to values.
+ * 
+ * Rather than one database operation per offer/poll, items are moved
+ * to and from the database in batches of up to batchSize items, each
+ * batch using a single cursor: offered items accumulate in an
+ * in-memory tail buffer until a batch is full, and polls are served
+ * from an in-memory head buffer refilled by one cursor pass that also
+ * deletes previously-consumed entries. When the database holds nothing
+ * between head and tail, items pass straight from tail buffer to head
+ * buffer without touching the database at all.
+ * 
+ * The database alone is therefore not an exact image of the queue;
+ * flush() (called by sync() and close(), and which must be called
+ * before the database is sync()d for a checkpoint) makes it one.
  * 
  * @author gojomo
  *
@@ -46,10 +64,28 @@ public class StoredQueue<E extends Serializable> extends AbstractQueue<E>  {
     private static final Logger logger =
         Logger.getLogger(StoredQueue.class.getName());
 
-    protected transient StoredSortedMap<Long,E> queueMap; // Long -> E
+    /** default number of items moved to or from the database at once */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    protected transient StoredSortedMap<Long,E> queueMap; // Long -> E, for iteration
     protected transient Database queueDb; // Database
-    protected AtomicLong tailIndex; // next spot for insert
-    protected transient volatile E peekItem = null;
+    protected transient EntryBinding<Long> keyBinding;
+    protected transient EntryBinding<E> valueBinding;
+    
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    
+    /** index of the current head item (next to be polled) */
+    protected long headIndex;
+    /** next spot for insert */
+    protected long tailIndex;
+    /** lowest index possibly still in database (lower already deleted) */
+    protected long persistedHead;
+    /** index after the last item written to database */
+    protected long persistedTail;
+    /** items [headIndex, headIndex+headBuffer.size()) */
+    protected ArrayDeque<E> headBuffer = new ArrayDeque<E>();
+    /** items [tailIndex-tailBuffer.size(), tailIndex), not yet in database */
+    protected List<E> tailBuffer = new ArrayList<E>();
     
     /**
      * Create a StoredQueue backed by the given Database. 
@@ -64,81 +100,239 @@ public class StoredQueue<E extends Serializable> extends AbstractQueue<E>  {
      */
     public StoredQueue(Database db, Class<E> clsOrNull, StoredClassCatalog classCatalog) {
         hookupDatabase(db, clsOrNull, classCatalog);
-        tailIndex = new AtomicLong(queueMap.isEmpty() ? 0L : queueMap.lastKey()+1);
+        long[] range = keyRange();
+        headIndex = persistedHead = range[0];
+        tailIndex = persistedTail = range[1];
     }
 
     /**
+     * Values of primitive types (including String) use compact tuple
+     * bindings; others are java-serialized via the class catalog.
+     * 
      * @param db
      * @param clsOrNull
      * @param classCatalog
      */
     public void hookupDatabase(Database db, Class<E> clsOrNull, StoredClassCatalog classCatalog) {
-        EntryBinding<E> valueBinding = TupleBinding.getPrimitiveBinding(clsOrNull);
+        valueBinding = TupleBinding.getPrimitiveBinding(clsOrNull);
         if(valueBinding == null) {
             valueBinding = new SerialBinding<E>(classCatalog, clsOrNull);
         }
+        keyBinding = TupleBinding.getPrimitiveBinding(Long.class);
         queueDb = db;
         queueMap = new StoredSortedMap<Long,E>(
                 db,
-                TupleBinding.getPrimitiveBinding(Long.class),
+                keyBinding,
                 valueBinding,
                 true);
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+    /**
+     * Maximum number of items buffered in memory at each end of the
+     * queue, and so moved to or from the database in one cursor pass.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return { first index, last index + 1 } of entries in database,
+     * or { 0, 0 } if empty
+     */
+    protected long[] keyRange() {
+        Cursor cursor = queueDb.openCursor(null, null);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            data.setPartial(0, 0, true);
+            if (cursor.getFirst(key, data, LockMode.DEFAULT) != OperationStatus.SUCCESS) {
+                return new long[] {0L, 0L};
+            }
+            long first = keyBinding.entryToObject(key);
+            cursor.getLast(key, data, LockMode.DEFAULT);
+            long last = keyBinding.entryToObject(key);
+            return new long[] {first, last + 1};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Iterates over the database after a flush(), so reflects the
+     * queue contents as of the call.
+     */
     @Override
     public Iterator<E> iterator() {
+        flush();
         return queueMap.values().iterator();
     }
 
     @Override
-    public int size() {
-        try {
-            return Math.max(0, 
-                    (int)(tailIndex.get() 
-                          - queueMap.firstKey())); 
-        } catch (IllegalStateException ise) {
-            return 0; 
-        } catch (NoSuchElementException nse) {
-            return 0;
-        } catch (NullPointerException npe) {
-            return 0;
-        }
+    public synchronized int size() {
+        return (int) Math.min(Integer.MAX_VALUE, tailIndex - headIndex);
     }
     
     @Override
-    public boolean isEmpty() {
-        if(peekItem!=null) {
-            return false;
-        }
-        try {
-            return queueMap.isEmpty();
-        } catch (IllegalStateException de) {
-            return true;
-        }
+    public synchronized boolean isEmpty() {
+        return tailIndex == headIndex;
     }
 
-    public boolean offer(E o) {
-        long targetIndex = tailIndex.getAndIncrement();
-        queueMap.put(targetIndex, o);
+    public synchronized boolean offer(E o) {
+        tailBuffer.add(o);
+        tailIndex++;
+        if (tailBuffer.size() >= batchSize) {
+            writeBuffered();
+        }
         return true;
     }
 
     public synchronized E peek() {
-        if(peekItem == null) {
-            if(queueMap.isEmpty()) {
-                return null; 
-            }
-            peekItem = queueMap.remove(queueMap.firstKey());
+        if (headBuffer.isEmpty()) {
+            fillHead();
         }
-        return peekItem; 
+        return headBuffer.peekFirst(); 
     }
 
     public synchronized E poll() {
         E head = peek();
-        peekItem = null;
+        if (head != null) {
+            headBuffer.removeFirst();
+            headIndex++;
+        }
         return head; 
     }
 
+    /**
+     * Refill the empty head buffer: from the database if it holds the
+     * head item, otherwise directly from the tail buffer.
+     */
+    protected void fillHead() {
+        if (headIndex < persistedTail) {
+            readBatch();
+        } else if (!tailBuffer.isEmpty()) {
+            // everything in tailBuffer follows headIndex directly
+            headBuffer.addAll(tailBuffer);
+            tailBuffer.clear();
+        }
+    }
+
+    /**
+     * In one cursor pass, delete entries already consumed and read up
+     * to batchSize entries from headIndex into the head buffer.
+     */
+    protected void readBatch() {
+        Cursor cursor = queueDb.openCursor(null, null);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            keyBinding.objectToEntry(persistedHead, key);
+            OperationStatus status = cursor.getSearchKeyRange(key, data, LockMode.DEFAULT);
+            while (status == OperationStatus.SUCCESS 
+                    && headBuffer.size() < batchSize) {
+                long index = keyBinding.entryToObject(key);
+                if (index >= persistedTail) {
+                    break;
+                }
+                if (index < headIndex) {
+                    cursor.delete();
+                } else {
+                    headBuffer.addLast(valueBinding.entryToObject(data));
+                }
+                status = cursor.getNext(key, data, LockMode.DEFAULT);
+            }
+            persistedHead = headIndex;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write all items not yet in the database -- any in the head
+     * buffer that came directly from the tail buffer, then the tail
+     * buffer itself -- in one cursor pass.
+     */
+    protected void writeBuffered() {
+        if (tailBuffer.isEmpty() && headIndex + headBuffer.size() <= persistedTail) {
+            return;
+        }
+        Cursor cursor = queueDb.openCursor(null, null);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            long index = headIndex;
+            for (E item : headBuffer) {
+                if (index >= persistedTail) {
+                    put(cursor, key, data, index, item);
+                }
+                index++;
+            }
+            index = tailIndex - tailBuffer.size();
+            for (E item : tailBuffer) {
+                put(cursor, key, data, index++, item);
+            }
+            tailBuffer.clear();
+            persistedTail = tailIndex;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    protected void put(Cursor cursor, DatabaseEntry key, DatabaseEntry data,
+            long index, E item) {
+        keyBinding.objectToEntry(index, key);
+        valueBinding.objectToEntry(item, data);
+        cursor.put(key, data);
+    }
+
+    /**
+     * Delete all consumed entries from the database in one cursor
+     * pass.
+     */
+    protected void deleteConsumed() {
+        long end = Math.min(headIndex, persistedTail);
+        if (persistedHead >= end) {
+            return;
+        }
+        Cursor cursor = queueDb.openCursor(null, null);
+        try {
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry data = new DatabaseEntry();
+            data.setPartial(0, 0, true);
+            keyBinding.objectToEntry(persistedHead, key);
+            OperationStatus status = cursor.getSearchKeyRange(key, data, LockMode.DEFAULT);
+            while (status == OperationStatus.SUCCESS 
+                    && keyBinding.entryToObject(key) < end) {
+                cursor.delete();
+                status = cursor.getNext(key, data, LockMode.DEFAULT);
+            }
+            persistedHead = end;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Bring the database into exact agreement with the queue contents,
+     * writing buffered items and deleting consumed entries. Must 
+     * precede any sync() of the database meant to be recoverable, 
+     * such as for a checkpoint.
+     */
+    public synchronized void flush() {
+        writeBuffered();
+        deleteConsumed();
+    }
+
+    /**
+     * Flush, then sync the (deferred-write) database.
+     */
+    public synchronized void sync() {
+        flush();
+        queueDb.sync();
+    }
+
     /**
      * A suitable DatabaseConfig for the Database backing a StoredQueue. 
      * (However, it is not necessary to use these config options.)
@@ -152,12 +346,13 @@ public class StoredQueue<E extends Serializable> extends AbstractQueue<E>  {
         return dbConfig;
     }
     
-    public void close() {
+    public synchronized void close() {
         try {
+            flush();
             queueDb.sync();
             queueDb.close();
         } catch (DatabaseException e) {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,41 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.checkpointing;
+
+/**
+ * Optional companion interface for Checkpointable beans whose 
+ * doCheckpoint() must not begin until the doCheckpoint() of some 
+ * other beans has completed. The doCheckpoint() phase of beans 
+ * without such a declared ordering may run concurrently. 
+ * 
+ * (For example, BdbModule must sync and copy the environment only
+ * after every bean that writes into BDB has flushed its state.)
+ */
+public interface CheckpointDependent {
+
+    /**
+     * Whether this bean's doCheckpoint() must run only after the 
+     * given other bean's doCheckpoint() has completed. 
+     * 
+     * @param other another Checkpointable in the same checkpoint
+     * @return true if other must finish doCheckpoint() first
+     */
+    boolean checkpointsAfter(Checkpointable other);
+}
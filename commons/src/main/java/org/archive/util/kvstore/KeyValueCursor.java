@@ -0,0 +1,50 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Forward-only cursor over the entries of a {@link KeyValueStore}, in 
+ * key order. A new cursor is positioned before its first entry; call 
+ * next() before reading the key and value. Cursors must be closed 
+ * when no longer needed, and are not safe for use by multiple threads.
+ */
+public interface KeyValueCursor extends Closeable {
+
+    /**
+     * Advance to the next entry.
+     * 
+     * @return true if positioned on an entry, false if exhausted
+     * @throws IOException
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return key of the current entry
+     */
+    byte[] getKey();
+
+    /**
+     * @return value of the current entry
+     */
+    byte[] getValue();
+}
@@ -0,0 +1,80 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An embedded, ordered key/value store of byte[] keys and values, as 
+ * needed by the crawler's persistent structures (frontier queues, 
+ * uniq filters, caches). Keys are ordered by unsigned lexicographic 
+ * byte comparison (see {@link KeyValueStores#KEY_COMPARATOR}). 
+ * 
+ * Implementations must be safe for concurrent use by multiple 
+ * threads, though individual cursors need not be.
+ */
+public interface KeyValueStore extends Closeable {
+
+    /**
+     * @param key
+     * @return value stored for key, or null if none
+     * @throws IOException
+     */
+    byte[] get(byte[] key) throws IOException;
+
+    /**
+     * Store value for key, replacing any previous value.
+     */
+    void put(byte[] key, byte[] value) throws IOException;
+
+    /**
+     * Remove any value stored for key.
+     */
+    void delete(byte[] key) throws IOException;
+
+    /**
+     * Apply all operations in the batch, in order. Implementations 
+     * should make a batch considerably cheaper than the same number of
+     * individual put()/delete() calls.
+     */
+    void write(WriteBatch batch) throws IOException;
+
+    /**
+     * Open a cursor over entries with keys greater than or equal to 
+     * fromKey, in key order. 
+     * 
+     * @param fromKey first key of interest, or null for all entries
+     * @return KeyValueCursor positioned before the first such entry
+     * @throws IOException
+     */
+    KeyValueCursor openCursor(byte[] fromKey) throws IOException;
+
+    /**
+     * Open a cursor over only the entries whose keys begin with the 
+     * given prefix, in key order. 
+     */
+    KeyValueCursor openPrefixCursor(byte[] prefix) throws IOException;
+
+    /**
+     * Make all preceding writes durable. 
+     */
+    void sync() throws IOException;
+}
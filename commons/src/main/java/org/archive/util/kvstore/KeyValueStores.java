@@ -0,0 +1,93 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * Utility methods shared by {@link KeyValueStore} implementations.
+ */
+public class KeyValueStores {
+
+    /**
+     * Unsigned lexicographic byte[] order, matching BDB-JE's default 
+     * btree key order.
+     */
+    public static final Comparator<byte[]> KEY_COMPARATOR = new Comparator<byte[]>() {
+        public int compare(byte[] a, byte[] b) {
+            return KeyValueStores.compare(a, b);
+        }
+    };
+
+    public static int compare(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    public static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Open a cursor limited to keys beginning with prefix, on top of 
+     * the given store's unbounded openCursor().
+     */
+    public static KeyValueCursor prefixCursor(KeyValueStore store, 
+            final byte[] prefix) throws IOException {
+        final KeyValueCursor cursor = store.openCursor(prefix);
+        return new KeyValueCursor() {
+            boolean exhausted = false;
+            public boolean next() throws IOException {
+                if (exhausted) {
+                    return false;
+                }
+                if (cursor.next() && startsWith(cursor.getKey(), prefix)) {
+                    return true;
+                }
+                exhausted = true;
+                return false;
+            }
+            public byte[] getKey() {
+                return cursor.getKey();
+            }
+            public byte[] getValue() {
+                return cursor.getValue();
+            }
+            public void close() throws IOException {
+                cursor.close();
+            }
+        };
+    }
+}
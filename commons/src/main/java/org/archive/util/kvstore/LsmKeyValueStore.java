@@ -0,0 +1,684 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Embedded log-structured merge-tree KeyValueStore.
+ *
+ * Writes are appended to a write-ahead log and applied to an in-memory
+ * sorted 'memtable'; once the memtable exceeds memTableBytes it is
+ * written out as a new immutable SortedTable, with purely sequential
+ * I/O, and the log is truncated. Reads consult the memtable and then
+ * the tables from newest to oldest. When more than maxTables tables
+ * exist, the newest tables of similar size are merged (size-tiered
+ * compaction), so each entry is rewritten only a logarithmic number of
+ * times. Deletions are recorded as tombstones, dropped only when a
+ * merge includes the oldest table.
+ *
+ * Compaction runs in a background thread, so writes continue while
+ * tables merge; a write that flushes stalls only if compaction has
+ * fallen so far behind that more than twice maxTables tables exist.
+ *
+ * The set of live tables is recorded in a small manifest file replaced
+ * atomically by rename, so that a crash at any point leaves either the
+ * old or the new set of tables, with the write-ahead log covering
+ * whatever the memtable held. Tables and manifest are synced to disk,
+ * and the rename too where the JVM allows (see syncDirectory()), before
+ * the log is truncated.
+ *
+ * Like BDB-JE deferred-write databases, writes are only guaranteed
+ * durable after sync() (or close()).
+ */
+public class LsmKeyValueStore implements KeyValueStore {
+    final private static Logger LOGGER =
+        Logger.getLogger(LsmKeyValueStore.class.getName());
+
+    protected static final String MANIFEST = "MANIFEST";
+    protected static final String LOG = "wal.log";
+    protected static final String TABLE_PREFIX = "table-";
+    protected static final String TABLE_SUFFIX = ".sst";
+    /** approximate per-entry memtable overhead, for sizing */
+    protected static final int ENTRY_OVERHEAD = 64;
+
+    protected File dir;
+    protected long memTableBytes;
+    protected int maxTables;
+
+    protected volatile ConcurrentSkipListMap<byte[],byte[]> memTable;
+    protected long memTableSize = 0;
+    /** live tables, newest first; replaced (never modified) on change */
+    protected volatile List<SortedTable> tables = Collections.emptyList();
+    protected long nextTableNumber = 1;
+    protected FileOutputStream logFileOut;
+    protected DataOutputStream log;
+    protected boolean closed = false;
+    /** whether the background compaction thread is running */
+    protected boolean compacting = false;
+
+    /**
+     * Open (creating if necessary) a store in the given directory.
+     *
+     * @param dir directory exclusively for this store's files
+     * @param memTableBytes approximate memtable size at which to flush
+     * @param maxTables number of tables above which to compact
+     */
+    public LsmKeyValueStore(File dir, long memTableBytes, int maxTables)
+    throws IOException {
+        this.dir = dir;
+        this.memTableBytes = memTableBytes;
+        this.maxTables = Math.max(2, maxTables);
+        org.archive.util.FileUtils.ensureWriteableDirectory(dir);
+        this.memTable = newMemTable();
+        recover();
+    }
+
+    protected static ConcurrentSkipListMap<byte[],byte[]> newMemTable() {
+        return new ConcurrentSkipListMap<byte[],byte[]>(KeyValueStores.KEY_COMPARATOR);
+    }
+
+    /**
+     * Load tables named in the manifest (deleting any others left by an
+     * interrupted flush or compaction), then replay the write-ahead log.
+     */
+    protected void recover() throws IOException {
+        List<SortedTable> loaded = new ArrayList<SortedTable>();
+        File manifest = new File(dir, MANIFEST);
+        List<String> names = manifest.exists()
+            ? readLines(manifest) : new ArrayList<String>();
+        for (String name : names) {
+            loaded.add(new SortedTable(new File(dir, name)));
+            nextTableNumber = Math.max(nextTableNumber, tableNumber(name) + 1);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(TABLE_PREFIX) && !names.contains(f.getName())) {
+                    LOGGER.info("deleting unreferenced table " + f);
+                    f.delete();
+                }
+            }
+        }
+        tables = Collections.unmodifiableList(loaded);
+
+        File logFile = new File(dir, LOG);
+        if (logFile.exists()) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(logFile)));
+            int replayed = 0;
+            try {
+                while (true) {
+                    byte op;
+                    try {
+                        op = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] key = new byte[in.readInt()];
+                    in.readFully(key);
+                    byte[] value = SortedTable.TOMBSTONE;
+                    if (op == SortedTable.FLAG_VALUE) {
+                        value = new byte[in.readInt()];
+                        in.readFully(value);
+                    }
+                    applyToMemTable(key, value);
+                    replayed++;
+                }
+            } catch (EOFException e) {
+                // torn final record from a crash; everything before it applied
+                LOGGER.warning("ignoring incomplete final log record in " + logFile);
+            } finally {
+                in.close();
+            }
+            if (replayed > 0) {
+                LOGGER.info("replayed " + replayed + " log records in " + dir);
+            }
+        }
+        // rewrite the log from the (recovered) memtable contents, which
+        // also discards any torn record
+        if (!memTable.isEmpty()) {
+            flushMemTable();
+        }
+        openLog(false);
+    }
+
+    protected void openLog(boolean append) throws IOException {
+        logFileOut = new FileOutputStream(new File(dir, LOG), append);
+        log = new DataOutputStream(new BufferedOutputStream(logFileOut, 64 * 1024));
+    }
+
+    protected static long tableNumber(String name) {
+        return Long.parseLong(name.substring(TABLE_PREFIX.length(),
+                name.length() - TABLE_SUFFIX.length()));
+    }
+
+    protected static List<String> readLines(File f) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (Object line : FileUtils.readLines(f)) {
+            if (((String) line).trim().length() > 0) {
+                lines.add(((String) line).trim());
+            }
+        }
+        return lines;
+    }
+
+    protected void writeManifest(List<SortedTable> newTables) throws IOException {
+        List<String> names = new ArrayList<String>();
+        for (SortedTable t : newTables) {
+            names.add(t.getFile().getName());
+        }
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            IOUtils.writeLines(names, null, out);
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        File manifest = new File(dir, MANIFEST);
+        if (!tmp.renameTo(manifest)) {
+            // non-POSIX filesystems won't rename over an existing file
+            manifest.delete();
+            if (!tmp.renameTo(manifest)) {
+                throw new IOException("unable to replace " + manifest);
+            }
+        }
+        syncDirectory(dir);
+    }
+
+    /**
+     * Sync dir itself, making renames and new files in it durable, where
+     * the JVM allows: Java 7 and later can open a directory as a
+     * FileChannel (on POSIX systems). Reflection keeps this loadable on
+     * Java 6, where it does nothing.
+     */
+    protected static void syncDirectory(File dir) {
+        try {
+            Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+            Object options = Array.newInstance(optionClass, 1);
+            Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption")
+                    .getField("READ").get(null));
+            Object path = File.class.getMethod("toPath").invoke(dir);
+            FileChannel channel = (FileChannel) FileChannel.class.getMethod("open",
+                    Class.forName("java.nio.file.Path"), options.getClass())
+                    .invoke(null, path, options);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (Exception e) {
+            // older JVM, or a platform that can't open directories
+            LOGGER.log(Level.FINEST, "unable to sync " + dir, e);
+        }
+    }
+
+    protected void applyToMemTable(byte[] key, byte[] value) {
+        byte[] previous = memTable.put(key, value);
+        memTableSize += key.length + value.length + ENTRY_OVERHEAD;
+        if (previous != null) {
+            memTableSize -= key.length + previous.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    protected void logOperation(byte[] key, byte[] value) throws IOException {
+        boolean tombstone = value == SortedTable.TOMBSTONE;
+        log.writeByte(tombstone ? SortedTable.FLAG_TOMBSTONE : SortedTable.FLAG_VALUE);
+        log.writeInt(key.length);
+        log.write(key);
+        if (!tombstone) {
+            log.writeInt(value.length);
+            log.write(value);
+        }
+    }
+
+    protected void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("store closed: " + dir);
+        }
+    }
+
+    public byte[] get(byte[] key) throws IOException {
+        // memtable before tables: a flush publishes the new table
+        // before replacing the memtable
+        byte[] value = memTable.get(key);
+        if (value != null) {
+            return value == SortedTable.TOMBSTONE ? null : value;
+        }
+        List<SortedTable> snapshot = acquireTables();
+        try {
+            for (SortedTable table : snapshot) {
+                value = table.get(key);
+                if (value != null) {
+                    return value == SortedTable.TOMBSTONE ? null : value;
+                }
+            }
+            return null;
+        } finally {
+            releaseTables(snapshot);
+        }
+    }
+
+    public synchronized void put(byte[] key, byte[] value) throws IOException {
+        ensureOpen();
+        if (value == null) {
+            throw new IllegalArgumentException("null value");
+        }
+        logOperation(key, value);
+        applyToMemTable(key, value);
+        maybeFlush();
+    }
+
+    public synchronized void delete(byte[] key) throws IOException {
+        ensureOpen();
+        logOperation(key, SortedTable.TOMBSTONE);
+        applyToMemTable(key, SortedTable.TOMBSTONE);
+        maybeFlush();
+    }
+
+    public synchronized void write(WriteBatch batch) throws IOException {
+        ensureOpen();
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] value = batch.getValue(i);
+            if (value == null) {
+                value = SortedTable.TOMBSTONE;
+            }
+            logOperation(batch.getKey(i), value);
+            applyToMemTable(batch.getKey(i), value);
+        }
+        maybeFlush();
+    }
+
+    protected void maybeFlush() throws IOException {
+        if (memTableSize >= memTableBytes) {
+            // table and manifest are synced by now, so the log can go
+            flushMemTable();
+            log.close();
+            openLog(false);
+            if (!compacting && tables.size() > maxTables) {
+                startCompaction();
+            }
+            while (compacting && tables.size() > 2 * maxTables) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a thread compacting until no more than maxTables remain.
+     * Caller must hold this store's lock.
+     */
+    protected void startCompaction() {
+        compacting = true;
+        Thread compactor = new Thread("LsmKeyValueStore compaction " + dir) {
+            public void run() {
+                try {
+                    while (compact()) {
+                    }
+                } catch (Throwable e) {
+                    // retried after the next flush
+                    LOGGER.log(Level.SEVERE, "compaction failed in " + dir, e);
+                } finally {
+                    synchronized (LsmKeyValueStore.this) {
+                        compacting = false;
+                        LsmKeyValueStore.this.notifyAll();
+                    }
+                }
+            }
+        };
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Wait for any compaction in progress to finish.
+     */
+    protected synchronized void awaitCompaction() throws InterruptedException {
+        while (compacting) {
+            wait();
+        }
+    }
+
+    /**
+     * Write the memtable as the newest table, then start a fresh
+     * memtable. Caller is responsible for resetting the log.
+     */
+    protected void flushMemTable() throws IOException {
+        File f = new File(dir, tableName(nextTableNumber++));
+        SortedTable.write(f, memTable.entrySet().iterator(), tables.isEmpty());
+        List<SortedTable> newTables = new ArrayList<SortedTable>();
+        newTables.add(new SortedTable(f));
+        newTables.addAll(tables);
+        writeManifest(newTables);
+        tables = Collections.unmodifiableList(newTables);
+        memTable = newMemTable();
+        memTableSize = 0;
+    }
+
+    protected static String tableName(long number) {
+        return TABLE_PREFIX + String.format("%012d", number) + TABLE_SUFFIX;
+    }
+
+    /**
+     * If over maxTables, merge a run of the newest tables: at least
+     * enough to get back to maxTables, plus any further older tables no
+     * larger than twice the run so far. Only the compaction thread calls
+     * this, and holds the store's lock only to publish the result; tables
+     * flushed meanwhile stay ahead of the merged one.
+     *
+     * @return true if tables were merged
+     */
+    protected boolean compact() throws IOException {
+        List<SortedTable> current;
+        File f;
+        synchronized (this) {
+            current = tables;
+            if (current.size() <= maxTables) {
+                return false;
+            }
+            f = new File(dir, tableName(nextTableNumber++));
+        }
+        int n = current.size();
+        int count = n - maxTables + 1;
+        long runLength = 0;
+        for (int i = 0; i < count; i++) {
+            runLength += current.get(i).getFileLength();
+        }
+        while (count < n && current.get(count).getFileLength() <= 2 * runLength) {
+            runLength += current.get(count).getFileLength();
+            count++;
+        }
+        List<SortedTable> toMerge = current.subList(0, count);
+        boolean includesOldest = count == n;
+        for (SortedTable t : toMerge) {
+            t.acquire();
+        }
+        long start = System.currentTimeMillis();
+        long written;
+        try {
+            written = SortedTable.write(f,
+                    new MergingIterator(toMerge, null, null), includesOldest);
+        } finally {
+            for (SortedTable t : toMerge) {
+                t.release();
+            }
+        }
+        synchronized (this) {
+            // flushes only add tables ahead of those merged
+            List<SortedTable> latest = tables;
+            int first = latest.indexOf(toMerge.get(0));
+            List<SortedTable> newTables = new ArrayList<SortedTable>();
+            newTables.addAll(latest.subList(0, first));
+            newTables.add(new SortedTable(f));
+            newTables.addAll(latest.subList(first + count, latest.size()));
+            writeManifest(newTables);
+            tables = Collections.unmodifiableList(newTables);
+            // wake any writer stalled on the table count
+            notifyAll();
+        }
+        for (SortedTable t : toMerge) {
+            t.obsolete();
+        }
+        LOGGER.fine("merged " + count + " tables into " + f.getName() + " ("
+                + written + " entries) in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    /**
+     * Take a reference to each current table, retrying if a concurrent
+     * compaction retires one in the meantime.
+     */
+    protected List<SortedTable> acquireTables() {
+        while (true) {
+            List<SortedTable> snapshot = tables;
+            int acquired = 0;
+            for (SortedTable t : snapshot) {
+                if (!t.acquire()) {
+                    break;
+                }
+                acquired++;
+            }
+            if (acquired == snapshot.size()) {
+                return snapshot;
+            }
+            for (int i = 0; i < acquired; i++) {
+                snapshot.get(i).release();
+            }
+        }
+    }
+
+    protected void releaseTables(List<SortedTable> snapshot) {
+        for (SortedTable t : snapshot) {
+            t.release();
+        }
+    }
+
+    public KeyValueCursor openCursor(byte[] fromKey) throws IOException {
+        ensureOpen();
+        final ConcurrentSkipListMap<byte[],byte[]> mem = memTable;
+        final List<SortedTable> snapshot = acquireTables();
+        final MergingIterator merged;
+        try {
+            merged = new MergingIterator(snapshot, mem, fromKey);
+        } catch (IOException e) {
+            releaseTables(snapshot);
+            throw e;
+        }
+        return new KeyValueCursor() {
+            Map.Entry<byte[],byte[]> current;
+            boolean released = false;
+            public boolean next() throws IOException {
+                while (merged.hasNext()) {
+                    current = merged.next();
+                    if (current.getValue() != SortedTable.TOMBSTONE) {
+                        return true;
+                    }
+                }
+                current = null;
+                close();
+                return false;
+            }
+            public byte[] getKey() {
+                return current.getKey();
+            }
+            public byte[] getValue() {
+                return current.getValue();
+            }
+            public void close() {
+                if (!released) {
+                    released = true;
+                    releaseTables(snapshot);
+                }
+            }
+        };
+    }
+
+    public KeyValueCursor openPrefixCursor(byte[] prefix) throws IOException {
+        return KeyValueStores.prefixCursor(this, prefix);
+    }
+
+    public synchronized void sync() throws IOException {
+        ensureOpen();
+        log.flush();
+        logFileOut.getFD().sync();
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            awaitCompaction();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted awaiting compaction of " + dir);
+        }
+        if (!memTable.isEmpty()) {
+            flushMemTable();
+        }
+        log.close();
+        new File(dir, LOG).delete();
+        closed = true;
+        for (SortedTable t : tables) {
+            t.release();
+        }
+    }
+
+    /**
+     * @return number of on-disk tables, for diagnostics
+     */
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    /**
+     * Iterator merging a memtable (optional) and tables, ordered newest
+     * first, into a single key-ordered sequence in which the newest
+     * entry for each key, possibly a TOMBSTONE, hides older ones.
+     * IOExceptions during iteration are rethrown unchecked.
+     */
+    protected static class MergingIterator implements Iterator<Map.Entry<byte[],byte[]>> {
+        protected static class Source {
+            int age; // 0 for newest
+            Iterator<Map.Entry<byte[],byte[]>> memIterator;
+            SortedTable.TableIterator tableIterator;
+            byte[] key;
+            byte[] value;
+
+            boolean advance() throws IOException {
+                if (memIterator != null) {
+                    if (memIterator.hasNext()) {
+                        Map.Entry<byte[],byte[]> e = memIterator.next();
+                        key = e.getKey();
+                        value = e.getValue();
+                        return true;
+                    }
+                    return false;
+                }
+                if (tableIterator.advance()) {
+                    key = tableIterator.key();
+                    value = tableIterator.value();
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        protected PriorityQueue<Source> heap = new PriorityQueue<Source>(8,
+                new Comparator<Source>() {
+                    public int compare(Source a, Source b) {
+                        int cmp = KeyValueStores.compare(a.key, b.key);
+                        return cmp != 0 ? cmp : a.age - b.age;
+                    }
+                });
+
+        public MergingIterator(List<SortedTable> tables,
+                ConcurrentSkipListMap<byte[],byte[]> mem, byte[] fromKey)
+        throws IOException {
+            int age = 0;
+            if (mem != null) {
+                Source s = new Source();
+                s.age = age++;
+                s.memIterator = (fromKey == null ? mem : mem.tailMap(fromKey, true))
+                    .entrySet().iterator();
+                if (s.advance()) {
+                    heap.add(s);
+                }
+            }
+            for (SortedTable t : tables) {
+                Source s = new Source();
+                s.age = age++;
+                s.tableIterator = t.iterator(fromKey);
+                // iterator is positioned on its first entry already
+                if (s.tableIterator.key() != null) {
+                    s.key = s.tableIterator.key();
+                    s.value = s.tableIterator.value();
+                    heap.add(s);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        public Map.Entry<byte[],byte[]> next() {
+            Source newest = heap.poll();
+            if (newest == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<byte[],byte[]> result =
+                new AbstractMap.SimpleImmutableEntry<byte[],byte[]>(newest.key, newest.value);
+            try {
+                // skip older versions of the same key
+                while (!heap.isEmpty()
+                        && KeyValueStores.compare(heap.peek().key, result.getKey()) == 0) {
+                    Source older = heap.poll();
+                    if (older.advance()) {
+                        heap.add(older);
+                    }
+                }
+                if (newest.advance()) {
+                    heap.add(newest);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.spring.ConfigPath;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * KeyValueStoreProvider opening LsmKeyValueStores, each in its own 
+ * subdirectory of 'dir'. An alternative to BdbModule for write-heavy
+ * structures; note that its stores are not (yet) covered by crawl 
+ * checkpoints.
+ */
+public class LsmStoreProvider implements KeyValueStoreProvider, Closeable, DisposableBean {
+    final private static Logger LOGGER = 
+        Logger.getLogger(LsmStoreProvider.class.getName());
+
+    protected ConfigPath dir = new ConfigPath("lsm store subdirectory","lsm");
+    public ConfigPath getDir() {
+        return dir;
+    }
+    public void setDir(ConfigPath dir) {
+        this.dir = dir;
+    }
+
+    protected long memTableBytes = 32 * 1024 * 1024;
+    public long getMemTableBytes() {
+        return memTableBytes;
+    }
+    /**
+     * Approximate in-memory size each store accumulates before writing 
+     * a new on-disk table. Default is 32MiB.
+     */
+    public void setMemTableBytes(long memTableBytes) {
+        this.memTableBytes = memTableBytes;
+    }
+
+    protected int maxTables = 8;
+    public int getMaxTables() {
+        return maxTables;
+    }
+    /**
+     * Number of on-disk tables per store above which tables are 
+     * merged. Fewer means faster reads but more rewriting. Default 8.
+     */
+    public void setMaxTables(int maxTables) {
+        this.maxTables = maxTables;
+    }
+
+    protected Map<String,LsmKeyValueStore> stores = 
+        new ConcurrentHashMap<String,LsmKeyValueStore>();
+
+    public synchronized KeyValueStore openKeyValueStore(String name, 
+            boolean usePriorData) throws IOException {
+        if (stores.containsKey(name)) {
+            throw new IllegalStateException("store already open: " + name);
+        }
+        File storeDir = new File(getDir().getFile(), name);
+        if (!usePriorData && storeDir.exists()) {
+            FileUtils.deleteDirectory(storeDir);
+        }
+        LsmKeyValueStore store = 
+            new LsmKeyValueStore(storeDir, getMemTableBytes(), getMaxTables());
+        stores.put(name, store);
+        return store;
+    }
+
+    public void close() {
+        for (Map.Entry<String,LsmKeyValueStore> entry : stores.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error closing store " + entry.getKey(), e);
+            }
+        }
+        stores.clear();
+    }
+
+    public void destroy() throws Exception {
+        close();
+    }
+}
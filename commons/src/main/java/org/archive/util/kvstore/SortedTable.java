@@ -0,0 +1,354 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Immutable, sorted on-disk run of entries written by
+ * LsmKeyValueStore when it flushes its memtable or compacts.
+ *
+ * File layout: the entries in key order, each as
+ * [flag byte][int keyLength][key][int valueLength][value] (flag 0
+ * marking a deletion 'tombstone' with no value bytes), then a sparse
+ * index of every INDEX_INTERVAL'th key as [int keyLength][key]
+ * [long offset], then a fixed-length footer of [long indexOffset]
+ * [int indexCount][long entryCount][int MAGIC].
+ *
+ * The sparse index is held in memory; lookups read only the one
+ * block of at most INDEX_INTERVAL entries that could hold a key,
+ * using positional reads so that any number of threads may read
+ * concurrently. Reference-counted, so that a table replaced by
+ * compaction is only closed and deleted once no reader uses it.
+ */
+public class SortedTable {
+    final private static Logger LOGGER =
+        Logger.getLogger(SortedTable.class.getName());
+
+    public static final int MAGIC = 0x4c534d31; // "LSM1"
+    public static final int INDEX_INTERVAL = 64;
+    protected static final int FOOTER_LENGTH = 8 + 4 + 8 + 4;
+    protected static final byte FLAG_TOMBSTONE = 0;
+    protected static final byte FLAG_VALUE = 1;
+
+    /**
+     * Marker value, compared by identity, for deleted keys in
+     * memtables and in results of {@link #get(byte[])}.
+     */
+    public static final byte[] TOMBSTONE = new byte[0];
+
+    protected File file;
+    protected RandomAccessFile raf;
+    protected FileChannel channel;
+    protected byte[][] indexKeys;
+    protected long[] indexOffsets;
+    protected long dataLength;
+    protected long entryCount;
+
+    /** references held by the owning store and by open readers */
+    protected AtomicInteger refs = new AtomicInteger(1);
+    protected volatile boolean deleteWhenReleased = false;
+
+    /**
+     * Write the given entries, which must be in key order (and may
+     * include TOMBSTONE values), to a new table file.
+     *
+     * @param dropTombstones if true, TOMBSTONE entries are omitted
+     * @return number of entries written
+     */
+    public static long write(File file, Iterator<Map.Entry<byte[],byte[]>> entries,
+            boolean dropTombstones) throws IOException {
+        FileOutputStream fileOut = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(fileOut, 64 * 1024));
+        List<byte[]> indexKeys = new ArrayList<byte[]>();
+        List<Long> indexOffsets = new ArrayList<Long>();
+        long offset = 0;
+        long count = 0;
+        try {
+            while (entries.hasNext()) {
+                Map.Entry<byte[],byte[]> entry = entries.next();
+                boolean tombstone = entry.getValue() == TOMBSTONE;
+                if (tombstone && dropTombstones) {
+                    continue;
+                }
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(entry.getKey());
+                    indexOffsets.add(offset);
+                }
+                out.writeByte(tombstone ? FLAG_TOMBSTONE : FLAG_VALUE);
+                out.writeInt(entry.getKey().length);
+                out.write(entry.getKey());
+                offset += 1 + 4 + entry.getKey().length;
+                if (!tombstone) {
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                    offset += 4 + entry.getValue().length;
+                }
+                count++;
+            }
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeInt(indexKeys.get(i).length);
+                out.write(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            out.writeLong(offset);
+            out.writeInt(indexKeys.size());
+            out.writeLong(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    public SortedTable(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        long length = channel.size();
+        if (length < FOOTER_LENGTH) {
+            raf.close();
+            throw new IOException("truncated table " + file);
+        }
+        ByteBuffer footer = read(length - FOOTER_LENGTH, FOOTER_LENGTH);
+        long indexOffset = footer.getLong();
+        int indexCount = footer.getInt();
+        entryCount = footer.getLong();
+        if (footer.getInt() != MAGIC) {
+            raf.close();
+            throw new IOException("bad table magic " + file);
+        }
+        dataLength = indexOffset;
+        ByteBuffer index = read(indexOffset, (int) (length - FOOTER_LENGTH - indexOffset));
+        indexKeys = new byte[indexCount][];
+        indexOffsets = new long[indexCount];
+        for (int i = 0; i < indexCount; i++) {
+            indexKeys[i] = new byte[index.getInt()];
+            index.get(indexKeys[i]);
+            indexOffsets[i] = index.getLong();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public long getFileLength() {
+        return dataLength;
+    }
+
+    protected ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new IOException("unexpected end of " + file);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return index of the block that could hold key, or -1 if key
+     * precedes all entries
+     */
+    protected int blockFor(byte[] key) {
+        int lo = 0;
+        int hi = indexKeys.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (KeyValueStores.compare(indexKeys[mid], key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    protected ByteBuffer readBlock(int block) throws IOException {
+        long start = indexOffsets[block];
+        long end = (block + 1 < indexOffsets.length)
+            ? indexOffsets[block + 1] : dataLength;
+        return read(start, (int) (end - start));
+    }
+
+    /**
+     * @return value for key, TOMBSTONE if deleted in this table, or
+     * null if this table has no entry for key
+     */
+    public byte[] get(byte[] key) throws IOException {
+        int block = blockFor(key);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer buf = readBlock(block);
+        while (buf.hasRemaining()) {
+            byte flag = buf.get();
+            byte[] entryKey = new byte[buf.getInt()];
+            buf.get(entryKey);
+            int cmp = KeyValueStores.compare(entryKey, key);
+            if (cmp == 0) {
+                if (flag == FLAG_TOMBSTONE) {
+                    return TOMBSTONE;
+                }
+                byte[] value = new byte[buf.getInt()];
+                buf.get(value);
+                return value;
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            if (flag != FLAG_TOMBSTONE) {
+                int valueLength = buf.getInt();
+                buf.position(buf.position() + valueLength);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Iterate over entries with keys >= fromKey (all entries if
+     * fromKey is null), including TOMBSTONE entries.
+     */
+    public TableIterator iterator(byte[] fromKey) throws IOException {
+        return new TableIterator(fromKey);
+    }
+
+    public class TableIterator {
+        protected int block;
+        protected ByteBuffer buf;
+        protected byte[] key;
+        protected byte[] value;
+
+        protected TableIterator(byte[] fromKey) throws IOException {
+            block = (fromKey == null) ? 0 : Math.max(0, blockFor(fromKey));
+            buf = (indexOffsets.length > 0) ? readBlock(block) : null;
+            while (advance()) {
+                if (fromKey == null || KeyValueStores.compare(key, fromKey) >= 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Move to the next entry.
+         * @return false if no more entries
+         */
+        public boolean advance() throws IOException {
+            if (buf == null) {
+                key = null;
+                return false;
+            }
+            while (!buf.hasRemaining()) {
+                block++;
+                if (block >= indexOffsets.length) {
+                    buf = null;
+                    key = null;
+                    return false;
+                }
+                buf = readBlock(block);
+            }
+            byte flag = buf.get();
+            key = new byte[buf.getInt()];
+            buf.get(key);
+            if (flag == FLAG_TOMBSTONE) {
+                value = TOMBSTONE;
+            } else {
+                value = new byte[buf.getInt()];
+                buf.get(value);
+            }
+            return true;
+        }
+
+        /** @return current key, or null if exhausted */
+        public byte[] key() {
+            return key;
+        }
+
+        /** @return current value, possibly TOMBSTONE */
+        public byte[] value() {
+            return value;
+        }
+    }
+
+    /**
+     * Take a reference, unless the table has already been released
+     * by all holders.
+     *
+     * @return true if a reference was taken
+     */
+    public boolean acquire() {
+        for (;;) {
+            int current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                LOGGER.warning("problem closing " + file + ": " + e);
+            }
+            if (deleteWhenReleased && !file.delete()) {
+                LOGGER.warning("unable to delete obsolete table " + file);
+            }
+        }
+    }
+
+    /**
+     * Release the owner's reference, deleting the file once no
+     * readers remain.
+     */
+    public void obsolete() {
+        deleteWhenReleased = true;
+        release();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of put/delete operations to be applied together via 
+ * {@link KeyValueStore#write(WriteBatch)}.
+ */
+public class WriteBatch {
+    protected List<byte[]> keys = new ArrayList<byte[]>();
+    /** parallel to keys; null value means delete */
+    protected List<byte[]> values = new ArrayList<byte[]>();
+    
+    public WriteBatch put(byte[] key, byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null value for put");
+        }
+        keys.add(key);
+        values.add(value);
+        return this;
+    }
+    
+    public WriteBatch delete(byte[] key) {
+        keys.add(key);
+        values.add(null);
+        return this;
+    }
+    
+    public int size() {
+        return keys.size();
+    }
+    
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+    
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+    
+    public byte[] getKey(int i) {
+        return keys.get(i);
+    }
+    
+    /**
+     * @return value of the i'th operation, or null if it is a delete
+     */
+    public byte[] getValue(int i) {
+        return values.get(i);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.bdb;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.kvstore.KeyValueCursor;
+import org.archive.util.kvstore.KeyValueStore;
+import org.archive.util.kvstore.WriteBatch;
+
+public class BdbKeyValueStoreTest extends TmpDirTestCase {
+    File bdbDir;
+    BdbModule bdb;
+    KeyValueStore store;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        ConfigPath basePath = new ConfigPath("testBase", getTmpDir().getAbsolutePath());
+        ConfigPath dir = new ConfigPath("bdb", "BdbKeyValueStoreTest");
+        dir.setBase(basePath);
+        bdbDir = dir.getFile();
+        FileUtils.deleteDirectory(bdbDir);
+        bdb = new BdbModule();
+        bdb.setDir(dir);
+        bdb.start();
+        store = bdb.openKeyValueStore("test", false);
+    }
+
+    protected void tearDown() throws Exception {
+        bdb.close();
+        FileUtils.deleteDirectory(bdbDir);
+        super.tearDown();
+    }
+
+    protected static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+
+    protected static String string(byte[] b) throws UnsupportedEncodingException {
+        return b == null ? null : new String(b, "UTF-8");
+    }
+
+    public void testRandomOperationsMatchTreeMap() throws Exception {
+        Random random = new Random(42);
+        TreeMap<String,String> expected = new TreeMap<String,String>();
+        for (int i = 0; i < 5000; i++) {
+            String key = "k" + random.nextInt(1000);
+            int op = random.nextInt(10);
+            if (op < 6) {
+                String value = "v" + random.nextInt(1000000);
+                store.put(bytes(key), bytes(value));
+                expected.put(key, value);
+            } else if (op < 8) {
+                store.delete(bytes(key));
+                expected.remove(key);
+            } else {
+                WriteBatch batch = new WriteBatch();
+                batch.put(bytes(key), bytes("batched"));
+                batch.delete(bytes(key + "0"));
+                store.write(batch);
+                expected.put(key, "batched");
+                expected.remove(key + "0");
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            String key = "k" + i;
+            assertEquals(key, expected.get(key), string(store.get(bytes(key))));
+        }
+        KeyValueCursor cursor = store.openCursor(null);
+        Iterator<Map.Entry<String,String>> iter = expected.entrySet().iterator();
+        while (cursor.next()) {
+            Map.Entry<String,String> entry = iter.next();
+            assertEquals(entry.getKey(), string(cursor.getKey()));
+            assertEquals(entry.getValue(), string(cursor.getValue()));
+        }
+        cursor.close();
+        assertFalse(iter.hasNext());
+    }
+
+    public void testPrefixAndSeek() throws Exception {
+        for (String key : new String[] {"a", "ab", "abc", "abd", "ac", "b"}) {
+            store.put(bytes(key), bytes(key.toUpperCase()));
+        }
+        store.delete(bytes("abd"));
+        KeyValueCursor cursor = store.openPrefixCursor(bytes("ab"));
+        StringBuilder seen = new StringBuilder();
+        while (cursor.next()) {
+            seen.append(string(cursor.getKey())).append(' ');
+        }
+        cursor.close();
+        assertEquals("ab abc ", seen.toString());
+
+        cursor = store.openCursor(bytes("abz"));
+        assertTrue(cursor.next());
+        assertEquals("ac", string(cursor.getKey()));
+        assertEquals("AC", string(cursor.getValue()));
+        cursor.close();
+    }
+
+    public void testReopen() throws Exception {
+        store.put(bytes("kept"), bytes("yes"));
+        store.sync();
+        store.close();
+        store = bdb.openKeyValueStore("test", true);
+        assertEquals("yes", string(store.get(bytes("kept"))));
+        store.close();
+        store = bdb.openKeyValueStore("test", false);
+        assertNull(store.get(bytes("kept")));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.bdb;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.sleepycat.je.EnvironmentConfig;
+
+public class BdbPerformanceProfileTest extends TestCase {
+
+    public void testPresetNames() {
+        BdbPerformanceProfile profile = new BdbPerformanceProfile();
+        assertEquals("default", profile.getPreset());
+        assertTrue(profile.getEffectiveParameters().isEmpty());
+        profile.setPreset("low-latency");
+        assertEquals("low-latency", profile.getPreset());
+        profile.setPreset("THROUGHPUT");
+        assertEquals("throughput", profile.getPreset());
+        try {
+            profile.setPreset("fastest");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testOverrides() {
+        BdbPerformanceProfile profile = new BdbPerformanceProfile("low-disk");
+        assertEquals("75", profile.getEffectiveParameters().get("je.cleaner.minUtilization"));
+        profile.setParameters(Collections.singletonMap("je.cleaner.minUtilization", "60"));
+        assertEquals("60", profile.getEffectiveParameters().get("je.cleaner.minUtilization"));
+    }
+
+    public void testPresetsAreValidJeParameters() {
+        for (BdbPerformanceProfile.Preset preset : BdbPerformanceProfile.Preset.values()) {
+            EnvironmentConfig config = new EnvironmentConfig();
+            // throws IllegalArgumentException on unknown/invalid param
+            new BdbPerformanceProfile(preset.getName()).applyTo(config);
+        }
+    }
+}
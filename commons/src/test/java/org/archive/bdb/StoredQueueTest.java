@@ -20,6 +20,8 @@
 package org.archive.bdb;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -139,6 +141,49 @@ public class StoredQueueTest extends TmpDirTestCase {
         assertTrue("peeks of same item note identical object",peek1==peek2);
     }
 
+    public void testBatchesAcrossReopen() {
+        queue.setBatchSize(7);
+        LinkedList<String> expected = new LinkedList<String>();
+        int next = 0;
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 25; i++) {
+                String item = "item-" + (next++);
+                queue.add(item);
+                expected.add(item);
+            }
+            for (int i = 0; i < 17; i++) {
+                assertEquals("unexpected remove value", expected.remove(), queue.remove());
+            }
+            assertEquals("unexpected size", expected.size(), queue.size());
+            if (round % 5 == 4) {
+                // database alone must hold exact contents after flush
+                queue.flush();
+                queue = new StoredQueue<String>(db, String.class, env.getClassCatalog());
+                queue.setBatchSize(7);
+                assertEquals("unexpected size after reopen", expected.size(), queue.size());
+            }
+        }
+        ArrayList<String> iterated = new ArrayList<String>();
+        for (String item : queue) {
+            iterated.add(item);
+        }
+        assertEquals("unexpected iteration", expected, iterated);
+        assertEquals("improper count of removed items", expected.size(), drain(queue));
+    }
+
+    public void xestActivationThroughput() {
+        // inactive-queue pattern: large backlog, each activation
+        // (poll) eventually followed by a deactivation (offer)
+        fill(queue, 100000);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000000; i++) {
+            queue.offer(queue.poll());
+        }
+        queue.flush();
+        long finish = System.currentTimeMillis();
+        System.out.println("SQ activations - 1000000:" + (finish - start));
+    }
+
     public void xestTimingsAgainstLinkedBlockingQueue() {
         tryTimings(50000);
         tryTimings(500000);
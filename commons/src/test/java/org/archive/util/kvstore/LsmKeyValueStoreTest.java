@@ -0,0 +1,150 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util.kvstore;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.util.TmpDirTestCase;
+
+public class LsmKeyValueStoreTest extends TmpDirTestCase {
+    File storeDir;
+    LsmKeyValueStore store;
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        storeDir = new File(getTmpDir(), "LsmKeyValueStoreTest");
+        FileUtils.deleteDirectory(storeDir);
+        // tiny memtable to exercise flushes and compactions
+        store = new LsmKeyValueStore(storeDir, 20000, 3);
+    }
+    
+    protected void tearDown() throws Exception {
+        store.close();
+        FileUtils.deleteDirectory(storeDir);
+        super.tearDown();
+    }
+    
+    protected static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+    
+    protected static String string(byte[] b) throws UnsupportedEncodingException {
+        return b == null ? null : new String(b, "UTF-8");
+    }
+    
+    public void testRandomOperationsMatchTreeMap() throws Exception {
+        Random random = new Random(42);
+        TreeMap<String,String> expected = new TreeMap<String,String>();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3000; i++) {
+                String key = "k" + random.nextInt(5000);
+                int op = random.nextInt(10);
+                if (op < 6) {
+                    String value = "v" + random.nextInt(1000000);
+                    store.put(bytes(key), bytes(value));
+                    expected.put(key, value);
+                } else if (op < 8) {
+                    store.delete(bytes(key));
+                    expected.remove(key);
+                } else {
+                    WriteBatch batch = new WriteBatch();
+                    batch.put(bytes(key), bytes("batched"));
+                    batch.delete(bytes(key + "0"));
+                    store.write(batch);
+                    expected.put(key, "batched");
+                    expected.remove(key + "0");
+                }
+            }
+            if (round % 3 == 2) {
+                store.close();
+                store = new LsmKeyValueStore(storeDir, 20000, 3);
+            }
+            for (int i = 0; i < 5000; i++) {
+                String key = "k" + i;
+                assertEquals(key, expected.get(key), string(store.get(bytes(key))));
+            }
+            KeyValueCursor cursor = store.openCursor(null);
+            Iterator<Map.Entry<String,String>> iter = expected.entrySet().iterator();
+            while (cursor.next()) {
+                Map.Entry<String,String> entry = iter.next();
+                assertEquals(entry.getKey(), string(cursor.getKey()));
+                assertEquals(entry.getValue(), string(cursor.getValue()));
+            }
+            cursor.close();
+            assertFalse(iter.hasNext());
+        }
+        store.awaitCompaction();
+        assertTrue(store.getTableCount() <= 4);
+    }
+    
+    public void testPrefixAndSeek() throws Exception {
+        for (String key : new String[] {"a", "ab", "abc", "abd", "ac", "b"}) {
+            store.put(bytes(key), bytes(key.toUpperCase()));
+        }
+        store.delete(bytes("abd"));
+        KeyValueCursor cursor = store.openPrefixCursor(bytes("ab"));
+        StringBuilder seen = new StringBuilder();
+        while (cursor.next()) {
+            seen.append(string(cursor.getKey())).append(' ');
+        }
+        cursor.close();
+        assertEquals("ab abc ", seen.toString());
+        
+        cursor = store.openCursor(bytes("abz"));
+        assertTrue(cursor.next());
+        assertEquals("ac", string(cursor.getKey()));
+        assertEquals("AC", string(cursor.getValue()));
+        cursor.close();
+    }
+    
+    public void testManifestReplaced() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            store.put(bytes("k" + i), bytes("v" + i));
+        }
+        store.awaitCompaction();
+        File manifest = new File(storeDir, LsmKeyValueStore.MANIFEST);
+        assertEquals(store.getTableCount(), FileUtils.readLines(manifest).size());
+        assertFalse(new File(storeDir, LsmKeyValueStore.MANIFEST + ".tmp").exists());
+        // every table listed exists, and no others
+        int tableFiles = 0;
+        for (File f : storeDir.listFiles()) {
+            if (f.getName().startsWith(LsmKeyValueStore.TABLE_PREFIX)) {
+                tableFiles++;
+            }
+        }
+        assertEquals(store.getTableCount(), tableFiles);
+        LsmKeyValueStore.syncDirectory(storeDir);
+    }
+
+    public void testLogReplayWithoutClose() throws Exception {
+        store.put(bytes("durable"), bytes("yes"));
+        store.sync();
+        // simulate crash: open a second instance without closing the first
+        LsmKeyValueStore recovered = new LsmKeyValueStore(storeDir, 20000, 3);
+        assertEquals("yes", string(recovered.get(bytes("durable"))));
+        recovered.close();
+    }
+}
@@ -20,6 +20,8 @@ package org.archive.modules.extractor;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -168,6 +170,14 @@ public class ExtractorPDFContent extends ContentExtractor {
         }
         return content;
     }
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.PDF);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     @Override
     protected boolean shouldExtract(CrawlURI uri) {
         long max = getMaxSizeToParse();
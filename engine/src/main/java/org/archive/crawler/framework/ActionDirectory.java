@@ -19,6 +19,8 @@
 
 package org.archive.crawler.framework;
 
+import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
@@ -30,16 +32,21 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
+import org.apache.commons.httpclient.URIException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.lang.StringUtils;
+import org.archive.modules.fetcher.DNSWarmup;
 import org.archive.modules.seeds.SeedModule;
+import org.archive.net.UURIFactory;
 import org.archive.spring.ConfigPath;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.FilesystemLinkMaker;
@@ -144,6 +151,16 @@ public class ActionDirectory implements ApplicationContextAware, Lifecycle, Runn
         this.frontier = frontier;
     }
     
+    /** optional; if present, warms DNS for URIs about to be scheduled */
+    protected DNSWarmup dnsWarmup;
+    public DNSWarmup getDnsWarmup() {
+        return this.dnsWarmup;
+    }
+    @Autowired(required=false)
+    public void setDnsWarmup(DNSWarmup dnsWarmup) {
+        this.dnsWarmup = dnsWarmup;
+    }
+    
     public boolean isRunning() {
         return executor != null && !executor.isShutdown();
     }
@@ -217,6 +234,7 @@ public class ActionDirectory implements ApplicationContextAware, Lifecycle, Runn
             // apply recovery-log
             boolean alsoScope = corename.endsWith(".s.recover");
             try {
+                warmDns(actionFile, "F\\+ ");
                 // consider-included all successes and explicit-includes...
                 getFrontier().importRecoverFormat(actionFile, alsoScope, true, false, "F[si] ");
                 // then retry all adds...
@@ -236,6 +254,7 @@ public class ActionDirectory implements ApplicationContextAware, Lifecycle, Runn
             // schedule to queues
             boolean alsoScope = corename.endsWith(".s.schedule");
             try {
+                warmDns(actionFile, ".*");
                 getFrontier().importRecoverFormat(actionFile, alsoScope, false, false, ".*");
             } catch (IOException ioe) {
                 LOGGER.log(Level.SEVERE,"problem with action file: "+actionFile,ioe);
@@ -244,6 +263,7 @@ public class ActionDirectory implements ApplicationContextAware, Lifecycle, Runn
             // schedule to queues
             boolean alsoScope = corename.endsWith(".s.force");
             try {
+                warmDns(actionFile, ".*");
                 getFrontier().importRecoverFormat(actionFile, alsoScope, false, true, ".*");
             } catch (IOException ioe) {
                 LOGGER.log(Level.SEVERE,"problem with action file: "+actionFile,ioe);
@@ -278,6 +298,45 @@ public class ActionDirectory implements ApplicationContextAware, Lifecycle, Runn
     }
     
     
+    /**
+     * Resolve the hosts of the URIs on a recover-log like file's lines
+     * with acceptTags, as one batch, before they are scheduled. (Out of
+     * scope URIs are warmed too, scope being left to the import.)
+     * 
+     * @param actionFile file about to be imported
+     * @param acceptTags regex matching tags of lines to be scheduled
+     */
+    protected void warmDns(File actionFile, String acceptTags) throws IOException {
+        if (getDnsWarmup() == null) {
+            return;
+        }
+        Matcher m = Pattern.compile(acceptTags).matcher("");
+        BufferedReader br = ArchiveUtils.getBufferedReader(actionFile);
+        try {
+            String read;
+            while ((read = br.readLine()) != null) {
+                if (read.length() < 4) {
+                    continue;
+                }
+                m.reset(read.substring(0, 3));
+                if (!m.matches()) {
+                    continue;
+                }
+                String uri = read.substring(3).trim().split("\\s+")[0];
+                try {
+                    getDnsWarmup().addToBatch(UURIFactory.getInstance(uri));
+                } catch (URIException e) {
+                    // reported by the import
+                }
+            }
+        } catch (EOFException e) {
+            // expected in some uncleanly-closed recovery logs; ignore
+        } finally {
+            br.close();
+            getDnsWarmup().concludeBatch();
+        }
+    }
+    
     /** shared ScriptEngineManager */
     protected static ScriptEngineManager MANAGER = new ScriptEngineManager();
 
@@ -24,12 +24,25 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,11 +50,14 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.CheckpointDependent;
 import org.archive.checkpointing.Checkpointable;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
 import org.archive.spring.ConfigPath;
 import org.archive.spring.ConfigPathConfigurer;
 import org.archive.spring.HasValidator;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
@@ -58,6 +74,14 @@ import org.springframework.validation.Validator;
  * Offers optional automatic checkpointing at a configurable interval 
  * in minutes. 
  * 
+ * The doCheckpoint() phase of independent Checkpointable beans runs 
+ * concurrently on a bounded pool of checkpointThreads; beans declaring 
+ * ordering via CheckpointDependent (such as BdbModule) wait for the 
+ * beans they depend upon. The startCheckpoint()/finishCheckpoint() 
+ * phases remain serial on the requesting thread, as some beans acquire
+ * and release thread-owned locks there. Per-bean timings are saved into
+ * the checkpoint directory as '{@value #TIMINGS_JSON_NAME}'. 
+ * 
  * @contributor stack
  * @contributor gojomo
  * @contributor pjack
@@ -124,6 +148,22 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         }
     }
     
+    protected int checkpointThreads = 4;
+    public int getCheckpointThreads() {
+        return checkpointThreads;
+    }
+    /**
+     * Maximum number of Checkpointable beans whose doCheckpoint() may run
+     * at the same time. 1 means strictly serial checkpointing. Default 
+     * is 4.
+     */
+    public void setCheckpointThreads(int checkpointThreads) {
+        this.checkpointThreads = checkpointThreads;
+    }
+    
+    /** name under which per-bean checkpoint timings are saved */
+    public static final String TIMINGS_JSON_NAME = "checkpointTimings";
+    
     protected Checkpoint recoveryCheckpoint;
     @Autowired(required=false)
     public void setRecoveryCheckpoint(Checkpoint checkpoint) {
@@ -266,23 +306,23 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
                     getNextCheckpointNumber());
 
             // pre (incl. acquire necessary locks)
+            Map<String,Long> startTimings = new LinkedHashMap<String,Long>();
             long startStart = System.currentTimeMillis();
-            for (Checkpointable c : toCheckpoint.values()) {
-                c.startCheckpoint(checkpointInProgress);
+            for (Map.Entry<String,Checkpointable> entry : toCheckpoint.entrySet()) {
+                long startMs = System.currentTimeMillis();
+                entry.getValue().startCheckpoint(checkpointInProgress);
+                startTimings.put(entry.getKey(), System.currentTimeMillis() - startMs);
             }
             LOGGER.info("all startCheckpoint() completed in "
                     + (System.currentTimeMillis() - startStart) + "ms");
 
             // flush/write
+            Map<String,Long> doTimings = new ConcurrentHashMap<String,Long>();
             long doStart = System.currentTimeMillis();
-            for (Checkpointable c : toCheckpoint.values()) {
-                long doMs = System.currentTimeMillis();
-                c.doCheckpoint(checkpointInProgress);
-                long doDuration = System.currentTimeMillis() - doMs;
-                LOGGER.fine("doCheckpoint() " + c + " in " + doDuration + "ms");
-            }
+            doCheckpoints(toCheckpoint, doTimings);
             LOGGER.info("all doCheckpoint() completed in "
                     + (System.currentTimeMillis() - doStart) + "ms");
+            saveTimings(startTimings, doTimings);
             
             if (getForgetAllButLatest() && lastCheckpoint != null) {
                 try {
@@ -327,6 +367,135 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         return nameToReport;
     }
 
+
+    /**
+     * Run doCheckpoint() on all given beans, up to checkpointThreads at a
+     * time, starting each bean only after all beans it declares (via
+     * CheckpointDependent) it must follow have completed. The first 
+     * failure stops further beans from being started, and is rethrown
+     * once those already running have finished. 
+     * 
+     * @param toCheckpoint beans to checkpoint, by bean name
+     * @param doTimings map to receive each bean's doCheckpoint() duration
+     * @throws IOException
+     */
+    protected void doCheckpoints(final Map<String,Checkpointable> toCheckpoint, 
+            final Map<String,Long> doTimings) throws IOException {
+        // names of the beans each bean is still waiting upon
+        Map<String,Set<String>> waitingOn = new LinkedHashMap<String,Set<String>>();
+        for (Map.Entry<String,Checkpointable> entry : toCheckpoint.entrySet()) {
+            Set<String> prerequisites = new HashSet<String>();
+            if (entry.getValue() instanceof CheckpointDependent) {
+                CheckpointDependent dependent = (CheckpointDependent) entry.getValue();
+                for (Map.Entry<String,Checkpointable> other : toCheckpoint.entrySet()) {
+                    if (other.getValue() != entry.getValue()
+                            && dependent.checkpointsAfter(other.getValue())) {
+                        prerequisites.add(other.getKey());
+                    }
+                }
+            }
+            waitingOn.put(entry.getKey(), prerequisites);
+        }
+        
+        final Checkpoint checkpoint = checkpointInProgress;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, getCheckpointThreads()), new ThreadFactory() {
+                    AtomicInteger serial = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "CheckpointService-" 
+                                + checkpoint.getShortName() + "-"
+                                + serial.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        CompletionService<String> completion = 
+            new ExecutorCompletionService<String>(executor);
+        int running = 0;
+        Throwable failure = null;
+        try {
+            while (running > 0 || (failure == null && !waitingOn.isEmpty())) {
+                if (failure == null) {
+                    Iterator<Map.Entry<String,Set<String>>> iter = 
+                        waitingOn.entrySet().iterator();
+                    while (iter.hasNext()) {
+                        Map.Entry<String,Set<String>> entry = iter.next();
+                        if (!entry.getValue().isEmpty()) {
+                            continue;
+                        }
+                        iter.remove();
+                        final String name = entry.getKey();
+                        final Checkpointable c = toCheckpoint.get(name);
+                        completion.submit(new Callable<String>() {
+                            public String call() throws Exception {
+                                long doMs = System.currentTimeMillis();
+                                c.doCheckpoint(checkpoint);
+                                long doDuration = System.currentTimeMillis() - doMs;
+                                doTimings.put(name, doDuration);
+                                LOGGER.fine("doCheckpoint() " + c + " in " + doDuration + "ms");
+                                return name;
+                            }
+                        });
+                        running++;
+                    }
+                    if (running == 0) {
+                        throw new IllegalStateException(
+                                "circular checkpoint dependencies among " 
+                                + waitingOn.keySet());
+                    }
+                }
+                Future<String> done = completion.take();
+                running--;
+                try {
+                    String finished = done.get();
+                    for (Set<String> prerequisites : waitingOn.values()) {
+                        prerequisites.remove(finished);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    } else {
+                        LOGGER.log(Level.SEVERE, "additional doCheckpoint() failure", e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted awaiting doCheckpoint() completion", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+    
+    /**
+     * Save the per-bean startCheckpoint()/doCheckpoint() durations, in 
+     * milliseconds, alongside the other checkpoint state. 
+     */
+    protected void saveTimings(Map<String,Long> startTimings, Map<String,Long> doTimings) {
+        JSONObject json = new JSONObject();
+        try {
+            for (String name : startTimings.keySet()) {
+                JSONObject beanTimings = new JSONObject();
+                beanTimings.put("startMs", startTimings.get(name));
+                beanTimings.put("doMs", doTimings.get(name));
+                json.put(name, beanTimings);
+            }
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+        checkpointInProgress.saveJson(TIMINGS_JSON_NAME, json);
+    }
     
     /**
      * @return True if a checkpoint is in progress.
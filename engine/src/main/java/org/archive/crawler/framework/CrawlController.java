@@ -235,6 +235,39 @@ implements Serializable,
         this.recorderInBufferBytes = recorderInBufferBytes;
     }
 
+    /**
+     * If nonzero, ToeThreads borrow a recorder per URI from a pool shared
+     * by all, rather than each reserving its own. Large recorders have
+     * recorderInBufferBytes for inbound traffic; small ones have
+     * recorderSmallInBufferBytes. Once the pool's buffers reach this many
+     * bytes, no more large recorders are created, and URIs get small ones
+     * instead. This caps only the large recorders: small ones are always
+     * granted, so their buffers may take the pool past this figure, by up
+     * to one small buffer per ToeThread. Lets more threads run in the
+     * same heap, as most responses are small.
+     */
+    protected long recorderPoolMaxBytes = 0;
+    public long getRecorderPoolMaxBytes() {
+        return recorderPoolMaxBytes;
+    }
+    public void setRecorderPoolMaxBytes(long recorderPoolMaxBytes) {
+        this.recorderPoolMaxBytes = recorderPoolMaxBytes;
+    }
+
+    /**
+     * Size in bytes of in-memory buffer to record inbound traffic, of the
+     * small recorders of the recorder pool, granted to URIs whose last
+     * fetch fit, and to others when the pool is full. Inbound traffic
+     * beyond it is spilled to disk.
+     */
+    protected int recorderSmallInBufferBytes = 32 * 1024; // 32KiB
+    public int getRecorderSmallInBufferBytes() {
+        return recorderSmallInBufferBytes;
+    }
+    public void setRecorderSmallInBufferBytes(int recorderSmallInBufferBytes) {
+        this.recorderSmallInBufferBytes = recorderSmallInBufferBytes;
+    }
+
     protected CrawlerLoggerModule loggerModule;
     public CrawlerLoggerModule getLoggerModule() {
         return this.loggerModule;
@@ -253,6 +286,7 @@ implements Serializable,
         Logger.getLogger(CrawlController.class.getName());
 
     private transient ToePool toePool;
+    private transient RecorderPool recorderPool;
 
     // emergency reserve of memory to allow some progress/reporting after OOM
     private transient LinkedList<byte[]> reserveMemory;
@@ -384,6 +418,10 @@ implements Serializable,
             this.toePool.cleanup();
         }
         this.toePool = null;
+        if (this.recorderPool != null) {
+            this.recorderPool.cleanup();
+        }
+        this.recorderPool = null;
 
         LOGGER.fine("Finished crawl.");
 
@@ -536,6 +574,11 @@ implements Serializable,
     }
 
     protected void setupToePool() {
+        if (getRecorderPoolMaxBytes() > 0) {
+            recorderPool = new RecorderPool(getScratchDir().getFile(),
+                    getRecorderOutBufferBytes(), getRecorderSmallInBufferBytes(),
+                    getRecorderInBufferBytes(), getRecorderPoolMaxBytes());
+        }
         toePool = new ToePool(alertThreadGroup,this);
         // TODO: make # of toes self-optimizing
         toePool.setSize(getMaxToeThreads());
@@ -558,6 +601,14 @@ implements Serializable,
         return toePool;
     }
 
+    /**
+     * @return pool of recorders ToeThreads borrow from, or null if each
+     * has its own
+     */
+    public RecorderPool getRecorderPool() {
+        return recorderPool;
+    }
+
     /**
      * Kills a thread. For details see
      * {@link org.archive.crawler.framework.ToePool#killThread(int, boolean)
@@ -49,6 +49,7 @@ import org.apache.commons.collections.ListUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
+import org.archive.bdb.BdbModule;
 import org.archive.crawler.event.CrawlStateEvent;
 import org.archive.crawler.framework.CrawlController.StopCompleteEvent;
 import org.archive.crawler.reporting.AlertThreadGroup;
@@ -920,6 +921,16 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         return cc.getFrontierReportShort();
     }
 
+    public Map<String,Object> bdbReportData() {
+        if(ac==null) {
+            return null;
+        }
+        Map<String, BdbModule> beans = getJobContext().getBeansOfType(BdbModule.class);
+        return (beans.size() == 1) 
+            ? beans.values().iterator().next().environmentStatsReportData() 
+            : null;
+    }
+
     public void terminate() {
         if (getCrawlController() != null) {
             getCrawlController().requestCrawlStop();
@@ -0,0 +1,216 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.archive.util.Recorder;
+
+/**
+ * Recorders shared by all ToeThreads, each borrowing one per URI rather
+ * than owning one for the whole crawl. Recorders come in two sizes of
+ * in-memory buffer: large, as each ToeThread would otherwise own, and
+ * small, enough for most responses. Either spills to its backing files
+ * whatever its buffer cannot hold.
+ *
+ * Recorders are created as needed, and kept for reuse once returned.
+ * Once the buffers of all together reach maxBytes, no more large
+ * recorders are created, and URIs that would get one get a small one
+ * instead. Small recorders are always granted, so a thread never waits
+ * for one; they are not held to maxBytes, and their total is bounded
+ * only by the count of threads.
+ *
+ * @see CrawlController#setRecorderPoolMaxBytes(long)
+ */
+public class RecorderPool {
+
+    protected File scratchDir;
+    protected int outBufferBytes;
+    protected int smallInBufferBytes;
+    protected int largeInBufferBytes;
+    protected long maxBytes;
+
+    protected LinkedList<Recorder> idleSmall = new LinkedList<Recorder>();
+    protected LinkedList<Recorder> idleLarge = new LinkedList<Recorder>();
+    protected Set<Recorder> large =
+        Collections.newSetFromMap(new IdentityHashMap<Recorder,Boolean>());
+
+    protected int nextSerialNumber = 1;
+    protected long allocatedBytes = 0;
+    protected int smallInUse = 0;
+    protected int largeInUse = 0;
+    protected long smallBorrows = 0;
+    protected long largeBorrows = 0;
+    /** large recorders wanted but not granted, for lack of room */
+    protected long downgrades = 0;
+
+    /**
+     * @param scratchDir directory for recorders' backing files
+     * @param outBufferBytes in-memory buffer of every recorder for
+     * outbound traffic
+     * @param smallInBufferBytes in-memory buffer of small recorders for
+     * inbound traffic
+     * @param largeInBufferBytes in-memory buffer of large recorders for
+     * inbound traffic
+     * @param maxBytes most bytes of buffers to allocate before granting
+     * only small recorders
+     */
+    public RecorderPool(File scratchDir, int outBufferBytes,
+            int smallInBufferBytes, int largeInBufferBytes, long maxBytes) {
+        this.scratchDir = scratchDir;
+        this.outBufferBytes = outBufferBytes;
+        this.smallInBufferBytes = Math.min(smallInBufferBytes, largeInBufferBytes);
+        this.largeInBufferBytes = largeInBufferBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Borrow a recorder, to be returned with {@link #giveBack(Recorder)}.
+     *
+     * @param expectedBytes length the response is expected to have (as
+     * from fetch history), or -1 if unknown
+     * @return recorder, large if the response is expected not to fit a
+     * small one and there is room
+     */
+    public synchronized Recorder borrow(long expectedBytes) {
+        boolean wantLarge = expectedBytes < 0 || expectedBytes > smallInBufferBytes;
+        if (wantLarge) {
+            if (!idleLarge.isEmpty()) {
+                return lendLarge(idleLarge.removeFirst());
+            }
+            if (allocatedBytes + largeBytes() <= maxBytes) {
+                Recorder recorder = create(largeInBufferBytes);
+                large.add(recorder);
+                return lendLarge(recorder);
+            }
+            downgrades++;
+        }
+        if (!idleSmall.isEmpty()) {
+            return lendSmall(idleSmall.removeFirst());
+        }
+        if (!idleLarge.isEmpty() && allocatedBytes + smallBytes() > maxBytes) {
+            // no room for another; an idle large one will serve
+            return lendLarge(idleLarge.removeFirst());
+        }
+        return lendSmall(create(smallInBufferBytes));
+    }
+
+    protected Recorder lendSmall(Recorder recorder) {
+        smallInUse++;
+        smallBorrows++;
+        return recorder;
+    }
+
+    protected Recorder lendLarge(Recorder recorder) {
+        largeInUse++;
+        largeBorrows++;
+        return recorder;
+    }
+
+    protected long smallBytes() {
+        return (long) outBufferBytes + smallInBufferBytes;
+    }
+
+    protected long largeBytes() {
+        return (long) outBufferBytes + largeInBufferBytes;
+    }
+
+    protected Recorder create(int inBufferBytes) {
+        allocatedBytes += outBufferBytes + inBufferBytes;
+        return newRecorder("rp" + (nextSerialNumber++) + "http", inBufferBytes);
+    }
+
+    protected Recorder newRecorder(String backingFilenameBase, int inBufferBytes) {
+        return new Recorder(scratchDir, backingFilenameBase, outBufferBytes,
+                inBufferBytes);
+    }
+
+    /**
+     * Return a borrowed recorder, done with, for reuse.
+     */
+    public synchronized void giveBack(Recorder recorder) {
+        if (large.contains(recorder)) {
+            largeInUse--;
+            idleLarge.addFirst(recorder);
+        } else {
+            smallInUse--;
+            idleSmall.addFirst(recorder);
+        }
+    }
+
+    /**
+     * Close and forget a borrowed recorder that may not be fit for reuse,
+     * as one abandoned by a failed thread.
+     */
+    public synchronized void discard(Recorder recorder) {
+        if (large.remove(recorder)) {
+            largeInUse--;
+            allocatedBytes -= largeBytes();
+        } else {
+            smallInUse--;
+            allocatedBytes -= smallBytes();
+        }
+        recorder.closeRecorders();
+    }
+
+    /**
+     * Close all idle recorders, as when the crawl ends.
+     */
+    public synchronized void cleanup() {
+        for (Recorder recorder : idleSmall) {
+            recorder.closeRecorders();
+            allocatedBytes -= smallBytes();
+        }
+        idleSmall.clear();
+        for (Recorder recorder : idleLarge) {
+            recorder.closeRecorders();
+            large.remove(recorder);
+            allocatedBytes -= largeBytes();
+        }
+        idleLarge.clear();
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized int getInUseCount() {
+        return smallInUse + largeInUse;
+    }
+
+    public synchronized long getDowngrades() {
+        return downgrades;
+    }
+
+    public synchronized void reportTo(PrintWriter writer) {
+        writer.print(" Recorder pool: " + allocatedBytes + " of " + maxBytes
+                + " bytes allocated; small (" + smallInBufferBytes + " bytes in) "
+                + smallInUse + " in use, " + idleSmall.size() + " idle, "
+                + smallBorrows + " lent; large (" + largeInBufferBytes
+                + " bytes in) " + largeInUse + " in use, " + idleLarge.size()
+                + " idle, " + largeBorrows + " lent; " + downgrades
+                + " downgraded for lack of room\n");
+    }
+}
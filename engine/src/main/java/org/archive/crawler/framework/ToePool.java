@@ -199,7 +199,12 @@ public class ToePool extends ThreadGroup implements Reporter {
         writer.print(" Job being crawled: "
                 + this.controller.getMetadata().getJobName() + "\n");
         writer.print(" Number of toe threads in pool: " + getToeCount() + " ("
-                + getActiveToeCount() + " active)\n\n");
+                + getActiveToeCount() + " active)\n");
+        RecorderPool recorderPool = this.controller.getRecorderPool();
+        if (recorderPool != null) {
+            recorderPool.reportTo(writer);
+        }
+        writer.print("\n");
         
         Thread[] toes = this.getToes();
         synchronized (toes) {
@@ -23,6 +23,8 @@ import static org.archive.modules.CoreAttributeConstants.A_RUNTIME_EXCEPTION;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_PROCESSING_THREAD_KILLED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_RUNTIME_EXCEPTION;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_SERIOUS_ERROR;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
 
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
@@ -73,11 +75,13 @@ implements Reporter, ProgressStatisticsReporter,
     
     /**
      * Each ToeThead has an instance of HttpRecord that gets used
-     * over and over by each request.
+     * over and over by each request -- unless recorders are pooled, when
+     * this is the one borrowed for the current request, if any.
      * 
      * @see org.archive.util.RecorderMarker
      */
     private Recorder httpRecorder = null;
+    private RecorderPool recorderPool;
 
     // activity monitoring, debugging, and problem detection
     private Step step = Step.NASCENT;
@@ -110,10 +114,13 @@ implements Reporter, ProgressStatisticsReporter,
         controller = g.getController();
         serialNumber = sn;
         setPriority(DEFAULT_PRIORITY);
-        int outBufferSize = controller.getRecorderOutBufferBytes();
-        int inBufferSize = controller.getRecorderInBufferBytes();
-        httpRecorder = new Recorder(controller.getScratchDir().getFile(),
-            "tt" + sn + "http", outBufferSize, inBufferSize);
+        recorderPool = controller.getRecorderPool();
+        if (recorderPool == null) {
+            int outBufferSize = controller.getRecorderOutBufferBytes();
+            int inBufferSize = controller.getRecorderInBufferBytes();
+            httpRecorder = new Recorder(controller.getScratchDir().getFile(),
+                "tt" + sn + "http", outBufferSize, inBufferSize);
+        }
         lastFinishTime = System.currentTimeMillis();
     }
 
@@ -133,6 +140,10 @@ implements Reporter, ProgressStatisticsReporter,
 
                 CrawlURI curi = controller.getFrontier().next();
                 
+                if (recorderPool != null) {
+                    httpRecorder = recorderPool.borrow(expectedResponseBytes(curi));
+                    Recorder.setHttpRecorder(httpRecorder);
+                }
                 
                 synchronized(this) {
                     ArchiveUtils.continueCheck();
@@ -189,6 +200,11 @@ implements Reporter, ProgressStatisticsReporter,
                     setCurrentCuri(null);
                 }
                 curi = null;
+                if (recorderPool != null) {
+                    recorderPool.giveBack(httpRecorder);
+                    httpRecorder = null;
+                    Recorder.setHttpRecorder(null);
+                }
                 
                 setStep(Step.FINISHING_PROCESS, null);
                 lastFinishTime = System.currentTimeMillis();
@@ -214,7 +230,12 @@ implements Reporter, ProgressStatisticsReporter,
 
         setCurrentCuri(null);
         // Do cleanup so that objects can be GC.
-        this.httpRecorder.closeRecorders();
+        if (recorderPool == null) {
+            this.httpRecorder.closeRecorders();
+        } else if (this.httpRecorder != null) {
+            // abandoned mid-URI
+            recorderPool.discard(this.httpRecorder);
+        }
         this.httpRecorder = null;
 
         logger.fine(getName()+" finished for order '"+name+"'");
@@ -222,6 +243,25 @@ implements Reporter, ProgressStatisticsReporter,
         controller = null;
     }
 
+    /**
+     * Response length expected of the given URI, for borrowing a recorder
+     * to fit: its length when last fetched, plus an allowance for
+     * headers; or -1 if unknown.
+     */
+    protected long expectedResponseBytes(CrawlURI curi) {
+        if ("dns".equals(curi.getUURI().getScheme())) {
+            return 0;
+        }
+        if (curi.containsDataKey(A_FETCH_HISTORY)) {
+            Map<String,Object>[] history = curi.getFetchHistory();
+            if (history != null && history[0] != null
+                    && history[0].get(A_REFERENCE_LENGTH) instanceof Long) {
+                return (Long) history[0].get(A_REFERENCE_LENGTH) + 1024;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Set currentCuri, updating thread name as appropriate
      * @param curi
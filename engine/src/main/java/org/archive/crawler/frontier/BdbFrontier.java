@@ -25,7 +25,6 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -227,6 +226,14 @@ implements Checkpointable, BeanNameAware {
         // An explicit sync on any deferred write dbs is needed to make the
         // db recoverable. Sync'ing the environment is insufficient
         this.pendingUris.sync();
+        // StoredQueues buffer items in memory; bring their dbs up to 
+        // date before BdbModule sync()s them
+        retiredQueues.flush();
+        for (Queue<String> inactiveQueues : inactiveQueuesByPrecedence.values()) {
+            if (inactiveQueues instanceof StoredQueue<?>) {
+                ((StoredQueue<?>) inactiveQueues).flush();
+            }
+        }
         // object caches will be sync()d by BdbModule
         
         // save simple instance fields & inactive-levels summary
@@ -255,10 +262,7 @@ implements Checkpointable, BeanNameAware {
             for(String qk : readyClassQueues) {
                 activeQueuesWriter.println(qk);
             }
-            for(DelayedWorkQueue q : snoozedClassQueues) {
-                activeQueuesWriter.println(q.getClassKey());
-            }
-            for(DelayedWorkQueue q : snoozedOverflow.values()) {
+            for(DelayedWorkQueue q : snoozedQueues) {
                 activeQueuesWriter.println(q.getClassKey());
             }
         } catch (IOException ioe) {
@@ -340,11 +344,12 @@ implements Checkpointable, BeanNameAware {
         
         retiredQueues = bdb.getStoredQueue("retiredQueues", String.class, recycle);
 
-        // primary snoozed queues
-        snoozedClassQueues = new DelayQueue<DelayedWorkQueue>();
-        // just in case: overflow for extreme situations
-        snoozedOverflow = bdb.getStoredMap(
-                "snoozedOverflow", Long.class, DelayedWorkQueue.class, true, false);
+        // snoozed queues: in memory for near-term wakes, overflowing
+        // to disk for far-future wakes (or extreme numbers of queues)
+        snoozedQueues = new SnoozeTimingWheel(
+                bdb.getStoredMap("snoozedOverflow", Long.class, 
+                        DelayedWorkQueue.class, true, false),
+                MAX_SNOOZED_IN_MEMORY);
             
         this.futureUris = bdb.getStoredMap(
                 "futureUris", Long.class, CrawlURI.class, true, recoveryCheckpoint!=null);
@@ -404,8 +409,7 @@ implements Checkpointable, BeanNameAware {
         // mark every queue with the 'managed' collections it's in
         consistencyMarkup(queueSummaries, inProcessQueues, "i");
         consistencyMarkup(queueSummaries,readyClassQueues, "r");
-        consistencyMarkup(queueSummaries,snoozedClassQueues, "s");
-        consistencyMarkup(queueSummaries,snoozedOverflow.values(), "S");
+        consistencyMarkup(queueSummaries,snoozedQueues, "s");
         for( Entry<Integer, Queue<String>> entry : getInactiveQueuesByPrecedence().entrySet()) {
             consistencyMarkup(queueSummaries,entry.getValue(),Integer.toString(entry.getKey()));
         }
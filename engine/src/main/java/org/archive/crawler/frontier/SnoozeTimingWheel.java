@@ -0,0 +1,391 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds snoozed queues until their wake times, in a hierarchical
+ * timing wheel.
+ *
+ * Time is divided into ticks of tickMs. Level 0 has one bucket per
+ * tick for the current 'span' of level0Slots ticks; level 1 has one
+ * bucket per span for the following level1Slots spans. As time
+ * passes, each level-0 bucket is emptied into the 'due' queue in turn,
+ * and at the start of each span the matching level-1 bucket is
+ * cascaded down into level 0. Queues wake no earlier than their wake
+ * time, and at most one tick late. Each queue is moved a bounded number
+ * of times, so snooze and wake are O(1) amortized.
+ *
+ * Queues waking beyond the in-memory horizon (or after the current
+ * span, when maxInMemory queues are already held in memory) go to the
+ * 'overflow' map, keyed by wake time -- normally a disk-backed
+ * StoredSortedMap allowing duplicate keys -- which serves as disk-backed
+ * buckets of one span each: as each span begins, the queues waking
+ * within it are pulled from overflow straight into level 0. So
+ * maxInMemory is a soft limit: queues of the current span are always
+ * held in memory.
+ *
+ * Buckets are lock-free queues. Only one thread at a time advances
+ * the wheel (others simply take already-due queues), claimed with a
+ * CAS; it alone takes from overflow, one span at a time. Adding to
+ * overflow relies on the map's own concurrency (record-level in BDB),
+ * under no lock of the wheel's.
+ */
+class SnoozeTimingWheel implements Iterable<DelayedWorkQueue> {
+    public static final long DEFAULT_TICK_MS = 10;
+    public static final int DEFAULT_LEVEL0_SLOTS = 512;
+    public static final int DEFAULT_LEVEL1_SLOTS = 512;
+
+    protected final long tickMs;
+    protected final int level0Slots;
+    protected final int level1Slots;
+    protected final Queue<DelayedWorkQueue>[] level0;
+    protected final Queue<DelayedWorkQueue>[] level1;
+    protected final Queue<DelayedWorkQueue> due =
+        new ConcurrentLinkedQueue<DelayedWorkQueue>();
+
+    /** last tick whose level-0 bucket has been (or is being) emptied */
+    protected volatile long processedTick;
+    /** last span whose level-1 bucket has been (or is being) cascaded */
+    protected volatile long cascadedSpan;
+    protected final AtomicBoolean advancing = new AtomicBoolean(false);
+
+    protected final int maxInMemory;
+    protected final AtomicInteger inMemoryCount = new AtomicInteger(0);
+
+    protected final SortedMap<Long,DelayedWorkQueue> overflow;
+    protected final AtomicInteger overflowCount = new AtomicInteger(0);
+    /** set when a queue may have reached overflow after its span began */
+    protected final AtomicBoolean overflowStray = new AtomicBoolean(false);
+
+    /**
+     * @param overflow map for far-future queues, keyed by wake time,
+     * allowing duplicate keys and safe for concurrent use; if null, all
+     * queues are held in memory
+     * @param maxInMemory queues beyond which to use overflow even for
+     * near-term wake times (after the current span)
+     */
+    public SnoozeTimingWheel(SortedMap<Long,DelayedWorkQueue> overflow,
+            int maxInMemory) {
+        this(overflow, maxInMemory, DEFAULT_TICK_MS, DEFAULT_LEVEL0_SLOTS,
+                DEFAULT_LEVEL1_SLOTS, System.currentTimeMillis());
+    }
+
+    @SuppressWarnings("unchecked")
+    public SnoozeTimingWheel(SortedMap<Long,DelayedWorkQueue> overflow,
+            int maxInMemory, long tickMs, int level0Slots, int level1Slots,
+            long now) {
+        this.overflow = overflow;
+        this.maxInMemory = maxInMemory;
+        this.tickMs = tickMs;
+        this.level0Slots = level0Slots;
+        this.level1Slots = level1Slots;
+        this.level0 = new Queue[level0Slots];
+        for (int i = 0; i < level0Slots; i++) {
+            level0[i] = new ConcurrentLinkedQueue<DelayedWorkQueue>();
+        }
+        this.level1 = new Queue[level1Slots];
+        for (int i = 0; i < level1Slots; i++) {
+            level1[i] = new ConcurrentLinkedQueue<DelayedWorkQueue>();
+        }
+        this.processedTick = now / tickMs;
+        this.cascadedSpan = processedTick / level0Slots;
+    }
+
+    /**
+     * @return first tick at or after the wake time, so that a queue is
+     * never woken early
+     */
+    protected long tickOf(DelayedWorkQueue dq) {
+        return (dq.getWakeTime() + tickMs - 1) / tickMs;
+    }
+
+    /**
+     * @return first tick beyond what the in-memory levels can hold
+     */
+    protected long horizonTick() {
+        return (cascadedSpan + level1Slots) * level0Slots;
+    }
+
+    /**
+     * Add a queue, to be returned by poll() once its wake time has
+     * passed.
+     */
+    public void add(DelayedWorkQueue dq) {
+        long tick = tickOf(dq);
+        if (overflow != null && tick / level0Slots > cascadedSpan
+                && (tick >= horizonTick() || inMemoryCount.get() >= maxInMemory)) {
+            overflowCount.incrementAndGet();
+            overflow.put(dq.getWakeTime(), dq);
+            if (tick / level0Slots <= cascadedSpan) {
+                // span began meanwhile, perhaps already pulled; see advance()
+                overflowStray.set(true);
+            }
+            return;
+        }
+        if (tick >= horizonTick()) {
+            // no overflow: hold in memory, re-placed when cascaded
+            tick = horizonTick() - 1;
+        }
+        inMemoryCount.incrementAndGet();
+        place(dq, tick);
+    }
+
+    /**
+     * Put an already-counted in-memory queue in the right bucket for
+     * the given tick (which must be below horizonTick()), rechecking
+     * after each insert that the bucket was not concurrently passed
+     * over.
+     */
+    protected void place(DelayedWorkQueue dq, long tick) {
+        for (;;) {
+            if (tick <= processedTick) {
+                due.add(dq);
+                return;
+            }
+            long span = tick / level0Slots;
+            if (span <= cascadedSpan) {
+                Queue<DelayedWorkQueue> bucket = level0[(int) (tick % level0Slots)];
+                bucket.add(dq);
+                if (tick <= processedTick && bucket.remove(dq)) {
+                    continue; // bucket emptied before our add; place again
+                }
+                return;
+            }
+            Queue<DelayedWorkQueue> bucket = level1[(int) (span % level1Slots)];
+            bucket.add(dq);
+            if (span <= cascadedSpan && bucket.remove(dq)) {
+                continue; // bucket cascaded before our add; place again
+            }
+            return;
+        }
+    }
+
+    /**
+     * @param now current time in ms
+     * @return a queue whose wake time has passed, or null if none
+     */
+    public DelayedWorkQueue poll(long now) {
+        long nowTick = now / tickMs;
+        if ((nowTick > processedTick || overflowStray.get())
+                && advancing.compareAndSet(false, true)) {
+            try {
+                advance(nowTick);
+            } finally {
+                advancing.set(false);
+            }
+        }
+        DelayedWorkQueue dq = due.poll();
+        if (dq != null) {
+            inMemoryCount.decrementAndGet();
+        }
+        return dq;
+    }
+
+    /**
+     * Empty every bucket up to nowTick, cascading level 1, and then
+     * overflow, into level 0 at span boundaries. Only called by one
+     * thread at a time.
+     */
+    protected void advance(long nowTick) {
+        while (processedTick < nowTick) {
+            long tick = processedTick + 1;
+            if (tick % level0Slots == 0) {
+                long span = tick / level0Slots;
+                // publish the marker before emptying; see place(), add()
+                cascadedSpan = span;
+                Queue<DelayedWorkQueue> bucket = level1[(int) (span % level1Slots)];
+                DelayedWorkQueue dq;
+                while ((dq = bucket.poll()) != null) {
+                    place(dq, Math.min(tickOf(dq), horizonTick() - 1));
+                }
+                pullFromOverflow(span);
+            }
+            processedTick = tick;
+            Queue<DelayedWorkQueue> bucket = level0[(int) (tick % level0Slots)];
+            DelayedWorkQueue dq;
+            while ((dq = bucket.poll()) != null) {
+                place(dq, Math.min(tickOf(dq), horizonTick() - 1));
+            }
+        }
+        if (overflowStray.compareAndSet(true, false)) {
+            pullFromOverflow(cascadedSpan);
+        }
+    }
+
+    /**
+     * Move the queues waking up to the end of the given span (which must
+     * already be cascaded) from overflow into the wheel.
+     */
+    protected void pullFromOverflow(long span) {
+        if (overflow == null || overflowCount.get() == 0) {
+            return;
+        }
+        long endMs = ((span + 1) * level0Slots - 1) * tickMs + 1;
+        Iterator<DelayedWorkQueue> iter =
+            overflow.headMap(endMs).values().iterator();
+        while (iter.hasNext()) {
+            DelayedWorkQueue dq = iter.next();
+            iter.remove();
+            overflowCount.decrementAndGet();
+            inMemoryCount.incrementAndGet();
+            place(dq, tickOf(dq));
+        }
+    }
+
+    /**
+     * @param now current time in ms
+     * @return ms until the earliest wake time (0 if a queue is already
+     * due), or -1 if no queues are held
+     */
+    public long getDelayToNext(long now) {
+        if (!due.isEmpty() || overflowStray.get()) {
+            return 0;
+        }
+        long next = Long.MAX_VALUE;
+        long span = cascadedSpan;
+        for (long tick = processedTick + 1; tick < (span + 1) * level0Slots; tick++) {
+            if (!level0[(int) (tick % level0Slots)].isEmpty()) {
+                // overflow holds only later spans
+                return Math.max(0, tick * tickMs - now);
+            }
+        }
+        for (long s = span + 1; s < span + level1Slots; s++) {
+            if (!level1[(int) (s % level1Slots)].isEmpty()) {
+                next = s * level0Slots * tickMs;
+                break;
+            }
+        }
+        // overflow may hold near-term queues when memory is full
+        if (overflow != null && overflowCount.get() > 0) {
+            try {
+                next = Math.min(next, overflow.firstKey());
+            } catch (NoSuchElementException e) {
+                // emptied meanwhile
+            }
+        }
+        return (next == Long.MAX_VALUE) ? -1 : Math.max(0, next - now);
+    }
+
+    public int size() {
+        return inMemoryCount.get() + overflowCount.get();
+    }
+
+    public int getInMemoryCount() {
+        return inMemoryCount.get();
+    }
+
+    public int getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * @return all queues currently held in memory, in no particular
+     * order
+     */
+    public List<DelayedWorkQueue> inMemorySnapshot() {
+        List<DelayedWorkQueue> all = new ArrayList<DelayedWorkQueue>(inMemoryCount.get());
+        all.addAll(due);
+        for (Queue<DelayedWorkQueue> bucket : level0) {
+            all.addAll(bucket);
+        }
+        for (Queue<DelayedWorkQueue> bucket : level1) {
+            all.addAll(bucket);
+        }
+        return all;
+    }
+
+    /**
+     * Iterate over all queues: a snapshot of those in memory, then
+     * those in overflow.
+     */
+    public Iterator<DelayedWorkQueue> iterator() {
+        final Iterator<DelayedWorkQueue> inMemory = inMemorySnapshot().iterator();
+        if (overflow == null) {
+            return inMemory;
+        }
+        final Iterator<DelayedWorkQueue> overflowed = overflow.values().iterator();
+        return new Iterator<DelayedWorkQueue>() {
+            public boolean hasNext() {
+                return inMemory.hasNext() || overflowed.hasNext();
+            }
+            public DelayedWorkQueue next() {
+                if (inMemory.hasNext()) {
+                    return inMemory.next();
+                }
+                if (overflowed.hasNext()) {
+                    return overflowed.next();
+                }
+                throw new NoSuchElementException();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Remove and return all queues, regardless of wake time.
+     */
+    public List<DelayedWorkQueue> removeAll() {
+        List<DelayedWorkQueue> all = new ArrayList<DelayedWorkQueue>();
+        drainTo(due, all);
+        for (Queue<DelayedWorkQueue> bucket : level0) {
+            drainTo(bucket, all);
+        }
+        for (Queue<DelayedWorkQueue> bucket : level1) {
+            drainTo(bucket, all);
+        }
+        if (overflow != null) {
+            // take the advancing thread's place, so as not to remove alongside it
+            while (!advancing.compareAndSet(false, true)) {
+                Thread.yield();
+            }
+            try {
+                Iterator<DelayedWorkQueue> iter = overflow.values().iterator();
+                while (iter.hasNext()) {
+                    all.add(iter.next());
+                    iter.remove();
+                    overflowCount.decrementAndGet();
+                }
+            } finally {
+                advancing.set(false);
+            }
+        }
+        return all;
+    }
+
+    protected void drainTo(Queue<DelayedWorkQueue> bucket, List<DelayedWorkQueue> all) {
+        DelayedWorkQueue dq;
+        while ((dq = bucket.poll()) != null) {
+            inMemoryCount.decrementAndGet();
+            all.add(dq);
+        }
+    }
+}
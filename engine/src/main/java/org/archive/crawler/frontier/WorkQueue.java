@@ -22,8 +22,10 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
@@ -98,6 +100,23 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /** The next item to be returned */
     transient protected CrawlURI peekItem = null;
 
+    /** Most URIs to have in process at once, if above 1 (reset 
+     * continually from settings, so not persisted) */
+    transient protected int maxInProcess = 1;
+
+    /** Count of URIs handed out for processing and not yet finished */
+    transient protected int inProcessCount = 0;
+
+    /**
+     * URIs in process that were taken out of the queue's store when
+     * handed out, so that those behind them could be handed out too
+     * (only when more than one may be in process at once)
+     */
+    transient protected List<CrawlURI> issued = null;
+
+    /** Whether to retire once URIs now in process have finished */
+    transient protected boolean retireWhenIdle = false;
+
     /** Last URI enqueued */
     protected String lastQueued;
 
@@ -169,7 +188,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * @return topmost queue item, or null
      */
     public synchronized CrawlURI peek(final WorkQueueFrontier frontier) {
-        if(peekItem == null && count > 0) {
+        if(peekItem == null && count > getIssuedCount()) {
             try {
                 peekItem = peekItem(frontier);
             } catch (IOException e) {
@@ -203,6 +222,153 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         lastDequeueTime = System.currentTimeMillis();
     }
 
+    /**
+     * Claim a place for one more URI in process, if the queue has one
+     * free. A queue allowed only one URI at a time has a place only when
+     * nothing is in process; one allowed more, when no politeness delay
+     * is pending and, if URIs are already in process, all were issued
+     * and something remains to hand out.
+     * 
+     * @param now time now in ms
+     * @return true if claimed; the claim must be released, whether or 
+     * not a URI is then handed out
+     */
+    protected synchronized boolean claimInProcess(long now) {
+        if (inProcessCount >= getMaxInProcess() || retireWhenIdle) {
+            return false;
+        }
+        if (getMaxInProcess() > 1 && wakeTime > now) {
+            // snoozed while URIs were in process; waking readies it
+            return false;
+        }
+        if (inProcessCount > 0 && (inProcessCount > getIssuedCount() 
+                || count <= getIssuedCount())) {
+            return false;
+        }
+        inProcessCount++;
+        return true;
+    }
+
+    /**
+     * Release a place claimed by claimInProcess().
+     * 
+     * @return count of URIs still in process
+     */
+    protected synchronized int releaseInProcess() {
+        assert inProcessCount > 0 : "release without claim " + this;
+        return --inProcessCount;
+    }
+
+    /**
+     * @return count of URIs handed out for processing and not yet finished
+     */
+    public synchronized int getInProcessCount() {
+        return inProcessCount;
+    }
+
+    /**
+     * Whether another URI could be handed out before those in process 
+     * finish.
+     * 
+     * @return true if a place is free and URIs remain to hand out
+     */
+    public synchronized boolean canIssueMore() {
+        return inProcessCount < getMaxInProcess() 
+            && inProcessCount == getIssuedCount() 
+            && count > getIssuedCount();
+    }
+
+    /**
+     * Note the given CrawlURI, the peeked item, is being handed out for 
+     * processing. If more than one URI may be in process at once, it is
+     * taken out of the queue's store (though still counted) so the next
+     * peek returns the item behind it. 
+     * 
+     * @param frontier Work queues manager.
+     * @param curi CrawlURI being handed out
+     */
+    protected synchronized void issue(final WorkQueueFrontier frontier, CrawlURI curi) {
+        if (getMaxInProcess() <= 1) {
+            return;
+        }
+        try {
+            deleteItem(frontier, curi);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "unable to issue " + curi + " from " + this, e);
+            throw new RuntimeException(e);
+        }
+        unpeek(curi);
+        if (issued == null) {
+            issued = new ArrayList<CrawlURI>(getMaxInProcess());
+        }
+        issued.add(curi);
+    }
+
+    /**
+     * @param curi CrawlURI to check
+     * @return true if the CrawlURI was taken out of the queue's store
+     * when handed out
+     */
+    public synchronized boolean isIssued(CrawlURI curi) {
+        return issued != null && issued.contains(curi);
+    }
+
+    protected int getIssuedCount() {
+        return issued == null ? 0 : issued.size();
+    }
+
+    /**
+     * Put an issued CrawlURI, to be retried, back in the queue's store.
+     * 
+     * @param frontier Work queues manager.
+     * @param curi issued CrawlURI
+     */
+    protected synchronized void reinsertIssued(final WorkQueueFrontier frontier, CrawlURI curi) {
+        issued.remove(curi);
+        update(frontier, curi);
+    }
+
+    /**
+     * Drop an issued CrawlURI, finished for good, from the count.
+     * 
+     * @param curi issued CrawlURI
+     */
+    protected synchronized void dequeueIssued(CrawlURI curi) {
+        issued.remove(curi);
+        count--;
+        lastDequeueTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Set the most URIs to have in process at once. Automatically reset
+     * continually as URIs are handed out and finished; change the 
+     * frontier's 'maxInProcessPerQueue' (or overlay it with a 
+     * queue-specific value) to affect this value. 
+     * 
+     * @param max most URIs in process at once
+     */
+    protected synchronized void setMaxInProcess(int max) {
+        this.maxInProcess = Math.max(1, max);
+    }
+
+    public synchronized int getMaxInProcess() {
+        return Math.max(1, maxInProcess);
+    }
+
+    protected synchronized void setRetireWhenIdle(boolean b) {
+        this.retireWhenIdle = b;
+    }
+
+    /**
+     * @return whether a retirement was deferred until URIs in process
+     * finished, clearing the note
+     */
+    protected synchronized boolean takeRetireWhenIdle() {
+        boolean result = retireWhenIdle;
+        retireWhenIdle = false;
+        return result;
+    }
+
     /**
      * Set the session 'activity budget' to the given value. Automatically
      * reset continually as new CrawlURIs are enqueued; a direct change
@@ -459,6 +625,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         map.put("queueName", classKey);
         map.put("precedence", getPrecedence());
         map.put("itemCount", count);
+        map.put("inProcessCount", inProcessCount);
+        map.put("maxInProcess", getMaxInProcess());
         map.put("enqueueCount", enqueueCount);
         map.put("sessionBalance", getSessionBalance());
         map.put("lastCost", lastCost);
@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -42,10 +43,6 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -149,6 +146,23 @@ implements Closeable,
     public void setQueueTotalBudget(long budget) {
         kp.put("queueTotalBudget",budget);
     }
+
+    /**
+     * Most URIs from one queue to have in process at once. Above 1, a
+     * queue hands out its next URI while earlier ones are still being 
+     * fetched, each URI's politeness delay then holding back only those
+     * handed out after it finishes. Intended to be overlaid onto the 
+     * queues of sites known to welcome several connections at once. 
+     */
+    {
+        setMaxInProcessPerQueue(1);
+    }
+    public int getMaxInProcessPerQueue() {
+        return (Integer) kp.get("maxInProcessPerQueue");
+    }
+    public void setMaxInProcessPerQueue(int max) {
+        kp.put("maxInProcessPerQueue",max);
+    }
     
     /** queue precedence assignment policy to use. */
     {
@@ -190,16 +204,16 @@ implements Closeable,
      */
     protected BlockingQueue<String> readyClassQueues;
     
-    /** all per-class queues from whom a URI is outstanding */
+    /** all per-class queues from whom a URI (or more) is outstanding */
     protected Set<WorkQueue> inProcessQueues = 
         Collections.newSetFromMap(new ConcurrentHashMap<WorkQueue, Boolean>()); // of ClassKeyQueue
     
     /**
-     * All per-class queues held in snoozed state, sorted by wake time.
+     * All per-class queues held in snoozed state, by wake time; those
+     * far in the future (or beyond MAX_SNOOZED_IN_MEMORY) overflow to
+     * disk.
      */
-    transient protected DelayQueue<DelayedWorkQueue> snoozedClassQueues;
-    protected StoredSortedMap<Long,DelayedWorkQueue> snoozedOverflow; 
-    protected AtomicInteger snoozedOverflowCount = new AtomicInteger(0); 
+    transient protected SnoozeTimingWheel snoozedQueues;
     protected static int MAX_SNOOZED_IN_MEMORY = 10000; 
     
     /** URIs scheduled to be re-enqueued at future date */
@@ -395,6 +409,7 @@ implements Closeable,
             // (whose overlay settings should be active here)
             wq.setSessionBudget(getBalanceReplenishAmount());
             wq.setTotalBudget(getQueueTotalBudget());
+            wq.setMaxInProcess(getMaxInProcessPerQueue());
             
             if(!wq.isRetired()) {
                 incrementQueuedUriCount();
@@ -442,7 +457,6 @@ implements Closeable,
 
         synchronized(wq) {
             wq.noteDeactivated();
-            inProcessQueues.remove(wq);
             if(wq.getCount()==0) {
                 System.err.println("deactivate empty queue?");
             }
@@ -499,7 +513,6 @@ implements Closeable,
     protected void retireQueue(WorkQueue wq) {
 //        assert Thread.currentThread() == managerThread;
 
-        inProcessQueues.remove(wq);
         getRetiredQueues().add(wq.getClassKey());
         decrementQueuedCount(wq.getCount());
         wq.setRetired(true);
@@ -566,6 +579,68 @@ implements Closeable,
     protected abstract WorkQueue getQueueFor(String classKey);
     
  
+    /**
+     * Claim a place for one more URI in process from the given queue, 
+     * if it has one free, noting the queue as in process.
+     * 
+     * @param wq queue to claim a place in
+     * @return true if claimed
+     */
+    protected boolean claimInProcess(WorkQueue wq) {
+        synchronized(wq) {
+            if(!wq.claimInProcess(System.currentTimeMillis())) {
+                return false;
+            }
+            inProcessQueues.add(wq);
+            return true;
+        }
+    }
+
+    /**
+     * Release a place claimed by claimInProcess(), noting the queue as
+     * no longer in process if it was the last.
+     * 
+     * @param wq queue to release a place in
+     * @return count of URIs from the queue still in process
+     */
+    protected int releaseInProcess(WorkQueue wq) {
+        synchronized(wq) {
+            int stillInProcess = wq.releaseInProcess();
+            if(stillInProcess==0) {
+                inProcessQueues.remove(wq);
+            }
+            return stillInProcess;
+        }
+    }
+
+    /**
+     * If the given queue, just claimed, is over its session or total 
+     * budget, release the claim and deactivate or retire the queue. If
+     * other URIs from the queue are still in process, the queue is left 
+     * in process: the last of them to finish sends it on, and it is 
+     * found over budget when next claimed.
+     * 
+     * @param wq queue claimed by claimInProcess()
+     * @return true if over budget, so no URI is to be handed out
+     */
+    protected boolean releaseIfOverBudget(WorkQueue wq) {
+        if (wq.isOverSessionBudget()) {
+            if(releaseInProcess(wq)==0) {
+                deactivateQueue(wq);
+                wq.makeDirty();
+            }
+            return true;
+        }
+        if (wq.isOverTotalBudget()) {
+            if(releaseInProcess(wq)==0) {
+                retireQueue(wq);
+                wq.makeDirty();
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Return the next CrawlURI eligible to be processed (and presumably
      * visited/fetched) by a a worker thread.
@@ -614,11 +689,13 @@ implements Closeable,
                         readyQ = null;
                         continue; 
                     }
-                    if(!inProcessQueues.add(readyQ)) {
+                    if(!claimInProcess(readyQ)) {
                         // double activation; discard this and move on
                         // (this guard allows other enqueuings to ready or 
                         // the various inactive-by-precedence queues to 
-                        // sometimes redundantly enqueue a queue key)
+                        // sometimes redundantly enqueue a queue key; a
+                        // queue with no place free is readied again as
+                        // its URIs in process finish)
                         readyQ = null; 
                         continue;
                     }
@@ -634,19 +711,12 @@ implements Closeable,
                         KeyedProperties.loadOverridesFrom(readyQUri);
                         readyQ.setSessionBudget(getBalanceReplenishAmount());
                         readyQ.setTotalBudget(getQueueTotalBudget()); 
+                        readyQ.setMaxInProcess(getMaxInProcessPerQueue());
                     } finally {
                         KeyedProperties.clearOverridesFrom(readyQUri); 
                     }
                     
-                    if (readyQ.isOverSessionBudget()) {
-                        deactivateQueue(readyQ);
-                        readyQ.makeDirty();
-                        readyQ = null;
-                        continue; 
-                    }
-                    if (readyQ.isOverTotalBudget()) {
-                        retireQueue(readyQ);
-                        readyQ.makeDirty();
+                    if (releaseIfOverBudget(readyQ)) {
                         readyQ = null;
                         continue; 
                     }
@@ -685,6 +755,11 @@ implements Closeable,
                     if (currentQueueKey.equals(curi.getClassKey())) {
                         // curi was in right queue, emit
                         noteAboutToEmit(curi, readyQ);
+                        readyQ.issue(this, curi);
+                        if(readyQ.canIssueMore()) {
+                            // room for another URI from this queue at once
+                            readyQueue(readyQ);
+                        }
                         return curi;
                     }
                     // URI's assigned queue has changed since it
@@ -703,12 +778,19 @@ implements Closeable,
                         // enqueues to again put queue in ready
                         // FIXME: tiny window here where queue could 
                         // receive new URI, be readied, fail not-in-process?
-                        inProcessQueues.remove(readyQ);
+                        releaseInProcess(readyQ);
                         readyQ.noteExhausted();
                         readyQ.makeDirty();
                         readyQ = null;
                         continue findauri;
                     }
+                    if(readyQ.peek(this)==null) {
+                        // all URIs left are in process; the last of them 
+                        // to finish sends the queue on
+                        releaseInProcess(readyQ);
+                        readyQ = null;
+                        continue findauri;
+                    }
                 }
             }
                 
@@ -837,8 +919,8 @@ implements Closeable,
      */
     @Override
     protected long getMaxInWait() {
-        Delayed next = snoozedClassQueues.peek();
-        return next == null ? 60000 : next.getDelay(TimeUnit.MILLISECONDS);
+        long delay = snoozedQueues.getDelayToNext(System.currentTimeMillis());
+        return delay < 0 ? 60000 : delay;
     }
 
     /**
@@ -847,22 +929,11 @@ implements Closeable,
      * put all queues in slow-retry-snoozes back to busy-ness. 
      */
     public void forceWakeQueues() {
-        Iterator<DelayedWorkQueue> iterSnoozed = snoozedClassQueues.iterator();
-        while(iterSnoozed.hasNext()) {
-            WorkQueue queue = iterSnoozed.next().getWorkQueue(WorkQueueFrontier.this);
-            queue.setWakeTime(0);
-            reenqueueQueue(queue);
-            queue.makeDirty();
-            iterSnoozed.remove(); 
-        }
-        Iterator<DelayedWorkQueue> iterOverflow = snoozedOverflow.values().iterator();
-        while(iterOverflow.hasNext()) {
-            WorkQueue queue = iterOverflow.next().getWorkQueue(WorkQueueFrontier.this);
+        for(DelayedWorkQueue dq : snoozedQueues.removeAll()) {
+            WorkQueue queue = dq.getWorkQueue(WorkQueueFrontier.this);
             queue.setWakeTime(0);
             reenqueueQueue(queue);
             queue.makeDirty();
-            iterOverflow.remove(); 
-            snoozedOverflowCount.decrementAndGet();
         }
     }
     
@@ -870,29 +941,18 @@ implements Closeable,
      * Wake any queues sitting in the snoozed queue whose time has come.
      */
     protected void wakeQueues() {
+        long now = System.currentTimeMillis();
         DelayedWorkQueue waked; 
-        while((waked = snoozedClassQueues.poll())!=null) {
+        while((waked = snoozedQueues.poll(now))!=null) {
             WorkQueue queue = waked.getWorkQueue(this);
+            if(queue.getWakeTime() > waked.getWakeTime()) {
+                // superseded by a later snooze, also in snoozedQueues
+                continue;
+            }
             queue.setWakeTime(0);
             queue.makeDirty();
             reenqueueQueue(queue);
         }
-        // also consider overflow (usually empty)
-        if(!snoozedOverflow.isEmpty()) {
-            synchronized(snoozedOverflow) {
-                Iterator<DelayedWorkQueue> iter = 
-                    snoozedOverflow.headMap(System.currentTimeMillis()).values().iterator();
-                while(iter.hasNext()) {
-                    DelayedWorkQueue dq = iter.next();
-                    iter.remove();
-                    snoozedOverflowCount.decrementAndGet();
-                    WorkQueue queue = dq.getWorkQueue(this);
-                    queue.setWakeTime(0);
-                    queue.makeDirty();
-                    reenqueueQueue(queue);
-                }
-            }
-        }
     }
     
     /**
@@ -923,8 +983,11 @@ implements Closeable,
         // (whose overlay settings should be active here)
         wq.setSessionBudget(getBalanceReplenishAmount());
         wq.setTotalBudget(getQueueTotalBudget());
+        wq.setMaxInProcess(getMaxInProcessPerQueue());
         
-        assert (wq.peek(this) == curi) : "unexpected peek " + wq;
+        // issued URIs were taken from the queue's store when handed out
+        boolean issued = wq.isIssued(curi);
+        assert (issued || wq.peek(this) == curi) : "unexpected peek " + wq;
 
         int holderCost = curi.getHolderCost();
 
@@ -935,8 +998,12 @@ implements Closeable,
             }
             long delay_ms = retryDelayFor(curi) * 1000;
             curi.processingCleanup(); // lose state that shouldn't burden retry
-            wq.unpeek(curi);
-            wq.update(this, curi); // rewrite any changes
+            if(issued) {
+                wq.reinsertIssued(this, curi);
+            } else {
+                wq.unpeek(curi);
+                wq.update(this, curi); // rewrite any changes
+            }
             handleQueue(wq,curi.includesRetireDirective(),now,delay_ms);
             appCtx.publishEvent(new CrawlURIDispositionEvent(this,curi,DEFERRED_FOR_RETRY));
             doJournalReenqueued(curi);
@@ -945,7 +1012,11 @@ implements Closeable,
         }
 
         // Curi will definitely be disposed of without retry, so remove from queue
-        wq.dequeue(this,curi);
+        if(issued) {
+            wq.dequeueIssued(curi);
+        } else {
+            wq.dequeue(this,curi);
+        }
         decrementQueuedCount(1);
         largestQueues.update(wq.getClassKey(), wq.getCount());
         log(curi);
@@ -1005,7 +1076,10 @@ implements Closeable,
     
     /**
      * Send an active queue to its next state, based on the supplied 
-     * parameters.
+     * parameters, once a URI it handed out has finished. While other 
+     * URIs from the queue are still in process, the queue stays in
+     * process: a politeness delay only holds back further URIs, and 
+     * retirement waits for the last of them.
      * 
      * @param wq
      * @param forceRetire
@@ -1013,10 +1087,20 @@ implements Closeable,
      * @param delay_ms
      */
     protected void handleQueue(WorkQueue wq, boolean forceRetire, long now, long delay_ms) {
-        inProcessQueues.remove(wq);
-        if(forceRetire) {
+        if(releaseInProcess(wq) > 0) {
+            if(forceRetire) {
+                wq.setRetireWhenIdle(true);
+            } else if (delay_ms > 0) {
+                snoozeQueue(wq, now, delay_ms);
+            } else if (wq.getWakeTime() <= now && wq.canIssueMore()) {
+                readyQueue(wq);
+            }
+            return;
+        }
+        if(forceRetire || wq.takeRetireWhenIdle()) {
             retireQueue(wq);
-        } else if (delay_ms > 0) {
+        } else if (delay_ms > 0 || wq.getWakeTime() > now) {
+            // (perhaps still snoozed after an earlier URI's finish)
             snoozeQueue(wq, now, delay_ms);
         } else {
             getQueuePrecedencePolicy().queueReevaluate(wq);
@@ -1034,16 +1118,12 @@ implements Closeable,
      */
     private void snoozeQueue(WorkQueue wq, long now, long delay_ms) {
         long nextTime = now + delay_ms;
-        wq.setWakeTime(nextTime);
-        DelayedWorkQueue dq = new DelayedWorkQueue(wq);
-        if(snoozedClassQueues.size()<MAX_SNOOZED_IN_MEMORY) {
-            snoozedClassQueues.add(dq);
-        } else {
-            synchronized(snoozedOverflow) {
-                snoozedOverflow.put(nextTime, dq);
-                snoozedOverflowCount.incrementAndGet();
-            }
+        if(wq.getWakeTime() >= nextTime) {
+            // already snoozed at least as long
+            return;
         }
+        wq.setWakeTime(nextTime);
+        snoozedQueues.add(new DelayedWorkQueue(wq));
     }
 
     /**
@@ -1320,8 +1400,8 @@ implements Closeable,
             this.readyClassQueues.size(), maxQueuesPerReportCategory);
         
         writer.print("\n -----===== SNOOZED QUEUES =====-----\n");
-        Object[] objs = snoozedClassQueues.toArray();
-        DelayedWorkQueue[] qs = Arrays.copyOf(objs,objs.length,DelayedWorkQueue[].class);
+        List<DelayedWorkQueue> snoozed = snoozedQueues.inMemorySnapshot();
+        DelayedWorkQueue[] qs = snoozed.toArray(new DelayedWorkQueue[snoozed.size()]);
         Arrays.sort(qs);
         appendQueueReports(writer, "SNOOZED", new ObjectArrayIterator(qs), getSnoozedCount(), maxQueuesPerReportCategory);
         
@@ -1358,8 +1438,7 @@ implements Closeable,
         queueSingleLinesTo(writer, this.readyClassQueues.iterator());
 
         writer.print("\n -----===== SNOOZED QUEUES =====-----\n");
-        queueSingleLinesTo(writer, this.snoozedClassQueues.iterator());
-        queueSingleLinesTo(writer, this.snoozedOverflow.values().iterator());
+        queueSingleLinesTo(writer, this.snoozedQueues.iterator());
         
         writer.print("\n -----===== INACTIVE QUEUES =====-----\n");
         for(Queue<String> inactiveQueues : getInactiveQueuesByPrecedence().values()) {
@@ -1532,7 +1611,7 @@ implements Closeable,
     protected abstract boolean workQueueDataOnDisk();
 
     public long averageDepth() {
-        if(inProcessQueues==null || readyClassQueues==null || snoozedClassQueues==null) {
+        if(inProcessQueues==null || readyClassQueues==null || snoozedQueues==null) {
             return 0; 
         }
         int inProcessCount = inProcessQueues.size();
@@ -1545,11 +1624,11 @@ implements Closeable,
     }
     
     protected int getSnoozedCount() {
-        return snoozedClassQueues.size() + snoozedOverflowCount.get();
+        return snoozedQueues.size();
     }
     
     public float congestionRatio() {
-        if(inProcessQueues==null || readyClassQueues==null || snoozedClassQueues==null) {
+        if(inProcessQueues==null || readyClassQueues==null || snoozedQueues==null) {
             return 0; 
         }
         int inProcessCount = inProcessQueues.size();
@@ -23,6 +23,7 @@ package org.archive.crawler.postprocessor;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_PREREQUISITE_UNSCHEDULABLE_FAILURE;
 
+import org.apache.commons.httpclient.URIException;
 import org.archive.crawler.framework.Frontier;
 import org.archive.crawler.reporting.CrawlerLoggerModule;
 import org.archive.crawler.spring.SheetOverlaysManager;
@@ -31,6 +32,7 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
 import org.archive.modules.SchedulingConstants;
 import org.archive.modules.extractor.Hop;
+import org.archive.modules.fetcher.AsyncDNSResolver;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.KeyedProperties;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -131,6 +133,20 @@ public class CandidatesProcessor extends Processor {
         this.sheetOverlaysManager = sheetOverlaysManager;
     }
     
+    /**
+     * Resolver, if any, to start looking up the host of each scheduled
+     * candidate at once, so its answer is ready by the time the host's
+     * 'dns:' prerequisite is fetched.
+     */
+    protected AsyncDNSResolver dnsResolver;
+    public AsyncDNSResolver getDnsResolver() {
+        return dnsResolver;
+    }
+    @Autowired(required=false)
+    public void setDnsResolver(AsyncDNSResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+    
     /**
      * Usual no-argument constructor
      */
@@ -189,6 +205,7 @@ public class CandidatesProcessor extends Processor {
                     frontier.schedule(candidate);
                     
                 }
+                prefetchHost(candidate, source);
             } 
             return statusAfterCandidateChain;
         } finally {
@@ -233,6 +250,30 @@ public class CandidatesProcessor extends Processor {
         curi.getOutLinks().clear();
     }
     
+    /**
+     * Have the dnsResolver, if any, look up the host of a scheduled
+     * candidate, unless it is the (necessarily resolved) host of its
+     * source. The resolver ignores hosts already resolved or resolving.
+     */
+    protected void prefetchHost(CrawlURI candidate, CrawlURI source) {
+        if (getDnsResolver() == null) {
+            return;
+        }
+        try {
+            String scheme = candidate.getUURI().getScheme();
+            if (!"http".equals(scheme) && !"https".equals(scheme)) {
+                return;
+            }
+            String host = candidate.getUURI().getReferencedHost();
+            if (host != null
+                    && !host.equals(source.getUURI().getReferencedHost())) {
+                getDnsResolver().prefetch(host);
+            }
+        } catch (URIException e) {
+            // unresolvable in any case
+        }
+    }
+    
     /**
      * Check if the URI needs special 'discovered seed' treatment.
      * 
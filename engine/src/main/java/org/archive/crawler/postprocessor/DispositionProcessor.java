@@ -26,6 +26,7 @@ import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEEMED_NOT_FOUND;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_TIMEOUT;
 
 import java.util.Map;
 import java.util.logging.Logger;
@@ -34,6 +35,7 @@ import org.apache.commons.httpclient.URIException;
 import org.archive.modules.CrawlMetadata;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
+import org.archive.modules.net.AdaptivePoliteness;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.IgnoreRobotsPolicy;
@@ -121,6 +123,59 @@ public class DispositionProcessor extends Processor {
         kp.put("maxDelayMs",maxDelay);
     }    
 
+    /**
+     * Whether to adapt each server's delay to how well it copes: after
+     * each fetch the server answers promptly and without error, the delay
+     * shrinks by adaptiveDecreaseMs (down to adaptiveMinDelayMs, or the
+     * server's average response time if longer); on a 5xx or 429
+     * response, lost connection or unusually slow response, it is
+     * multiplied by adaptiveBackoffFactor (up to maxDelayMs). The usual
+     * delayFactor-based delay is where each server starts. Crawl-delay
+     * and bandwidth limits still apply on top.
+     */
+    {
+        setAdaptivePoliteness(false);
+    }
+    public boolean getAdaptivePoliteness() {
+        return (Boolean) kp.get("adaptivePoliteness");
+    }
+    public void setAdaptivePoliteness(boolean adaptive) {
+        kp.put("adaptivePoliteness",adaptive);
+    }
+
+    /** least delay adaptive politeness may shrink to */
+    {
+        setAdaptiveMinDelayMs(1000);
+    }
+    public int getAdaptiveMinDelayMs() {
+        return (Integer) kp.get("adaptiveMinDelayMs");
+    }
+    public void setAdaptiveMinDelayMs(int minDelay) {
+        kp.put("adaptiveMinDelayMs",minDelay);
+    }
+
+    /** step by which adaptive politeness shrinks a coping server's delay */
+    {
+        setAdaptiveDecreaseMs(250);
+    }
+    public int getAdaptiveDecreaseMs() {
+        return (Integer) kp.get("adaptiveDecreaseMs");
+    }
+    public void setAdaptiveDecreaseMs(int decrease) {
+        kp.put("adaptiveDecreaseMs",decrease);
+    }
+
+    /** multiple by which adaptive politeness grows a struggling server's delay */
+    {
+        setAdaptiveBackoffFactor(2.0f);
+    }
+    public float getAdaptiveBackoffFactor() {
+        return (Float) kp.get("adaptiveBackoffFactor");
+    }
+    public void setAdaptiveBackoffFactor(float factor) {
+        kp.put("adaptiveBackoffFactor",factor);
+    }
+
     /** maximum per-host bandwidth usage */
     {
         setMaxPerHostBandwidthUsageKbSec(0);
@@ -251,6 +306,10 @@ public class DispositionProcessor extends Processor {
                 durationToWait = maxDelay;
             }
             
+            if (getAdaptivePoliteness()) {
+                durationToWait = adaptiveDelayFor(curi, durationTaken, durationToWait);
+            }
+            
             long respectThreshold = getRespectCrawlDelayUpToSeconds() * 1000;
             if (durationToWait<respectThreshold) {
                 // may need to extend wait
@@ -294,4 +353,32 @@ public class DispositionProcessor extends Processor {
         }
         return durationToWait;
     }
+    
+    /**
+     * Update the adaptive politeness of the CrawlURI's server with the
+     * fetch's outcome.
+     * 
+     * @param curi the CrawlURI
+     * @param durationTaken milliseconds the fetch took
+     * @param usualDelay delay by delayFactor, min and max
+     * @return millisecond politeness delay
+     */
+    protected long adaptiveDelayFor(CrawlURI curi, long durationTaken, long usualDelay) {
+        String scheme = curi.getUURI().getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return usualDelay;
+        }
+        CrawlServer server = getServerCache().getServerFor(curi.getUURI());
+        if (server == null) {
+            return usualDelay;
+        }
+        int status = curi.getFetchStatus();
+        boolean error = status == 429 || (status >= 500 && status < 600)
+            || status == S_CONNECT_FAILED || status == S_CONNECT_LOST 
+            || status == S_TIMEOUT;
+        AdaptivePoliteness politeness = server.getAdaptivePoliteness();
+        return politeness.update(durationTaken, error, usualDelay, 
+                getAdaptiveMinDelayMs(), getMaxDelayMs(), 
+                getAdaptiveDecreaseMs(), getAdaptiveBackoffFactor());
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.archive.bdb.BdbPerformanceProfile;
+
+/**
+ * Report of the shared BDB-JE environment: the performance profile 
+ * in effect and live environment statistics (cache misses, cleaner 
+ * backlog, evictions, etc.).
+ */
+public class BdbReport extends Report {
+
+    @Override
+    public void write(PrintWriter writer, StatisticsTracker stats) {
+        if (stats.bdb == null) {
+            writer.println("no BdbModule");
+            return;
+        }
+        BdbPerformanceProfile profile = stats.bdb.getPerformanceProfile();
+        writer.print("profile: ");
+        writer.println(profile == null ? "none" : profile.getPreset());
+        if (profile != null) {
+            for (Map.Entry<String,String> param : profile.getEffectiveParameters().entrySet()) {
+                writer.print("  ");
+                writer.print(param.getKey());
+                writer.print("=");
+                writer.println(param.getValue());
+            }
+        }
+        writer.println();
+        for (Map.Entry<String,Object> stat : stats.bdb.environmentStatsReportData().entrySet()) {
+            writer.print(stat.getKey());
+            writer.print(": ");
+            writer.println(stat.getValue());
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return "bdb-report.txt";
+    }
+
+}
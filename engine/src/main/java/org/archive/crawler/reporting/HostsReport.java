@@ -27,7 +27,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.archive.bdb.DisposableStoredSortedMap;
+import org.archive.modules.net.AdaptivePoliteness;
 import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.CrawlServer;
+import org.archive.modules.net.ServerCache;
 
 /**
  * The "Hosts Report", tallies by host.
@@ -55,7 +58,7 @@ public class HostsReport extends Report {
     public void write(final PrintWriter writer, StatisticsTracker stats) {
         // TODO: only perform sorting on manageable number of hosts
         DisposableStoredSortedMap<Long,String> hd = stats.calcReverseSortedHostsDistribution();
-        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes]\n"); 
+        writer.print("[#urls] [#bytes] [host] [#robots] [#remaining] [#novel-urls] [#novel-bytes] [#dup-by-hash-urls] [#dup-by-hash-bytes] [#not-modified-urls] [#not-modified-bytes] [adaptive-delay-ms] [avg-response-ms] [avg-error-rate] [#backoffs]\n"); 
         for (Map.Entry<Long,String> entry : hd.entrySet()) {
             // key is -count, value is hostname
             try {
@@ -71,7 +74,8 @@ public class HostsReport extends Report {
                         host.getSubstats().getDupByHashUrls(),
                         host.getSubstats().getDupByHashBytes(),
                         host.getSubstats().getNotModifiedUrls(),
-                        host.getSubstats().getNotModifiedBytes());
+                        host.getSubstats().getNotModifiedBytes(),
+                        politenessFields(stats.serverCache, host.getHostName()));
             } catch (Exception e) {
                 logger.log(Level.WARNING, "unable to tally host stats for " + entry.getValue(), e);
             }
@@ -79,6 +83,29 @@ public class HostsReport extends Report {
         hd.dispose();
     }
 
+    /**
+     * @return adaptive politeness state of the host's server (on the
+     * default http or else https port), as report fields, or dashes if
+     * it has none
+     */
+    protected String politenessFields(ServerCache serverCache, String hostName) {
+        AdaptivePoliteness politeness = null;
+        String[] keys = {hostName, hostName + ":443"};
+        for (int i = 0; i < keys.length && politeness == null; i++) {
+            if (serverCache.containsServer(keys[i])) {
+                CrawlServer server = serverCache.getServerFor(keys[i]);
+                politeness = server.peekAdaptivePoliteness();
+            }
+        }
+        if (politeness == null) {
+            return "- - - -";
+        }
+        return politeness.getDelayMs() + " "
+            + Math.round(politeness.getResponseMsAverage()) + " "
+            + Math.round(politeness.getErrorRateAverage() * 100) / 100.0 + " "
+            + politeness.getBackoffs();
+    }
+
     protected void writeReportLine(PrintWriter writer, Object  ... fields) {
         for(Object field : fields) {
             writer.print(field);
@@ -68,6 +68,10 @@ public class SeedsReport extends Report {
         seedsByCode.dispose();
         stats.seedsTotal = seedsTotal;
         stats.seedsCrawled = seedsCrawled; 
+        if (stats.getDnsWarmup() != null) {
+            writer.print("\n");
+            writer.print(stats.getDnsWarmup().report());
+        }
     }
 
     @Override
@@ -52,6 +52,7 @@ import org.archive.crawler.framework.Engine;
 import org.archive.crawler.util.CrawledBytesHistotable;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DNSWarmup;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.ServerCache;
 import org.archive.modules.seeds.SeedListener;
@@ -164,6 +165,15 @@ public class StatisticsTracker
         this.reportsDir = reportsDir;
     }
     
+    protected DNSWarmup dnsWarmup;
+    public DNSWarmup getDnsWarmup() {
+        return this.dnsWarmup;
+    }
+    @Autowired(required=false)
+    public void setDnsWarmup(DNSWarmup dnsWarmup) {
+        this.dnsWarmup = dnsWarmup;
+    }
+    
     protected ServerCache serverCache;
     public ServerCache getServerCache() {
         return this.serverCache;
@@ -322,6 +332,7 @@ public class StatisticsTracker
             reports.add(new ProcessorsReport());
             reports.add(new FrontierSummaryReport());
             reports.add(new ToeThreadsReport());
+            reports.add(new BdbReport());
         }
         
         return reports;
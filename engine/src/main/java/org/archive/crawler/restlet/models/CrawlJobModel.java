@@ -91,6 +91,7 @@ public class CrawlJobModel extends LinkedHashMap<String, Object> implements Seri
         this.put("elapsedReport", crawlJob.elapsedReportData()); 
         this.put("threadReport", crawlJob.threadReportData()); 
         this.put("frontierReport", crawlJob.frontierReportData());
+        this.put("bdbReport", crawlJob.bdbReportData());
         this.put("crawlLogTail", generateCrawlLogTail());
         this.put("configFiles",generateConfigReferencedPaths(urlBaseRef));
 
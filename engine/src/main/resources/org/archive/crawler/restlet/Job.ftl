@@ -246,6 +246,16 @@
 							</#if>
 						</td>
 					</tr>
+					<tr>
+						<th><a href="report/BdbReport">BDB</a></th>
+						<td>
+							<#if !job.bdbReport?? || !job.bdbReport.cacheMisses??>
+							<i>n/a</i>
+							<#else>
+							${job.bdbReport.performanceProfile} profile; ${job.bdbReport.cacheMisses} cache misses; ${job.bdbReport.cleanerBacklog} cleaner backlog; ${job.bdbReport.nodesEvicted} nodes evicted; ${job.bdbReport.checkpoints} checkpoints
+							</#if>
+						</td>
+					</tr>
 					<tr>
 						<th>Memory</th>
 						<td>${(heapReport.usedBytes/1024)?string("0")} KiB used; ${(heapReport.totalBytes/1024)?string("0")} KiB current heap; ${(heapReport.maxBytes/1024)?string("0")} KiB max heap</td>
@@ -0,0 +1,92 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.framework;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.fetcher.DNSWarmup;
+import org.archive.net.UURI;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests of how ActionDirectory warms DNS for the URIs it imports.
+ */
+public class ActionDirectoryTest extends TmpDirTestCase {
+
+    /**
+     * Records the batches it is given, looking nothing up.
+     */
+    protected static class RecordingWarmup extends DNSWarmup {
+        List<List<String>> batches = new ArrayList<List<String>>();
+        List<String> batch = new ArrayList<String>();
+
+        @Override
+        public void addToBatch(UURI uuri) {
+            batch.add(uuri.toString());
+        }
+
+        @Override
+        public void concludeBatch() {
+            batches.add(batch);
+            batch = new ArrayList<String>();
+        }
+    }
+
+    protected ActionDirectory actionDirectory;
+    protected RecordingWarmup warmup;
+    protected File recoverLog;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        actionDirectory = new ActionDirectory();
+        warmup = new RecordingWarmup();
+        actionDirectory.setDnsWarmup(warmup);
+        recoverLog = new File(getTmpDir(), "ActionDirectoryTest.recover");
+        FileUtils.writeLines(recoverLog, Arrays.asList(
+                "F+ http://a.example.com/ L http://example.com/ a/@href",
+                "Fs http://b.example.com/",
+                "",
+                "F+ %%% bad",
+                "F+ http://c.example.com/x"));
+    }
+
+    public void testWarmsScheduledLines() throws Exception {
+        actionDirectory.warmDns(recoverLog, "F\\+ ");
+        assertEquals(1, warmup.batches.size());
+        assertEquals(Arrays.asList("http://a.example.com/",
+                "http://c.example.com/x"), warmup.batches.get(0));
+
+        actionDirectory.warmDns(recoverLog, ".*");
+        assertEquals(2, warmup.batches.size());
+        assertEquals(Arrays.asList("http://a.example.com/",
+                "http://b.example.com/", "http://c.example.com/x"),
+                warmup.batches.get(1));
+    }
+
+    public void testWithoutWarmup() throws Exception {
+        actionDirectory.setDnsWarmup(null);
+        actionDirectory.warmDns(recoverLog, ".*");
+        assertTrue(warmup.batches.isEmpty());
+    }
+}
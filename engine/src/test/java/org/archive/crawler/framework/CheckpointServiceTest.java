@@ -0,0 +1,149 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.CheckpointDependent;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for the concurrent, dependency-ordered doCheckpoint() phase of
+ * CheckpointService. 
+ */
+public class CheckpointServiceTest extends TmpDirTestCase {
+
+    protected List<String> completed = new CopyOnWriteArrayList<String>();
+    
+    protected class SleepyCheckpointable implements Checkpointable {
+        String name;
+        long sleepMs;
+        public SleepyCheckpointable(String name, long sleepMs) {
+            this.name = name;
+            this.sleepMs = sleepMs;
+        }
+        public void startCheckpoint(Checkpoint checkpointInProgress) {}
+        public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            completed.add(name);
+        }
+        public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+        public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {}
+    }
+    
+    /**
+     * Checkpointable that completes only once all others sharing its
+     * barrier are checkpointing at the same time.
+     */
+    protected class BarrierCheckpointable extends SleepyCheckpointable {
+        CyclicBarrier barrier;
+        public BarrierCheckpointable(String name, CyclicBarrier barrier) {
+            super(name, 0);
+            this.barrier = barrier;
+        }
+        @Override
+        public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+            try {
+                barrier.await(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new IOException(name + " not run concurrently", e);
+            }
+            completed.add(name);
+        }
+    }
+
+    protected class LastCheckpointable extends SleepyCheckpointable 
+    implements CheckpointDependent {
+        public LastCheckpointable(String name) {
+            super(name, 0);
+        }
+        public boolean checkpointsAfter(Checkpointable other) {
+            return true;
+        }
+    }
+    
+    protected CheckpointService makeService(int threads) throws IOException {
+        CheckpointService service = new CheckpointService();
+        service.setCheckpointThreads(threads);
+        service.setCheckpointsDir(new ConfigPath("test",
+                new File(getTmpDir(), "checkpointServiceTest").getAbsolutePath()));
+        service.checkpointInProgress = new Checkpoint();
+        service.checkpointInProgress.generateFrom(service.getCheckpointsDir(), 1);
+        return service;
+    }
+    
+    public void testDependentRunsLast() throws Exception {
+        CheckpointService service = makeService(4);
+        Map<String,Checkpointable> beans = new LinkedHashMap<String,Checkpointable>();
+        // a, b, c can only finish if they run concurrently
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        beans.put("last", new LastCheckpointable("last"));
+        beans.put("a", new BarrierCheckpointable("a", barrier));
+        beans.put("b", new BarrierCheckpointable("b", barrier));
+        beans.put("c", new BarrierCheckpointable("c", barrier));
+        Map<String,Long> timings = new ConcurrentHashMap<String,Long>();
+        
+        service.doCheckpoints(beans, timings);
+
+        assertEquals(4, completed.size());
+        assertEquals("last", completed.get(3));
+        assertEquals(beans.keySet(), timings.keySet());
+    }
+    
+    public void testSerialWithOneThread() throws Exception {
+        CheckpointService service = makeService(1);
+        Map<String,Checkpointable> beans = new LinkedHashMap<String,Checkpointable>();
+        beans.put("a", new SleepyCheckpointable("a", 30));
+        beans.put("b", new SleepyCheckpointable("b", 20));
+        beans.put("c", new SleepyCheckpointable("c", 10));
+        service.doCheckpoints(beans, new ConcurrentHashMap<String,Long>());
+        assertEquals(beans.keySet().toString(), completed.toString());
+    }
+    
+    public void testCircularDependencyFails() throws Exception {
+        CheckpointService service = makeService(2);
+        Map<String,Checkpointable> beans = new LinkedHashMap<String,Checkpointable>();
+        beans.put("x", new LastCheckpointable("x"));
+        beans.put("y", new LastCheckpointable("y"));
+        try {
+            service.doCheckpoints(beans, new ConcurrentHashMap<String,Long>());
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(Collections.emptyList(), completed);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.archive.util.Recorder;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests of RecorderPool's choice of recorder sizes and its cap on
+ * memory.
+ */
+public class RecorderPoolTest extends TmpDirTestCase {
+
+    // 1KB out; 2KB in small, 10KB in large
+    protected static final int OUT = 1024;
+    protected static final int SMALL = 2 * 1024;
+    protected static final int LARGE = 10 * 1024;
+
+    protected RecorderPool pool(long maxBytes) {
+        return new RecorderPool(getTmpDir(), OUT, SMALL, LARGE, maxBytes);
+    }
+
+    public void testSizedByExpectedLength() {
+        RecorderPool pool = pool(100 * 1024);
+        Recorder small = pool.borrow(500);
+        assertEquals(OUT + SMALL, pool.getAllocatedBytes());
+        Recorder large = pool.borrow(5000);
+        Recorder unknown = pool.borrow(-1);
+        assertEquals(3 * OUT + SMALL + 2 * LARGE, pool.getAllocatedBytes());
+        assertEquals(3, pool.getInUseCount());
+
+        pool.giveBack(small);
+        pool.giveBack(large);
+        pool.giveBack(unknown);
+        assertEquals(0, pool.getInUseCount());
+        // reused, not allocated anew
+        assertSame(small, pool.borrow(100));
+        assertSame(unknown, pool.borrow(-1));
+        assertEquals(3 * OUT + SMALL + 2 * LARGE, pool.getAllocatedBytes());
+        pool.cleanup();
+    }
+
+    public void testCappedMemory() {
+        // room for two large
+        RecorderPool pool = pool(2 * (OUT + LARGE) + 100);
+        pool.borrow(-1);
+        pool.borrow(-1);
+        // no room for a third: small instead, though over the cap
+        pool.borrow(-1);
+        pool.borrow(-1);
+        assertEquals(2, pool.getDowngrades());
+        assertEquals(4, pool.getInUseCount());
+        assertEquals(2 * (OUT + LARGE) + 2 * (OUT + SMALL),
+                pool.getAllocatedBytes());
+        pool.cleanup();
+    }
+
+    public void testIdleLargeServesWhenFull() {
+        RecorderPool pool = pool(OUT + LARGE);
+        Recorder large = pool.borrow(-1);
+        pool.giveBack(large);
+        // no room for a new small one, so the idle large one serves
+        assertSame(large, pool.borrow(100));
+        assertEquals(OUT + LARGE, pool.getAllocatedBytes());
+        pool.giveBack(large);
+        pool.cleanup();
+        assertEquals(0, pool.getAllocatedBytes());
+    }
+
+    public void testDiscard() {
+        RecorderPool pool = pool(100 * 1024);
+        Recorder large = pool.borrow(-1);
+        pool.borrow(100);
+        pool.discard(large);
+        assertEquals(1, pool.getInUseCount());
+        assertEquals(OUT + SMALL, pool.getAllocatedBytes());
+        StringWriter report = new StringWriter();
+        pool.reportTo(new PrintWriter(report));
+        assertTrue(report.toString().contains("1 in use"));
+        pool.cleanup();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+
+/**
+ * Tests for SnoozeTimingWheel, using simulated time.
+ */
+public class SnoozeTimingWheelTest extends TestCase {
+    
+    protected static DelayedWorkQueue snoozed(String classKey, long wakeTime) {
+        WorkQueue wq = new WorkQueue(classKey) {
+            private static final long serialVersionUID = 1L;
+            protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                    boolean overwriteIfPresent) {
+            }
+            protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                    String match) {
+                return 0;
+            }
+            protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item) {
+            }
+            protected CrawlURI peekItem(WorkQueueFrontier frontier) {
+                return null;
+            }
+        };
+        wq.setWakeTime(wakeTime);
+        return new DelayedWorkQueue(wq);
+    }
+
+    public void testWakesInOrderNeverEarly() {
+        long now = 1000000;
+        SnoozeTimingWheel wheel = new SnoozeTimingWheel(null, 1000, 10, 16, 8, now);
+        wheel.add(snoozed("c", now + 500));
+        wheel.add(snoozed("a", now + 5));
+        wheel.add(snoozed("b", now + 170));
+        assertEquals(3, wheel.size());
+        assertNull(wheel.poll(now + 4));
+        assertEquals("a", wheel.poll(now + 10).getClassKey());
+        assertNull(wheel.poll(now + 169));
+        assertTrue(wheel.getDelayToNext(now + 169) <= 11);
+        assertEquals("b", wheel.poll(now + 175).getClassKey());
+        assertEquals("c", wheel.poll(now + 600).getClassKey());
+        assertNull(wheel.poll(now + 600));
+        assertEquals(0, wheel.size());
+        assertEquals(-1, wheel.getDelayToNext(now + 600));
+    }
+    
+    public void testOverflowAgainstModel() {
+        Random random = new Random(7);
+        long now = 1000000;
+        // small memory cap and horizon, so many queues pass through overflow
+        SnoozeTimingWheel wheel = new SnoozeTimingWheel(
+                new TreeMap<Long,DelayedWorkQueue>(), 50, 10, 16, 8, now);
+        Map<String,Long> expected = new HashMap<String,Long>();
+        Set<Long> wakeTimes = new HashSet<Long>();
+        for (int i = 0; i < 20000; i++) {
+            // unique wake times, as plain TreeMap drops duplicate keys
+            long wake = (random.nextInt(10) == 0)
+                ? now + random.nextInt(5000000) : now + random.nextInt(3000);
+            if (random.nextInt(3) == 0 && wakeTimes.add(wake)) {
+                String key = "q" + i;
+                expected.put(key, wake);
+                wheel.add(snoozed(key, wake));
+            }
+            now += random.nextInt(15);
+            DelayedWorkQueue dq;
+            while ((dq = wheel.poll(now)) != null) {
+                Long expectedWake = expected.remove(dq.getClassKey());
+                assertNotNull("woken twice: " + dq.getClassKey(), expectedWake);
+                assertTrue("woken early", expectedWake <= now);
+            }
+            assertEquals(expected.size(), wheel.size());
+        }
+        assertEquals(wheel.size(), wheel.removeAll().size());
+        assertEquals(0, wheel.size());
+    }
+
+    protected static void raiseTo(AtomicInteger most, int value) {
+        int m;
+        while (value > (m = most.get()) && !most.compareAndSet(m, value)) {
+        }
+    }
+
+    public void testConcurrentBeyondMaxInMemory() throws Exception {
+        final int threads = 4;
+        final int perThread = 5000;
+        final long start = 1000000;
+        final AtomicLong clock = new AtomicLong(start);
+        final SnoozeTimingWheel wheel = new SnoozeTimingWheel(
+                new ConcurrentSkipListMap<Long,DelayedWorkQueue>(), 50, 10, 16, 8, start);
+        final Map<String,Long> pending = new ConcurrentHashMap<String,Long>();
+        final AtomicInteger mostHeld = new AtomicInteger(0);
+        final AtomicInteger mostOverflowed = new AtomicInteger(0);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] adders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            adders[t] = new Thread() {
+                public void run() {
+                    try {
+                        Random random = new Random(thread);
+                        Set<Long> wakeTimes = new HashSet<Long>();
+                        for (int i = 0; i < perThread; i++) {
+                            long base = clock.get() + ((random.nextInt(10) == 0)
+                                ? random.nextInt(50000000) : random.nextInt(3000));
+                            // unique across threads, as the skip list drops duplicates
+                            long wake = base - (base % threads) + thread;
+                            if (!wakeTimes.add(wake)) {
+                                continue;
+                            }
+                            String key = "q" + thread + "-" + i;
+                            pending.put(key, wake);
+                            wheel.add(snoozed(key, wake));
+                            raiseTo(mostHeld, wheel.size());
+                            raiseTo(mostOverflowed, wheel.getOverflowCount());
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            adders[t].start();
+        }
+
+        Random random = new Random(7);
+        boolean adding = true;
+        while (adding) {
+            adding = false;
+            for (Thread adder : adders) {
+                adding |= adder.isAlive();
+            }
+            long now = clock.addAndGet(random.nextInt(15));
+            DelayedWorkQueue dq;
+            while ((dq = wheel.poll(now)) != null) {
+                Long expectedWake = pending.remove(dq.getClassKey());
+                assertNotNull("woken twice: " + dq.getClassKey(), expectedWake);
+                assertTrue("woken early", expectedWake <= now);
+            }
+        }
+        assertNull(failure[0]);
+        assertTrue(mostHeld.get() > 50);
+        assertTrue(mostOverflowed.get() > 0);
+
+        long now = clock.get() + 100000000;
+        DelayedWorkQueue dq;
+        while ((dq = wheel.poll(now)) != null) {
+            assertNotNull("woken twice: " + dq.getClassKey(),
+                    pending.remove(dq.getClassKey()));
+        }
+        assertTrue(pending.isEmpty());
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.getOverflowCount());
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.frontier.WorkQueueTest.MemoryWorkQueue;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.ObjectIdentityMemCache;
+import org.archive.util.Supplier;
+
+/**
+ * Tests of how WorkQueueFrontier moves a queue between states as URIs
+ * handed out from it finish, when several may be in process at once.
+ */
+public class WorkQueueFrontierTest extends TestCase {
+
+    /**
+     * WorkQueueFrontier holding all its queues in memory.
+     */
+    protected static class MemoryFrontier extends WorkQueueFrontier {
+        SortedMap<Integer,Queue<String>> inactiveQueuesByPrecedence =
+            new ConcurrentSkipListMap<Integer,Queue<String>>();
+        Queue<String> retiredQueues = new ConcurrentLinkedQueue<String>();
+
+        public MemoryFrontier() {
+            allQueues = new ObjectIdentityMemCache<WorkQueue>();
+            readyClassQueues = new LinkedBlockingQueue<String>();
+            snoozedQueues = new SnoozeTimingWheel(null, MAX_SNOOZED_IN_MEMORY);
+        }
+
+        protected void initAllQueues() {
+        }
+
+        protected void initOtherQueues() {
+        }
+
+        protected SortedMap<Integer,Queue<String>> getInactiveQueuesByPrecedence() {
+            return inactiveQueuesByPrecedence;
+        }
+
+        protected Queue<String> createInactiveQueueForPrecedence(int precedence) {
+            return new ConcurrentLinkedQueue<String>();
+        }
+
+        protected Queue<String> getRetiredQueues() {
+            return retiredQueues;
+        }
+
+        protected WorkQueue getQueueFor(String classKey) {
+            return allQueues.get(classKey);
+        }
+
+        protected boolean workQueueDataOnDisk() {
+            return false;
+        }
+
+        public FrontierGroup getGroup(CrawlURI curi) {
+            return getQueueFor(curi.getClassKey());
+        }
+
+        public CompositeData getURIsList(String marker, int numberOfMatches,
+                String pattern, boolean verbose) {
+            return null;
+        }
+    }
+
+    protected MemoryFrontier frontier;
+    protected MemoryWorkQueue wq;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        frontier = new MemoryFrontier();
+        wq = fill(3, 5);
+    }
+
+    protected MemoryWorkQueue fill(int max, int uris) throws Exception {
+        MemoryWorkQueue queue = new MemoryWorkQueue("example.com");
+        frontier.allQueues.getOrUse(queue.getClassKey(),
+                new Supplier<WorkQueue>(queue));
+        queue.setMaxInProcess(max);
+        for (int i = 0; i < uris; i++) {
+            CrawlURI curi = new CrawlURI(
+                    UURIFactory.getInstance("http://example.com/" + i));
+            curi.setOrdinal(i);
+            queue.enqueue(frontier, curi);
+        }
+        return queue;
+    }
+
+    /**
+     * Claim a place and hand out the peeked URI, as findEligibleURI does.
+     */
+    protected CrawlURI next() {
+        if (!frontier.claimInProcess(wq)) {
+            return null;
+        }
+        CrawlURI curi = wq.peek(frontier);
+        wq.issue(frontier, curi);
+        return curi;
+    }
+
+    /**
+     * Dispose of a finished URI and send its queue on, as processFinish
+     * does.
+     */
+    protected void finish(CrawlURI curi, boolean forceRetire, long now,
+            long delay_ms) {
+        wq.dequeueIssued(curi);
+        frontier.handleQueue(wq, forceRetire, now, delay_ms);
+    }
+
+    public void testFinishWhileOthersInProcess() throws Exception {
+        CrawlURI a = next();
+        CrawlURI b = next();
+        CrawlURI c = next();
+        assertEquals(3, wq.getInProcessCount());
+        assertTrue(frontier.inProcessQueues.contains(wq));
+
+        // no delay: readied at once for another URI
+        finish(a, false, System.currentTimeMillis(), 0);
+        assertTrue(frontier.inProcessQueues.contains(wq));
+        assertEquals("example.com", frontier.readyClassQueues.poll());
+        assertNotNull(next());
+
+        // a delay snoozes, holding back further URIs but not those out
+        long now = System.currentTimeMillis();
+        finish(b, false, now, 60000);
+        assertTrue(frontier.readyClassQueues.isEmpty());
+        assertEquals(now + 60000, wq.getWakeTime());
+        assertEquals(1, frontier.getSnoozedCount());
+        assertEquals(2, wq.getInProcessCount());
+        assertTrue(frontier.inProcessQueues.contains(wq));
+        assertNull(next());
+
+        // a later finish without delay leaves it snoozed
+        finish(c, false, now, 0);
+        assertEquals(1, wq.getInProcessCount());
+        assertEquals(1, frontier.getSnoozedCount());
+    }
+
+    public void testLastFinisherRetires() throws Exception {
+        CrawlURI a = next();
+        CrawlURI b = next();
+        finish(a, true, System.currentTimeMillis(), 0);
+        assertFalse(wq.isRetired());
+        assertTrue(frontier.retiredQueues.isEmpty());
+        // no more handed out meanwhile
+        assertTrue(frontier.readyClassQueues.isEmpty());
+        assertNull(next());
+
+        finish(b, false, System.currentTimeMillis(), 0);
+        assertTrue(wq.isRetired());
+        assertEquals("example.com", frontier.retiredQueues.poll());
+        assertFalse(frontier.inProcessQueues.contains(wq));
+        assertFalse(wq.takeRetireWhenIdle());
+    }
+
+    public void testSupersededSnoozeSkipped() throws Exception {
+        CrawlURI a = next();
+        CrawlURI b = next();
+        CrawlURI c = next();
+        long then = System.currentTimeMillis() - 10000;
+        // due by now, but then lengthened past now
+        finish(a, false, then, 1000);
+        finish(b, false, then, 60000);
+        assertEquals(then + 60000, wq.getWakeTime());
+        assertEquals(2, frontier.getSnoozedCount());
+
+        // already snoozed at least as long: no further entry
+        finish(c, false, then, 500);
+        assertEquals(2, frontier.getSnoozedCount());
+        assertEquals(0, wq.getInProcessCount());
+        assertFalse(frontier.inProcessQueues.contains(wq));
+
+        frontier.wakeQueues();
+        assertTrue(frontier.readyClassQueues.isEmpty());
+        assertEquals(then + 60000, wq.getWakeTime());
+        assertEquals(1, frontier.getSnoozedCount());
+    }
+
+    public void testWakesWhenDue() throws Exception {
+        CrawlURI a = next();
+        long then = System.currentTimeMillis() - 10000;
+        finish(a, false, then, 1000);
+        frontier.wakeQueues();
+        assertEquals(0, wq.getWakeTime());
+        assertEquals("example.com", frontier.readyClassQueues.poll());
+        assertEquals(0, frontier.getSnoozedCount());
+    }
+
+    public void testLastFinisherSettlesOverBudget() throws Exception {
+        wq.setSessionBudget(1);
+        CrawlURI a = next();
+        CrawlURI b = next();
+        wq.expend(2);
+
+        // found over budget while others are in process: left in process
+        assertTrue(frontier.claimInProcess(wq));
+        assertTrue(frontier.releaseIfOverBudget(wq));
+        assertEquals(2, wq.getInProcessCount());
+        assertTrue(frontier.inProcessQueues.contains(wq));
+        assertTrue(frontier.inactiveQueuesByPrecedence.isEmpty());
+
+        finish(a, false, System.currentTimeMillis(), 0);
+        frontier.readyClassQueues.clear();
+        finish(b, false, System.currentTimeMillis(), 0);
+        assertEquals("example.com", frontier.readyClassQueues.poll());
+        assertFalse(frontier.inProcessQueues.contains(wq));
+
+        // once claimed again, with nothing else out, deactivated
+        assertTrue(frontier.claimInProcess(wq));
+        assertTrue(frontier.releaseIfOverBudget(wq));
+        assertEquals(0, wq.getInProcessCount());
+        assertFalse(frontier.inProcessQueues.contains(wq));
+        assertEquals("example.com", frontier.getInactiveQueuesForPrecedence(
+                wq.getPrecedence()).poll());
+    }
+
+    public void testLastFinisherRetiresOverTotalBudget() throws Exception {
+        wq.setTotalBudget(2);
+        CrawlURI a = next();
+        wq.expend(2);
+        assertTrue(frontier.claimInProcess(wq));
+        assertTrue(frontier.releaseIfOverBudget(wq));
+        assertFalse(wq.isRetired());
+
+        finish(a, false, System.currentTimeMillis(), 0);
+        assertTrue(frontier.claimInProcess(wq));
+        assertTrue(frontier.releaseIfOverBudget(wq));
+        assertTrue(wq.isRetired());
+        assertEquals("example.com", frontier.retiredQueues.poll());
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.IOException;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests of WorkQueue's accounting of URIs in process, one at a time and
+ * several at once.
+ */
+public class WorkQueueTest extends TestCase {
+
+    /**
+     * WorkQueue holding its items in memory, in ordinal order.
+     */
+    protected static class MemoryWorkQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+
+        TreeMap<Long,CrawlURI> items = new TreeMap<Long,CrawlURI>();
+
+        public MemoryWorkQueue(String classKey) {
+            super(classKey);
+        }
+
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean overwriteIfPresent) throws IOException {
+            items.put(curi.getOrdinal(), curi);
+        }
+
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) throws IOException {
+            return 0;
+        }
+
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item)
+                throws IOException {
+            items.remove(item.getOrdinal());
+        }
+
+        protected CrawlURI peekItem(WorkQueueFrontier frontier)
+                throws IOException {
+            return items.isEmpty() ? null : items.firstEntry().getValue();
+        }
+    }
+
+    protected MemoryWorkQueue fill(int max, int uris) throws Exception {
+        MemoryWorkQueue wq = new MemoryWorkQueue("example.com");
+        wq.setMaxInProcess(max);
+        for (int i = 0; i < uris; i++) {
+            CrawlURI curi = new CrawlURI(
+                    UURIFactory.getInstance("http://example.com/" + i));
+            curi.setOrdinal(i);
+            wq.enqueue(null, curi);
+        }
+        return wq;
+    }
+
+    /**
+     * Claim a place and hand out the peeked URI, as the frontier does.
+     */
+    protected CrawlURI next(WorkQueue wq, long now) {
+        if (!wq.claimInProcess(now)) {
+            return null;
+        }
+        CrawlURI curi = wq.peek(null);
+        wq.issue(null, curi);
+        return curi;
+    }
+
+    /**
+     * Dispose of a finished URI and release its place, as the frontier
+     * does.
+     */
+    protected void finish(WorkQueue wq, CrawlURI curi) {
+        if (wq.isIssued(curi)) {
+            wq.dequeueIssued(curi);
+        } else {
+            wq.dequeue(null, curi);
+        }
+        wq.releaseInProcess();
+    }
+
+    public void testOneAtATime() throws Exception {
+        MemoryWorkQueue wq = fill(1, 3);
+        CrawlURI first = next(wq, 0);
+        assertNotNull(first);
+        assertFalse(wq.isIssued(first));
+        assertFalse(wq.canIssueMore());
+        assertNull(next(wq, 0));
+        // stays in the store until finished
+        assertEquals(3, wq.items.size());
+        finish(wq, first);
+        assertEquals(2, wq.getCount());
+        assertEquals(0, wq.getInProcessCount());
+        CrawlURI second = next(wq, 0);
+        assertNotSame(first, second);
+        assertEquals(1, second.getOrdinal());
+    }
+
+    public void testSeveralAtOnce() throws Exception {
+        MemoryWorkQueue wq = fill(3, 5);
+        CrawlURI a = next(wq, 0);
+        assertTrue(wq.canIssueMore());
+        CrawlURI b = next(wq, 0);
+        CrawlURI c = next(wq, 0);
+        assertEquals(0, a.getOrdinal());
+        assertEquals(1, b.getOrdinal());
+        assertEquals(2, c.getOrdinal());
+        assertTrue(wq.isIssued(a) && wq.isIssued(b) && wq.isIssued(c));
+        assertEquals(3, wq.getInProcessCount());
+        assertFalse(wq.canIssueMore());
+        assertNull(next(wq, 0));
+        // issued URIs are still counted, though out of the store
+        assertEquals(5, wq.getCount());
+        assertEquals(2, wq.items.size());
+
+        finish(wq, b);
+        assertEquals(4, wq.getCount());
+        assertEquals(2, wq.getInProcessCount());
+        assertEquals(3, next(wq, 0).getOrdinal());
+    }
+
+    public void testRetryReturnsToStore() throws Exception {
+        MemoryWorkQueue wq = fill(2, 2);
+        CrawlURI a = next(wq, 0);
+        CrawlURI b = next(wq, 0);
+        assertFalse(wq.canIssueMore());
+        wq.reinsertIssued(null, a);
+        wq.releaseInProcess();
+        assertFalse(wq.isIssued(a));
+        assertEquals(2, wq.getCount());
+        assertSame(a, next(wq, 0));
+        finish(wq, a);
+        finish(wq, b);
+        assertEquals(0, wq.getCount());
+        assertEquals(0, wq.getInProcessCount());
+        assertNull(wq.peek(null));
+    }
+
+    public void testNothingLeftToIssue() throws Exception {
+        MemoryWorkQueue wq = fill(4, 2);
+        next(wq, 0);
+        next(wq, 0);
+        assertFalse(wq.canIssueMore());
+        assertFalse(wq.claimInProcess(0));
+        assertNull(wq.peek(null));
+    }
+
+    public void testSnoozeHoldsBackFurtherURIs() throws Exception {
+        MemoryWorkQueue wq = fill(2, 3);
+        CrawlURI a = next(wq, 1000);
+        wq.setWakeTime(2000);
+        assertNull(next(wq, 1500));
+        assertNotNull(next(wq, 2000));
+        finish(wq, a);
+    }
+
+    public void testRetireWhenIdle() throws Exception {
+        MemoryWorkQueue wq = fill(2, 3);
+        CrawlURI a = next(wq, 0);
+        next(wq, 0);
+        finish(wq, a);
+        wq.setRetireWhenIdle(true);
+        assertFalse(wq.claimInProcess(0));
+        assertTrue(wq.takeRetireWhenIdle());
+        assertFalse(wq.takeRetireWhenIdle());
+    }
+
+    /**
+     * URIs from one queue finished in a fixed time by several workers, 
+     * with each fetch taking FETCH_MS, as the most in process at once 
+     * grows.
+     */
+    public void testThroughputScalesWithMaxInProcess() throws Exception {
+        int one = throughput(1);
+        assertEquals(RUN_MS / FETCH_MS - 1, one);
+        assertEquals(4 * one, throughput(4));
+        assertEquals(WORKERS * one, throughput(WORKERS + 2));
+    }
+
+    protected static final long FETCH_MS = 20;
+    protected static final long RUN_MS = 1000;
+    protected static final int WORKERS = 8;
+
+    /**
+     * Run WORKERS workers against one queue, in simulated time stepped a
+     * millisecond at a time.
+     * 
+     * @return URIs finished in RUN_MS
+     */
+    protected int throughput(int max) throws Exception {
+        MemoryWorkQueue wq = fill(max, 10000);
+        CrawlURI[] fetching = new CrawlURI[WORKERS];
+        long[] doneAt = new long[WORKERS];
+        int finished = 0;
+        for (long now = 0; now < RUN_MS; now++) {
+            for (int i = 0; i < WORKERS; i++) {
+                if (fetching[i] != null && doneAt[i] <= now) {
+                    finish(wq, fetching[i]);
+                    fetching[i] = null;
+                    finished++;
+                }
+            }
+            for (int i = 0; i < WORKERS; i++) {
+                if (fetching[i] == null) {
+                    fetching[i] = next(wq, now);
+                    doneAt[i] = now + FETCH_MS;
+                }
+            }
+        }
+        return finished;
+    }
+}
@@ -84,6 +84,7 @@ import org.apache.commons.lang.StringUtils;
 import org.archive.bdb.AutoKryo;
 import org.archive.modules.credential.Credential;
 import org.archive.modules.credential.HttpAuthenticationCredential;
+import org.archive.modules.extractor.ContentFamily;
 import org.archive.modules.extractor.HTMLLinkContext;
 import org.archive.modules.extractor.Hop;
 import org.archive.modules.extractor.LinkContext;
@@ -600,6 +601,21 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
             ct = "unknown";
         }
         this.contentType = ct;
+        this.contentFamilies = null;
+    }
+
+    /**
+     * Families of the fetched content, found once per fetch by the
+     * FetchChain; null until then.
+     */
+    transient private Set<ContentFamily> contentFamilies = null;
+
+    public Set<ContentFamily> getContentFamilies() {
+        return contentFamilies;
+    }
+
+    public void setContentFamilies(Set<ContentFamily> families) {
+        this.contentFamilies = families;
     }
 
     /**
@@ -882,6 +898,7 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         outLinks = null;
         
         this.revisitProfile = null;
+        this.contentFamilies = null;
         
         // XXX er uh surprised this wasn't here before?
         fetchType = FetchType.UNKNOWN;
@@ -1671,6 +1688,21 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         discardedOutlinks++;
     }
 
+    /**
+     * @return number of outlinks discarded for exceeding the limit
+     */
+    public int getDiscardedOutLinks() {
+        return discardedOutlinks;
+    }
+
+    /**
+     * Reset the count of discarded outlinks, as when undoing an
+     * abandoned extraction.
+     */
+    public void setDiscardedOutLinks(int discardedOutlinks) {
+        this.discardedOutlinks = discardedOutlinks;
+    }
+
     /**
      * @return the precedence
      */
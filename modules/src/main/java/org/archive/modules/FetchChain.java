@@ -1,5 +1,76 @@
 package org.archive.modules;
 
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.archive.modules.extractor.ContentExtractor;
+import org.archive.modules.extractor.ContentFamily;
+
 public class FetchChain extends ProcessorChain {
 
+    /**
+     * Whether to classify each fetched URI's content once, by
+     * {@link ContentFamily}, and offer it only to the ContentExtractors
+     * that declare they accept one of its families, rather than having
+     * every extractor inspect every URI.
+     */
+    {
+        setDispatchByContentFamily(true);
+    }
+    public boolean getDispatchByContentFamily() {
+        return (Boolean) kp.get("dispatchByContentFamily");
+    }
+    public void setDispatchByContentFamily(boolean dispatch) {
+        kp.put("dispatchByContentFamily", dispatch);
+    }
+
+    /** URIs classified in each family, by ordinal */
+    protected AtomicLongArray familyCounts =
+        new AtomicLongArray(ContentFamily.values().length);
+    protected AtomicLong unclassifiedCount = new AtomicLong(0);
+
+    @Override
+    protected boolean shouldInvoke(Processor proc, CrawlURI curi) {
+        if (!(proc instanceof ContentExtractor) || !getDispatchByContentFamily()) {
+            return true;
+        }
+        ContentExtractor extractor = (ContentExtractor) proc;
+        Set<ContentFamily> accepted = extractor.getAcceptedFamilies();
+        if (accepted == null) {
+            return true;
+        }
+        Set<ContentFamily> families = curi.getContentFamilies();
+        if (families == null) {
+            families = ContentFamily.classify(curi);
+            curi.setContentFamilies(families);
+            for (ContentFamily family : families) {
+                familyCounts.incrementAndGet(family.ordinal());
+            }
+            if (families.isEmpty()) {
+                unclassifiedCount.incrementAndGet();
+            }
+        }
+        for (ContentFamily family : families) {
+            if (accepted.contains(family)) {
+                extractor.noteDispatch(true);
+                return true;
+            }
+        }
+        extractor.noteDispatch(false);
+        return false;
+    }
+
+    @Override
+    public void reportTo(PrintWriter writer) {
+        super.reportTo(writer);
+        if (getDispatchByContentFamily()) {
+            writer.print("Content families: ");
+            for (ContentFamily family : ContentFamily.values()) {
+                writer.print(family + " " + familyCounts.get(family.ordinal()) + ", ");
+            }
+            writer.print("none " + unclassifiedCount.get() + "\n\n");
+        }
+    }
 }
@@ -124,6 +124,9 @@ implements Iterable<Processor>,
             } else {
                 skipToProc = null; 
             }
+            if(!shouldInvoke(curProc, curi)) {
+                continue;
+            }
             if(thread!=null) {
                 thread.atProcessor(curProc);
             }
@@ -141,6 +144,14 @@ implements Iterable<Processor>,
         }
     }
     
+    /**
+     * Whether to offer curi to proc at all. All processors are offered
+     * every URI here; subclasses may dispatch more narrowly.
+     */
+    protected boolean shouldInvoke(Processor proc, CrawlURI curi) {
+        return true;
+    }
+
     public interface ChainStatusReceiver {
         public void atProcessor(Processor proc);
     }
@@ -0,0 +1,348 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * CharSequence over a stream of bytes in an ASCII-compatible charset,
+ * read incrementally through a sliding window, for the byte-stream mode
+ * of StreamingExtractorHTML.
+ *
+ * Each byte is one char: ASCII bytes as themselves, and for single-byte
+ * charsets other bytes as the char they decode to, so that offsets and
+ * lengths are exact. For UTF-8, each byte of a multi-byte sequence is
+ * presented as U+FFFD -- never markup, whitespace or a word character,
+ * which is all the tokenizer needs to know. Slices returned by
+ * subSequence() are copied, and their toString() decodes them with the
+ * real charset, so only the text actually wanted (attribute values,
+ * script and style bodies) is ever decoded.
+ *
+ * Memory is bounded by the longest stretch the reader needs at once
+ * (from the current tag to its closing delimiter), not by the length of
+ * the document: callers {@link #release(int)} everything before the
+ * position they are working from. That stretch may itself be capped
+ * with {@link #setMaxRetained(int)}, as an unterminated tag or script
+ * would otherwise run to the end of the document. {@link #length()} is
+ * only known once the stream is exhausted, so callers probe with
+ * {@link #has(int)}.
+ */
+public class ByteStreamCharSequence implements CharSequence {
+    protected static final int INITIAL_BUFFER = 16 * 1024;
+
+    protected InputStream in;
+    protected Charset charset;
+    protected boolean utf8;
+    /** chars for bytes 0x80-0xFF */
+    protected char[] high;
+
+    protected byte[] buf = new byte[INITIAL_BUFFER];
+    /** absolute index of buf[0] */
+    protected int bufStart = 0;
+    /** valid bytes in buf */
+    protected int count = 0;
+    /** absolute index before which bytes may be discarded */
+    protected int released = 0;
+    /** decoded chars represented by bytes before bufStart */
+    protected int charsBeforeBuf = 0;
+    protected boolean eof = false;
+    protected IOException ioException;
+    /** furthest to read past the release point */
+    protected int maxRetained = Integer.MAX_VALUE;
+
+    /**
+     * Thrown on reading maxRetained bytes or more past the release
+     * point.
+     */
+    public static class RetainedLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public RetainedLimitException(String message) {
+            super(message);
+        }
+    }
+
+    public ByteStreamCharSequence(InputStream in, Charset charset) {
+        this.in = in;
+        setCharset(charset);
+    }
+
+    /**
+     * @return true if every ASCII byte in the charset is the ASCII
+     * character, and never part of a multi-byte character
+     */
+    public static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name().toUpperCase();
+        return name.equals("UTF-8") || name.equals("US-ASCII")
+            || name.startsWith("ISO-8859-") || name.startsWith("WINDOWS-125")
+            || name.equals("KOI8-R") || name.equals("KOI8-U");
+    }
+
+    public int getMaxRetained() {
+        return maxRetained;
+    }
+
+    /**
+     * Furthest to read past the release point, and so the most bytes
+     * held; reading further throws a {@link RetainedLimitException}.
+     */
+    public void setMaxRetained(int maxRetained) {
+        this.maxRetained = maxRetained;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Change the charset used to present and decode bytes, as when a
+     * META tag declares one. Offsets already handed out remain valid.
+     */
+    public void setCharset(Charset charset) {
+        if (!isAsciiCompatible(charset)) {
+            throw new IllegalArgumentException(
+                    "not an ASCII-compatible charset: " + charset);
+        }
+        this.charset = charset;
+        this.utf8 = charset.name().equalsIgnoreCase("UTF-8");
+        this.high = highChars(charset, utf8);
+    }
+
+    protected static char[] highChars(Charset charset, boolean utf8) {
+        char[] chars = new char[128];
+        for (int b = 0x80; b <= 0xFF; b++) {
+            if (utf8) {
+                chars[b - 0x80] = '\uFFFD';
+            } else {
+                String s = new String(new byte[] {(byte) b}, charset);
+                chars[b - 0x80] = (s.length() == 1) ? s.charAt(0) : '\uFFFD';
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * @return any IOException met while reading, after which the stream
+     * was treated as ended
+     */
+    public IOException getIOException() {
+        return ioException;
+    }
+
+    /**
+     * @return true if index is within the content, reading further into
+     * the stream if necessary
+     */
+    public boolean has(int index) {
+        return index < bufStart + count || fill(index);
+    }
+
+    /**
+     * Read until index is in the buffer or the stream ends, first
+     * discarding released bytes and growing the buffer if needed.
+     *
+     * @return true if index is now in the buffer
+     * @throws RetainedLimitException if index is maxRetained or more
+     * bytes past the release point
+     */
+    protected boolean fill(int index) {
+        while (!eof && index >= bufStart + count) {
+            if (index - released >= maxRetained) {
+                throw new RetainedLimitException("reading to " + index
+                        + " is " + maxRetained + " or more bytes past "
+                        + released);
+            }
+            if (count == buf.length) {
+                int keep = bufStart + count - released;
+                if (keep < buf.length / 2) {
+                    int discard = released - bufStart;
+                    charsBeforeBuf += countChars(buf, 0, discard);
+                    System.arraycopy(buf, discard, buf, 0, keep);
+                    bufStart = released;
+                    count = keep;
+                } else {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, count);
+                    buf = bigger;
+                }
+            }
+            try {
+                // never past the limit, so that it is exact
+                long allowed = (long) released + maxRetained - (bufStart + count);
+                int n = in.read(buf, count,
+                        (int) Math.min(buf.length - count, allowed));
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    count += n;
+                }
+            } catch (IOException e) {
+                ioException = e;
+                eof = true;
+            }
+        }
+        return index < bufStart + count;
+    }
+
+    /**
+     * Allow bytes before index to be discarded; they must not be
+     * asked for again.
+     */
+    public void release(int index) {
+        if (index > released) {
+            released = index;
+        }
+    }
+
+    /**
+     * @return chars the bytes in the given range decode to (counting
+     * a supplementary character as two, as Java strings do)
+     */
+    protected int countChars(byte[] bytes, int from, int to) {
+        if (!utf8) {
+            return to - from;
+        }
+        int chars = 0;
+        for (int i = from; i < to; i++) {
+            int b = bytes[i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                chars++;
+                if (b >= 0xF0) {
+                    chars++;
+                }
+            }
+        }
+        return chars;
+    }
+
+    /**
+     * @return offset of the byte at index in the decoded document, as
+     * would be used with a decoded ReplayCharSequence
+     */
+    public int charOffset(int index) {
+        checkRetained(index);
+        return charsBeforeBuf + countChars(buf, 0, index - bufStart);
+    }
+
+    /**
+     * @return up to the first length bytes of the document, decoded;
+     * only available before anything is released
+     */
+    public String prefixString(int length) {
+        has(length - 1);
+        checkRetained(0);
+        return new String(buf, 0, Math.min(length, count), charset);
+    }
+
+    protected void checkRetained(int index) {
+        if (index < bufStart) {
+            throw new IllegalStateException("index " + index
+                    + " already released (" + bufStart + ")");
+        }
+    }
+
+    public char charAt(int index) {
+        checkRetained(index);
+        if (!has(index)) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        int b = buf[index - bufStart] & 0xFF;
+        return (b < 0x80) ? (char) b : high[b - 0x80];
+    }
+
+    /**
+     * Length of the whole document. Reads (and retains) the rest of
+     * the stream; prefer {@link #has(int)}.
+     */
+    public int length() {
+        has(Integer.MAX_VALUE - 1);
+        return bufStart + count;
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        checkRetained(start);
+        if (start > end || (end > start && !has(end - 1))) {
+            throw new IndexOutOfBoundsException(start + "," + end);
+        }
+        byte[] bytes = new byte[end - start];
+        System.arraycopy(buf, start - bufStart, bytes, 0, end - start);
+        return new ByteSlice(bytes, 0, bytes.length, charset, high);
+    }
+
+    /**
+     * @return text read so far, decoded
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, charset);
+    }
+
+    /**
+     * Copied run of bytes from a ByteStreamCharSequence, presented the
+     * same way, whose toString() is the properly-decoded text.
+     */
+    public static class ByteSlice implements CharSequence {
+        protected final byte[] bytes;
+        protected final int offset;
+        protected final int length;
+        protected final Charset charset;
+        protected final char[] high;
+        protected String decoded;
+
+        protected ByteSlice(byte[] bytes, int offset, int length,
+                Charset charset, char[] high) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.charset = charset;
+            this.high = high;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            int b = bytes[offset + index] & 0xFF;
+            return (b < 0x80) ? (char) b : high[b - 0x80];
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(start + "," + end);
+            }
+            return new ByteSlice(bytes, offset + start, end - start,
+                    charset, high);
+        }
+
+        @Override
+        public String toString() {
+            if (decoded == null) {
+                decoded = new String(bytes, offset, length, charset);
+            }
+            return decoded;
+        }
+    }
+}
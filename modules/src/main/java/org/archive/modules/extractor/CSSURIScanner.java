@@ -0,0 +1,236 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+/**
+ * Hand-coded scanner finding the same URIs as
+ * {@link ExtractorCSS#CSS_URI_EXTRACTOR}, in the same order, without the
+ * regex engine's per-match setup and per-position overhead.
+ *
+ * A URI follows '@import ' or 'url(' (either case), optional whitespace
+ * and an optional quote; it is the shortest run of 1 to maxLength+1
+ * chars, all but the first on one line, the first not a quote, that is
+ * followed by the same quote (if any), optional whitespace and ')' or
+ * ';'. Where that fails, the alternatives the regex would backtrack to
+ * -- '@import ' without 'url(', less of the leading whitespace, no
+ * opening quote -- are tried in the regex's order.
+ *
+ * Usage mirrors a Matcher: while find() is true, start() and end()
+ * delimit the URI text, and uri() gives it with CSS backslash escapes
+ * and '&amp;amp' resolved as ExtractorCSS always has. One instance may
+ * be reset() to scan any number of texts.
+ */
+public class CSSURIScanner {
+    protected static final String IMPORT = "@import ";
+    protected static final String URL = "url(";
+
+    protected final int maxLength;
+    protected final StringBuilder unescaped = new StringBuilder();
+    protected CharSequence cs;
+    protected int length;
+    protected int from;
+    protected int start = -1;
+    protected int end = -1;
+
+    public CSSURIScanner(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Start scanning cs from its beginning.
+     */
+    public CSSURIScanner reset(CharSequence cs) {
+        this.cs = cs;
+        this.length = cs.length();
+        this.from = 0;
+        this.start = -1;
+        this.end = -1;
+        return this;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    protected static boolean isWhitespace(char c) {
+        // as regex \s
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
+    protected static boolean isQuote(char c) {
+        return c == '\'' || c == '"';
+    }
+
+    protected static boolean isLineTerminator(char c) {
+        // as excluded from regex .
+        return c == '\n' || c == '\r' || c == 0x85 || c == 0x2028
+            || c == 0x2029;
+    }
+
+    protected boolean regionMatchesIgnoreCase(int at, String lower) {
+        // ASCII-only, as regex (?i)
+        if (at + lower.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < lower.length(); i++) {
+            char c = cs.charAt(at + i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the next URI.
+     *
+     * @return true if one was found
+     */
+    public boolean find() {
+        for (int p = from; p < length; p++) {
+            char c = cs.charAt(p);
+            if (c == '@') {
+                if (!regionMatchesIgnoreCase(p, IMPORT)) {
+                    continue;
+                }
+                int q = p + IMPORT.length();
+                if ((regionMatchesIgnoreCase(q, URL) && matchFrom(q + URL.length()))
+                        || matchFrom(q)) {
+                    return true;
+                }
+            } else if (c == 'u' || c == 'U') {
+                if (regionMatchesIgnoreCase(p, URL) && matchFrom(p + URL.length())) {
+                    return true;
+                }
+            }
+        }
+        from = length;
+        return false;
+    }
+
+    /**
+     * Match \s*(['"]?)([^'"].{0,maxLength}?)\1\s*[);] at q, backtracking
+     * as the regex does.
+     */
+    protected boolean matchFrom(int q) {
+        int spaceEnd = q;
+        while (spaceEnd < length && isWhitespace(cs.charAt(spaceEnd))) {
+            spaceEnd++;
+        }
+        for (int r = spaceEnd; r >= q; r--) {
+            if (r < length && isQuote(cs.charAt(r))
+                    && matchBody(r + 1, cs.charAt(r))) {
+                return true;
+            }
+            if (matchBody(r, (char) 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Match ([^'"].{0,maxLength}?)\1\s*[);] at s, where \1 is quote, or
+     * nothing if quote is 0.
+     */
+    protected boolean matchBody(int s, char quote) {
+        if (s >= length || isQuote(cs.charAt(s))) {
+            return false;
+        }
+        int limit = Math.min(length, s + 1 + maxLength);
+        for (int t = s + 1; t <= limit; t++) {
+            if (closesAt(t, quote)) {
+                start = s;
+                end = t;
+                return true;
+            }
+            if (t == limit || isLineTerminator(cs.charAt(t))) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Match \1\s*[);] at t, noting where the match ends.
+     */
+    protected boolean closesAt(int t, char quote) {
+        if (quote != 0) {
+            if (t >= length || cs.charAt(t) != quote) {
+                return false;
+            }
+            t++;
+        }
+        while (t < length && isWhitespace(cs.charAt(t))) {
+            t++;
+        }
+        if (t < length && (cs.charAt(t) == ')' || cs.charAt(t) == ';')) {
+            from = t + 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the URI last found, with '&amp;amp' replaced by '&amp;' and
+     * backslashes escaping commas, quotes, parentheses and whitespace
+     * removed
+     */
+    public String uri() {
+        int escape = -1;
+        for (int i = start; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '&' || c == '\\') {
+                escape = i;
+                break;
+            }
+        }
+        if (escape < 0) {
+            return cs.subSequence(start, end).toString();
+        }
+        unescaped.setLength(0);
+        for (int i = start; i < escape; i++) {
+            unescaped.append(cs.charAt(i));
+        }
+        for (int i = escape; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '&' && i + 4 <= end && cs.charAt(i + 1) == 'a'
+                    && cs.charAt(i + 2) == 'm' && cs.charAt(i + 3) == 'p') {
+                i += 3;
+            } else if (c == '\\' && i + 1 < end) {
+                char next = cs.charAt(i + 1);
+                if (next == ',' || isQuote(next) || next == '('
+                        || next == ')' || isWhitespace(next)) {
+                    c = next;
+                    i++;
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+}
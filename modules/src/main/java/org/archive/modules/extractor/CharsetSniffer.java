@@ -0,0 +1,321 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ * Finds the charset a document declares for itself by scanning its
+ * first bytes once, without decoding them.
+ *
+ * Looks, in order of precedence, for a byte-order mark, then the same
+ * declarations that {@link ExtractorHTML#getContentDeclaredCharset}
+ * finds with regular expressions over a decoded prefix:
+ * <ol>
+ * <li>the charset of the first
+ * &lt;meta http-equiv="content-type" content="..."&gt;,</li>
+ * <li>else &lt;meta charset="..."&gt;,</li>
+ * <li>else the encoding of &lt;?xml ... ?&gt;.</li>
+ * </ol>
+ * The markup involved is ASCII, so in an ASCII-compatible charset the
+ * bytes give the same answer as the decoded text; the scan covers as
+ * many bytes as {@link #PREFIX_CHARS} decoded chars would.
+ */
+public class CharsetSniffer {
+    /** decoded prefix length examined, as by ExtractorHTML */
+    public static final int PREFIX_CHARS = 1000;
+    /** most bytes PREFIX_CHARS chars of UTF-8 may take */
+    protected static final int MAX_PREFIX_BYTES = PREFIX_CHARS * 4;
+
+    protected static final byte[] META = ascii("<meta");
+    protected static final byte[] XML = ascii("<?xml");
+    protected static final byte[] HTTP_EQUIV = ascii("http-equiv");
+    protected static final byte[] CONTENT_TYPE = ascii("content-type");
+    protected static final byte[] CHARSET = ascii("charset=");
+    protected static final byte[] ENCODING = ascii("encoding=");
+
+    protected byte[] bytes;
+    protected Charset charset;
+    /** end of the bytes examined */
+    protected int end;
+
+    protected Charset bomCharset;
+    protected String declaredCharsetName;
+    protected boolean ascii = true;
+
+    protected static byte[] ascii(String s) {
+        try {
+            return s.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read the start of in and sniff it.
+     *
+     * @param charset charset the content would otherwise be decoded
+     * with, which must be ASCII-compatible
+     */
+    public static CharsetSniffer sniff(InputStream in, Charset charset)
+    throws IOException {
+        byte[] buf = new byte[MAX_PREFIX_BYTES];
+        int count = 0;
+        for (int n = 0; n >= 0 && count < buf.length;
+                n = in.read(buf, count, buf.length - count)) {
+            count += n;
+        }
+        return sniff(buf, count, charset);
+    }
+
+    public static CharsetSniffer sniff(byte[] bytes, int length, Charset charset) {
+        CharsetSniffer sniffer = new CharsetSniffer();
+        sniffer.bytes = bytes;
+        sniffer.charset = charset;
+        sniffer.end = prefixEnd(bytes, length,
+                charset.name().equalsIgnoreCase("UTF-8"));
+        sniffer.scan();
+        return sniffer;
+    }
+
+    /**
+     * @return end of the bytes that decode to the first PREFIX_CHARS
+     * chars
+     */
+    protected static int prefixEnd(byte[] bytes, int length, boolean utf8) {
+        if (!utf8) {
+            return Math.min(length, PREFIX_CHARS);
+        }
+        int chars = 0;
+        for (int i = 0; i < length; i++) {
+            if ((bytes[i] & 0xC0) != 0x80 && ++chars > PREFIX_CHARS) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return charset indicated by a byte-order mark, or null
+     */
+    public Charset getBomCharset() {
+        return bomCharset;
+    }
+
+    /**
+     * @return name of the charset the markup declares, or null
+     */
+    public String getDeclaredCharsetName() {
+        return declaredCharsetName;
+    }
+
+    /**
+     * @return true if the examined bytes are all ASCII, so decode the
+     * same in every ASCII-compatible charset
+     */
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    protected static boolean isWhitespace(int c) {
+        // as regex \s
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B
+            || c == '\f' || c == '\r';
+    }
+
+    protected static boolean isQuote(int c) {
+        return c == '\'' || c == '"';
+    }
+
+    protected static int lower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+
+    protected boolean matchesIgnoreCase(int at, byte[] lowerTarget) {
+        if (at + lowerTarget.length > end) {
+            return false;
+        }
+        for (int i = 0; i < lowerTarget.length; i++) {
+            if (lower(bytes[at + i]) != lowerTarget[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean matches(int at, byte[] target) {
+        if (at + target.length > end) {
+            return false;
+        }
+        for (int i = 0; i < target.length; i++) {
+            if (bytes[at + i] != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected String string(int from, int to) {
+        return new String(bytes, from, to - from, charset);
+    }
+
+    protected void scan() {
+        if (end >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB
+                && (bytes[2] & 0xFF) == 0xBF) {
+            bomCharset = Charset.forName("UTF-8");
+        } else if (end >= 2 && (bytes[0] & 0xFF) == 0xFE
+                && (bytes[1] & 0xFF) == 0xFF) {
+            bomCharset = Charset.forName("UTF-16BE");
+        } else if (end >= 2 && (bytes[0] & 0xFF) == 0xFF
+                && (bytes[1] & 0xFF) == 0xFE) {
+            bomCharset = Charset.forName("UTF-16LE");
+        }
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+
+        boolean httpEquivSeen = false;
+        String metaCharset = null;
+        String xmlEncoding = null;
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] != '<') {
+                continue;
+            }
+            boolean meta = matchesIgnoreCase(i, META);
+            if (!meta && (xmlEncoding != null || !matchesIgnoreCase(i, XML))) {
+                continue;
+            }
+            int from = i + META.length;
+            if (from >= end || !isWhitespace(bytes[from])) {
+                continue;
+            }
+            int gt = from;
+            while (gt < end && bytes[gt] != '>') {
+                gt++;
+            }
+            if (!meta) {
+                xmlEncoding = lastQuotedValue(from + 1, gt, ENCODING, false);
+                continue;
+            }
+            if (!httpEquivSeen && gt < end && hasHttpEquivContentType(from + 1, gt)) {
+                // only the first such tag counts, charset or not
+                httpEquivSeen = true;
+                String charset = httpEquivCharset(i, gt + 1);
+                if (charset != null) {
+                    declaredCharsetName = charset;
+                    return;
+                }
+            }
+            if (metaCharset == null) {
+                metaCharset = lastQuotedValue(from + 1, gt, CHARSET, true);
+            }
+        }
+        declaredCharsetName = (metaCharset != null) ? metaCharset : xmlEncoding;
+    }
+
+    /**
+     * @return true if http-equiv\s*=\s*['"]content-type['"] starts
+     * anywhere in [from, to)
+     */
+    protected boolean hasHttpEquivContentType(int from, int to) {
+        for (int p = from; p < to; p++) {
+            if (!matchesIgnoreCase(p, HTTP_EQUIV)) {
+                continue;
+            }
+            int q = p + HTTP_EQUIV.length;
+            while (q < to && isWhitespace(bytes[q])) {
+                q++;
+            }
+            if (q >= to || bytes[q] != '=') {
+                continue;
+            }
+            q++;
+            while (q < to && isWhitespace(bytes[q])) {
+                q++;
+            }
+            if (q < to && isQuote(bytes[q])
+                    && matchesIgnoreCase(q + 1, CONTENT_TYPE)
+                    && q + 1 + CONTENT_TYPE.length < to
+                    && isQuote(bytes[q + 1 + CONTENT_TYPE.length])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return first value of charset=([^'";\s>]+), case-sensitively,
+     * in the tag [from, to)
+     */
+    protected String httpEquivCharset(int from, int to) {
+        for (int p = from; p < to; p++) {
+            if (!matches(p, CHARSET)) {
+                continue;
+            }
+            int v = p + CHARSET.length;
+            int e = v;
+            while (e < to && !isQuote(bytes[e]) && bytes[e] != ';'
+                    && !isWhitespace(bytes[e]) && bytes[e] != '>') {
+                e++;
+            }
+            if (e > v) {
+                return string(v, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the last key=['"]value['"] whose key starts in [from, to),
+     * as a greedy [^>]* before it would.
+     *
+     * @param restricted if true, values exclude ';', whitespace and
+     * '>' as well as quotes
+     * @return the value, or null
+     */
+    protected String lastQuotedValue(int from, int to, byte[] key,
+            boolean restricted) {
+        for (int p = to - 1; p >= from; p--) {
+            if (!matchesIgnoreCase(p, key)) {
+                continue;
+            }
+            int v = p + key.length;
+            if (v >= end || !isQuote(bytes[v])) {
+                continue;
+            }
+            v++;
+            int e = v;
+            while (e < end && !isQuote(bytes[e]) && !(restricted
+                    && (bytes[e] == ';' || isWhitespace(bytes[e])
+                            || bytes[e] == '>'))) {
+                e++;
+            }
+            if (e > v && e < end && isQuote(bytes[e])) {
+                return string(v, e);
+            }
+        }
+        return null;
+    }
+}
@@ -18,8 +18,21 @@
  */
 package org.archive.modules.extractor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.archive.modules.CrawlURI;
 import org.archive.modules.fetcher.FetchStatusCodes;
+import org.springframework.beans.factory.annotation.Autowired;
 
 
 /**
@@ -29,14 +42,139 @@ import org.archive.modules.fetcher.FetchStatusCodes;
  */
 public abstract class ContentExtractor extends Extractor {
 
+    /**
+     * Content length, in chars, at or above which extractors that
+     * support it divide the content into chunks extracted concurrently
+     * on a pool of threads shared by all extractors. 0 disables.
+     */
+    {
+        setParallelExtractionThreshold(2 * 1024 * 1024);
+    }
+    public int getParallelExtractionThreshold() {
+        return (Integer) kp.get("parallelExtractionThreshold");
+    }
+    public void setParallelExtractionThreshold(int threshold) {
+        kp.put("parallelExtractionThreshold", threshold);
+    }
+
+    /**
+     * Approximate size, in chars, of each chunk of content extracted
+     * concurrently.
+     */
+    {
+        setParallelChunkSize(512 * 1024);
+    }
+    public int getParallelChunkSize() {
+        return (Integer) kp.get("parallelChunkSize");
+    }
+    public void setParallelChunkSize(int size) {
+        kp.put("parallelChunkSize", size);
+    }
+
+    protected AtomicLong parallelDocuments = new AtomicLong(0);
+    protected AtomicLong parallelChunks = new AtomicLong(0);
+    /** time spent extracting chunks, summed over pool threads */
+    protected AtomicLong parallelBusyNanos = new AtomicLong(0);
+    /** elapsed time of the documents extracted in chunks */
+    protected AtomicLong parallelElapsedNanos = new AtomicLong(0);
+
+    /**
+     * Pool shared by all ContentExtractors for chunked extraction:
+     * daemon threads, one per available processor, created on first
+     * use.
+     */
+    protected static class ChunkPool {
+        static final int PARALLELISM =
+            Runtime.getRuntime().availableProcessors();
+        static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger(0);
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r,
+                            "ContentExtractor-chunk-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Extraction from one chunk of content. Runs on a pool thread, so
+     * must not touch the CrawlURI: it only collects results, which the
+     * extracting thread then merges in document order.
+     */
+    protected interface ChunkExtraction<T> {
+        T extractChunk(CharSequence chunk);
+    }
+
+    transient protected ExtractionCache extractionCache;
+    public ExtractionCache getExtractionCache() {
+        return extractionCache;
+    }
+    /**
+     * Cache of extraction results by content digest; if set, content
+     * already extracted in the same directory is not parsed again.
+     */
+    @Autowired(required=false)
+    public void setExtractionCache(ExtractionCache extractionCache) {
+        this.extractionCache = extractionCache;
+    }
+
+    protected AtomicLong dispatchOffered = new AtomicLong(0);
+    protected AtomicLong dispatchSkipped = new AtomicLong(0);
+
+    /**
+     * @return families of content this extractor may take, so that the
+     * FetchChain need not offer it URIs of other families; null (the
+     * default) to be offered every URI
+     */
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return null;
+    }
+
+    /**
+     * Count the FetchChain's decision to offer this extractor a URI, or
+     * to skip it, by content family.
+     */
+    public void noteDispatch(boolean offered) {
+        if (offered) {
+            dispatchOffered.incrementAndGet();
+        } else {
+            dispatchSkipped.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return name distinguishing this extractor's cached results
+     */
+    protected String getCacheName() {
+        return (getBeanName() != null) ? getBeanName()
+            : getClass().getName() + "@" + System.identityHashCode(this);
+    }
+
 
     /**
      * Extracts links 
      */
     final protected void extract(CrawlURI uri) {
+        ExtractionCache cache = getExtractionCache();
+        String cacheKey = (cache == null) ? null : cache.keyFor(getCacheName(), uri);
+        ExtractionCache.Recording recording = null;
+        if (cacheKey != null) {
+            ExtractionCache.Entry cached = cache.get(cacheKey);
+            if (cached != null) {
+                numberOfLinksExtracted.addAndGet(cached.replay(uri));
+                uri.linkExtractorFinished();
+                return;
+            }
+            recording = cache.startRecording(uri);
+        }
         boolean finished = innerExtract(uri);
         if (finished) {
             uri.linkExtractorFinished();
+            if (recording != null) {
+                cache.put(cacheKey, recording.finish(uri));
+            }
         }
     }
 
@@ -113,5 +251,150 @@ public abstract class ContentExtractor extends Extractor {
      * extractors should attempt to extract links
      */
     protected abstract boolean innerExtract(CrawlURI uri);
-    
+
+    /**
+     * @return true if cs is long enough to be worth extracting in
+     * chunks
+     */
+    protected boolean shouldExtractInChunks(CharSequence cs) {
+        int threshold = getParallelExtractionThreshold();
+        return threshold > 0 && cs.length() >= threshold
+            && ChunkPool.PARALLELISM > 1;
+    }
+
+    /**
+     * @return true if a chunk may begin at index i: at a '&lt;' which
+     * does not open a CDATA section
+     */
+    protected boolean isChunkBoundary(CharSequence cs, int i) {
+        if (cs.charAt(i) != '<') {
+            return false;
+        }
+        String cdata = "<![CDATA[";
+        if (i + cdata.length() > cs.length()) {
+            return true;
+        }
+        return !cdata.contentEquals(cs.subSequence(i, i + cdata.length()));
+    }
+
+    /**
+     * Find where chunks of markup content begin: at 0, then at the
+     * first boundary at or after each further chunk size.
+     *
+     * @return chunk start offsets, ascending
+     */
+    protected int[] chunkStarts(CharSequence cs, int chunkSize) {
+        List<Integer> starts = new ArrayList<Integer>();
+        starts.add(0);
+        int length = cs.length();
+        int next = chunkSize;
+        while (next < length) {
+            int boundary = next;
+            while (boundary < length && !isChunkBoundary(cs, boundary)) {
+                boundary++;
+            }
+            if (boundary >= length) {
+                break;
+            }
+            starts.add(boundary);
+            next = boundary + chunkSize;
+        }
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Run the given extraction over cs in chunks on the shared pool.
+     *
+     * Each chunk runs from its start '&lt;' up to and including the
+     * '&lt;' starting the next, so that a pattern that may end on a
+     * '&lt;', but otherwise only contains one opening a CDATA section,
+     * finds exactly the matches it would in a single pass. Chunks are copied out of cs by the calling
+     * thread (ReplayCharSequences are not safe for concurrent reads),
+     * at most a few per pool thread ahead of completion.
+     *
+     * @return per-chunk results, in document order
+     */
+    protected <T> List<T> extractInChunks(CharSequence cs,
+            final ChunkExtraction<T> extraction) throws InterruptedException {
+        long start = System.nanoTime();
+        int[] starts = chunkStarts(cs, getParallelChunkSize());
+        int ahead = 2 * ChunkPool.PARALLELISM;
+        List<Future<T>> futures = new ArrayList<Future<T>>(starts.length);
+        List<T> results = new ArrayList<T>(starts.length);
+        try {
+            for (int i = 0; i < starts.length; i++) {
+                if (i >= ahead) {
+                    results.add(futures.get(i - ahead).get());
+                }
+                int end = (i + 1 < starts.length) ? starts[i + 1] + 1 : cs.length();
+                final String chunk = cs.subSequence(starts[i], end).toString();
+                futures.add(ChunkPool.EXECUTOR.submit(new Callable<T>() {
+                    public T call() {
+                        long chunkStart = System.nanoTime();
+                        try {
+                            return extraction.extractChunk(chunk);
+                        } finally {
+                            parallelBusyNanos.addAndGet(
+                                    System.nanoTime() - chunkStart);
+                        }
+                    }
+                }));
+            }
+            for (int i = results.size(); i < starts.length; i++) {
+                results.add(futures.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            cancel(futures);
+            throw e;
+        }
+        parallelDocuments.incrementAndGet();
+        parallelChunks.addAndGet(starts.length);
+        parallelElapsedNanos.addAndGet(System.nanoTime() - start);
+        return results;
+    }
+
+    protected void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public String report() {
+        StringBuilder ret = new StringBuilder(super.report());
+        long documents = parallelDocuments.get();
+        if (documents > 0) {
+            long elapsed = parallelElapsedNanos.get();
+            double speedup = (elapsed > 0)
+                ? (double) parallelBusyNanos.get() / elapsed : 0;
+            ret.append("  " + documents + " CrawlURIs extracted in "
+                    + parallelChunks.get() + " parallel chunks, "
+                    + String.format("%.2f", speedup) + "x speedup\n");
+        }
+        if (getExtractionCache() != null) {
+            ret.append("  extraction cache (shared): "
+                    + getExtractionCache().shortReportLine() + "\n");
+        }
+        long offered = dispatchOffered.get();
+        long skipped = dispatchSkipped.get();
+        if (offered + skipped > 0) {
+            ret.append("  " + offered + " CrawlURIs offered, " + skipped
+                    + " skipped by content family\n");
+        }
+        return ret.toString();
+    }
 }
@@ -132,10 +132,13 @@ public abstract class ContentExtractorTestBase extends ProcessorTestBase {
     
     public static Recorder createRecorder(String content, String charset)
             throws IOException {
+        return createRecorder(content.getBytes(charset));
+    }
+    
+    public static Recorder createRecorder(byte[] content) throws IOException {
         File temp = File.createTempFile("test", ".tmp");
         Recorder recorder = new Recorder(temp, 1024, 1024);
-        byte[] b = content.getBytes(charset);
-        ByteArrayInputStream bais = new ByteArrayInputStream(b);
+        ByteArrayInputStream bais = new ByteArrayInputStream(content);
         InputStream is = recorder.inputWrap(bais);
         recorder.markContentBegin();
         for (int x = is.read(); x >= 0; x = is.read());
@@ -0,0 +1,104 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.archive.modules.CrawlURI;
+import org.archive.util.Recorder;
+
+/**
+ * Broad kinds of fetched content, by which the FetchChain decides which
+ * ContentExtractors to offer a URI to.
+ *
+ * A URI's families are found once, by {@link #classify(CrawlURI)}, from
+ * its normalized content type, its extension, its via context and the
+ * markup at the start of its content. Each family's test accepts at
+ * least everything the corresponding extractors' shouldExtract() tests
+ * accept, so dispatching on families never keeps content from an
+ * extractor that would have taken it; those tests still make the final
+ * decision.
+ */
+public enum ContentFamily {
+    HTML,
+    XML,
+    JAVASCRIPT,
+    CSS,
+    PDF,
+    SWF,
+    DOC;
+
+    /** chars of content examined for markup, as ExtractorHTML does */
+    public static final int SNIFF_LENGTH = 1000;
+
+    /**
+     * @return families the content of curi may belong to, possibly none
+     */
+    public static Set<ContentFamily> classify(CrawlURI curi) {
+        EnumSet<ContentFamily> families = EnumSet.noneOf(ContentFamily.class);
+        String mime = (curi.getContentType() == null) ? ""
+            : curi.getContentType().toLowerCase();
+        String uri = curi.toString().toLowerCase();
+
+        if (mime.startsWith("text/html") || mime.startsWith("application/xhtml")
+                || mime.startsWith("text/vnd.wap.wml")
+                || mime.startsWith("application/vnd.wap.")) {
+            families.add(HTML);
+        }
+        if (mime.indexOf("xml") >= 0 || uri.endsWith(".rss")
+                || uri.endsWith(".xml")) {
+            families.add(XML);
+        }
+        if (mime.indexOf("javascript") >= 0 || mime.indexOf("jscript") >= 0
+                || mime.indexOf("ecmascript") >= 0
+                || mime.startsWith("application/json") || uri.endsWith(".js")
+                || (curi.getViaContext() != null && curi.getViaContext()
+                        .toString().toLowerCase().startsWith("script"))) {
+            families.add(JAVASCRIPT);
+        }
+        if (mime.indexOf("css") >= 0 || uri.endsWith(".css")) {
+            families.add(CSS);
+        }
+        if (mime.startsWith("application/pdf")) {
+            families.add(PDF);
+        }
+        if (mime.indexOf("x-shockwave-flash") >= 0 || uri.endsWith(".swf")) {
+            families.add(SWF);
+        }
+        if (mime.startsWith("application/msword")) {
+            families.add(DOC);
+        }
+
+        // mislabeled markup, recognized by its opening
+        Recorder recorder = curi.getRecorder();
+        if ((!families.contains(HTML) || !families.contains(XML))
+                && recorder != null && curi.getContentLength() > 0) {
+            String prefix =
+                recorder.getContentReplayPrefixString(SNIFF_LENGTH).toLowerCase();
+            if (prefix.contains("<html") || prefix.contains("<!doctype html")) {
+                families.add(HTML);
+            }
+            if (prefix.startsWith("<?xml") || prefix.startsWith("\ufeff<?xml")) {
+                families.add(XML);
+            }
+        }
+        return families;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import static org.archive.modules.CoreAttributeConstants.A_HTML_BASE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+
+/**
+ * Crawl-global, memory-capped cache of link-extraction results, so that
+ * byte-identical content (error pages, soft-404s, mirrored templates)
+ * fetched again, at another URI in the same directory, is not parsed
+ * again.
+ *
+ * Keyed by extractor, content digest, content type and the directory
+ * of the base URI (scheme, host and path up to its last '/'): the same
+ * bytes under another declared charset can decode differently, and
+ * relative links resolve differently under another directory. Once
+ * resolved, a link's original form is unknown, so links are held
+ * absolute. Within one directory only links back to the page itself
+ * (an empty, query-only or fragment-only reference) resolve differently;
+ * results with such links are not cached unless the content set its own
+ * base (an HTML BASE element, honoured only when absolute). Where any
+ * sheet overlays apply to the URI, their names are part of the key,
+ * as they may change the extractor's settings.
+ *
+ * An entry holds the outlinks a successful extraction added, plus the
+ * annotations and the CrawlURI data keys it added, so that replaying
+ * it leaves the CrawlURI as the extraction would. Extractions that
+ * met non-fatal failures are not cached.
+ *
+ * Requires content digests (FetchHTTP's digestContent, the default).
+ * Least-recently-used entries are evicted to keep the estimated size
+ * of all entries within maxBytes.
+ */
+public class ExtractionCache {
+    private static final Logger logger =
+        Logger.getLogger(ExtractionCache.class.getName());
+
+    /** rough per-object overhead, for size estimates */
+    protected static final int OVERHEAD = 48;
+
+    protected long maxBytes = 32 * 1024 * 1024;
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    /**
+     * Approximate limit on the memory used by cached results. Default
+     * is 32MB.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    protected LinkedHashMap<String,Entry> entries =
+        new LinkedHashMap<String,Entry>(1024, 0.75f, true);
+    protected long bytes = 0;
+
+    protected AtomicLong hits = new AtomicLong(0);
+    protected AtomicLong misses = new AtomicLong(0);
+    protected AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * One outlink as originally added.
+     */
+    protected static class Link {
+        final String destination;
+        final LinkContext context;
+        final Hop hop;
+
+        Link(String destination, LinkContext context, Hop hop) {
+            this.destination = destination;
+            this.context = context;
+            this.hop = hop;
+        }
+    }
+
+    /**
+     * Results of one extraction.
+     */
+    public static class Entry {
+        protected List<Link> links = new ArrayList<Link>();
+        protected List<String> annotations = new ArrayList<String>();
+        protected Map<String,Object> data = new LinkedHashMap<String,Object>();
+        protected int discardedOutLinks;
+        protected long size = OVERHEAD;
+
+        public int getLinkCount() {
+            return links.size();
+        }
+
+        /**
+         * Apply these results to curi as the extraction did.
+         *
+         * @return number of outlinks added
+         */
+        public int replay(CrawlURI curi) {
+            for (Map.Entry<String,Object> datum : data.entrySet()) {
+                curi.getData().put(datum.getKey(), copyOf(datum.getValue()));
+            }
+            int added = 0;
+            for (Link link : links) {
+                try {
+                    curi.getOutLinks().add(curi.createCrawlURI(
+                            link.destination, link.context, link.hop));
+                    added++;
+                } catch (URIException e) {
+                    // was valid when first added
+                    logger.log(Level.FINE, "replaying " + link.destination, e);
+                }
+            }
+            for (int i = 0; i < discardedOutLinks; i++) {
+                curi.incrementDiscardedOutLinks();
+            }
+            curi.getAnnotations().addAll(annotations);
+            return added;
+        }
+    }
+
+    /**
+     * State of a CrawlURI before an extraction, to find what the
+     * extraction added.
+     */
+    public static class Recording {
+        protected int outLinks;
+        protected int annotations;
+        protected int failures;
+        protected int discardedOutLinks;
+        protected Set<String> dataKeys;
+        protected boolean hadBase;
+        protected String base;
+
+        protected Recording(CrawlURI curi) {
+            hadBase = curi.containsDataKey(A_HTML_BASE);
+            base = withoutQuery(curi.getBaseURI().toString());
+            outLinks = curi.getOutLinks().size();
+            annotations = curi.getAnnotations().size();
+            failures = curi.getNonFatalFailures().size();
+            discardedOutLinks = curi.getDiscardedOutLinks();
+            dataKeys = new HashSet<String>(curi.getData().keySet());
+        }
+
+        /**
+         * @return what the extraction added to curi, or null if it is
+         * not to be cached
+         */
+        public Entry finish(CrawlURI curi) {
+            if (curi.getNonFatalFailures().size() != failures) {
+                return null;
+            }
+            Entry entry = new Entry();
+            // a base the content set decides what refers to the page
+            boolean contentBase = !hadBase && curi.containsDataKey(A_HTML_BASE);
+            Iterator<CrawlURI> iter = curi.getOutLinks().iterator();
+            for (int i = 0; i < outLinks && iter.hasNext(); i++) {
+                iter.next();
+            }
+            while (iter.hasNext()) {
+                CrawlURI link = iter.next();
+                Hop hop = Hop.forHopString(link.getLastHop());
+                if (hop == null) {
+                    return null;
+                }
+                String destination = link.getURI();
+                if (!contentBase && withoutQuery(destination).equals(base)) {
+                    // may have been "", "?..." or "#...": would differ elsewhere
+                    return null;
+                }
+                entry.links.add(new Link(destination, link.getViaContext(), hop));
+                entry.size += OVERHEAD + 2 * destination.length();
+            }
+            Iterator<String> annotationIter = curi.getAnnotations().iterator();
+            for (int i = 0; i < annotations && annotationIter.hasNext(); i++) {
+                annotationIter.next();
+            }
+            while (annotationIter.hasNext()) {
+                String annotation = annotationIter.next();
+                entry.annotations.add(annotation);
+                entry.size += OVERHEAD + 2 * annotation.length();
+            }
+            for (Map.Entry<String,Object> datum : curi.getData().entrySet()) {
+                if (!dataKeys.contains(datum.getKey())) {
+                    entry.data.put(datum.getKey(), copyOf(datum.getValue()));
+                    entry.size += OVERHEAD * sizeOf(datum.getValue());
+                }
+            }
+            entry.discardedOutLinks =
+                curi.getDiscardedOutLinks() - discardedOutLinks;
+            return entry;
+        }
+    }
+
+    /**
+     * @return uri up to any query or fragment
+     */
+    protected static String withoutQuery(String uri) {
+        for (int i = 0; i < uri.length(); i++) {
+            if (uri.charAt(i) == '?' || uri.charAt(i) == '#') {
+                return uri.substring(0, i);
+            }
+        }
+        return uri;
+    }
+
+    /**
+     * @return uri up to and including the last '/' of its path, or uri
+     * up to any query if it has no path
+     */
+    protected static String directoryOf(String uri) {
+        String path = withoutQuery(uri);
+        int schemeEnd = path.indexOf("://");
+        int pathStart = (schemeEnd < 0) ? -1 : path.indexOf('/', schemeEnd + 3);
+        if (pathStart < 0) {
+            return path;
+        }
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return a copy of value if it is a collection, so cached and live
+     * data are never shared; value itself otherwise
+     */
+    protected static Object copyOf(Object value) {
+        if (value instanceof List<?>) {
+            return new ArrayList<Object>((List<?>) value);
+        }
+        if (value instanceof Set<?>) {
+            return new HashSet<Object>((Set<?>) value);
+        }
+        return value;
+    }
+
+    protected static int sizeOf(Object value) {
+        return (value instanceof Collection<?>)
+            ? 1 + ((Collection<?>) value).size() : 1;
+    }
+
+    /**
+     * @return key for curi's results from the named extractor, or null
+     * if curi's content has no digest
+     */
+    public String keyFor(String extractorName, CrawlURI curi) {
+        if (curi.getContentDigest() == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(extractorName).append(' ')
+            .append(curi.getContentDigestSchemeString()).append(' ')
+            .append(curi.getContentType()).append(' ')
+            .append(directoryOf(curi.getBaseURI().toString()));
+        if (curi.haveOverlayNamesBeenSet()) {
+            for (String overlay : curi.getOverlayNames()) {
+                key.append(' ').append(overlay);
+            }
+        }
+        return key.toString();
+    }
+
+    public Recording startRecording(CrawlURI curi) {
+        return new Recording(curi);
+    }
+
+    /**
+     * @return cached results for key, or null
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Cache results for key, evicting least-recently-used entries as
+     * needed to stay within maxBytes.
+     */
+    public synchronized void put(String key, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        entry.size += OVERHEAD + 2 * key.length();
+        if (entry.size > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += entry.size;
+        Iterator<Entry> iter = entries.values().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            bytes -= iter.next().size;
+            iter.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return fraction of lookups that found results, or 0 if none
+     */
+    public double getHitRate() {
+        long lookups = hits.get() + misses.get();
+        return (lookups == 0) ? 0 : (double) hits.get() / lookups;
+    }
+
+    public String shortReportLine() {
+        return getEntryCount() + " entries, " + getBytes() + " bytes, "
+            + hits.get() + " hits, " + misses.get() + " misses ("
+            + String.format("%.1f", 100 * getHitRate()) + "% hit rate), "
+            + evictions.get() + " evictions";
+    }
+}
@@ -47,6 +47,13 @@ public abstract class Extractor extends Processor {
     
     protected AtomicLong numberOfLinksExtracted = new AtomicLong(0);
 
+    /**
+     * Add to the count of links found, for this extractor's report.
+     */
+    protected void countLinksExtracted(long count) {
+        numberOfLinksExtracted.addAndGet(count);
+    }
+
     /** Logger. */
     private static final Logger logger = 
         Logger.getLogger(Extractor.class.getName());
@@ -19,16 +19,15 @@
 package org.archive.modules.extractor;
 
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 import org.apache.commons.httpclient.URIException;
 import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
-import org.archive.util.DevUtils;
-import org.archive.util.TextUtils;
 
 /**
  * This extractor is parsing URIs from CSS type files.
@@ -63,7 +62,6 @@ public class ExtractorCSS extends ContentExtractor {
     private static Logger logger =
         Logger.getLogger("org.archive.crawler.extractor.ExtractorCSS");
 
-    private static String ESCAPED_AMP = "&amp";
     // CSS escapes: "Parentheses, commas, whitespace characters, single 
     // quotes (') and double quotes (") appearing in a URL must be 
     // escaped with a backslash"
@@ -82,6 +80,20 @@ public class ExtractorCSS extends ContentExtractor {
     // GROUPS:
     // (G1) optional ' or "
     // (G2) URI
+    // No longer compiled: CSSURIScanner finds exactly its matches, and
+    // resolves '&amp' and CSS_BACKSLASH_ESCAPE escapes in them.
+
+    /**
+     * Scanner reused by each thread for every stylesheet and inline
+     * style it processes.
+     */
+    protected static final ThreadLocal<CSSURIScanner> SCANNER =
+        new ThreadLocal<CSSURIScanner>() {
+            @Override
+            protected CSSURIScanner initialValue() {
+                return new CSSURIScanner(UURI.MAX_URL_LENGTH);
+            }
+        };
     
 
     /**
@@ -90,6 +102,14 @@ public class ExtractorCSS extends ContentExtractor {
     }
 
     
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.CSS);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     @Override
     protected boolean shouldExtract(CrawlURI curi) {
         String mimeType = curi.getContentType();
@@ -122,17 +142,11 @@ public class ExtractorCSS extends ContentExtractor {
     public static long processStyleCode(Extractor ext, 
             CrawlURI curi, CharSequence cs) {
         long foundLinks = 0;
-        Matcher uris = null;
-        String cssUri;
+        CSSURIScanner uris = SCANNER.get().reset(cs);
         try {
-            uris = TextUtils.getMatcher(CSS_URI_EXTRACTOR, cs);
             while (uris.find()) {
-                cssUri = uris.group(2);
                 // TODO: Escape more HTML Entities.
-                cssUri = TextUtils.replaceAll(ESCAPED_AMP, cssUri, "&");
-                // Remove backslashes when used as escape character in CSS URL
-                cssUri = TextUtils.replaceAll(CSS_BACKSLASH_ESCAPE, cssUri,
-                        "$1");
+                String cssUri = uris.uri();
                 foundLinks++;
                 int max = ext.getExtractorParameters().getMaxOutlinks();
                 try {
@@ -142,10 +156,9 @@ public class ExtractorCSS extends ContentExtractor {
                     ext.logUriError(e, curi.getUURI(), cssUri);
                 }
             }
-        } catch (StackOverflowError e) {
-            DevUtils.warnHandle(e, "ExtractorCSS StackOverflowError");
         } finally {
-            TextUtils.recycleMatcher(uris);
+            // release the text for collection
+            uris.reset("");
         }
         return foundLinks;
     }
@@ -20,6 +20,8 @@
 package org.archive.modules.extractor;
 
 import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -57,6 +59,14 @@ public class ExtractorDOC extends ContentExtractor {
     }
 
     
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.DOC);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     @Override
     protected boolean shouldExtract(CrawlURI uri) {
         String mimeType = uri.getContentType();
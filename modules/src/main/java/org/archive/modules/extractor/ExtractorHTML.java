@@ -20,23 +20,30 @@
 package org.archive.modules.extractor;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 
 import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.IOUtils;
 import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlMetadata;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.RobotsPolicy;
+import org.archive.modules.net.ServerCache;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.DevUtils;
+import org.archive.util.Recorder;
 import org.archive.util.TextUtils;
 import org.archive.util.UriUtils;
 import org.springframework.beans.factory.InitializingBean;
@@ -342,6 +349,33 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     public void setExtractorJS(ExtractorJS extractorJS) {
         this.extractorJS = extractorJS;
     }
+
+    /**
+     * Used, if available, to remember per server whether pages' declared
+     * charsets have held up once put into effect, so that a site which
+     * keeps declaring the same charset consistently need not have every
+     * page decoded twice to check it.
+     */
+    transient protected ServerCache serverCache;
+    public ServerCache getServerCache() {
+        return serverCache;
+    }
+    @Autowired(required=false)
+    public void setServerCache(ServerCache serverCache) {
+        this.serverCache = serverCache;
+    }
+
+    /**
+     * Pages in a row on which a server's declared charset must prove
+     * consistent before it is trusted without checking.
+     */
+    protected static final int CONSISTENT_CHARSET_PAGES = 3;
+
+    /**
+     * Pages on which a trusted declared charset is taken unchecked
+     * before it must prove consistent again.
+     */
+    protected static final int UNCHECKED_CHARSET_PAGES = 50;
     
     // TODO: convert to Strings
     private String relevantTagPattern;
@@ -365,11 +399,35 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     }
     
 
-    protected void processGeneralTag(CrawlURI curi, CharSequence element,
-            CharSequence cs) {
+    // kinds of attribute, numbered as the corresponding groups of
+    // EACH_ATTRIBUTE_EXTRACTOR
+    static final int ATTR_HREF = 2;
+    static final int ATTR_ACTION = 3;
+    static final int ATTR_ON = 4;
+    static final int ATTR_SRC = 5;
+    static final int ATTR_CODEBASE = 6;
+    static final int ATTR_CLASSID = 7;
+    static final int ATTR_ARCHIVE = 8;
+    static final int ATTR_CODE = 9;
+    static final int ATTR_VALUE = 10;
+    static final int ATTR_STYLE = 11;
+    static final int ATTR_METHOD = 12;
+    static final int ATTR_OTHER = 13;
 
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+    static final String DATA_REMOTE = 
+        "(?i).*data-remote\\s*=\\s*([\"'])true.*\\1";
+    static final String DATA_REMOTE_CONTEXT = "a[data-remote='true']/@href";
 
+    /**
+     * Values collected from the attributes of a single tag, for the 
+     * handling which depends on more than one attribute.
+     */
+    protected static class TagState {
+        final CharSequence element;
+        final String elementStr;
+        /** the whole tag innards, attributes included */
+        final CharSequence tag;
+        
         // Just in case it's an OBJECT or APPLET tag
         String codebase = null;
         ArrayList<String> resources = null;
@@ -384,17 +442,18 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         CharSequence valueContext = null;
         CharSequence nameVal = null; 
         
-        final boolean framesAsEmbeds = 
-            getTreatFramesAsEmbedLinks();
+        public TagState(CharSequence element, CharSequence tag) {
+            this.element = element;
+            this.elementStr = element.toString();
+            this.tag = tag;
+        }
+    }
 
-        final boolean ignoreFormActions = 
-            getIgnoreFormActionUrls();
-        
-        final boolean extractValueAttributes = 
-            getExtractValueAttributes();
-        
-        final String elementStr = element.toString();
+    protected void processGeneralTag(CrawlURI curi, CharSequence element,
+            CharSequence cs) {
 
+        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        TagState tag = new TagState(element, cs);
         while (attr.find()) {
             int valueGroup =
                 (attr.start(14) > -1) ? 14 : (attr.start(15) > -1) ? 15 : 16;
@@ -402,129 +461,181 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             int end = attr.end(valueGroup);
             assert start >= 0: "Start is: " + start + ", " + curi;
             assert end >= 0: "End is :" + end + ", " + curi;
-            CharSequence value = cs.subSequence(start, end);
+            // exactly one of groups ATTR_HREF..ATTR_OTHER matched
+            int kind = ATTR_HREF;
+            while (attr.start(kind) < 0) {
+                kind++;
+            }
             CharSequence attrName = cs.subSequence(attr.start(1),attr.end(1));
-            value = TextUtils.unescapeHtml(value);
-            if (attr.start(2) > -1) {
-                CharSequence context;
-                // HREF
-                if ("a".equals(element) && TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", cs)) {
-                    context = "a[data-remote='true']/@href";
-                } else {
-                    context = elementContext(element, attr.group(2));
-                }
+            CharSequence value = 
+                TextUtils.unescapeHtml(cs.subSequence(start, end));
+            processGeneralAttribute(curi, tag, kind, attrName, value);
+        }
+        TextUtils.recycleMatcher(attr);
+        finishGeneralTag(curi, tag);
+    }
 
-                if ("a[data-remote='true']/@href".equals(context) || elementStr.equalsIgnoreCase(LINK)) {
-                    // <LINK> elements treated as embeds (css, ico, etc)
-                    processEmbed(curi, value, context);
-                } else {
-                    // other HREFs treated as links
-                    processLink(curi, value, context);
-                }
-                if (elementStr.equalsIgnoreCase(BASE)) {
-                    try {
-                        UURI base = UURIFactory.getInstance(value.toString());
-                        curi.setBaseURI(base);
-                    } catch (URIException e) {
-                        logUriError(e, curi.getUURI(), value);
-                    }
-                }
-            } else if (attr.start(3) > -1) {
-                // ACTION
-                if (!ignoreFormActions) {
-                    action = value; 
-                    actionContext = elementContext(element, attr.group(3));
-                    // handling finished only at end (after METHOD also collected)
-                }
-            } else if (attr.start(4) > -1) {
-                // ON____
-                processScriptCode(curi, value); // TODO: context?
-            } else if (attr.start(5) > -1) {
-                // SRC etc.
-                CharSequence context = elementContext(element, attr.group(5));
-                
-                // true, if we expect another HTML page instead of an image etc.
-                final Hop hop;
-                
-                if(!framesAsEmbeds
-                    && (elementStr.equalsIgnoreCase(FRAME) || elementStr
-                        .equalsIgnoreCase(IFRAME))) {
-                    hop = Hop.NAVLINK;
-                } else {
-                    hop = Hop.EMBED;
-                }
-                processEmbed(curi, value, context, hop);
-            } else if (attr.start(6) > -1) {
-                // CODEBASE
-                codebase = (value instanceof String)?
-                    (String)value: value.toString();
-                CharSequence context = elementContext(element,
-                    attr.group(6));
-                processLink(curi, codebase, context);
-            } else if (attr.start(7) > -1) {
-                // CLASSID, DATA
-                if (resources == null) {
-                    resources = new ArrayList<String>();
-                }
-                resources.add(value.toString());
-            } else if (attr.start(8) > -1) {
-                // ARCHIVE
-                if (resources==null) {
-                    resources = new ArrayList<String>();
-                }
-                String[] multi = TextUtils.split(WHITESPACE, value);
-                for(int i = 0; i < multi.length; i++ ) {
-                    resources.add(multi[i]);
-                }
-            } else if (attr.start(9) > -1) {
-                // CODE
-                if (resources==null) {
-                    resources = new ArrayList<String>();
-                }
-                // If element is applet and code value does not end with
-                // '.class' then append '.class' to the code value.
-                if (elementStr.equalsIgnoreCase(APPLET) &&
-                        !value.toString().toLowerCase().endsWith(CLASSEXT)) {
-                    resources.add(value.toString() + CLASSEXT);
-                } else {
-                    resources.add(value.toString());
-                }
-            } else if (attr.start(10) > -1) {
-                // VALUE, with possibility of URI
-                // store value, context for handling at end
-                valueVal = value; 
-                valueContext = elementContext(element,attr.group(10));
-            } else if (attr.start(11) > -1) {
-                // STYLE inline attribute
-                // then, parse for URIs
-                numberOfLinksExtracted.addAndGet(ExtractorCSS.processStyleCode(
-                        this, curi, value));        
-            } else if (attr.start(12) > -1) {
-                // METHOD
-                method = value;
-                // form processing finished at end (after ACTION also collected)
-            } else if (attr.start(13) > -1) {
-                if("NAME".equalsIgnoreCase(attrName.toString())) {
-                    // remember 'name' for end-analysis
-                    nameVal = value; 
-                }
-                if("FLASHVARS".equalsIgnoreCase(attrName.toString())) {
-                    // consider FLASHVARS attribute immediately
-                    valueContext = elementContext(element,attr.group(13));
-                    considerQueryStringValues(curi, value, valueContext,Hop.SPECULATIVE);
+    /**
+     * Handle one attribute of a tag.
+     * 
+     * @param curi CrawlURI we're processing
+     * @param tag state of the tag being processed
+     * @param kind one of the ATTR_ constants
+     * @param attrName attribute name, as it appears in the tag
+     * @param value attribute value, with HTML entities unescaped
+     */
+    protected void processGeneralAttribute(CrawlURI curi, TagState tag, 
+            int kind, CharSequence attrName, CharSequence value) {
+        final CharSequence element = tag.element;
+        final String elementStr = tag.elementStr;
+        switch (kind) {
+        case ATTR_HREF: {
+            CharSequence context;
+            if (isDataRemoteLink(element, tag.tag)) {
+                context = DATA_REMOTE_CONTEXT;
+            } else {
+                context = elementContext(element, attrName);
+            }
+
+            if (DATA_REMOTE_CONTEXT.equals(context) || elementStr.equalsIgnoreCase(LINK)) {
+                // <LINK> elements treated as embeds (css, ico, etc)
+                processEmbed(curi, value, context);
+            } else {
+                // other HREFs treated as links
+                processLink(curi, value, context);
+            }
+            if (elementStr.equalsIgnoreCase(BASE)) {
+                try {
+                    UURI base = UURIFactory.getInstance(value.toString());
+                    curi.setBaseURI(base);
+                } catch (URIException e) {
+                    logUriError(e, curi.getUURI(), value);
                 }
-                // any other attribute
-                // ignore for now
-                // could probe for path- or script-looking strings, but
-                // those should be vanishingly rare in other attributes,
-                // and/or symptomatic of page bugs
             }
+            break;
         }
-        TextUtils.recycleMatcher(attr);
+        case ATTR_ACTION:
+            if (!getIgnoreFormActionUrls()) {
+                tag.action = value; 
+                tag.actionContext = elementContext(element, attrName);
+                // handling finished only at end (after METHOD also collected)
+            }
+            break;
+        case ATTR_ON:
+            processScriptCode(curi, value); // TODO: context?
+            break;
+        case ATTR_SRC: {
+            CharSequence context = elementContext(element, attrName);
+            
+            // true, if we expect another HTML page instead of an image etc.
+            final Hop hop;
+            
+            if(!getTreatFramesAsEmbedLinks()
+                && (elementStr.equalsIgnoreCase(FRAME) || elementStr
+                    .equalsIgnoreCase(IFRAME))) {
+                hop = Hop.NAVLINK;
+            } else {
+                hop = Hop.EMBED;
+            }
+            processEmbed(curi, value, context, hop);
+            break;
+        }
+        case ATTR_CODEBASE: {
+            tag.codebase = (value instanceof String)?
+                (String)value: value.toString();
+            CharSequence context = elementContext(element, attrName);
+            processLink(curi, tag.codebase, context);
+            break;
+        }
+        case ATTR_CLASSID:
+            // CLASSID, DATA
+            if (tag.resources == null) {
+                tag.resources = new ArrayList<String>();
+            }
+            tag.resources.add(value.toString());
+            break;
+        case ATTR_ARCHIVE: {
+            if (tag.resources==null) {
+                tag.resources = new ArrayList<String>();
+            }
+            String[] multi = TextUtils.split(WHITESPACE, value);
+            for(int i = 0; i < multi.length; i++ ) {
+                tag.resources.add(multi[i]);
+            }
+            break;
+        }
+        case ATTR_CODE:
+            if (tag.resources==null) {
+                tag.resources = new ArrayList<String>();
+            }
+            // If element is applet and code value does not end with
+            // '.class' then append '.class' to the code value.
+            if (elementStr.equalsIgnoreCase(APPLET) &&
+                    !value.toString().toLowerCase().endsWith(CLASSEXT)) {
+                tag.resources.add(value.toString() + CLASSEXT);
+            } else {
+                tag.resources.add(value.toString());
+            }
+            break;
+        case ATTR_VALUE:
+            // VALUE, with possibility of URI
+            // store value, context for handling at end
+            tag.valueVal = value; 
+            tag.valueContext = elementContext(element, attrName);
+            break;
+        case ATTR_STYLE:
+            // STYLE inline attribute
+            // then, parse for URIs
+            countLinksExtracted(ExtractorCSS.processStyleCode(
+                    this, curi, value));        
+            break;
+        case ATTR_METHOD:
+            tag.method = value;
+            // form processing finished at end (after ACTION also collected)
+            break;
+        default:
+            if("NAME".equalsIgnoreCase(attrName.toString())) {
+                // remember 'name' for end-analysis
+                tag.nameVal = value; 
+            }
+            if("FLASHVARS".equalsIgnoreCase(attrName.toString())) {
+                // consider FLASHVARS attribute immediately
+                tag.valueContext = elementContext(element, attrName);
+                considerQueryStringValues(curi, value, tag.valueContext,Hop.SPECULATIVE);
+            }
+            // any other attribute
+            // ignore for now
+            // could probe for path- or script-looking strings, but
+            // those should be vanishingly rare in other attributes,
+            // and/or symptomatic of page bugs
+        }
+    }
+
+    /**
+     * Whether an A tag is a 'data-remote' (scripted) link, whose HREF is
+     * treated as an embed.
+     * 
+     * @param element tag element name
+     * @param tag whole tag innards
+     */
+    protected boolean isDataRemoteLink(CharSequence element, CharSequence tag) {
+        return "a".equals(element) && TextUtils.matches(DATA_REMOTE, tag);
+    }
+
+    /**
+     * Finish handling of a tag, once all its attributes have been seen.
+     * 
+     * @param curi CrawlURI we're processing
+     * @param tag state of the tag being processed
+     */
+    protected void finishGeneralTag(CrawlURI curi, TagState tag) {
+        final CharSequence element = tag.element;
+        final String elementStr = tag.elementStr;
+        final String codebase = tag.codebase;
 
         // handle codebase/resources
-        if (resources != null) {
-            Iterator<String> iter = resources.iterator();
+        if (tag.resources != null) {
+            Iterator<String> iter = tag.resources.iterator();
             UURI codebaseURI = null;
             String res = null;
             try {
@@ -551,25 +662,25 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         }
            
         // finish handling form action, now method is available
-        if(action != null) {
-            if(method == null || "GET".equalsIgnoreCase(method.toString()) 
+        if(tag.action != null) {
+            if(tag.method == null || "GET".equalsIgnoreCase(tag.method.toString()) 
                         || ! getExtractOnlyFormGets()) {
-                processLink(curi, action, actionContext);
+                processLink(curi, tag.action, tag.actionContext);
             }
         }
         
         // finish handling VALUE
-        if(valueVal != null) {
-            if ("PARAM".equalsIgnoreCase(elementStr) && nameVal != null
-                    && "flashvars".equalsIgnoreCase(nameVal.toString())) {
+        if(tag.valueVal != null) {
+            if ("PARAM".equalsIgnoreCase(elementStr) && tag.nameVal != null
+                    && "flashvars".equalsIgnoreCase(tag.nameVal.toString())) {
                 // special handling for <PARAM NAME='flashvars" VALUE="">
-                String queryStringLike = valueVal.toString();
+                String queryStringLike = tag.valueVal.toString();
                 // treat value as query-string-like "key=value[&key=value]*" pairings
-                considerQueryStringValues(curi, queryStringLike, valueContext,Hop.SPECULATIVE);
+                considerQueryStringValues(curi, queryStringLike, tag.valueContext,Hop.SPECULATIVE);
             } else {
                 // regular VALUE handling
-                if (extractValueAttributes) {
-                    considerIfLikelyUri(curi,valueVal,valueContext,Hop.NAVLINK);
+                if (getExtractValueAttributes()) {
+                    considerIfLikelyUri(curi,tag.valueVal,tag.valueContext,Hop.NAVLINK);
                 }
             }
         }
@@ -626,7 +737,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
      */
     protected void processScriptCode(CrawlURI curi, CharSequence cs) {
         if (getExtractorJS() != null && getExtractJavascript()) {
-            numberOfLinksExtracted.addAndGet(
+            countLinksExtracted(
                 getExtractorJS().considerStrings(this, curi, cs));
         }
     }
@@ -649,7 +760,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                 logger.finest("link: " + value.toString() + " from " + curi);
             }
             addLinkFromString(curi, value, context, Hop.NAVLINK);
-            numberOfLinksExtracted.incrementAndGet();
+            countLinksExtracted(1);
         }
     }
 
@@ -683,10 +794,18 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             (value instanceof String)?
                 (String)value: value.toString(),
             context, hop);
-        numberOfLinksExtracted.incrementAndGet();
+        countLinksExtracted(1);
     }
 
     
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.HTML);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     protected boolean shouldExtract(CrawlURI uri) {
         if (getIgnoreUnexpectedHtml()) {
             try {
@@ -720,23 +839,17 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
 
     public boolean innerExtract(CrawlURI curi) {
         if (!curi.containsContentTypeCharsetDeclaration()) {
-            String contentPrefix = curi.getRecorder().getContentReplayPrefixString(1000);
-            Charset contentDeclaredEncoding = getContentDeclaredCharset(curi,contentPrefix);
-            if(!curi.getRecorder().getCharset().equals(contentDeclaredEncoding) && contentDeclaredEncoding!=null) {
-                String newContentPrefix = curi.getRecorder().getContentReplayPrefixString(1000,contentDeclaredEncoding); 
-                Charset reflexiveCharset = getContentDeclaredCharset(curi, newContentPrefix);
-                if(contentDeclaredEncoding.equals(reflexiveCharset)) {
-                    // content-declared charset is self-consistent; use
-                    curi.getAnnotations().add("usingCharsetInHTML:"+contentDeclaredEncoding);
-                    curi.getRecorder().setCharset(contentDeclaredEncoding);
-                } else {
-                    // error: declared charset not evident once put into effect
-                    curi.getAnnotations().add("inconsistentCharsetInHTML:"+contentDeclaredEncoding);
-                    // so, ignore in favor of original default
-                }
-            }
+            applyContentDeclaredCharset(curi);
         }
+        return extractContent(curi);
+    }
 
+    /**
+     * Extract links from the content, decoded in the recorder's charset.
+     * 
+     * @return true if extraction completed
+     */
+    protected boolean extractContent(CrawlURI curi) {
         try {
             ReplayCharSequence cs = curi.getRecorder().getContentReplayCharSequence();
            // Extract all links from the charsequence
@@ -754,6 +867,79 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         return false;
     }
     
+    /**
+     * Put into effect the charset the content declares for itself, if
+     * any, usable and consistent. 
+     * 
+     * When the recorder's charset is ASCII-compatible the raw bytes are
+     * sniffed, by a {@link CharsetSniffer}; a byte-order mark then
+     * settles the charset, and a declaration of another ASCII-compatible
+     * charset is necessarily still evident once put into effect, so needs
+     * no check. Otherwise the declaration is checked by decoding the
+     * start of the content again with it, unless the server's pages have
+     * recently kept proving consistent with it.
+     */
+    protected void applyContentDeclaredCharset(CrawlURI curi) {
+        Recorder recorder = curi.getRecorder();
+        Charset current = recorder.getCharset();
+        CharsetSniffer sniffer = null;
+        if (ByteStreamCharSequence.isAsciiCompatible(current)) {
+            InputStream in = null;
+            try {
+                in = recorder.getContentReplayInputStream();
+                sniffer = CharsetSniffer.sniff(in, current);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed charset sniff of " + curi
+                        + "; decoding instead", e);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        Charset declared;
+        if (sniffer == null) {
+            declared = getContentDeclaredCharset(curi,
+                    recorder.getContentReplayPrefixString(CharsetSniffer.PREFIX_CHARS));
+        } else if (sniffer.getBomCharset() != null) {
+            if (!sniffer.getBomCharset().equals(current)) {
+                curi.getAnnotations().add("usingCharsetFromBOM:" + sniffer.getBomCharset());
+                recorder.setCharset(sniffer.getBomCharset());
+            }
+            return;
+        } else {
+            declared = charsetForName(curi, sniffer.getDeclaredCharsetName());
+        }
+        if (declared == null || declared.equals(current)) {
+            return;
+        }
+
+        CrawlServer server = (getServerCache() == null) ? null
+                : getServerCache().getServerFor(curi.getUURI());
+        boolean consistent;
+        if (sniffer != null && ByteStreamCharSequence.isAsciiCompatible(declared)) {
+            consistent = true;
+        } else if (server != null && server.trustDeclaredCharset(declared.name(),
+                CONSISTENT_CHARSET_PAGES, UNCHECKED_CHARSET_PAGES)) {
+            consistent = true;
+        } else {
+            String newContentPrefix = recorder.getContentReplayPrefixString(
+                    CharsetSniffer.PREFIX_CHARS, declared);
+            consistent = declared.equals(getContentDeclaredCharset(curi, newContentPrefix));
+            if (server != null) {
+                server.noteDeclaredCharset(declared.name(), consistent);
+            }
+        }
+        if (consistent) {
+            // content-declared charset is self-consistent; use
+            curi.getAnnotations().add("usingCharsetInHTML:" + declared);
+            recorder.setCharset(declared);
+        } else {
+            // error: declared charset not evident once put into effect
+            curi.getAnnotations().add("inconsistentCharsetInHTML:" + declared);
+            // so, ignore in favor of original default
+        }
+    }
+
     // 1. look for <meta http-equiv="content-type"...>
     // 2. if not found then look for <meta charset="">
     // 3. if not found then <?xml encoding=""...?>
@@ -788,6 +974,17 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
                 TextUtils.recycleMatcher(matcher); 
             }
         }
+        return charsetForName(curi, charsetName);
+    }
+
+    /**
+     * @return the named charset, or null if none or unknown, noting
+     * an unknown name in the curi's annotations
+     */
+    protected Charset charsetForName(CrawlURI curi, String charsetName) {
+        if (charsetName == null) {
+            return null;
+        }
         try {
             return Charset.forName(charsetName); 
         } catch (IllegalArgumentException iae) {
@@ -947,7 +1144,19 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             // TODO: handle other stuff
         }
         TextUtils.recycleMatcher(attr);
+        return processMetaValues(curi, name, httpEquiv, content);
+    }
 
+    /**
+     * Act on the values collected from a META tag.
+     * @param curi CrawlURI we're processing.
+     * @param name NAME attribute value, or null
+     * @param httpEquiv HTTP-EQUIV attribute value, or null
+     * @param content CONTENT attribute value, or null
+     * @return True robots exclusion metatag.
+     */
+    protected boolean processMetaValues(CrawlURI curi, String name,
+            String httpEquiv, String content) {
         // Look for the 'robots' meta-tag
         if("robots".equalsIgnoreCase(name) && content != null ) {
             curi.getData().put(A_META_ROBOTS, content);
@@ -993,7 +1202,7 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             sequence.subSequence(0,endOfOpenTag));
 
         // then, parse for URIs
-        numberOfLinksExtracted.addAndGet(ExtractorCSS.processStyleCode(
+        countLinksExtracted(ExtractorCSS.processStyleCode(
                 this,
                 curi, 
                 sequence.subSequence(endOfOpenTag,sequence.length())));
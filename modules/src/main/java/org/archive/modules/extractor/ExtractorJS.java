@@ -22,9 +22,10 @@ import static org.archive.modules.extractor.Hop.SPECULATIVE;
 import static org.archive.modules.extractor.LinkContext.JS_MISC;
 
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.lang.StringEscapeUtils;
@@ -33,7 +34,6 @@ import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.util.DevUtils;
-import org.archive.util.TextUtils;
 import org.archive.util.UriUtils;
 
 /**
@@ -65,7 +65,8 @@ public class ExtractorJS extends ContentExtractor {
 
     // finds whitespace- and quote-free strings in Javascript
     // (areas between paired ' or " characters, possibly backslash-quoted
-    // on the ends, but not in the middle)
+    // on the ends, but not in the middle); no longer used for matching,
+    // see JSStringScanner, which finds exactly the same strings
     protected static final String JAVASCRIPT_STRING_EXTRACTOR =
     		"(\\\\{0,8}+(?:['\"]|u002[27]))([^\\s'\"]{1,"+UURI.MAX_URL_LENGTH+"})(?:\\1)";
     
@@ -75,6 +76,14 @@ public class ExtractorJS extends ContentExtractor {
 
     protected long numberOfCURIsHandled = 0;
 
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.JAVASCRIPT);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     protected boolean shouldExtract(CrawlURI uri) {
         String contentType = uri.getContentType();
         if (contentType == null) {
@@ -143,23 +152,18 @@ public class ExtractorJS extends ContentExtractor {
             CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
         long foundLinks = 0;
         
-        Matcher strings =
-            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, cs);
-        
-        int startIndex = 0;
-        while (strings.find(startIndex)) {
-            CharSequence subsequence =
-            		cs.subSequence(strings.start(2), strings.end(2));
-            
-            if (UriUtils.isPossibleUri(subsequence)) {
-                if (considerString(ext, curi, handlingJSFile, subsequence.toString())) {
+        JSStringScanner strings =
+            new JSStringScanner(cs, UURI.MAX_URL_LENGTH);
+        while (strings.find()) {
+            // same test as UriUtils.isPossibleUri(), without a regex
+            if (strings.isPossibleUri()) {
+                String candidate =
+                    cs.subSequence(strings.start(), strings.end()).toString();
+                if (considerString(ext, curi, handlingJSFile, candidate)) {
                     foundLinks++;
                 }
             }
-
-            startIndex = strings.end(1);
         }
-        TextUtils.recycleMatcher(strings);
         return foundLinks;
     }
 
@@ -20,7 +20,10 @@ package org.archive.modules.extractor;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
@@ -46,10 +49,12 @@ public class ExtractorPDF extends ContentExtractor {
 
     /**
      * The maximum size of PDF files to consider.  PDFs larger than this
-     * maximum will not be searched for links.
+     * maximum will not be searched for links. PDFs are read in one
+     * streaming pass in bounded memory, so this mostly limits time
+     * spent.
      */
     {
-        setMaxSizeToParse(10*1024*1024L); // 10MB
+        setMaxSizeToParse(256*1024*1024L); // 256MB
     }
     public long getMaxSizeToParse() {
         return (Long) kp.get("maxSizeToParse");
@@ -58,9 +63,32 @@ public class ExtractorPDF extends ContentExtractor {
         kp.put("maxSizeToParse",threshold);
     }
 
+    /**
+     * The maximum size of encrypted PDF files to consider. These cannot
+     * be read in a streaming pass, and are instead copied to a temporary
+     * file and loaded whole into memory to be decrypted.
+     */
+    {
+        setMaxSizeToParseInMemory(10*1024*1024L); // 10MB
+    }
+    public long getMaxSizeToParseInMemory() {
+        return (Long) kp.get("maxSizeToParseInMemory");
+    }
+    public void setMaxSizeToParseInMemory(long threshold) {
+        kp.put("maxSizeToParseInMemory",threshold);
+    }
+
     public ExtractorPDF() {
     }
     
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.PDF);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     @Override
     protected boolean shouldExtract(CrawlURI uri) {
         long max = getMaxSizeToParse();
@@ -74,27 +102,20 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
-        try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
-        PDFParser parser;
-        ArrayList<String> uris;
+        List<String> uris;
+        InputStream in = null;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
-            uris = parser.extractURIs();
+            in = curi.getRecorder().getContentReplayInputStream();
+            StreamingPDFParser parser = new StreamingPDFParser();
+            uris = parser.parse(in);
+            if (parser.isEncrypted()) {
+                if (curi.getRecorder().getRecordedInput().getSize()
+                        > getMaxSizeToParseInMemory()) {
+                    LOGGER.fine(curi + " is encrypted and too large to decrypt");
+                    return true;
+                }
+                uris = extractInMemory(curi);
+            }
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
             return false;
@@ -104,16 +125,21 @@ public class ExtractorPDF extends ContentExtractor {
             curi.getNonFatalFailures().add(e);
             return false;
         } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    curi.getNonFatalFailures().add(e);
+                }
+            }
         }
-        
+
         if (uris == null) {
             return true;
         }
 
         for (String uri: uris) {
             try {
-                UURI src = curi.getUURI();
                 UURI dest = UURIFactory.getInstance(uri);
                 LinkContext lc = LinkContext.NAVLINK_MISC;
                 Hop hop = Hop.NAVLINK;
@@ -131,4 +157,33 @@ public class ExtractorPDF extends ContentExtractor {
         // Set flag to indicate that link extraction is completed.
         return true;
     }
+
+    /**
+     * Extract URIs with {@link PDFParser}, which decrypts documents but
+     * reads them whole from a temporary copy.
+     */
+    protected List<String> extractInMemory(CrawlURI curi) throws IOException {
+        File tempFile;
+
+        int sn;
+	Thread thread = Thread.currentThread();
+        if (thread instanceof SinkHandlerLogThread) {
+            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
+        } else {
+            sn = System.identityHashCode(thread);
+        }
+        try {
+            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+
+        try {
+            curi.getRecorder().copyContentBodyTo(tempFile);
+            PDFParser parser = new PDFParser(tempFile.getAbsolutePath());
+            return parser.extractURIs();
+        } finally {
+            FileUtils.deleteSoonerOrLater(tempFile);
+        }
+    }
 }
@@ -20,6 +20,8 @@ package org.archive.modules.extractor;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.archive.modules.CrawlURI;
@@ -77,6 +79,14 @@ public class ExtractorSWF extends ContentExtractor {
     }
 
     
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.SWF);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     @Override
     protected boolean shouldExtract(CrawlURI uri) {
         String contentType = uri.getContentType();
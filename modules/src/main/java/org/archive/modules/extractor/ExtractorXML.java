@@ -20,6 +20,10 @@ package org.archive.modules.extractor;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -45,6 +49,11 @@ import org.archive.util.UriUtils;
  * elsewhere should ensure a similar cleanup call to Recorder.endReplays()
  * occurs. 
  * 
+ * Large documents such as sitemaps are scanned in chunks on the pool
+ * shared by ContentExtractors (see
+ * {@link ContentExtractor#extractInChunks(CharSequence, ChunkExtraction)}),
+ * with the URIs found added in document order as by a single scan.
+ * 
  * @contributor gojomo
  */
 public class ExtractorXML extends ContentExtractor {
@@ -68,6 +77,14 @@ public class ExtractorXML extends ContentExtractor {
     }
 
     
+    protected static final Set<ContentFamily> ACCEPTED_FAMILIES =
+        EnumSet.of(ContentFamily.XML);
+
+    @Override
+    public Set<ContentFamily> getAcceptedFamilies() {
+        return ACCEPTED_FAMILIES;
+    }
+
     @Override
     protected boolean shouldExtract(CrawlURI curi) {
         String mimeType = curi.getContentType();
@@ -120,11 +137,18 @@ public class ExtractorXML extends ContentExtractor {
                 }
             }
             cs = curi.getRecorder().getContentReplayCharSequence();
-            numberOfLinksExtracted.addAndGet(processXml(this, curi, cs));
+            if (shouldExtractInChunks(cs)) {
+                numberOfLinksExtracted.addAndGet(processXmlInChunks(curi, cs));
+            } else {
+                numberOfLinksExtracted.addAndGet(processXml(this, curi, cs));
+            }
             // Set flag to indicate that link extraction is completed.
             return true;
         } catch (IOException e) {
             logger.severe("Failed getting ReplayCharSequence: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("interrupted extracting " + curi);
         }
         return false; 
     }
@@ -155,18 +179,59 @@ public class ExtractorXML extends ContentExtractor {
             String xmlUri = StringEscapeUtils.unescapeXml(matcher.group(1));
             if (UriUtils.isVeryLikelyUri(xmlUri)) {
                 foundLinks++;
-                try {
-                    // treat as speculative, as whether context really 
-                    // intends to create a followable/fetchable URI is
-                    // unknown
-                    int max = ext.getExtractorParameters().getMaxOutlinks();
-                    addRelativeToBase(curi, max, xmlUri, 
-                            LinkContext.SPECULATIVE_MISC, Hop.SPECULATIVE); 
-                } catch (URIException e) {
-                    // There may not be a controller (e.g. If we're being run
-                    // by the extractor tool).
-                    ext.logUriError(e, curi.getUURI(), xmlUri);
-                }
+                addXmlUri(ext, curi, xmlUri);
+            }
+        }
+        return foundLinks;
+    }
+
+    protected static void addXmlUri(Extractor ext, CrawlURI curi,
+            String xmlUri) {
+        try {
+            // treat as speculative, as whether context really 
+            // intends to create a followable/fetchable URI is
+            // unknown
+            int max = ext.getExtractorParameters().getMaxOutlinks();
+            addRelativeToBase(curi, max, xmlUri, 
+                    LinkContext.SPECULATIVE_MISC, Hop.SPECULATIVE); 
+        } catch (URIException e) {
+            // There may not be a controller (e.g. If we're being run
+            // by the extractor tool).
+            ext.logUriError(e, curi.getUURI(), xmlUri);
+        }
+    }
+
+    /**
+     * @return the likely URIs processXml() would add from cs, in order
+     */
+    protected static List<String> findXmlUris(CharSequence cs) {
+        List<String> uris = new ArrayList<String>();
+        Matcher matcher = XML_URI_EXTRACTOR.matcher(cs);
+        while (matcher.find()) {
+            String xmlUri = StringEscapeUtils.unescapeXml(matcher.group(1));
+            if (UriUtils.isVeryLikelyUri(xmlUri)) {
+                uris.add(xmlUri);
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * As processXml(), but matching chunks of cs concurrently.
+     */
+    protected long processXmlInChunks(CrawlURI curi, CharSequence cs)
+    throws InterruptedException {
+        List<List<String>> chunks = extractInChunks(cs,
+                new ChunkExtraction<List<String>>() {
+                    public List<String> extractChunk(CharSequence chunk) {
+                        return findXmlUris(chunk);
+                    }
+                });
+        long foundLinks = 0;
+        for (List<String> uris : chunks) {
+            for (String xmlUri : uris) {
+                foundLinks++;
+                addXmlUri(this, curi, xmlUri);
             }
         }
         return foundLinks;
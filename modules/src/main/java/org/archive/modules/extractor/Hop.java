@@ -87,4 +87,20 @@ public enum Hop {
     public String getHopString() {
         return hopString;
     }
+
+    /**
+     * Returns the hop for a hop string, as written by
+     * {@link #getHopString()}.
+     * 
+     * @param hopString  the hop string
+     * @return  the hop, or null if none has that string
+     */
+    public static Hop forHopString(String hopString) {
+        for (Hop hop : values()) {
+            if (hop.hopString.equals(hopString)) {
+                return hop;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+/**
+ * Hand-coded scanner finding the same quoted, whitespace-free strings
+ * as {@link ExtractorJS#JAVASCRIPT_STRING_EXTRACTOR}, in the same order,
+ * without the regex engine's per-position overhead.
+ *
+ * A string opens with up to 8 backslashes (taken possessively) and then
+ * a ' or " or the escape text u0027 or u0022; it is the longest run of
+ * 1 to maxLength non-whitespace, non-quote characters that is followed
+ * by exactly the same opening text. As with the regex, the next search
+ * resumes just after the opening text, so the text between two quoted
+ * strings is itself considered.
+ *
+ * Usage mirrors a Matcher: while find() is true, start() and end()
+ * delimit the string's content.
+ */
+public class JSStringScanner {
+    /** possessive limit on opening backslashes, as in the regex */
+    protected static final int MAX_BACKSLASHES = 8;
+
+    protected final CharSequence cs;
+    protected final int length;
+    protected final int maxLength;
+    protected int from = 0;
+    protected int start = -1;
+    protected int end = -1;
+
+    public JSStringScanner(CharSequence cs, int maxLength) {
+        this.cs = cs;
+        this.length = cs.length();
+        this.maxLength = maxLength;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    protected static boolean isWhitespace(char c) {
+        // as regex \s
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
+    protected static boolean isQuote(char c) {
+        return c == '\'' || c == '"';
+    }
+
+    /**
+     * Find the next string.
+     *
+     * @return true if one was found
+     */
+    public boolean find() {
+        for (int p = from; p < length; p++) {
+            char c = cs.charAt(p);
+            if (c != '\\' && c != '\'' && c != '"' && c != 'u') {
+                continue;
+            }
+            int delimiterLength = openingLength(p);
+            if (delimiterLength < 0) {
+                continue;
+            }
+            int s = p + delimiterLength;
+            int e = isQuote(cs.charAt(s - 1))
+                ? quotedEnd(s, delimiterLength - 1)
+                : escapedEnd(p, s, delimiterLength);
+            if (e > s) {
+                start = s;
+                end = e;
+                from = s;
+                return true;
+            }
+        }
+        from = length;
+        start = end = -1;
+        return false;
+    }
+
+    /**
+     * @return length of the opening text (backslashes then quote or
+     * u002[27]) at p, or -1 if there is none
+     */
+    protected int openingLength(int p) {
+        int q = p;
+        while (q < length && q - p < MAX_BACKSLASHES && cs.charAt(q) == '\\') {
+            q++;
+        }
+        if (q >= length) {
+            return -1;
+        }
+        char c = cs.charAt(q);
+        if (isQuote(c)) {
+            return q - p + 1;
+        }
+        if (c == 'u' && q + 4 < length && cs.charAt(q + 1) == '0'
+                && cs.charAt(q + 2) == '0' && cs.charAt(q + 3) == '2') {
+            char last = cs.charAt(q + 4);
+            if (last == '2' || last == '7') {
+                return q - p + 5;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * For an opening of backslashes then a quote, the content can only
+     * end where the run of allowed characters meets a quote.
+     *
+     * @return end of the content starting at s, or -1
+     */
+    protected int quotedEnd(int s, int backslashes) {
+        char quote = cs.charAt(s - 1);
+        int limit = Math.min(length, s + maxLength + backslashes + 1);
+        int r = s;
+        while (r < limit) {
+            char c = cs.charAt(r);
+            if (isQuote(c)) {
+                break;
+            }
+            if (isWhitespace(c)) {
+                return -1;
+            }
+            r++;
+        }
+        if (r >= limit || cs.charAt(r) != quote) {
+            return -1;
+        }
+        int e = r - backslashes;
+        if (e - s < 1 || e - s > maxLength) {
+            return -1;
+        }
+        for (int i = e; i < r; i++) {
+            if (cs.charAt(i) != '\\') {
+                return -1;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * For an escaped opening (u0027 or u0022), itself made of allowed
+     * characters, the content ends at the last repeat of the opening
+     * within the run, as greedy backtracking would find it.
+     *
+     * @return end of the content starting at s, or -1
+     */
+    protected int escapedEnd(int p, int s, int delimiterLength) {
+        int limit = Math.min(length, s + maxLength + delimiterLength);
+        int r = s;
+        while (r < limit) {
+            char c = cs.charAt(r);
+            if (isQuote(c) || isWhitespace(c)) {
+                break;
+            }
+            r++;
+        }
+        for (int e = Math.min(r - delimiterLength, s + maxLength); e > s; e--) {
+            if (regionEquals(e, p, delimiterLength)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    protected boolean regionEquals(int a, int b, int count) {
+        for (int i = 0; i < count; i++) {
+            if (cs.charAt(a + i) != cs.charAt(b + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link org.archive.util.UriUtils#isPossibleUri(CharSequence)}
+     * for the current string, which has no whitespace: true if it has
+     * no angle brackets and has a '.' or '/'.
+     */
+    public boolean isPossibleUri() {
+        boolean dotOrSlash = false;
+        for (int i = start; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '<' || c == '>') {
+                return false;
+            }
+            if (c == '.' || c == '/') {
+                dotOrSlash = true;
+            }
+        }
+        return dotOrSlash;
+    }
+}
@@ -0,0 +1,719 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.util.TextUtils;
+
+/**
+ * Link-extraction from an HTML content-body using a hand-written,
+ * single-pass tokenizer rather than regular expressions.
+ *
+ * Finds exactly the same tags, attributes and values as the
+ * RELEVANT_TAG_EXTRACTOR and EACH_ATTRIBUTE_EXTRACTOR patterns of
+ * ExtractorHTML -- including their treatment of malformed markup, and
+ * the maxElementLength, maxAttributeNameLength and maxAttributeValLength
+ * limits -- and hands them to the same processing, so produces the
+ * same outlinks with the same link contexts. But the document is
+ * scanned forward only once, each search for a closing delimiter
+ * ('&gt;', '--&gt;', '&lt;/script&gt;', '&lt;/style&gt;') remembers its
+ * result for later searches, and nothing ever backtracks, so the time
+ * taken is linear in the document length however broken the markup.
+ *
+ * With byteStreamExtraction enabled, and content in an ASCII-compatible
+ * charset, the recorded bytes are scanned directly instead, through a
+ * ByteStreamCharSequence: the body is never decoded as a whole, only
+ * the attribute values and script and style bodies handed on for
+ * processing, and memory use is bounded by the longest single tag
+ * (or script or style element) rather than the page. A document with a
+ * tag or element longer than byteStreamMaxSpan (as one left
+ * unterminated) is extracted again from its decoded content instead.
+ * For UTF-8 content the attribute value and element length limits then
+ * count bytes rather than chars.
+ */
+public class StreamingExtractorHTML extends ExtractorHTML {
+
+    @SuppressWarnings("unused")
+    private static final long serialVersionUID = 1L;
+
+    private static Logger logger =
+        Logger.getLogger(StreamingExtractorHTML.class.getName());
+
+    /**
+     * If true, scan the raw recorded content bytes incrementally rather
+     * than a decoded char sequence of the whole body, when the content
+     * charset permits. Default is false.
+     */
+    {
+        setByteStreamExtraction(false);
+    }
+    public boolean getByteStreamExtraction() {
+        return (Boolean) kp.get("byteStreamExtraction");
+    }
+    public void setByteStreamExtraction(boolean byteStream) {
+        kp.put("byteStreamExtraction", byteStream);
+    }
+
+    /**
+     * Most bytes of a single tag, or script or style element, to hold
+     * while scanning in byteStreamExtraction mode. A document with a
+     * longer one (as one left unterminated, which would otherwise be
+     * held to the end of the content) is extracted from its decoded
+     * content instead. Default is 1MB.
+     */
+    {
+        setByteStreamMaxSpan(1024 * 1024);
+    }
+    public int getByteStreamMaxSpan() {
+        return (Integer) kp.get("byteStreamMaxSpan");
+    }
+    public void setByteStreamMaxSpan(int maxSpan) {
+        kp.put("byteStreamMaxSpan", maxSpan);
+    }
+
+    public StreamingExtractorHTML() {
+    }
+
+    @Override
+    protected boolean extractContent(CrawlURI curi) {
+        // any charset the content declares is already in effect
+        if (!getByteStreamExtraction() || !ByteStreamCharSequence
+                .isAsciiCompatible(curi.getRecorder().getCharset())) {
+            return super.extractContent(curi);
+        }
+        ExtractionState before = new ExtractionState(curi);
+        InputStream in = null;
+        pendingLinkCount.set(new long[1]);
+        try {
+            in = curi.getRecorder().getContentReplayInputStream();
+            ByteStreamCharSequence cs = new ByteStreamCharSequence(in,
+                    curi.getRecorder().getCharset());
+            cs.setMaxRetained(getByteStreamMaxSpan());
+            extract(curi, cs);
+            if (cs.getIOException() != null) {
+                throw cs.getIOException();
+            }
+            super.countLinksExtracted(pendingLinkCount.get()[0]);
+            return true;
+        } catch (ByteStreamCharSequence.RetainedLimitException e) {
+            logger.fine("span too long in " + curi + ", extracting decoded: "
+                    + e.getMessage());
+            // fall through, once the stream is closed
+        } catch (IOException e) {
+            super.countLinksExtracted(pendingLinkCount.get()[0]);
+            curi.getNonFatalFailures().add(e);
+            logger.log(Level.WARNING, "Failed read of content replay stream in "
+                    + Thread.currentThread().getName(), e);
+            return false;
+        } finally {
+            pendingLinkCount.remove();
+            IOUtils.closeQuietly(in);
+        }
+        before.restore(curi);
+        return super.extractContent(curi);
+    }
+
+    /**
+     * Links counted by each thread's byte-stream pass, added to the
+     * total only if the pass is not abandoned.
+     */
+    protected transient ThreadLocal<long[]> pendingLinkCount = new ThreadLocal<long[]>();
+
+    @Override
+    protected void countLinksExtracted(long count) {
+        long[] pending = pendingLinkCount.get();
+        if (pending != null) {
+            pending[0] += count;
+        } else {
+            super.countLinksExtracted(count);
+        }
+    }
+
+    /**
+     * Everything extraction may change on a CrawlURI -- its outlinks,
+     * discarded outlink count, and data: base URI, annotations, FORM
+     * offsets, meta-robots value, failures -- captured so that an
+     * abandoned byte-stream pass can be undone before extracting over
+     * again. Data collections are restored in place, as others may hold
+     * them.
+     */
+    protected static class ExtractionState {
+        protected int outLinks;
+        protected int discardedOutLinks;
+        protected Map<String,Object> data;
+        protected Map<String,List<Object>> contents =
+            new HashMap<String,List<Object>>();
+
+        protected ExtractionState(CrawlURI curi) {
+            outLinks = curi.getOutLinks().size();
+            discardedOutLinks = curi.getDiscardedOutLinks();
+            data = new HashMap<String,Object>(curi.getData());
+            for (Map.Entry<String,Object> datum : data.entrySet()) {
+                if (datum.getValue() instanceof Collection<?>) {
+                    contents.put(datum.getKey(), new ArrayList<Object>(
+                            (Collection<?>) datum.getValue()));
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        protected void restore(CrawlURI curi) {
+            // outlinks are only ever added
+            Iterator<CrawlURI> iter = curi.getOutLinks().iterator();
+            for (int i = 0; iter.hasNext(); i++) {
+                iter.next();
+                if (i >= outLinks) {
+                    iter.remove();
+                }
+            }
+            curi.setDiscardedOutLinks(discardedOutLinks);
+            Map<String,Object> current = curi.getData();
+            current.keySet().retainAll(data.keySet());
+            current.putAll(data);
+            for (Map.Entry<String,List<Object>> saved : contents.entrySet()) {
+                Collection<Object> collection =
+                    (Collection<Object>) data.get(saved.getKey());
+                collection.clear();
+                collection.addAll(saved.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forward-only search for a fixed string in one CharSequence.
+     * Remembers its last result, so that a series of searches from
+     * non-decreasing positions examines each character a bounded
+     * number of times.
+     */
+    protected static class ForwardFinder {
+        final CharSequence cs;
+        final String target;
+        int lastFrom = -1;
+        int lastFound = -1;
+
+        public ForwardFinder(CharSequence cs, String target) {
+            this.cs = cs;
+            this.target = target;
+        }
+
+        /**
+         * @return index at or after from where target (compared
+         * case-insensitively) begins, or -1 if none
+         */
+        public int find(int from) {
+            if (lastFrom >= 0) {
+                if (from >= lastFrom && (lastFound < 0 || from <= lastFound)) {
+                    return lastFound;
+                }
+                if (from < lastFrom) {
+                    // only the stretch before the last search is unknown
+                    int found = indexOfIgnoreCase(cs, target, from, lastFrom);
+                    lastFrom = from;
+                    if (found >= 0) {
+                        lastFound = found;
+                    }
+                    return lastFound;
+                }
+            }
+            lastFrom = from;
+            lastFound = indexOfIgnoreCase(cs, target, from, Integer.MAX_VALUE);
+            return lastFound;
+        }
+    }
+
+    /**
+     * @return index at or after from, and before limit, where target
+     * begins in cs, ignoring ASCII case, or -1 if none
+     */
+    protected static int indexOfIgnoreCase(CharSequence cs, String target,
+            int from, int limit) {
+        int tail = target.length() - 1;
+        char first = toLowerAscii(target.charAt(0));
+        for (int i = from; i < limit && has(cs, i + tail); i++) {
+            if (toLowerAscii(cs.charAt(i)) == first
+                    && regionMatches(cs, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if target appears in cs at offset, ignoring ASCII
+     * case
+     */
+    protected static boolean regionMatches(CharSequence cs, int offset,
+            String target) {
+        if (!has(cs, offset + target.length() - 1)) {
+            return false;
+        }
+        for (int i = 0; i < target.length(); i++) {
+            char c = cs.charAt(offset + i);
+            char t = target.charAt(i);
+            if (c != t && toLowerAscii(c) != toLowerAscii(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if index is within cs; for a ByteStreamCharSequence,
+     * without requiring its whole length to be known
+     */
+    protected static boolean has(CharSequence cs, int index) {
+        if (cs instanceof ByteStreamCharSequence) {
+            return ((ByteStreamCharSequence) cs).has(index);
+        }
+        return index < cs.length();
+    }
+
+    /**
+     * @return cs, or if it is a slice of a ByteStreamCharSequence, the
+     * text it decodes to
+     */
+    protected static CharSequence decoded(CharSequence cs) {
+        if (cs instanceof ByteStreamCharSequence.ByteSlice) {
+            return cs.toString();
+        }
+        return cs;
+    }
+
+    /**
+     * @return offset in decoded(cs) corresponding to offset in cs
+     */
+    protected static int decodedOffset(CharSequence cs, int offset) {
+        if (cs instanceof ByteStreamCharSequence.ByteSlice) {
+            return cs.subSequence(0, offset).toString().length();
+        }
+        return offset;
+    }
+
+    protected static char toLowerAscii(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /** as regex \w */
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+            || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** as regex [-\w] */
+    protected static boolean isNameChar(char c) {
+        return c == '-' || isWordChar(c);
+    }
+
+    /** as regex \s */
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+            || c == '\f' || c == '\r';
+    }
+
+    /**
+     * As ExtractorHTML.extract(), with the RELEVANT_TAG_EXTRACTOR
+     * alternatives -- whole SCRIPT, whole STYLE, META or other tag
+     * with attributes, comment -- tried in the same order at each '&lt;'.
+     */
+    @Override
+    protected void extract(CrawlURI curi, CharSequence cs) {
+        final int maxElement = getMaxElementLength();
+        final ByteStreamCharSequence stream = (cs instanceof ByteStreamCharSequence)
+            ? (ByteStreamCharSequence) cs : null;
+        ForwardFinder gt = new ForwardFinder(cs, ">");
+        ForwardFinder scriptEnd = new ForwardFinder(cs, "</script>");
+        ForwardFinder styleEnd = new ForwardFinder(cs, "</style>");
+        ForwardFinder commentEnd = new ForwardFinder(cs, "-->");
+        int i = 0;
+        while (has(cs, i)) {
+            if (stream != null) {
+                // nothing before this position is looked at again
+                stream.release(i);
+            }
+            if (cs.charAt(i) != '<') {
+                i++;
+                continue;
+            }
+            if (Thread.interrupted()) {
+                break;
+            }
+            int p = i + 1; // start of tag innards
+
+            if (regionMatches(cs, p, "script")) {
+                int openEnd = gt.find(p + 6);
+                int close = (openEnd < 0) ? -1 : scriptEnd.find(openEnd + 1);
+                if (close >= 0) {
+                    CharSequence script = cs.subSequence(p, close + 8);
+                    processScript(curi, decoded(script),
+                            decodedOffset(script, openEnd - p));
+                    i = close + 9;
+                    continue;
+                }
+            }
+            if (regionMatches(cs, p, "style")) {
+                int openEnd = gt.find(p + 5);
+                int close = (openEnd < 0) ? -1 : styleEnd.find(openEnd + 1);
+                if (close >= 0) {
+                    CharSequence style = cs.subSequence(p, close + 7);
+                    processStyle(curi, decoded(style),
+                            decodedOffset(style, openEnd - p));
+                    i = close + 8;
+                    continue;
+                }
+            }
+
+            int elementEnd = p;
+            while (has(cs, elementEnd) && isWordChar(cs.charAt(elementEnd))) {
+                elementEnd++;
+            }
+            int elementLength = elementEnd - p;
+            boolean isMeta = elementLength == 4 && regionMatches(cs, p, "meta");
+            if (elementLength > 0 && (elementLength <= maxElement || isMeta)
+                    && has(cs, elementEnd)
+                    && isWhitespace(cs.charAt(elementEnd))) {
+                int tagEnd = gt.find(elementEnd);
+                if (tagEnd >= 0) {
+                    if (isMeta) {
+                        if (processMeta(curi, cs.subSequence(p, tagEnd))) {
+                            // meta tag included NOFOLLOW; abort processing
+                            break;
+                        }
+                    } else {
+                        String element = cs.subSequence(p, elementEnd).toString();
+                        processGeneralTag(curi, element, cs.subSequence(p, tagEnd));
+                        // remember FORM to help later extra processing
+                        if ("form".equalsIgnoreCase(element)) {
+                            curi.getDataList(A_FORM_OFFSETS).add((Integer)
+                                    (stream == null ? i : stream.charOffset(i)));
+                        }
+                    }
+                    i = tagEnd + 1;
+                    continue;
+                }
+            }
+
+            if (regionMatches(cs, p, "!--") && !regionMatches(cs, p + 3, "[if")) {
+                int close = commentEnd.find(p + 3);
+                if (close >= 0) {
+                    // comment: for now do nothing
+                    i = close + 3;
+                    continue;
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * One name=value attribute found by nextAttribute().
+     */
+    protected static class Attribute {
+        int kind;
+        int nameStart;
+        int nameEnd;
+        int valueStart;
+        int valueEnd;
+    }
+
+    /**
+     * Find the next attribute at or after pos, exactly as successive
+     * find()s of EACH_ATTRIBUTE_EXTRACTOR would.
+     *
+     * @param cs tag innards
+     * @param pos position to search from
+     * @param attr filled in with the attribute found
+     * @return position after the attribute found, or -1 if none
+     */
+    protected int nextAttribute(CharSequence cs, int pos, Attribute attr,
+            int maxName, int maxValue) {
+        final int length = cs.length();
+        int p = pos;
+        while (p < length) {
+            if (!isNameChar(cs.charAt(p))) {
+                p++;
+                continue;
+            }
+            int nameEnd = p;
+            while (nameEnd < length && isNameChar(cs.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            // \s*=\s*
+            int q = nameEnd;
+            while (q < length && isWhitespace(cs.charAt(q))) {
+                q++;
+            }
+            if (q >= length || cs.charAt(q) != '=') {
+                // no later start within this name could match either
+                p = nameEnd;
+                continue;
+            }
+            q++;
+            while (q < length && isWhitespace(cs.charAt(q))) {
+                q++;
+            }
+            if (q >= length) {
+                p = nameEnd;
+                continue;
+            }
+
+            // value: quoted (closed by same quote, or end), else unquoted
+            int matchEnd = -1;
+            char quote = cs.charAt(q);
+            if (quote == '"' || quote == '\'') {
+                int limit = Math.min(length, q + 1 + maxValue);
+                for (int j = q + 1; j <= limit; j++) {
+                    if (j < length && cs.charAt(j) == quote) {
+                        attr.valueStart = q + 1;
+                        attr.valueEnd = j;
+                        matchEnd = j + 1;
+                        break;
+                    }
+                    if (isEndAnchor(cs, j)) {
+                        attr.valueStart = q + 1;
+                        attr.valueEnd = j;
+                        matchEnd = j;
+                        break;
+                    }
+                }
+            }
+            if (matchEnd < 0) {
+                int j = q;
+                while (j < length && j - q < maxValue
+                        && !isWhitespace(cs.charAt(j))) {
+                    j++;
+                }
+                attr.valueStart = q;
+                attr.valueEnd = j;
+                matchEnd = j;
+            }
+
+            // the earliest start within an over-long name that matches
+            int start = p;
+            int kind;
+            while ((kind = attributeKind(cs, start, nameEnd)) == 0
+                    && nameEnd - start > maxName) {
+                start++;
+            }
+            attr.kind = (kind == 0) ? ATTR_OTHER : kind;
+            attr.nameStart = start;
+            attr.nameEnd = nameEnd;
+            return matchEnd;
+        }
+        return -1;
+    }
+
+    /**
+     * Whether regex '$' (without MULTILINE) would match at position i:
+     * at the end, or before a final line terminator.
+     */
+    protected static boolean isEndAnchor(CharSequence cs, int i) {
+        int length = cs.length();
+        if (i == length) {
+            return true;
+        }
+        if (i == length - 2) {
+            return cs.charAt(i) == '\r' && cs.charAt(i + 1) == '\n';
+        }
+        if (i == length - 1) {
+            char c = cs.charAt(i);
+            if (c == '\n') {
+                return i == 0 || cs.charAt(i - 1) != '\r';
+            }
+            return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+        }
+        return false;
+    }
+
+    protected static final String[] SRC_NAMES = {"src", "lowsrc",
+        "background", "cite", "longdesc", "usemap", "profile", "datasrc"};
+
+    /**
+     * @return the ATTR_ kind for a name with a specific meaning,
+     * or 0 for any other name
+     */
+    protected static int attributeKind(CharSequence cs, int start, int end) {
+        int length = end - start;
+        if (nameIs(cs, start, end, "href")) {
+            return ATTR_HREF;
+        }
+        if (nameIs(cs, start, end, "action")) {
+            return ATTR_ACTION;
+        }
+        if (length >= 2 && regionMatches(cs, start, "on")) {
+            // on\w*: a '-' disqualifies
+            int i = start + 2;
+            while (i < end && isWordChar(cs.charAt(i))) {
+                i++;
+            }
+            if (i == end) {
+                return ATTR_ON;
+            }
+        }
+        for (String name : SRC_NAMES) {
+            if (nameIs(cs, start, end, name)) {
+                return ATTR_SRC;
+            }
+        }
+        if (nameIs(cs, start, end, "codebase")) {
+            return ATTR_CODEBASE;
+        }
+        if (nameIs(cs, start, end, "classid") || nameIs(cs, start, end, "data")) {
+            return ATTR_CLASSID;
+        }
+        if (nameIs(cs, start, end, "archive")) {
+            return ATTR_ARCHIVE;
+        }
+        if (nameIs(cs, start, end, "code")) {
+            return ATTR_CODE;
+        }
+        if (nameIs(cs, start, end, "value")) {
+            return ATTR_VALUE;
+        }
+        if (nameIs(cs, start, end, "style")) {
+            return ATTR_STYLE;
+        }
+        if (nameIs(cs, start, end, "method")) {
+            return ATTR_METHOD;
+        }
+        return 0;
+    }
+
+    protected static boolean nameIs(CharSequence cs, int start, int end,
+            String name) {
+        return end - start == name.length() && regionMatches(cs, start, name);
+    }
+
+    @Override
+    protected void processGeneralTag(CrawlURI curi, CharSequence element,
+            CharSequence cs) {
+        final int maxName = getMaxAttributeNameLength();
+        final int maxValue = getMaxAttributeValLength();
+        TagState tag = new TagState(element, cs);
+        Attribute attr = new Attribute();
+        int pos = 0;
+        while ((pos = nextAttribute(cs, pos, attr, maxName, maxValue)) >= 0) {
+            CharSequence attrName =
+                decoded(cs.subSequence(attr.nameStart, attr.nameEnd));
+            CharSequence value = TextUtils.unescapeHtml(
+                    decoded(cs.subSequence(attr.valueStart, attr.valueEnd)));
+            processGeneralAttribute(curi, tag, attr.kind, attrName, value);
+        }
+        finishGeneralTag(curi, tag);
+    }
+
+    @Override
+    protected boolean processMeta(CrawlURI curi, CharSequence cs) {
+        final int maxName = getMaxAttributeNameLength();
+        final int maxValue = getMaxAttributeValLength();
+        String name = null;
+        String httpEquiv = null;
+        String content = null;
+        Attribute attr = new Attribute();
+        int pos = 0;
+        while ((pos = nextAttribute(cs, pos, attr, maxName, maxValue)) >= 0) {
+            String value = TextUtils.unescapeHtml(
+                    decoded(cs.subSequence(attr.valueStart, attr.valueEnd))).toString();
+            if (nameIs(cs, attr.nameStart, attr.nameEnd, "name")) {
+                name = value;
+            } else if (nameIs(cs, attr.nameStart, attr.nameEnd, "http-equiv")) {
+                httpEquiv = value;
+            } else if (nameIs(cs, attr.nameStart, attr.nameEnd, "content")) {
+                content = value;
+            }
+        }
+        return processMetaValues(curi, name, httpEquiv, content);
+    }
+
+    /**
+     * As the DATA_REMOTE pattern: the tag ends with a quote character,
+     * and somewhere has data-remote=, that quote and 'true', with no
+     * line terminators outside the whitespace around '='.
+     */
+    @Override
+    protected boolean isDataRemoteLink(CharSequence element, CharSequence tag) {
+        if (!"a".equals(element)) {
+            return false;
+        }
+        int length = tag.length();
+        if (length == 0) {
+            return false;
+        }
+        char quote = tag.charAt(length - 1);
+        if (quote != '"' && quote != '\'') {
+            return false;
+        }
+        // '.' does not match line terminators: find the last one, which
+        // must fall within the data-remote\s*=\s* part
+        int lastTerminator = -1;
+        int firstTerminator = -1;
+        for (int i = 0; i < length; i++) {
+            if (isLineTerminator(tag.charAt(i))) {
+                if (firstTerminator < 0) {
+                    firstTerminator = i;
+                }
+                lastTerminator = i;
+            }
+        }
+        for (int i = 0; i <= length - 11; i++) {
+            if (firstTerminator >= 0 && firstTerminator < i) {
+                // '.*' before data-remote cannot span a line terminator
+                return false;
+            }
+            if (!regionMatches(tag, i, "data-remote")) {
+                continue;
+            }
+            int q = i + 11;
+            while (q < length && isWhitespace(tag.charAt(q))) {
+                q++;
+            }
+            if (q >= length || tag.charAt(q) != '=') {
+                continue;
+            }
+            q++;
+            while (q < length && isWhitespace(tag.charAt(q))) {
+                q++;
+            }
+            // quote, 'true', then at least the closing quote
+            if (q + 5 < length && tag.charAt(q) == quote
+                    && regionMatches(tag, q + 1, "true")
+                    && lastTerminator < q) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+            || c == '\u2029';
+    }
+}
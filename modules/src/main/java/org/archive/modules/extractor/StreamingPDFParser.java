@@ -0,0 +1,566 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Finds the /URI and /URL strings of a PDF in one sequential pass over
+ * its bytes, without loading or seeking in the document, so memory use
+ * does not grow with the size of the PDF.
+ *
+ * Rather than following the xref table from the catalog as
+ * {@link PDFParser} does, this tokenizes every object in file order and
+ * reports each string that is the value of a /URI or /URL key.
+ * Object streams (/Type /ObjStm, as written by PDF 1.5 and later) are
+ * inflated as they are read and tokenized the same way; other streams
+ * (page content, images, fonts) are skipped unread.
+ *
+ * Strings in encrypted documents cannot be read this way; callers
+ * should check {@link #isEncrypted()} and, if it is set, discard the
+ * result.
+ *
+ * Bytes are pushed in with {@link #write(byte[], int, int)}, or read
+ * from a stream with {@link #parse(InputStream)}.
+ */
+public class StreamingPDFParser {
+    /** strings longer than this are not taken as URIs */
+    protected static final int MAX_STRING_LENGTH = 8 * 1024;
+    /** names longer than this are not interesting */
+    protected static final int MAX_NAME_LENGTH = 64;
+
+    protected static final byte[] ENDSTREAM = bytes("endstream");
+
+    // lexical states
+    protected static final int TOKEN_START = 0;
+    protected static final int COMMENT = 1;
+    protected static final int NAME = 2;
+    protected static final int REGULAR = 3;
+    protected static final int LITERAL = 4;
+    protected static final int LITERAL_ESCAPE = 5;
+    protected static final int LITERAL_OCTAL = 6;
+    protected static final int ANGLE = 7;
+    protected static final int HEX = 8;
+    protected static final int STREAM_EOL = 9;
+    protected static final int STREAM_EOL_LF = 10;
+    protected static final int STREAM_DATA = 11;
+
+    protected List<String> foundURIs;
+    protected boolean encrypted = false;
+    /** whether this parser reads the inside of an object stream */
+    protected boolean nested;
+
+    protected int state = TOKEN_START;
+    protected StringBuilder token = new StringBuilder();
+    protected boolean tokenOverflow;
+    /** byte string being read (literal or hex) */
+    protected byte[] string = new byte[256];
+    protected int stringLength;
+    protected int parenDepth;
+    protected int octal;
+    protected int octalDigits;
+    protected int hexHigh = -1;
+
+    /** number of tokens read, to relate a token to those before it */
+    protected long tokenCount = 0;
+    /** token index of the /URI or /URL name last read */
+    protected long uriKeyToken = -10;
+
+    // what the current object's dictionary says of its stream
+    protected boolean objStm;
+    protected boolean flate;
+    protected boolean otherFilter;
+    protected long lengthToken = -10;
+    protected long length = -1;
+
+    // stream data
+    protected long streamRemaining;
+    protected Inflater inflater;
+    protected StreamingPDFParser inner;
+    protected byte[] inflated;
+    protected int endstreamMatched;
+
+    public StreamingPDFParser() {
+        this(new ArrayList<String>(), false);
+    }
+
+    protected StreamingPDFParser(List<String> foundURIs, boolean nested) {
+        this.foundURIs = foundURIs;
+        this.nested = nested;
+    }
+
+    protected static byte[] bytes(String ascii) {
+        try {
+            return ascii.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return URIs found so far, in document order
+     */
+    public List<String> getURIs() {
+        return foundURIs;
+    }
+
+    /**
+     * @return true if the document declared itself encrypted, in which
+     * case found strings are likely garbage
+     */
+    public boolean isEncrypted() {
+        return encrypted || (inner != null && inner.isEncrypted());
+    }
+
+    /**
+     * Read and parse the rest of the stream. Does not close it.
+     *
+     * @return URIs found
+     */
+    public List<String> parse(InputStream in) throws IOException {
+        byte[] buf = new byte[16 * 1024];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            write(buf, 0, n);
+        }
+        finish();
+        return foundURIs;
+    }
+
+    /**
+     * Note the end of the document.
+     */
+    public void finish() {
+        if (state == REGULAR || state == NAME) {
+            endToken();
+        }
+        if (state == STREAM_EOL || state == STREAM_EOL_LF) {
+            startStreamData();
+        }
+        endInflate();
+        state = TOKEN_START;
+    }
+
+    public void write(byte[] b, int off, int len) {
+        int end = off + len;
+        int i = off;
+        while (i < end) {
+            if (state == STREAM_DATA) {
+                i = streamData(b, i, end);
+            } else {
+                lex(b[i++] & 0xFF);
+            }
+        }
+    }
+
+    protected static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t'
+            || c == '\f' || c == 0;
+    }
+
+    protected static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '['
+            || c == ']' || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+
+    protected static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    protected void lex(int c) {
+        switch (state) {
+        case TOKEN_START:
+            startToken(c);
+            break;
+        case COMMENT:
+            if (c == '\r' || c == '\n') {
+                state = TOKEN_START;
+            }
+            break;
+        case NAME:
+        case REGULAR:
+            if (isWhitespace(c) || isDelimiter(c)) {
+                endToken();
+                if (state == TOKEN_START) {
+                    startToken(c);
+                }
+                // "stream" leaves us in STREAM_EOL, with c its EOL
+                else if (state == STREAM_EOL) {
+                    lex(c);
+                }
+            } else {
+                appendToken(c);
+            }
+            break;
+        case LITERAL:
+            if (c == '\\') {
+                state = LITERAL_ESCAPE;
+            } else if (c == '(') {
+                parenDepth++;
+                appendString(c);
+            } else if (c == ')') {
+                if (--parenDepth == 0) {
+                    endString();
+                } else {
+                    appendString(c);
+                }
+            } else {
+                appendString(c);
+            }
+            break;
+        case LITERAL_ESCAPE:
+            state = LITERAL;
+            switch (c) {
+            case 'n': appendString('\n'); break;
+            case 'r': appendString('\r'); break;
+            case 't': appendString('\t'); break;
+            case 'b': appendString('\b'); break;
+            case 'f': appendString('\f'); break;
+            case '\r': case '\n': break; // line continuation
+            default:
+                if (c >= '0' && c <= '7') {
+                    octal = c - '0';
+                    octalDigits = 1;
+                    state = LITERAL_OCTAL;
+                } else {
+                    appendString(c);
+                }
+            }
+            break;
+        case LITERAL_OCTAL:
+            if (c >= '0' && c <= '7' && octalDigits < 3) {
+                octal = octal * 8 + c - '0';
+                octalDigits++;
+            } else {
+                appendString(octal & 0xFF);
+                state = LITERAL;
+                lex(c);
+            }
+            break;
+        case ANGLE:
+            if (c == '<') {
+                // dictionary start
+                tokenCount++;
+                state = TOKEN_START;
+            } else {
+                stringLength = 0;
+                hexHigh = -1;
+                state = HEX;
+                lex(c);
+            }
+            break;
+        case HEX:
+            if (c == '>') {
+                if (hexHigh >= 0) {
+                    appendString(hexHigh << 4);
+                }
+                endString();
+            } else {
+                int v = hexValue(c);
+                if (v >= 0) {
+                    if (hexHigh < 0) {
+                        hexHigh = v;
+                    } else {
+                        appendString((hexHigh << 4) | v);
+                        hexHigh = -1;
+                    }
+                }
+            }
+            break;
+        case STREAM_EOL:
+            if (c == '\r') {
+                state = STREAM_EOL_LF;
+            } else {
+                startStreamData();
+                if (c != '\n') {
+                    write(new byte[] {(byte) c}, 0, 1);
+                }
+            }
+            break;
+        case STREAM_EOL_LF:
+            startStreamData();
+            if (c != '\n') {
+                write(new byte[] {(byte) c}, 0, 1);
+            }
+            break;
+        }
+    }
+
+    protected void startToken(int c) {
+        if (isWhitespace(c)) {
+            return;
+        }
+        switch (c) {
+        case '%':
+            state = COMMENT;
+            break;
+        case '/':
+            token.setLength(0);
+            tokenOverflow = false;
+            state = NAME;
+            break;
+        case '(':
+            stringLength = 0;
+            parenDepth = 1;
+            state = LITERAL;
+            break;
+        case '<':
+            state = ANGLE;
+            break;
+        case '>': case '[': case ']': case '{': case '}': case ')':
+            tokenCount++;
+            break;
+        default:
+            token.setLength(0);
+            tokenOverflow = false;
+            token.append((char) c);
+            state = REGULAR;
+        }
+    }
+
+    protected void appendToken(int c) {
+        if (token.length() < MAX_NAME_LENGTH) {
+            token.append((char) c);
+        } else {
+            tokenOverflow = true;
+        }
+    }
+
+    protected void appendString(int c) {
+        if (stringLength == string.length) {
+            if (stringLength >= MAX_STRING_LENGTH) {
+                return;
+            }
+            byte[] bigger = new byte[string.length * 2];
+            System.arraycopy(string, 0, bigger, 0, stringLength);
+            string = bigger;
+        }
+        string[stringLength++] = (byte) c;
+    }
+
+    protected void endString() {
+        state = TOKEN_START;
+        tokenCount++;
+        if (uriKeyToken == tokenCount - 1 && stringLength < MAX_STRING_LENGTH) {
+            foundURIs.add(decodeString(string, stringLength));
+        }
+    }
+
+    /**
+     * @return PDF text string: UTF-16BE if it has that byte-order mark,
+     * otherwise taken as ISO-8859-1 as PdfString does
+     */
+    protected static String decodeString(byte[] bytes, int length) {
+        try {
+            if (length >= 2 && (bytes[0] & 0xFF) == 0xFE
+                    && (bytes[1] & 0xFF) == 0xFF) {
+                return new String(bytes, 2, length - 2, "UTF-16BE");
+            }
+            return new String(bytes, 0, length, "ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Handle the name or regular token just read, leaving the lexer
+     * ready for the next token (or for stream data).
+     */
+    protected void endToken() {
+        boolean name = (state == NAME);
+        state = TOKEN_START;
+        tokenCount++;
+        if (tokenOverflow) {
+            return;
+        }
+        if (name) {
+            endName(decodeName(token));
+        } else {
+            endRegular(token.toString());
+        }
+    }
+
+    /**
+     * @return name with #xx escapes decoded
+     */
+    protected static String decodeName(CharSequence name) {
+        StringBuilder result = null;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '#' && i + 2 < name.length()
+                    && hexValue(name.charAt(i + 1)) >= 0
+                    && hexValue(name.charAt(i + 2)) >= 0) {
+                if (result == null) {
+                    result = new StringBuilder(name.subSequence(0, i));
+                }
+                result.append((char) (hexValue(name.charAt(i + 1)) * 16
+                        + hexValue(name.charAt(i + 2))));
+                i += 2;
+            } else if (result != null) {
+                result.append(c);
+            }
+        }
+        return (result == null) ? name.toString() : result.toString();
+    }
+
+    protected void endName(String name) {
+        if (name.equals("URI") || name.equals("URL")) {
+            uriKeyToken = tokenCount;
+        } else if (name.equals("ObjStm")) {
+            objStm = true;
+        } else if (name.equals("FlateDecode") || name.equals("Fl")) {
+            flate = true;
+        } else if (name.endsWith("Decode") || name.equals("Crypt")) {
+            otherFilter = true;
+        } else if (name.equals("Length")) {
+            lengthToken = tokenCount;
+        } else if (name.equals("Encrypt")) {
+            encrypted = true;
+        }
+    }
+
+    protected void endRegular(String word) {
+        if (word.equals("obj") || word.equals("endobj")) {
+            objStm = false;
+            flate = false;
+            otherFilter = false;
+            length = -1;
+        } else if (word.equals("stream")) {
+            state = STREAM_EOL;
+        } else if (lengthToken == tokenCount - 1) {
+            try {
+                length = Long.parseLong(word);
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+        } else if (word.equals("R") && lengthToken == tokenCount - 3) {
+            // indirect length: not known until its object is read
+            length = -1;
+        }
+    }
+
+    protected void startStreamData() {
+        state = STREAM_DATA;
+        streamRemaining = length;
+        endstreamMatched = 0;
+        if (objStm && flate && !otherFilter && !nested) {
+            inflater = new Inflater();
+            if (inflated == null) {
+                inflated = new byte[16 * 1024];
+            }
+            if (inner == null) {
+                inner = new StreamingPDFParser(foundURIs, true);
+            }
+        }
+    }
+
+    /**
+     * Consume stream data from b, from i up to at most end.
+     *
+     * @return index of the first byte not consumed
+     */
+    protected int streamData(byte[] b, int i, int end) {
+        int available = end - i;
+        if (streamRemaining >= 0 && streamRemaining < available) {
+            available = (int) streamRemaining;
+        }
+        if (inflater != null) {
+            inflater.setInput(b, i, available);
+            try {
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int n = inflater.inflate(inflated);
+                    inner.write(inflated, 0, n);
+                    if (n == 0 && inflater.needsDictionary()) {
+                        break;
+                    }
+                }
+            } catch (DataFormatException e) {
+                // corrupt; skip the rest as an opaque stream
+                endInflate();
+                if (streamRemaining < 0) {
+                    return findEndstream(b, i, end);
+                }
+            }
+            if (inflater != null && inflater.finished()) {
+                int used = available - inflater.getRemaining();
+                endInflate();
+                if (streamRemaining < 0) {
+                    // unknown length: resume tokenizing after the data
+                    state = TOKEN_START;
+                    return i + used;
+                }
+            } else if (inflater != null && inflater.needsDictionary()) {
+                endInflate();
+            }
+        } else if (streamRemaining < 0) {
+            return findEndstream(b, i, end);
+        }
+        if (streamRemaining >= 0) {
+            streamRemaining -= available;
+            if (streamRemaining == 0) {
+                endInflate();
+                state = TOKEN_START;
+            }
+        }
+        return i + available;
+    }
+
+    /**
+     * Skip stream data of unknown length up to the endstream keyword.
+     */
+    protected int findEndstream(byte[] b, int i, int end) {
+        while (i < end) {
+            int c = b[i++];
+            if (c == ENDSTREAM[endstreamMatched]) {
+                if (++endstreamMatched == ENDSTREAM.length) {
+                    state = TOKEN_START;
+                    tokenCount++;
+                    return i;
+                }
+            } else {
+                // no proper prefix of "endstream" recurs within it
+                // except "e", so restart from there
+                endstreamMatched = (c == 'e') ? 1 : 0;
+            }
+        }
+        return i;
+    }
+
+    protected void endInflate() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+            if (inner != null) {
+                inner.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.InetAddressUtil;
+import org.springframework.context.Lifecycle;
+import org.xbill.DNS.Cache;
+import org.xbill.DNS.Credibility;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.RRset;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Resolves host names ahead of need, with many queries in flight at
+ * once, so that by the time a host's 'dns:' prerequisite reaches
+ * FetchDNS its answer is usually already at hand.
+ *
+ * Queries for A records go out as fast as they are requested, up to
+ * maxInFlight outstanding, each on a socket chosen at random from a
+ * pool of them bound to random ports, so that forging an answer means
+ * guessing the port as well as the query id. A socket is replaced by
+ * one on a fresh port after queriesPerSocket queries. Responses are
+ * matched to queries by socket, id and question, and a sweeper resends
+ * queries unanswered after timeoutMs, up to retries times.
+ *
+ * Of each answer, only the answer section's records for the name asked
+ * about -- its A records, or the CNAME naming its canonical host -- are
+ * added to dnsjava's shared default cache, which honors their TTLs and
+ * is where FetchDNS's own lookups look first; other names a response
+ * mentions are never cached from here. A negative answer (NXDOMAIN, or
+ * no A records) is cached for the name asked about alone, for as long
+ * as the SOA record of an enclosing zone allows. FetchDNS still performs, and records, every
+ * 'dns:' fetch; it just no longer waits on the network for hosts
+ * resolved here. Truncated, failed and unanswered queries are simply
+ * dropped, leaving FetchDNS to resolve the host as before.
+ *
+ * Hosts are requested by {@link #prefetch(String)} -- by
+ * CandidatesProcessor, as it schedules URIs on hosts not yet
+ * resolved -- and FetchDNS may {@link #awaitPrefetch(String, long)} a
+ * query already in flight rather than repeat it.
+ */
+public class AsyncDNSResolver implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(AsyncDNSResolver.class.getName());
+
+    protected static final int DNS_PORT = 53;
+    /** largest UDP response accepted; no EDNS, so 512 is usual */
+    protected static final int MAX_RESPONSE_SIZE = 4096;
+    protected static final long SWEEP_INTERVAL_MS = 100;
+
+    /**
+     * DNS server to query, as host or host:port; if unset, the first
+     * server of the system resolver configuration, as FetchDNS uses.
+     */
+    protected String dnsServer = null;
+    public String getDnsServer() {
+        return dnsServer;
+    }
+    public void setDnsServer(String dnsServer) {
+        this.dnsServer = dnsServer;
+    }
+
+    /**
+     * Most queries awaiting answers at once; further prefetch requests
+     * are dropped until some complete.
+     */
+    protected int maxInFlight = 200;
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Milliseconds to wait for an answer before resending a query.
+     */
+    protected int timeoutMs = 3000;
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Times to resend an unanswered query before giving up on it.
+     */
+    protected int retries = 1;
+    public int getRetries() {
+        return retries;
+    }
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Sockets, each on its own random port, that queries are spread
+     * over at random.
+     */
+    protected int sockets = 8;
+    public int getSockets() {
+        return sockets;
+    }
+    public void setSockets(int sockets) {
+        this.sockets = sockets;
+    }
+
+    /**
+     * Queries sent on a socket before it is replaced by one on a new
+     * random port.
+     */
+    protected int queriesPerSocket = 100;
+    public int getQueriesPerSocket() {
+        return queriesPerSocket;
+    }
+    public void setQueriesPerSocket(int queriesPerSocket) {
+        this.queriesPerSocket = queriesPerSocket;
+    }
+
+    /**
+     * A socket queries are sent on, with the thread receiving its
+     * responses.
+     */
+    protected class Port {
+        final DatagramSocket socket;
+        /** queries sent; guarded by the resolver */
+        int sent = 0;
+        volatile long retiredAt = -1;
+
+        Port() throws SocketException {
+            socket = openSocket();
+            Thread receiver = new Thread("AsyncDNSResolver receiver "
+                    + socket.getLocalPort()) {
+                public void run() {
+                    receive(Port.this);
+                }
+            };
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+    }
+
+    protected class Query {
+        final String lookupName;
+        final Name name;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int id;
+        volatile Port port;
+        volatile long sentAt;
+        volatile int attempts = 0;
+
+        Query(String lookupName, Name name) {
+            this.lookupName = lookupName;
+            this.name = name;
+        }
+    }
+
+    protected Cache cache = Lookup.getDefaultCache(DClass.IN);
+    protected Random random = new SecureRandom();
+    protected ConcurrentMap<String, Query> byName =
+        new ConcurrentHashMap<String, Query>();
+    protected ConcurrentMap<Integer, Query> byId =
+        new ConcurrentHashMap<Integer, Query>();
+    protected Semaphore inFlight;
+    protected InetSocketAddress serverAddress;
+    /** guarded by this */
+    protected Port[] ports;
+    /** replaced ports, left open for answers to queries sent on them */
+    protected Set<Port> retiredPorts =
+        Collections.newSetFromMap(new ConcurrentHashMap<Port, Boolean>());
+    protected ScheduledExecutorService sweeper;
+    protected volatile boolean isRunning = false;
+
+    protected AtomicLong prefetchesRequested = new AtomicLong(0);
+    protected AtomicLong prefetchesDropped = new AtomicLong(0);
+    protected AtomicLong queriesSent = new AtomicLong(0);
+    protected AtomicLong answersCached = new AtomicLong(0);
+    protected AtomicLong negativeAnswersCached = new AtomicLong(0);
+    protected AtomicLong queriesFailed = new AtomicLong(0);
+    protected AtomicLong queriesAwaited = new AtomicLong(0);
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        String server = (getDnsServer() != null && getDnsServer().length() > 0)
+            ? getDnsServer() : ResolverConfig.getCurrentConfig().server();
+        int port = DNS_PORT;
+        int colon = server.lastIndexOf(':');
+        if (colon > 0 && server.indexOf(':') == colon) {
+            port = Integer.parseInt(server.substring(colon + 1));
+            server = server.substring(0, colon);
+        }
+        serverAddress = new InetSocketAddress(server, port);
+        inFlight = new Semaphore(getMaxInFlight());
+        isRunning = true;
+        ports = new Port[Math.max(1, getSockets())];
+        try {
+            for (int i = 0; i < ports.length; i++) {
+                ports[i] = new Port();
+            }
+        } catch (SocketException e) {
+            stop();
+            throw new RuntimeException(e);
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AsyncDNSResolver sweeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        logger.info("resolving ahead via " + serverAddress);
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        for (Port port : ports) {
+            if (port != null) {
+                port.socket.close();
+            }
+        }
+        for (Port port : retiredPorts) {
+            port.socket.close();
+        }
+        retiredPorts.clear();
+        for (Query query : byId.values()) {
+            if (byId.remove(query.id, query)) {
+                complete(query);
+            }
+        }
+    }
+
+    protected static String lookupName(String host) {
+        return host.endsWith(".") ? host : host + ".";
+    }
+
+    /**
+     * Start resolving host, unless it is a numeric address, its answer is
+     * already cached, a query for it is already in flight, or too many
+     * queries are.
+     */
+    public void prefetch(String host) {
+        if (!isRunning || host == null
+                || InetAddressUtil.IPV4_QUADS.matcher(host).matches()) {
+            return;
+        }
+        String lookupName = lookupName(host);
+        if (byName.containsKey(lookupName)) {
+            return;
+        }
+        Name name;
+        try {
+            name = Name.fromString(lookupName);
+        } catch (TextParseException e) {
+            return;
+        }
+        if (!cache.lookupRecords(name, Type.A, Credibility.NORMAL).isUnknown()) {
+            return;
+        }
+        prefetchesRequested.incrementAndGet();
+        if (!inFlight.tryAcquire()) {
+            prefetchesDropped.incrementAndGet();
+            return;
+        }
+        Query query = new Query(lookupName, name);
+        if (byName.putIfAbsent(lookupName, query) != null) {
+            inFlight.release();
+            return;
+        }
+        send(query);
+    }
+
+    /**
+     * Wait for any query in flight for host to complete.
+     *
+     * @return true if there was one, and it completed within maxWaitMs
+     */
+    public boolean awaitPrefetch(String host, long maxWaitMs)
+    throws InterruptedException {
+        Query query = byName.get(lookupName(host));
+        if (query == null) {
+            return false;
+        }
+        queriesAwaited.incrementAndGet();
+        return query.done.await(maxWaitMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a socket bound to a random unprivileged port, or failing
+     * that to whatever port the system picks
+     */
+    protected DatagramSocket openSocket() throws SocketException {
+        for (int i = 0; i < 16; i++) {
+            DatagramSocket socket = new DatagramSocket(null);
+            try {
+                socket.bind(new InetSocketAddress(
+                        1024 + random.nextInt(0x10000 - 1024)));
+                return socket;
+            } catch (SocketException e) {
+                // port in use; try another
+                socket.close();
+            }
+        }
+        return new DatagramSocket();
+    }
+
+    /**
+     * @return a port chosen at random to send a query on, first replacing
+     * it if it has sent its share
+     */
+    protected synchronized Port choosePort() {
+        int i = random.nextInt(ports.length);
+        Port port = ports[i];
+        if (port.sent >= getQueriesPerSocket() && isRunning) {
+            try {
+                Port fresh = new Port();
+                port.retiredAt = System.currentTimeMillis();
+                retiredPorts.add(port);
+                ports[i] = port = fresh;
+            } catch (SocketException e) {
+                logger.log(Level.WARNING, "failed to open new socket; "
+                        + "reusing port " + port.socket.getLocalPort(), e);
+            }
+        }
+        port.sent++;
+        return port;
+    }
+
+    protected void send(Query query) {
+        // before the query is visible to the sweeper, which would
+        // otherwise take a resent query's old sentAt as expired
+        query.sentAt = System.currentTimeMillis();
+        query.attempts++;
+        int id;
+        do {
+            id = random.nextInt(0x10000);
+            query.id = id;
+        } while (byId.putIfAbsent(id, query) != null);
+        Message message = Message.newQuery(
+                Record.newRecord(query.name, Type.A, DClass.IN));
+        message.getHeader().setID(id);
+        byte[] wire = message.toWire();
+        Port port = choosePort();
+        query.port = port;
+        try {
+            port.socket.send(new DatagramPacket(wire, wire.length, serverAddress));
+            queriesSent.incrementAndGet();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "failed send of query for " + query.lookupName, e);
+            if (byId.remove(id, query)) {
+                queriesFailed.incrementAndGet();
+                complete(query);
+            }
+        }
+    }
+
+    protected void receive(Port port) {
+        byte[] buf = new byte[MAX_RESPONSE_SIZE];
+        while (isRunning && !port.socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            Message response;
+            try {
+                port.socket.receive(packet);
+                if (!serverAddress.equals(packet.getSocketAddress())) {
+                    continue;
+                }
+                response = new Message(Arrays.copyOf(buf, packet.getLength()));
+            } catch (IOException e) {
+                if (isRunning && !port.socket.isClosed()) {
+                    logger.log(Level.FINE, "failed receive of response", e);
+                }
+                continue;
+            }
+            Query query = byId.get(response.getHeader().getID());
+            Record question = response.getQuestion();
+            if (query == null || query.port != port || question == null
+                    || !query.name.equals(question.getName())
+                    || question.getType() != Type.A
+                    || question.getDClass() != DClass.IN
+                    || !byId.remove(query.id, query)) {
+                continue;
+            }
+            if (!response.getHeader().getFlag(Flags.TC) && cacheAnswer(query, response)) {
+                answersCached.incrementAndGet();
+            } else {
+                queriesFailed.incrementAndGet();
+            }
+            complete(query);
+        }
+    }
+
+    /**
+     * Cache what response says of the name query asked about, and
+     * nothing else.
+     *
+     * @return true if there was anything to cache
+     */
+    protected boolean cacheAnswer(Query query, Message response) {
+        int rcode = response.getRcode();
+        if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+            return false;
+        }
+        boolean authoritative = response.getHeader().getFlag(Flags.AA);
+        if (rcode == Rcode.NOERROR) {
+            boolean found = false;
+            for (RRset rrset : response.getSectionRRsets(Section.ANSWER)) {
+                if (query.name.equals(rrset.getName())
+                        && rrset.getDClass() == DClass.IN
+                        && (rrset.getType() == Type.A
+                                || rrset.getType() == Type.CNAME)) {
+                    cache.addRRset(rrset, authoritative
+                            ? Credibility.AUTH_ANSWER : Credibility.NONAUTH_ANSWER);
+                    found = true;
+                }
+            }
+            if (found) {
+                return true;
+            }
+        }
+        // negative: cached only with an enclosing zone's SOA for its TTL
+        SOARecord soa = null;
+        for (Record record : response.getSectionArray(Section.AUTHORITY)) {
+            if (record instanceof SOARecord
+                    && query.name.subdomain(record.getName())) {
+                soa = (SOARecord) record;
+                break;
+            }
+        }
+        if (soa == null) {
+            return false;
+        }
+        cache.addNegative(query.name, rcode == Rcode.NXDOMAIN ? 0 : Type.A,
+                soa, authoritative
+                    ? Credibility.AUTH_AUTHORITY : Credibility.NONAUTH_AUTHORITY);
+        negativeAnswersCached.incrementAndGet();
+        return true;
+    }
+
+    protected void sweep() {
+        long expired = System.currentTimeMillis() - getTimeoutMs();
+        // by now every query sent on these has been answered or expired
+        for (Port port : retiredPorts) {
+            if (port.retiredAt <= expired) {
+                retiredPorts.remove(port);
+                port.socket.close();
+            }
+        }
+        for (Query query : byId.values()) {
+            if (query.sentAt > expired || !byId.remove(query.id, query)) {
+                continue;
+            }
+            if (query.attempts <= getRetries() && isRunning) {
+                send(query);
+            } else {
+                queriesFailed.incrementAndGet();
+                complete(query);
+            }
+        }
+    }
+
+    protected void complete(Query query) {
+        byName.remove(query.lookupName, query);
+        query.done.countDown();
+        inFlight.release();
+    }
+
+    public String report() {
+        return "Resolving ahead: " + prefetchesRequested.get() + " requested, "
+            + prefetchesDropped.get() + " dropped, " + byId.size() + " in flight, "
+            + queriesSent.get() + " queries sent, " + answersCached.get()
+            + " answers cached (" + negativeAnswersCached.get() + " negative), "
+            + queriesFailed.get() + " failed, " + queriesAwaited.get()
+            + " awaited by fetches\n";
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.modules.net.CrawlHost;
+
+/**
+ * Caps the rate at which fetches read from the network, in aggregate:
+ * across the whole crawl, per server IP address, and per frontier
+ * queue. Unlike FetchHTTP's maxFetchKBSec, which slows each fetch
+ * alone, these limits are shared by all fetches at once, so a crawl can
+ * be held just under its uplink however many threads it runs.
+ *
+ * Each limit is a {@link TokenBucket}; every read from a socket is
+ * charged to the crawl-wide bucket, its server's and its queue's, and
+ * the reading thread then waits for whichever is furthest overdrawn.
+ * Limits may be changed while crawling, taking effect at once for the
+ * crawl-wide limit and with the next fetch for the others. Buckets of
+ * servers and queues not read from for a minute are dropped.
+ */
+public class BandwidthShaper {
+    protected static final int TOTAL = 0;
+    protected static final int PER_IP = 1;
+    protected static final int PER_QUEUE = 2;
+    protected static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    protected static final long IDLE_BUCKET_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Most KB/sec to read across all fetches; 0 means no limit.
+     */
+    protected int maxTotalKBSec = 0;
+    public int getMaxTotalKBSec() {
+        return maxTotalKBSec;
+    }
+    public void setMaxTotalKBSec(int maxTotalKBSec) {
+        this.maxTotalKBSec = maxTotalKBSec;
+        totalBucket.setRate(1024L * maxTotalKBSec, burstMs);
+    }
+
+    /**
+     * Most KB/sec to read from any one server IP address; 0 means no
+     * limit.
+     */
+    protected int maxPerIpKBSec = 0;
+    public int getMaxPerIpKBSec() {
+        return maxPerIpKBSec;
+    }
+    public void setMaxPerIpKBSec(int maxPerIpKBSec) {
+        this.maxPerIpKBSec = maxPerIpKBSec;
+    }
+
+    /**
+     * Most KB/sec to read for any one frontier queue; 0 means no limit.
+     */
+    protected int maxPerQueueKBSec = 0;
+    public int getMaxPerQueueKBSec() {
+        return maxPerQueueKBSec;
+    }
+    public void setMaxPerQueueKBSec(int maxPerQueueKBSec) {
+        this.maxPerQueueKBSec = maxPerQueueKBSec;
+    }
+
+    /**
+     * Most milliseconds' worth of bytes a limit lets accumulate while
+     * idle, to be read in a burst above the rate.
+     */
+    protected int burstMs = 250;
+    public int getBurstMs() {
+        return burstMs;
+    }
+    public void setBurstMs(int burstMs) {
+        this.burstMs = burstMs;
+        totalBucket.setRate(1024L * maxTotalKBSec, burstMs);
+    }
+
+    protected TokenBucket totalBucket = new TokenBucket(0, burstMs);
+    protected ConcurrentMap<String,TokenBucket> ipBuckets =
+        new ConcurrentHashMap<String,TokenBucket>();
+    protected ConcurrentMap<String,TokenBucket> queueBuckets =
+        new ConcurrentHashMap<String,TokenBucket>();
+    protected volatile long lastSweepNanos = System.nanoTime();
+
+    protected final long startNanos = System.nanoTime();
+    protected AtomicLong bytesRead = new AtomicLong(0);
+    /** by limit: waits it imposed, and nanoseconds waited */
+    protected AtomicLong[] waits = {
+        new AtomicLong(0), new AtomicLong(0), new AtomicLong(0) };
+    protected AtomicLong[] waitNanos = {
+        new AtomicLong(0), new AtomicLong(0), new AtomicLong(0) };
+
+    /**
+     * Wrap the given socket input stream so reads from it are charged to
+     * the limits now set.
+     *
+     * @param in stream to wrap
+     * @param host server's host, for its IP address (or name, if not yet
+     * known); may be null
+     * @param queueKey the URI's frontier queue; may be null
+     * @return stream limited as configured, or the given one if no limits
+     * are set
+     */
+    public InputStream wrap(InputStream in, CrawlHost host, String queueKey) {
+        long now = System.nanoTime();
+        if (now - lastSweepNanos > SWEEP_INTERVAL_NANOS) {
+            lastSweepNanos = now;
+            sweepIdle(ipBuckets, now);
+            sweepIdle(queueBuckets, now);
+        }
+        TokenBucket[] buckets = new TokenBucket[3];
+        if (maxTotalKBSec > 0) {
+            buckets[TOTAL] = totalBucket;
+        }
+        if (maxPerIpKBSec > 0 && host != null) {
+            String ip = host.getIP() != null
+                ? host.getIP().getHostAddress() : host.getHostName();
+            buckets[PER_IP] = bucketFor(ipBuckets, ip, maxPerIpKBSec);
+        }
+        if (maxPerQueueKBSec > 0 && queueKey != null) {
+            buckets[PER_QUEUE] = bucketFor(queueBuckets, queueKey, maxPerQueueKBSec);
+        }
+        if (buckets[TOTAL] == null && buckets[PER_IP] == null
+                && buckets[PER_QUEUE] == null) {
+            return in;
+        }
+        return new ShapedInputStream(in, buckets);
+    }
+
+    protected TokenBucket bucketFor(ConcurrentMap<String,TokenBucket> buckets,
+            String key, int kbSec) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new TokenBucket(1024L * kbSec, burstMs);
+            TokenBucket prior = buckets.putIfAbsent(key, bucket);
+            if (prior != null) {
+                bucket = prior;
+            }
+        }
+        bucket.setRate(1024L * kbSec, burstMs);
+        return bucket;
+    }
+
+    protected void sweepIdle(ConcurrentMap<String,TokenBucket> buckets, long now) {
+        Iterator<TokenBucket> iter = buckets.values().iterator();
+        while (iter.hasNext()) {
+            if (now - iter.next().getLastUsedNanos() > IDLE_BUCKET_NANOS) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Charge bytes read to the given buckets, waiting as long as the
+     * furthest overdrawn requires.
+     */
+    protected void charge(TokenBucket[] buckets, int bytes) throws IOException {
+        bytesRead.addAndGet(bytes);
+        long now = System.nanoTime();
+        long wait = 0;
+        int limiting = -1;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != null) {
+                long w = buckets[i].charge(bytes, now);
+                if (w > wait) {
+                    wait = w;
+                    limiting = i;
+                }
+            }
+        }
+        if (wait <= 0) {
+            return;
+        }
+        waits[limiting].incrementAndGet();
+        waitNanos[limiting].addAndGet(wait);
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted awaiting bandwidth");
+        }
+    }
+
+    protected class ShapedInputStream extends FilterInputStream {
+        protected TokenBucket[] buckets;
+
+        protected ShapedInputStream(InputStream in, TokenBucket[] buckets) {
+            super(in);
+            this.buckets = buckets;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                charge(buckets, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                charge(buckets, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) {
+                charge(buckets, (int) Math.min(skipped, Integer.MAX_VALUE));
+            }
+            return skipped;
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return milliseconds fetches have waited on all limits together
+     */
+    public long getWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos[TOTAL].get()
+                + waitNanos[PER_IP].get() + waitNanos[PER_QUEUE].get());
+    }
+
+    public String report() {
+        long elapsedMs = Math.max(1,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return "Bandwidth shaping: " + bytesRead.get() + " bytes read, averaging "
+            + (bytesRead.get() * 1000 / 1024 / elapsedMs) + "KB/sec; "
+            + "waits on total limit " + waitsReport(TOTAL)
+            + ", per-IP " + waitsReport(PER_IP) + " (" + ipBuckets.size()
+            + " IPs), per-queue " + waitsReport(PER_QUEUE) + " ("
+            + queueBuckets.size() + " queues)\n";
+    }
+
+    protected String waitsReport(int limit) {
+        return waits[limit].get() + " ("
+            + TimeUnit.NANOSECONDS.toMillis(waitNanos[limit].get()) + "ms)";
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlHost;
+import org.archive.modules.net.ServerCache;
+import org.archive.modules.seeds.SeedListener;
+import org.archive.net.UURI;
+import org.archive.util.InetAddressUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+/**
+ * Resolves the hosts of each batch of announced seeds -- the initial
+ * seed list, or a '.seeds' file dropped in the action directory -- in
+ * parallel, before the batch is concluded, so that huge seed lists do
+ * not leave each new host's queue waiting on its own 'dns:' fetch.
+ *
+ * Each host is looked up once per batch, on up to maxConcurrent threads,
+ * just as FetchDNS looks it up, so answers also land in dnsjava's shared
+ * cache. If assignHostIPs, the address found is set on the host's
+ * CrawlHost with its TTL, and the host needs no 'dns:' fetch until that
+ * expires. Note that assignHostIPs is on by default, so by default a
+ * warmed host's 'dns:' URI is never fetched, and no 'dns:' record is
+ * written for it to WARCs (or ARCs) either; turn it off where those
+ * records are wanted. The 'dns:' fetch then still happens, and is
+ * recorded, but finds its answer already cached. Hosts not resolved
+ * here are left to FetchDNS as usual.
+ *
+ * Announcing seeds waits for the batch's lookups to finish, so for the
+ * initial seed list this happens before any queue is crawled.
+ *
+ * Other imports may warm their URIs' hosts the same way, through
+ * addToBatch() and concludeBatch(): the action directory does so for
+ * the URIs its '.schedule', '.force' and '.recover' files schedule.
+ * ('.include' files schedule nothing, so are not warmed.) URIs arriving
+ * one at a time, as over AMQP, are passed to warm(), which starts the
+ * lookup without waiting for it.
+ */
+public class DNSWarmup implements SeedListener, Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(DNSWarmup.class.getName());
+
+    /**
+     * Most lookups in progress at once.
+     */
+    protected int maxConcurrent = 50;
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Whether to set resolved addresses on hosts directly, sparing their
+     * 'dns:' fetches. Warmed hosts then get no 'dns:' record in WARCs;
+     * if false, only dnsjava's cache is warmed, and every host still has
+     * its 'dns:' fetch recorded.
+     */
+    protected boolean assignHostIPs = true;
+    public boolean getAssignHostIPs() {
+        return assignHostIPs;
+    }
+    public void setAssignHostIPs(boolean assignHostIPs) {
+        this.assignHostIPs = assignHostIPs;
+    }
+
+    protected ServerCache serverCache;
+    public ServerCache getServerCache() {
+        return this.serverCache;
+    }
+    @Autowired
+    public void setServerCache(ServerCache serverCache) {
+        this.serverCache = serverCache;
+    }
+
+    protected ThreadPoolExecutor executor;
+    /** hosts seen in the current batch */
+    protected Set<String> batchHosts = new HashSet<String>();
+    /** hosts being looked up, from any batch or none */
+    protected Set<String> inProgress = new HashSet<String>();
+    protected long batchStart = -1;
+    protected int pending = 0;
+
+    protected AtomicLong batches = new AtomicLong(0);
+    protected AtomicLong hostsQueued = new AtomicLong(0);
+    protected AtomicLong hostsKnown = new AtomicLong(0);
+    protected AtomicLong hostsResolved = new AtomicLong(0);
+    protected AtomicLong hostsUnresolved = new AtomicLong(0);
+    protected volatile long lastBatchMs = 0;
+
+    public boolean isRunning() {
+        return executor != null && !executor.isShutdown();
+    }
+
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        executor = new ThreadPoolExecutor(getMaxConcurrent(), getMaxConcurrent(),
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(getMaxConcurrent() * 4),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "DNSWarmup");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                // seed announcing waits when lookups fall behind
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void stop() {
+        if (isRunning()) {
+            executor.shutdownNow();
+        }
+    }
+
+    public void addedSeed(CrawlURI curi) {
+        addToBatch(curi.getUURI());
+    }
+
+    /**
+     * Add a URI's host to the current batch, to be looked up unless the
+     * batch already has it or its address is known.
+     */
+    public void addToBatch(UURI uuri) {
+        if (!isRunning()) {
+            return;
+        }
+        final String host = warmableHost(uuri);
+        if (host == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!batchHosts.add(host)) {
+                return;
+            }
+            if (batchStart < 0) {
+                batchStart = System.currentTimeMillis();
+            }
+        }
+        submit(host);
+    }
+
+    /**
+     * Start looking up a URI's host, outside any batch, unless a lookup
+     * of it is already in progress or its address is known. Returns
+     * without waiting for the lookup, unless so many are queued that
+     * the caller must run it itself.
+     */
+    public void warm(UURI uuri) {
+        if (!isRunning()) {
+            return;
+        }
+        String host = warmableHost(uuri);
+        if (host != null) {
+            submit(host);
+        }
+    }
+
+    /**
+     * @return the host of an http(s) URI named by hostname, or null
+     */
+    protected String warmableHost(UURI uuri) {
+        String host;
+        try {
+            String scheme = uuri.getScheme();
+            if (!"http".equals(scheme) && !"https".equals(scheme)) {
+                return null;
+            }
+            host = uuri.getReferencedHost();
+        } catch (URIException e) {
+            return null;
+        }
+        if (host == null || InetAddressUtil.IPV4_QUADS.matcher(host).matches()) {
+            return null;
+        }
+        return host;
+    }
+
+    protected void submit(final String host) {
+        final CrawlHost crawlHost = getServerCache().getHostFor(host);
+        if (crawlHost == null || crawlHost.hasBeenLookedUp()) {
+            hostsKnown.incrementAndGet();
+            return;
+        }
+        synchronized (this) {
+            if (!inProgress.add(host)) {
+                return;
+            }
+            pending++;
+        }
+        hostsQueued.incrementAndGet();
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    resolve(host, crawlHost);
+                } finally {
+                    synchronized (DNSWarmup.this) {
+                        inProgress.remove(host);
+                        pending--;
+                        DNSWarmup.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    protected void resolve(String host, CrawlHost crawlHost) {
+        String lookupName = host.endsWith(".") ? host : host + ".";
+        Record[] records = null;
+        try {
+            records = lookup(lookupName);
+        } catch (TextParseException e) {
+            // left to FetchDNS
+        } catch (RuntimeException e) {
+            logger.log(Level.FINE, "failed lookup of " + lookupName, e);
+        }
+        ARecord arecord = null;
+        for (int i = 0; records != null && i < records.length; i++) {
+            if (records[i] instanceof ARecord) {
+                arecord = (ARecord) records[i];
+                break;
+            }
+        }
+        if (arecord == null) {
+            hostsUnresolved.incrementAndGet();
+            return;
+        }
+        hostsResolved.incrementAndGet();
+        if (getAssignHostIPs()) {
+            synchronized (crawlHost) {
+                if (!crawlHost.hasBeenLookedUp()) {
+                    crawlHost.setIP(arecord.getAddress(), arecord.getTTL());
+                    crawlHost.makeDirty();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return A records for lookupName, as FetchDNS would find them, or
+     * null if none
+     */
+    protected Record[] lookup(String lookupName) throws TextParseException {
+        return new Lookup(lookupName, Type.A, DClass.IN).run();
+    }
+
+    public boolean nonseedLine(String line) {
+        return false;
+    }
+
+    public void concludedSeedBatch() {
+        concludeBatch();
+    }
+
+    /**
+     * Wait for the batch's lookups to finish.
+     */
+    public void concludeBatch() {
+        synchronized (this) {
+            try {
+                // tasks rejected at shutdown never finish
+                while (pending > 0 && isRunning()) {
+                    wait(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (batchStart >= 0) {
+                lastBatchMs = System.currentTimeMillis() - batchStart;
+                batches.incrementAndGet();
+                logger.info("warmed DNS for " + batchHosts.size()
+                        + " hosts in " + lastBatchMs + "ms");
+            }
+            batchHosts.clear();
+            batchStart = -1;
+        }
+    }
+
+    /**
+     * @return progress line for the seeds report
+     */
+    public String report() {
+        return "DNS warmup: " + hostsResolved.get() + " hosts resolved, "
+            + hostsUnresolved.get() + " unresolved, " + pendingCount()
+            + " in progress, of " + hostsQueued.get() + " queued ("
+            + hostsKnown.get() + " already known) in " + batches.get()
+            + " batches; last batch took " + lastBatchMs + "ms\n";
+    }
+
+    protected synchronized int pendingCount() {
+        return pending;
+    }
+}
@@ -118,6 +118,7 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
      * @param serverKey Key to use doing lookup.
      * @return True if a server instance exists.
      */
+    @Override
     public boolean containsServer(String serverKey) {
         return (CrawlServer) servers.get(serverKey) != null; 
     }
@@ -30,6 +30,7 @@ import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -94,6 +95,20 @@ public class FetchDNS extends Processor {
     public void setServerCache(ServerCache serverCache) {
         this.serverCache = serverCache;
     }
+
+    /**
+     * Resolver, if any, looking up hosts ahead of their 'dns:' fetches.
+     * A fetch for a host it is still resolving waits for its answer
+     * rather than querying again.
+     */
+    protected AsyncDNSResolver dnsResolver;
+    public AsyncDNSResolver getDnsResolver() {
+        return this.dnsResolver;
+    }
+    @Autowired(required=false)
+    public void setDnsResolver(AsyncDNSResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
     
     /**
      * Whether or not to perform an on-the-fly digest hash of retrieved
@@ -124,6 +139,10 @@ public class FetchDNS extends Processor {
     private static final long DEFAULT_TTL_FOR_NON_DNS_RESOLVES
         = 6 * 60 * 60; // 6 hrs
 
+    /** lookups done, and time taken by them, for the report */
+    protected AtomicLong lookups = new AtomicLong(0);
+    protected AtomicLong lookupNanos = new AtomicLong(0);
+
     public FetchDNS() {
     }
 
@@ -132,7 +151,7 @@ public class FetchDNS extends Processor {
     }
     
     
-    protected void innerProcess(CrawlURI curi) {
+    protected void innerProcess(CrawlURI curi) throws InterruptedException {
         Record[] rrecordSet = null; // Retrieved dns records
         String dnsName = null;
         try {
@@ -158,11 +177,19 @@ public class FetchDNS extends Processor {
         // Try to get the records for this host (assume domain name)
         // TODO: Bug #935119 concerns potential hang here
         String lookupName = dnsName.endsWith(".") ? dnsName : dnsName + ".";
+        long start = System.nanoTime();
+        if (getDnsResolver() != null) {
+            // answer, if prefetched, then comes from the shared cache
+            getDnsResolver().awaitPrefetch(lookupName,
+                    getDnsResolver().getTimeoutMs());
+        }
         try {
             rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
         } catch (TextParseException e) {
             rrecordSet = null;
         }
+        lookups.incrementAndGet();
+        lookupNanos.addAndGet(System.nanoTime() - start);
         curi.setContentType("text/dns");
         if (rrecordSet != null) {
             if (logger.isLoggable(Level.FINE)) {
@@ -314,6 +341,18 @@ public class FetchDNS extends Processor {
         return baos.toByteArray();
     }
     
+    @Override
+    public String report() {
+        long count = lookups.get();
+        StringBuilder report = new StringBuilder(super.report());
+        report.append("  " + count + " lookups, averaging "
+                + (count == 0 ? 0 : lookupNanos.get() / count / 1000000) + "ms\n");
+        if (getDnsResolver() != null) {
+            report.append("  " + getDnsResolver().report());
+        }
+        return report.toString();
+    }
+
     protected void setUnresolvable(CrawlURI curi, CrawlHost host) {
         host.setIP(null, 0);
         curi.setFetchStatus(S_DOMAIN_UNRESOLVABLE); 
@@ -38,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,7 +67,9 @@ import org.apache.http.impl.auth.BasicSchemeFactory;
 import org.apache.http.impl.auth.DigestSchemeFactory;
 import org.apache.http.impl.client.ProxyAuthenticationStrategy;
 import org.apache.http.impl.client.TargetAuthenticationStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 import org.archive.httpclient.ConfigurableX509TrustManager;
 import org.archive.httpclient.ConfigurableX509TrustManager.TrustLevel;
 import org.archive.io.RecorderLengthExceededException;
@@ -158,7 +161,8 @@ public class FetchHTTP extends Processor implements Lifecycle {
         return (Boolean) kp.get("sendConnectionClose");
     }
     /**
-     * Send 'Connection: close' header with every request.
+     * Send 'Connection: close' header with every request. Not sent when
+     * reuseConnections is set.
      */
     public void setSendConnectionClose(boolean sendClose) {
         kp.put("sendConnectionClose",sendClose);
@@ -190,14 +194,61 @@ public class FetchHTTP extends Processor implements Lifecycle {
     /**
      * Use HTTP/1.1. Note: even when offering an HTTP/1.1 request, 
      * Heritrix may not properly handle persistent/keep-alive connections, 
-     * so the sendConnectionClose parameter should remain 'true'. 
+     * so the sendConnectionClose parameter should remain 'true'. (To keep
+     * connections open for reuse, set reuseConnections instead.)
      */
     public void setUseHTTP11(boolean useHTTP11) {
         kp.put("useHTTP11",useHTTP11);
     }
 
+    {
+        setReuseConnections(false);
+    }
+    public boolean getReuseConnections() {
+        return (Boolean) kp.get("reuseConnections");
+    }
+    /**
+     * Keep connections open after each fetch, in a pool shared by all
+     * threads, for later fetches from the same server to reuse, sparing
+     * them a new TCP connection and TLS handshake. Implies HTTP/1.1, and
+     * no 'Connection: close' header. Requests and responses are recorded
+     * just as when each fetch has its own connection.
+     */
+    public void setReuseConnections(boolean reuseConnections) {
+        kp.put("reuseConnections",reuseConnections);
+    }
+
+    {
+        setMaxPooledConnections(500);
+    }
+    public int getMaxPooledConnections() {
+        return (Integer) kp.get("maxPooledConnections");
+    }
+    /**
+     * When reusing connections, the most to keep open at once, across all
+     * servers; the least recently used idle connection is closed to make
+     * room for another.
+     */
+    public void setMaxPooledConnections(int maxPooledConnections) {
+        kp.put("maxPooledConnections",maxPooledConnections);
+    }
+
+    {
+        setPooledConnectionIdleSeconds(15);
+    }
+    public int getPooledConnectionIdleSeconds() {
+        return (Integer) kp.get("pooledConnectionIdleSeconds");
+    }
+    /**
+     * When reusing connections, seconds a connection may sit idle before
+     * it is closed.
+     */
+    public void setPooledConnectionIdleSeconds(int seconds) {
+        kp.put("pooledConnectionIdleSeconds",seconds);
+    }
+
     protected ProtocolVersion getConfiguredHttpVersion() {
-        if (getUseHTTP11()) {
+        if (getUseHTTP11() || getReuseConnections()) {
             return HttpVersion.HTTP_1_1;
         } else {
             return HttpVersion.HTTP_1_0;
@@ -266,6 +317,20 @@ public class FetchHTTP extends Processor implements Lifecycle {
         kp.put("acceptHeaders",headers);
     }
     
+    /**
+     * Shaper, if any, capping the rate fetches read from the network in
+     * aggregate -- crawl-wide, per server IP and per queue -- as opposed
+     * to maxFetchKBSec's cap on each fetch alone.
+     */
+    protected BandwidthShaper bandwidthShaper;
+    public BandwidthShaper getBandwidthShaper() {
+        return this.bandwidthShaper;
+    }
+    @Autowired(required=false)
+    public void setBandwidthShaper(BandwidthShaper bandwidthShaper) {
+        this.bandwidthShaper = bandwidthShaper;
+    }
+
     protected AbstractCookieStore cookieStore;
     @Autowired(required=false)
     public void setCookieStore(AbstractCookieStore store) {
@@ -486,6 +551,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
             
             // force sslContext to be reinitialized with new trust level
             sslContext = null;
+            closeConnectionPool();
         }
     }
 
@@ -506,6 +572,36 @@ public class FetchHTTP extends Processor implements Lifecycle {
         return sslContext;
     }
 
+    protected transient PoolingHttpClientConnectionManager connectionPool;
+    protected transient long lastIdleSweep;
+
+    /**
+     * @return pool of connections shared by fetches, once idle connections
+     * have been closed
+     */
+    protected synchronized PoolingHttpClientConnectionManager connectionPool() {
+        if (connectionPool == null) {
+            connectionPool = FetchHTTPRequest.buildConnectionPool(this);
+        }
+        connectionPool.setMaxTotal(getMaxPooledConnections());
+        connectionPool.setDefaultMaxPerRoute(getMaxPooledConnections());
+        long now = System.currentTimeMillis();
+        if (now - lastIdleSweep > 1000) {
+            lastIdleSweep = now;
+            connectionPool.closeExpiredConnections();
+            connectionPool.closeIdleConnections(
+                    getPooledConnectionIdleSeconds(), TimeUnit.SECONDS);
+        }
+        return connectionPool;
+    }
+
+    protected synchronized void closeConnectionPool() {
+        if (connectionPool != null) {
+            connectionPool.shutdown();
+            connectionPool = null;
+        }
+    }
+
 
     /**
      * Can this processor fetch the given CrawlURI. May set a fetch status
@@ -676,7 +772,14 @@ public class FetchHTTP extends Processor implements Lifecycle {
             if (!req.request.isAborted()) {
                 // Force read-to-end, so that any socket hangs occur here,
                 // not in later modules.
-                rec.getRecordedInput().readToEndOfContent(contentLength); 
+                if (getReuseConnections()) {
+                    // read through httpclient, which finds the end of the
+                    // message (as of a chunked one) on a connection left
+                    // open, and then returns the connection to the pool
+                    EntityUtils.consume(response.getEntity());
+                } else {
+                    rec.getRecordedInput().readToEndOfContent(contentLength);
+                }
             }
         } catch (RecorderTimeoutException ex) {
             doAbort(curi, req.request, TIMER_TRUNC);
@@ -1051,6 +1154,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
             return;
         }
         super.stop();
+        closeConnectionPool();
         // At the end save cookies to the file specified in the order file.
         if (cookieStore != null) {
             cookieStore.saveCookies();
@@ -1058,6 +1162,15 @@ public class FetchHTTP extends Processor implements Lifecycle {
         }
     }
 
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder(super.report());
+        if (getBandwidthShaper() != null) {
+            report.append("  " + getBandwidthShaper().report());
+        }
+        return report.toString();
+    }
+
     protected static String getServerKey(CrawlURI uri) {
         try {
             return CrawlServer.getServerKey(uri.getUURI());
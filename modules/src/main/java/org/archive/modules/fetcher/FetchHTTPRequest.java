@@ -22,6 +22,8 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADE
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER;
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
@@ -89,6 +92,7 @@ import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.impl.conn.DefaultHttpResponseParserFactory;
 import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.io.DefaultHttpRequestWriterFactory;
 import org.apache.http.io.HttpMessageParserFactory;
 import org.apache.http.io.HttpMessageWriterFactory;
@@ -224,7 +228,7 @@ class FetchHTTPRequest {
             request.setHeader(HttpHeaders.RANGE, "bytes=0-" + rangeEnd);
         }
 
-        if (fetcher.getSendConnectionClose()) {
+        if (fetcher.getSendConnectionClose() && !fetcher.getReuseConnections()) {
             request.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
         }
         
@@ -454,45 +458,74 @@ class FetchHTTPRequest {
         
         httpClientBuilder.setDefaultCookieStore(fetcher.getCookieStore());
         
-        connMan = buildConnectionManager();
+        if (fetcher.getReuseConnections()) {
+            connMan = fetcher.connectionPool();
+        } else {
+            connMan = buildConnectionManager();
+        }
         httpClientBuilder.setConnectionManager(connMan);
     }
 
-    protected HttpClientConnectionManager buildConnectionManager() {
-        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+    protected static Registry<ConnectionSocketFactory> buildSocketFactoryRegistry(FetchHTTP fetcher) {
+        return RegistryBuilder.<ConnectionSocketFactory>create()
                 .register("http", PlainConnectionSocketFactory.INSTANCE)
                 .register("https", new SSLConnectionSocketFactory(fetcher.sslContext(), new AllowAllHostnameVerifier()))
                 .build();
+    }
+
+    protected static RecordingHttpClientConnection newConnection(
+            ConnectionConfig config, boolean reusable) {
+        final int DEFAULT_BUFSIZE = 8 * 1024;
+        final ConnectionConfig cconfig = config != null ? config : ConnectionConfig.DEFAULT;
+        CharsetDecoder chardecoder = null;
+        CharsetEncoder charencoder = null;
+        final Charset charset = cconfig.getCharset();
+        final CodingErrorAction malformedInputAction = cconfig.getMalformedInputAction() != null ?
+                cconfig.getMalformedInputAction() : CodingErrorAction.REPORT;
+        final CodingErrorAction unmappableInputAction = cconfig.getUnmappableInputAction() != null ?
+                cconfig.getUnmappableInputAction() : CodingErrorAction.REPORT;
+        if (charset != null) {
+            chardecoder = charset.newDecoder();
+            chardecoder.onMalformedInput(malformedInputAction);
+            chardecoder.onUnmappableCharacter(unmappableInputAction);
+            charencoder = charset.newEncoder();
+            charencoder.onMalformedInput(malformedInputAction);
+            charencoder.onUnmappableCharacter(unmappableInputAction);
+        }
+        RecordingHttpClientConnection conn = new RecordingHttpClientConnection(
+                DEFAULT_BUFSIZE, DEFAULT_BUFSIZE, chardecoder, charencoder,
+                cconfig.getMessageConstraints(), null, null,
+                DefaultHttpRequestWriterFactory.INSTANCE,
+                DefaultHttpResponseParserFactory.INSTANCE);
+        conn.reusable = reusable;
+        return conn;
+    }
+
+    /**
+     * Set up the given connection for this request's fetch.
+     */
+    protected void configureConnection(RecordingHttpClientConnection conn) {
+        if (fetcher.getBandwidthShaper() != null) {
+            conn.setBandwidthShaping(fetcher.getBandwidthShaper(),
+                    fetcher.getServerCache().getHostFor(curi.getUURI()),
+                    curi.getClassKey());
+        } else {
+            conn.setBandwidthShaping(null, null, null);
+        }
+    }
+
+    protected HttpClientConnectionManager buildConnectionManager() {
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = buildSocketFactoryRegistry(fetcher);
 
         DnsResolver dnsResolver = new ServerCacheResolver(fetcher.getServerCache());
 
         ManagedHttpClientConnectionFactory connFactory = new ManagedHttpClientConnectionFactory(){
-            private static final int DEFAULT_BUFSIZE = 8 * 1024;
-
             @Override
             public ManagedHttpClientConnection create(HttpRoute route,
                     ConnectionConfig config) {
-                final ConnectionConfig cconfig = config != null ? config : ConnectionConfig.DEFAULT;
-                CharsetDecoder chardecoder = null;
-                CharsetEncoder charencoder = null;
-                final Charset charset = cconfig.getCharset();
-                final CodingErrorAction malformedInputAction = cconfig.getMalformedInputAction() != null ?
-                        cconfig.getMalformedInputAction() : CodingErrorAction.REPORT;
-                final CodingErrorAction unmappableInputAction = cconfig.getUnmappableInputAction() != null ?
-                        cconfig.getUnmappableInputAction() : CodingErrorAction.REPORT;
-                if (charset != null) {
-                    chardecoder = charset.newDecoder();
-                    chardecoder.onMalformedInput(malformedInputAction);
-                    chardecoder.onUnmappableCharacter(unmappableInputAction);
-                    charencoder = charset.newEncoder();
-                    charencoder.onMalformedInput(malformedInputAction);
-                    charencoder.onUnmappableCharacter(unmappableInputAction);
-                }
-                return new RecordingHttpClientConnection(DEFAULT_BUFSIZE,
-                        DEFAULT_BUFSIZE, chardecoder, charencoder,
-                        cconfig.getMessageConstraints(), null, null,
-                        DefaultHttpRequestWriterFactory.INSTANCE,
-                        DefaultHttpResponseParserFactory.INSTANCE);
+                RecordingHttpClientConnection conn = newConnection(config, false);
+                configureConnection(conn);
+                return conn;
             }
         };
         BasicHttpClientConnectionManager connMan = new BasicHttpClientConnectionManager(
@@ -504,6 +537,35 @@ class FetchHTTPRequest {
         
         return connMan;
     }
+
+    /**
+     * Build a pool of connections kept open for reuse, shared by all
+     * fetches of the given fetcher. Its connections are set up for each
+     * request's fetch as the request is sent.
+     */
+    protected static PoolingHttpClientConnectionManager buildConnectionPool(FetchHTTP fetcher) {
+        ManagedHttpClientConnectionFactory connFactory = new ManagedHttpClientConnectionFactory(){
+            @Override
+            public ManagedHttpClientConnection create(HttpRoute route,
+                    ConnectionConfig config) {
+                return newConnection(config, true);
+            }
+        };
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(
+                buildSocketFactoryRegistry(fetcher), connFactory, null,
+                new ServerCacheResolver(fetcher.getServerCache()),
+                -1, TimeUnit.MILLISECONDS);
+
+        SocketConfig.Builder socketConfigBuilder = SocketConfig.custom();
+        socketConfigBuilder.setSoTimeout(fetcher.getSoTimeoutMs());
+        pool.setDefaultSocketConfig(socketConfigBuilder.build());
+
+        return pool;
+    }
+
+    /** request each thread is executing, for pooled connections to set up */
+    protected static final ThreadLocal<FetchHTTPRequest> EXECUTING =
+        new ThreadLocal<FetchHTTPRequest>();
     
     protected static class RecordingHttpClientConnection extends DefaultBHttpClientConnection
     implements ManagedHttpClientConnection {
@@ -511,6 +573,19 @@ class FetchHTTPRequest {
         private static final AtomicLong COUNTER = new AtomicLong();
         private String id;
 
+        /**
+         * whether kept open in a pool for later fetches, each recording
+         * through its own thread's recorder
+         */
+        protected boolean reusable;
+        protected ReusedInputStream reusedInput;
+        protected ReusedOutputStream reusedOutput;
+
+        /** shaper of input, if any, and the host and queue charged */
+        protected BandwidthShaper bandwidthShaper;
+        protected CrawlHost shapedHost;
+        protected String shapedQueueKey;
+
         public RecordingHttpClientConnection(
                 final int buffersize,
                 final int fragmentSizeHint,
@@ -527,24 +602,89 @@ class FetchHTTPRequest {
             id = "recording-http-connection-" + Long.toString(COUNTER.getAndIncrement());
         }
 
-        @Override
-        protected InputStream getSocketInputStream(final Socket socket) throws IOException {
+        public void setBandwidthShaping(BandwidthShaper shaper, CrawlHost host,
+                String queueKey) {
+            this.bandwidthShaper = shaper;
+            this.shapedHost = host;
+            this.shapedQueueKey = queueKey;
+        }
+
+        protected InputStream shape(InputStream in) {
+            if (bandwidthShaper == null) {
+                return in;
+            }
+            return bandwidthShaper.wrap(in, shapedHost, shapedQueueKey);
+        }
+
+        protected InputStream recordedInput(InputStream in) throws IOException {
             Recorder recorder = Recorder.getHttpRecorder();
             if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
-                return recorder.inputWrap(super.getSocketInputStream(socket));
+                return recorder.inputWrap(shape(in));
             } else {
-                return super.getSocketInputStream(socket);
+                return shape(in);
             }
         }
 
-        @Override
-        protected OutputStream getSocketOutputStream(final Socket socket) throws IOException {
+        protected OutputStream recordedOutput(OutputStream out) throws IOException {
             Recorder recorder = Recorder.getHttpRecorder();
             if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
-                return recorder.outputWrap(super.getSocketOutputStream(socket));
+                return recorder.outputWrap(out);
             } else {
-                return super.getSocketOutputStream(socket);
+                return out;
+            }
+        }
+
+        @Override
+        protected InputStream getSocketInputStream(final Socket socket) throws IOException {
+            if (reusable) {
+                reusedInput = new ReusedInputStream(super.getSocketInputStream(socket));
+                reusedInput.startExchange(recordedInput(reusedInput.unclosed()));
+                return reusedInput;
+            }
+            return recordedInput(super.getSocketInputStream(socket));
+        }
+
+        @Override
+        protected OutputStream getSocketOutputStream(final Socket socket) throws IOException {
+            if (reusable) {
+                reusedOutput = new ReusedOutputStream(super.getSocketOutputStream(socket));
+                reusedOutput.startExchange(recordedOutput(reusedOutput.unclosed()));
+                return reusedOutput;
+            }
+            return recordedOutput(super.getSocketOutputStream(socket));
+        }
+
+        @Override
+        public void sendRequestHeader(HttpRequest request) throws HttpException, IOException {
+            if (reusable) {
+                startExchange();
+            }
+            super.sendRequestHeader(request);
+        }
+
+        /**
+         * Ready a pooled connection for a request: set it up for the
+         * fetch sending it, and, if its streams are already bound from an
+         * earlier request, switch them to this thread's recorder.
+         */
+        protected void startExchange() throws IOException {
+            FetchHTTPRequest executing = EXECUTING.get();
+            if (executing != null) {
+                executing.configureConnection(this);
+            }
+            if (reusedInput == null || reusedOutput == null) {
+                // first request: streams are bound as it is sent
+                return;
+            }
+            Recorder recorder = Recorder.getHttpRecorder();
+            if (recorder != null && recorder.getRecordedInput().isOpen()) {
+                // a second request within one fetch, as to answer an auth
+                // challenge: record only the last, as when not reusing
+                recorder.close();
+                recorder.closeRecorders();
             }
+            reusedInput.startExchange(recordedInput(reusedInput.unclosed()));
+            reusedOutput.startExchange(recordedOutput(reusedOutput.unclosed()));
         }
         
         @Override
@@ -557,7 +697,10 @@ class FetchHTTPRequest {
              * FetchHTTPTests.testNoResponse()
              */
             Recorder recorder = Recorder.getHttpRecorder();
-            if (recorder != null) {
+            if (recorder != null
+                    && (!reusable || (reusedInput != null && reusedInput.isRecording()))) {
+                // (a pooled connection closed while idle is recording
+                // nothing)
                 recorder.close();
                 recorder.closeRecorders();
             }
@@ -584,6 +727,134 @@ class FetchHTTPRequest {
         }
     }
     
+    /**
+     * Socket input of a pooled connection. During a fetch's exchange it
+     * is read through that fetch's recorder; otherwise, as when the pool
+     * checks whether an idle connection is stale, directly. The recorder
+     * closing its stream at the end of a fetch leaves the socket open,
+     * for the connection to close in its own time.
+     */
+    protected static class ReusedInputStream extends InputStream {
+        protected InputStream socketIn;
+        protected InputStream exchangeIn;
+        protected Recorder recorder;
+
+        public ReusedInputStream(InputStream socketIn) {
+            this.socketIn = socketIn;
+        }
+
+        /**
+         * @return the socket input, for a recorder to wrap, which it will
+         * not close
+         */
+        protected InputStream unclosed() {
+            return new FilterInputStream(socketIn) {
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        protected void startExchange(InputStream exchangeIn) {
+            this.exchangeIn = exchangeIn;
+            this.recorder = Recorder.getHttpRecorder();
+        }
+
+        /**
+         * @return whether the current thread's fetch is recording this
+         * connection
+         */
+        protected boolean isRecording() {
+            return recorder != null && recorder == Recorder.getHttpRecorder()
+                && recorder.getRecordedInput().isOpen();
+        }
+
+        protected InputStream current() {
+            return (recorder == null || isRecording()) ? exchangeIn : socketIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return current().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return current().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current().available();
+        }
+
+        @Override
+        public void close() {
+            // the connection closes the socket
+        }
+    }
+
+    /**
+     * Socket output of a pooled connection, written through the recorder
+     * of the fetch whose request is being sent; as ReusedInputStream.
+     */
+    protected static class ReusedOutputStream extends OutputStream {
+        protected OutputStream socketOut;
+        protected OutputStream exchangeOut;
+        protected Recorder recorder;
+
+        public ReusedOutputStream(OutputStream socketOut) {
+            this.socketOut = socketOut;
+        }
+
+        protected OutputStream unclosed() {
+            return new FilterOutputStream(socketOut) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+
+        protected void startExchange(OutputStream exchangeOut) {
+            this.exchangeOut = exchangeOut;
+            this.recorder = Recorder.getHttpRecorder();
+        }
+
+        protected OutputStream current() {
+            if (recorder == null || (recorder == Recorder.getHttpRecorder()
+                    && recorder.getRecordedInput().isOpen())) {
+                return exchangeOut;
+            }
+            return socketOut;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
     protected static final HttpRoutePlanner ROUTE_PLANNER = new HttpRoutePlanner() {
         @Override
         public HttpRoute determineRoute(HttpHost host, HttpRequest request,
@@ -634,6 +905,11 @@ class FetchHTTPRequest {
         RequestConfig requestConfig = requestConfigBuilder.build();
         httpClientContext.setRequestConfig(requestConfig);
         
-        return httpClient.execute(targetHost, request, httpClientContext);
+        EXECUTING.set(this);
+        try {
+            return httpClient.execute(targetHost, request, httpClientContext);
+        } finally {
+            EXECUTING.remove();
+        }
     }
 }
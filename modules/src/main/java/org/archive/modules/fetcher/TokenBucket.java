@@ -0,0 +1,118 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+/**
+ * Token bucket metering bytes at a steady rate, with bursts of up to
+ * burstMs worth.
+ *
+ * Bytes are charged after they are read, so a charge may overdraw the
+ * bucket; the reader then waits for the debt to be repaid, and later
+ * readers queue behind it. Readers sharing a bucket thus share its
+ * rate, each waiting in turn.
+ */
+public class TokenBucket {
+    protected long bytesPerSecond;
+    protected long burstMs;
+    /** bytes available; negative when overdrawn */
+    protected double tokens;
+    protected long lastRefillNanos;
+    protected volatile long lastUsedNanos;
+
+    /**
+     * @param bytesPerSecond rate; 0 or less for no limit
+     * @param burstMs most time's worth of bytes to accumulate while idle
+     */
+    public TokenBucket(long bytesPerSecond, long burstMs) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstMs = burstMs;
+        this.lastRefillNanos = System.nanoTime();
+        this.lastUsedNanos = lastRefillNanos;
+        this.tokens = getCapacity();
+    }
+
+    protected double getCapacity() {
+        return (double) bytesPerSecond * burstMs / 1000;
+    }
+
+    protected void refill(long now) {
+        // callers read the clock before taking the lock, so may be behind
+        if (now <= lastRefillNanos) {
+            return;
+        }
+        tokens = Math.min(getCapacity(),
+                tokens + (double) (now - lastRefillNanos) * bytesPerSecond / 1e9);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Change the rate, keeping any accumulated bytes or debt.
+     *
+     * @param bytesPerSecond new rate; 0 or less for no limit
+     * @param burstMs most time's worth of bytes to accumulate while idle
+     */
+    public synchronized void setRate(long bytesPerSecond, long burstMs) {
+        if (bytesPerSecond == this.bytesPerSecond && burstMs == this.burstMs) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (this.bytesPerSecond > 0) {
+            refill(now);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstMs = burstMs;
+        this.lastRefillNanos = now;
+        if (bytesPerSecond <= 0) {
+            tokens = 0;
+        } else {
+            tokens = Math.min(tokens, getCapacity());
+        }
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Charge the given count of bytes.
+     *
+     * @param bytes count of bytes read
+     * @param now current System.nanoTime()
+     * @return nanoseconds the reader should wait before reading more
+     */
+    public synchronized long charge(long bytes, long now) {
+        lastUsedNanos = now;
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        refill(now);
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * 1e9 / bytesPerSecond);
+    }
+
+    /**
+     * @return System.nanoTime() of the last charge (or of creation)
+     */
+    public long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.io.Serializable;
+
+/**
+ * Per-server state of an additive-increase/multiplicative-decrease
+ * politeness controller: the delay between fetches from a server
+ * shrinks by a fixed step after each fetch the server handled well, and
+ * is multiplied on any sign of strain, so a server that copes gets
+ * crawled steadily faster while one that struggles is backed off at
+ * once.
+ *
+ * Also kept, for deciding what counts as strain and for reporting, are
+ * exponentially-weighted moving averages of the server's response time
+ * and of its error rate.
+ */
+public class AdaptivePoliteness implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** weight of the latest fetch in the moving averages */
+    protected static final double EWMA_WEIGHT = 0.2;
+    /** response this many times the average counts as strain */
+    protected static final double SLOW_RESPONSE_FACTOR = 3.0;
+    /** fetches averaged before slowness counts as strain */
+    protected static final long WARMUP_FETCHES = 3;
+
+    protected double responseMsAverage = 0;
+    protected double errorRateAverage = 0;
+    protected long delayMs = -1;
+    protected long fetches = 0;
+    protected long backoffs = 0;
+
+    /**
+     * Note a fetch's outcome and return the delay to wait before the
+     * server's next.
+     *
+     * @param durationMs time the fetch took
+     * @param error whether the server signaled trouble (as by a 5xx or
+     * 429 response, or a lost connection)
+     * @param initialDelayMs delay to start from, on the first fetch
+     * @param minDelayMs least delay to shrink to
+     * @param maxDelayMs most delay to grow to
+     * @param decreaseMs step by which to shrink the delay after a fetch
+     * handled well
+     * @param backoffFactor multiple by which to grow the delay on strain
+     * @return delay in milliseconds
+     */
+    public synchronized long update(long durationMs, boolean error,
+            long initialDelayMs, long minDelayMs, long maxDelayMs,
+            long decreaseMs, float backoffFactor) {
+        boolean slow = fetches >= WARMUP_FETCHES
+            && durationMs > SLOW_RESPONSE_FACTOR * responseMsAverage;
+        if (fetches == 0) {
+            responseMsAverage = durationMs;
+            delayMs = initialDelayMs;
+        } else {
+            responseMsAverage += EWMA_WEIGHT * (durationMs - responseMsAverage);
+        }
+        errorRateAverage += EWMA_WEIGHT * ((error ? 1 : 0) - errorRateAverage);
+        fetches++;
+
+        if (error || slow) {
+            delayMs = (long) (Math.max(delayMs, minDelayMs) * backoffFactor);
+            backoffs++;
+        } else {
+            delayMs -= decreaseMs;
+        }
+        // wait at least as long as the server usually takes to answer
+        long floor = Math.max(minDelayMs, (long) responseMsAverage);
+        delayMs = Math.min(Math.max(floor, delayMs), maxDelayMs);
+        return delayMs;
+    }
+
+    public synchronized long getDelayMs() {
+        return delayMs;
+    }
+
+    public synchronized double getResponseMsAverage() {
+        return responseMsAverage;
+    }
+
+    public synchronized double getErrorRateAverage() {
+        return errorRateAverage;
+    }
+
+    public synchronized long getFetches() {
+        return fetches;
+    }
+
+    public synchronized long getBackoffs() {
+        return backoffs;
+    }
+}
@@ -71,6 +71,8 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     protected long robotsFetched = ROBOTS_NOT_FETCHED;
     protected boolean validRobots = false;
     protected FetchStats substats = new FetchStats();
+    /** created when first needed, if adaptive politeness is in use */
+    protected AdaptivePoliteness adaptivePoliteness = null;
     
     // how many consecutive connection errors have been encountered;
     // used to drive exponentially increasing retry timeout or decision
@@ -127,6 +129,20 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         return true;
     }
     
+    public synchronized AdaptivePoliteness getAdaptivePoliteness() {
+        if (adaptivePoliteness == null) {
+            adaptivePoliteness = new AdaptivePoliteness();
+        }
+        return adaptivePoliteness;
+    }
+    
+    /**
+     * @return adaptive politeness state, or null if none yet
+     */
+    public synchronized AdaptivePoliteness peekAdaptivePoliteness() {
+        return adaptivePoliteness;
+    }
+    
     public Robotstxt getRobotstxt() {
         return robotstxt;
     }
@@ -182,9 +198,16 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
        try {
            BufferedReader reader;
            contentBodyStream = curi.getRecorder().getContentReplayInputStream();
-
-           reader = new BufferedReader(new InputStreamReader(contentBodyStream));
-           robotstxt = new Robotstxt(reader); 
+           String digest = Robotstxt.digest(contentBodyStream);
+           IOUtils.closeQuietly(contentBodyStream);
+           
+           // reuse any identical robots.txt already parsed for another server
+           robotstxt = Robotstxt.getInterned(digest);
+           if (robotstxt == null) {
+               contentBodyStream = curi.getRecorder().getContentReplayInputStream();
+               reader = new BufferedReader(new InputStreamReader(contentBodyStream));
+               robotstxt = new Robotstxt(reader).intern(digest);
+           }
            validRobots = true;
        } catch (IOException e) {
            robotstxt = Robotstxt.NO_ROBOTS;
@@ -329,6 +352,7 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         kryo.register(CrawlServer.class);
         kryo.autoregister(FetchStats.class); 
         kryo.autoregister(Robotstxt.class);
+        kryo.autoregister(AdaptivePoliteness.class);
         kryo.setRegistrationOptional(true); 
     }
     
@@ -358,4 +382,52 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     public void setHttpAuthChallenges(Map<String, String> httpAuthChallenges) {
         this.httpAuthChallenges = httpAuthChallenges;
     }
+
+    /**
+     * Charset this server's pages most recently declared in their content,
+     * and how many pages in a row were found to decode consistently with
+     * it; lets extractors trust a declaration the site has kept honoring.
+     * Trust lapses after a number of pages taken unchecked, so that the
+     * next check may find the site has changed.
+     */
+    transient private String consistentCharset;
+    transient private int consistentCharsetCount;
+    transient private int uncheckedCharsetCount;
+
+    /**
+     * Note whether a page declaring charsetName proved consistent with
+     * it once decoded.
+     */
+    public synchronized void noteDeclaredCharset(String charsetName,
+            boolean consistent) {
+        uncheckedCharsetCount = 0;
+        if (consistent && charsetName.equals(consistentCharset)) {
+            consistentCharsetCount++;
+        } else {
+            consistentCharset = consistent ? charsetName : null;
+            consistentCharsetCount = consistent ? 1 : 0;
+        }
+    }
+
+    /**
+     * Decide whether a page declaring charsetName may be taken to be
+     * consistent with it without checking, counting it as unchecked if
+     * so. Once maxUnchecked pages have been, trust lapses until the next
+     * check is noted with {@link #noteDeclaredCharset(String, boolean)}:
+     * if consistent, trust resumes; if not, it is dropped.
+     *
+     * @return true if at least minPages pages in a row declaring
+     * charsetName proved consistent with it, and fewer than maxUnchecked
+     * have been trusted since the last was checked
+     */
+    public synchronized boolean trustDeclaredCharset(String charsetName,
+            int minPages, int maxUnchecked) {
+        if (charsetName.equals(consistentCharset)
+                && consistentCharsetCount >= minPages
+                && uncheckedCharsetCount < maxUnchecked) {
+            uncheckedCharsetCount++;
+            return true;
+        }
+        return false;
+    }
 }
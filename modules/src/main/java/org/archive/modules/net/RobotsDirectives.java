@@ -36,26 +36,18 @@ public class RobotsDirectives implements Serializable {
     protected ConcurrentSkipListSet<String> allows = new ConcurrentSkipListSet<String>();
     protected float crawlDelay = -1; 
 
+    /** compiled from allows and disallows when first needed */
+    protected transient volatile RobotsMatcher matcher = null;
+
     public boolean allows(String path) {
-        return !(longestPrefixLength(disallows, path) > longestPrefixLength(allows, path));
+        RobotsMatcher m = matcher;
+        if (m == null) {
+            m = new RobotsMatcher(allows, disallows);
+            matcher = m;
+        }
+        return m.allows(path);
     }
 
-    /**
-     * @param prefixSet
-     * @param str
-     * @return length of longest entry in {@code prefixSet} that prefixes {@code str}, or zero
-     *         if no entry prefixes {@code str}
-     */
-    protected int longestPrefixLength(ConcurrentSkipListSet<String> prefixSet,
-            String str) {
-        String possiblePrefix = prefixSet.floor(str);
-        if (possiblePrefix != null && str.startsWith(possiblePrefix)) {
-            return possiblePrefix.length();
-        } else {
-            return 0;
-        }
-    }
-
     public void addDisallow(String path) {
         if(path.length()==0) {
             // ignore empty-string disallows 
@@ -63,10 +55,12 @@ public class RobotsDirectives implements Serializable {
             return;
         }
         disallows.add(path);
+        matcher = null;
     }
 
     public void addAllow(String path) {
         allows.add(path);
+        matcher = null;
     }
 
     public void setCrawlDelay(float i) {
@@ -0,0 +1,201 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compiled form of one RobotsDirectives' Allow and Disallow paths,
+ * deciding a path in time proportional to its length rather than to the
+ * number of rules.
+ *
+ * As with Google's robots.txt handling, a '*' in a rule matches any run
+ * of characters and a final '$' anchors the rule at the end of the path;
+ * any other rule matches as a literal prefix. Of the rules matching a
+ * path, the longest decides; an Allow wins a tie.
+ *
+ * Literal rules are held in a character trie, walked once along the
+ * path to find the longest matching Allow and Disallow. Wildcard rules,
+ * rare in practice, are then tried longest first, only while they could
+ * still beat the literal matches.
+ */
+public class RobotsMatcher {
+    protected static final byte ALLOW = 1;
+    protected static final byte DISALLOW = 2;
+
+    protected static final char[] NO_KEYS = new char[0];
+    protected static final Node[] NO_CHILDREN = new Node[0];
+
+    protected static class Node {
+        /** sorted */
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        /** ALLOW and/or DISALLOW, if rules end here */
+        byte rules;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            Node child = new Node();
+            newKeys[i] = c;
+            newChildren[i] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+
+    protected Node root = new Node();
+    /** wildcard rules, longest first, and whether each is an Allow */
+    protected String[] patterns;
+    protected boolean[] patternAllows;
+
+    public RobotsMatcher(Collection<String> allows, Collection<String> disallows) {
+        List<String> wildcards = new ArrayList<String>();
+        List<Boolean> wildcardAllows = new ArrayList<Boolean>();
+        for (String rule : allows) {
+            add(rule, ALLOW, wildcards, wildcardAllows);
+        }
+        for (String rule : disallows) {
+            add(rule, DISALLOW, wildcards, wildcardAllows);
+        }
+        Integer[] order = new Integer[wildcards.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final List<String> unsorted = wildcards;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return unsorted.get(b).length() - unsorted.get(a).length();
+            }
+        });
+        patterns = new String[order.length];
+        patternAllows = new boolean[order.length];
+        for (int i = 0; i < order.length; i++) {
+            patterns[i] = wildcards.get(order[i]);
+            patternAllows[i] = wildcardAllows.get(order[i]);
+        }
+    }
+
+    protected void add(String rule, byte kind, List<String> wildcards,
+            List<Boolean> wildcardAllows) {
+        if (rule.indexOf('*') >= 0 || rule.endsWith("$")) {
+            wildcards.add(rule);
+            wildcardAllows.add(kind == ALLOW);
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < rule.length(); i++) {
+            node = node.addChild(rule.charAt(i));
+        }
+        node.rules |= kind;
+    }
+
+    public boolean allows(String path) {
+        int allowLength = -1;
+        int disallowLength = -1;
+        Node node = root;
+        for (int i = 0; node != null; i++) {
+            if ((node.rules & ALLOW) != 0) {
+                allowLength = i;
+            }
+            if ((node.rules & DISALLOW) != 0) {
+                disallowLength = i;
+            }
+            if (i == path.length()) {
+                break;
+            }
+            node = node.child(path.charAt(i));
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            int length = patterns[i].length();
+            if (length <= allowLength && length <= disallowLength) {
+                // this and all later patterns too short to matter
+                break;
+            }
+            if (patternAllows[i] ? length <= allowLength : length <= disallowLength) {
+                continue;
+            }
+            if (matches(patterns[i], path)) {
+                if (patternAllows[i]) {
+                    allowLength = length;
+                } else {
+                    disallowLength = length;
+                }
+            }
+        }
+        return !(disallowLength > allowLength);
+    }
+
+    /**
+     * @return whether pattern, with '*' matching any run of characters
+     * and a final '$' the end of path, matches a prefix of path (or all
+     * of it, if anchored)
+     */
+    protected static boolean matches(String pattern, String path) {
+        int patternLength = pattern.length();
+        boolean anchored = pattern.endsWith("$");
+        if (anchored) {
+            patternLength--;
+        }
+        int p = 0;
+        int s = 0;
+        int starP = -1;
+        int starS = 0;
+        while (true) {
+            if (p == patternLength) {
+                if (!anchored || s == path.length()) {
+                    return true;
+                }
+            } else if (pattern.charAt(p) == '*') {
+                starP = p++;
+                starS = s;
+                continue;
+            } else if (s < path.length() && pattern.charAt(p) == path.charAt(s)) {
+                p++;
+                s++;
+                continue;
+            }
+            // let the last '*' take one more character, if any
+            if (starP < 0 || starS >= path.length()) {
+                return false;
+            }
+            p = starP + 1;
+            s = ++starS;
+        }
+    }
+}
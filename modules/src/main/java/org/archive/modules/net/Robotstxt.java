@@ -20,17 +20,25 @@ package org.archive.modules.net;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 import org.archive.bdb.AutoKryo;
 import org.archive.io.ReadSource;
+import org.archive.util.Base32;
 
 /**
  * Utility class for parsing and representing 'robots.txt' format 
@@ -55,6 +63,31 @@ public class Robotstxt implements Serializable {
     
     protected boolean hasErrors = false;
     
+    /** 
+     * Base32 SHA-1 of the robots.txt body parsed, if interned; not 
+     * persisted, so the serialized form is unchanged, and an instance 
+     * reloaded from disk is not shared until its server refetches it
+     */
+    protected transient String digest = null;
+    /** whether this is the instance shared by all with its digest */
+    protected transient boolean interned = false;
+    
+    protected static class InternedRef extends WeakReference<Robotstxt> {
+        final String digest;
+        InternedRef(Robotstxt robotstxt) {
+            super(robotstxt, RELEASED);
+            this.digest = robotstxt.digest;
+        }
+    }
+    /** 
+     * parsed robots.txt bodies, by digest, while any server holds them; 
+     * many servers (as subdomains of one site) often serve the same body
+     */
+    protected static final ConcurrentMap<String,InternedRef> INTERNED = 
+        new ConcurrentHashMap<String,InternedRef>();
+    protected static final ReferenceQueue<Robotstxt> RELEASED = 
+        new ReferenceQueue<Robotstxt>();
+    
     protected static RobotsDirectives NO_DIRECTIVES = new RobotsDirectives();
     /** empty, reusable instance for all sites providing no rules */
     public static Robotstxt NO_ROBOTS = new Robotstxt();
@@ -140,8 +173,8 @@ public class Robotstxt implements Serializable {
                     String path = read.substring(9).trim();
                     // tolerate common error of ending path with '*' character
                     // (not allowed by original spec; redundant but harmless with 
-                    // Google's wildcarding extensions -- which we don't yet fully
-                    // support). 
+                    // Google's wildcarding extensions, which RobotsMatcher
+                    // supports).
                     if(path.endsWith("*")) {
                         path = path.substring(0,path.length()-1); 
                     }
@@ -178,8 +211,8 @@ public class Robotstxt implements Serializable {
                     String path = read.substring(6).trim();
                     // tolerate common error of ending path with '*' character
                     // (not allowed by original spec; redundant but harmless with 
-                    // Google's wildcarding extensions -- which we don't yet fully
-                    // support). 
+                    // Google's wildcarding extensions, which RobotsMatcher
+                    // supports).
                     if(path.endsWith("*")) {
                         path = path.substring(0,path.length()-1); 
                     }
@@ -203,6 +236,74 @@ public class Robotstxt implements Serializable {
         return agentsToDirectives.isEmpty();
     }
     
+    /**
+     * Digest a robots.txt body, reading it to its end, for use with
+     * {@link #getInterned(String)} and {@link #intern(String)}.
+     * 
+     * @param in robots.txt body
+     * @return Base32 SHA-1 digest
+     */
+    public static String digest(InputStream in) throws IOException {
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] buf = new byte[4096];
+        for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+            sha1.update(buf, 0, n);
+        }
+        return Base32.encode(sha1.digest());
+    }
+    
+    /**
+     * @param digest body digest, as from {@link #digest(InputStream)}
+     * @return the shared instance parsed from that body, if any is in use
+     */
+    public static Robotstxt getInterned(String digest) {
+        expungeReleased();
+        InternedRef ref = INTERNED.get(digest);
+        return ref == null ? null : ref.get();
+    }
+    
+    /**
+     * Note the digest of the body this was parsed from, and return the
+     * instance to be shared by all parsed from that body: this one, if
+     * no other is in use.
+     * 
+     * @param digest body digest, as from {@link #digest(InputStream)}
+     * @return shared instance
+     */
+    public Robotstxt intern(String digest) {
+        if (interned) {
+            return this;
+        }
+        this.digest = digest;
+        expungeReleased();
+        while (true) {
+            InternedRef ref = INTERNED.get(digest);
+            Robotstxt existing = (ref == null) ? null : ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            InternedRef mine = new InternedRef(this);
+            if (ref == null 
+                    ? INTERNED.putIfAbsent(digest, mine) == null 
+                    : INTERNED.replace(digest, ref, mine)) {
+                interned = true;
+                return this;
+            }
+        }
+    }
+    
+    protected static void expungeReleased() {
+        InternedRef ref;
+        while ((ref = (InternedRef) RELEASED.poll()) != null) {
+            INTERNED.remove(ref.digest, ref);
+        }
+    }
+    
     public List<String> getNamedUserAgents() {
         return namedUserAgents;
     }
@@ -94,6 +94,19 @@ public abstract class ServerCache {
     }
 
     abstract public Set<String> hostKeys();
+    
+    /**
+     * Whether a CrawlServer is held for the key. Unlike getServerFor(),
+     * creates none. This default cannot look without creating, so it
+     * answers false, and callers treat the server as unknown; caches
+     * that can tell, as DefaultServerCache, override it.
+     * 
+     * @param serverKey server key, as from CrawlServer.getServerKey()
+     * @return true if a CrawlServer is known to be held for the key
+     */
+    public boolean containsServer(String serverKey) {
+        return false;
+    }
 
 
 }
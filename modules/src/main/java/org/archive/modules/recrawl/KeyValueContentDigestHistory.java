@@ -0,0 +1,174 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.SerializationException;
+import org.apache.commons.lang.SerializationUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.util.kvstore.KeyValueStore;
+import org.archive.util.kvstore.KeyValueStoreProvider;
+import org.springframework.beans.factory.annotation.Required;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Content digest history store over any {@link KeyValueStoreProvider}
+ * storage backend, such as BdbModule or LsmStoreProvider. Histories are
+ * saved with plain Java serialization, unlike BdbContentDigestHistory's
+ * BDB SerialBinding, so the two cannot read each other's stores: the
+ * default store name differs from BdbContentDigestHistory's for that
+ * reason, and unreadable histories are logged and skipped. Must be a
+ * toplevel bean in crawler-beans.cxml in order to receive
+ * {@link Lifecycle} events.
+ * 
+ * @see AbstractContentDigestHistory
+ */
+public class KeyValueContentDigestHistory extends AbstractContentDigestHistory implements Lifecycle {
+
+    private static final Logger logger = 
+            Logger.getLogger(KeyValueContentDigestHistory.class.getName());
+
+    protected KeyValueStoreProvider storeProvider;
+    public KeyValueStoreProvider getStoreProvider() {
+        return storeProvider;
+    }
+    @Required
+    public void setStoreProvider(KeyValueStoreProvider storeProvider) {
+        this.storeProvider = storeProvider;
+    }
+    
+    protected String historyStoreName = "keyValueContentDigestHistory";
+    public String getHistoryStoreName() {
+        return this.historyStoreName;
+    }
+    /**
+     * Name of the store within the provider. Default is
+     * "keyValueContentDigestHistory"; it should not name a store written
+     * by BdbContentDigestHistory, whose format differs.
+     */
+    public void setHistoryStoreName(String name) {
+        this.historyStoreName = name; 
+    }
+
+    protected KeyValueStore store;
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        try {
+            store = storeProvider.openKeyValueStore(getHistoryStoreName(), true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return store != null; 
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        try {
+            store.sync();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem syncing " + getHistoryStoreName(), e);
+        }
+        // leave close to the store provider
+        store = null;
+    }
+
+    protected byte[] keyBytes(CrawlURI curi) {
+        try {
+            return persistKeyFor(curi).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // impossible
+        }
+    }
+
+    public void load(CrawlURI curi) {
+        // make this call in all cases so that the value is initialized and
+        // WARCWriterProcessor knows it should put the info in there
+        HashMap<String, Object> contentDigestHistory = curi.getContentDigestHistory();
+        
+        byte[] loadedBytes;
+        try {
+            loadedBytes = store.get(keyBytes(curi));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem loading history for " + curi, e);
+            return;
+        }
+        if (loadedBytes != null) {
+            Map<String, Object> loadedHistory;
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> deserialized = 
+                    (Map<String, Object>) SerializationUtils.deserialize(loadedBytes);
+                loadedHistory = deserialized;
+            } catch (SerializationException e) {
+                logger.log(Level.WARNING, "unreadable history in " 
+                        + getHistoryStoreName() + " for " + curi, e);
+                return;
+            } catch (ClassCastException e) {
+                logger.log(Level.WARNING, "unreadable history in " 
+                        + getHistoryStoreName() + " for " + curi, e);
+                return;
+            }
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("loaded history by digest " + persistKeyFor(curi)
+                        + " for uri " + curi + " - " + loadedHistory);
+            }
+            contentDigestHistory.putAll(loadedHistory);
+        }
+    }
+    
+    public void store(CrawlURI curi) {
+        if (!curi.hasContentDigestHistory()
+                || curi.getContentDigestHistory().isEmpty()) {
+            logger.warning("not saving empty content digest history (do you "
+                    + " have a ContentDigestHistoryLoader in your disposition"
+                    + " chain?) - " + curi);
+            return;
+        }
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("storing history by digest " + persistKeyFor(curi)
+                    + " for uri " + curi + " - "
+                    + curi.getContentDigestHistory());
+        }
+        try {
+            store.put(keyBytes(curi), SerializationUtils.serialize(
+                    (Serializable) curi.getContentDigestHistory()));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem storing history for " + curi, e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.ProcessResult;
+import org.archive.modules.Processor;
+
+/**
+ * Ends the fetch chain early for a URI found not modified (HTTP 304):
+ * with no content, there is nothing for the extractors to do, and on an
+ * incremental recrawl most URIs are 304s. The URI goes on, as usual, to
+ * the disposition chain, which writes its revisit record, schedules its
+ * outlinks and updates its persisted history.
+ *
+ * Place it after fetchHttp, and after the {@link FetchHistoryProcessor}
+ * that records the 304 in history. Processors that 304s still need --
+ * an {@link OutlinksHistoryProcessor} giving them their saved outlinks,
+ * say -- go at the end of the fetch chain, with continueAt naming the
+ * first of them. Links in a 304's own headers (Content-Location) are
+ * not extracted.
+ */
+public class NotModifiedShortcutProcessor extends Processor {
+    @SuppressWarnings("unused")
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name of the fetch-chain processor to continue at, skipping those
+     * before it; if empty, the rest of the fetch chain is skipped.
+     */
+    protected String continueAt = "";
+    public String getContinueAt() {
+        return continueAt;
+    }
+    public void setContinueAt(String continueAt) {
+        this.continueAt = continueAt;
+    }
+
+    public NotModifiedShortcutProcessor() {
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        return curi.isHttpTransaction() && curi.getFetchStatus() == 304;
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI curi) {
+        throw new AssertionError();
+    }
+
+    @Override
+    protected ProcessResult innerProcessResult(CrawlURI curi) {
+        if (continueAt == null || continueAt.length() == 0) {
+            return ProcessResult.FINISH;
+        }
+        return ProcessResult.jump(continueAt);
+    }
+
+    @Override
+    public String report() {
+        return super.report() + "  " + getURICount()
+            + " not-modified URIs skipped ahead\n";
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_OUTLINKS;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.LinkContext;
+
+/**
+ * Remembers in fetch history the outlinks extracted from each successful
+ * fetch, and gives a URI found not modified (HTTP 304) the outlinks of
+ * its last full fetch, which it has no content to extract them from.
+ * Incremental recrawls relying on conditional GETs thus keep following
+ * links through unchanged pages, without fetching or parsing them again.
+ *
+ * Must follow a {@link FetchHistoryProcessor}, which makes the current
+ * fetch history[0], and the extractors, whose outlinks it saves: the
+ * end of the fetch chain suits, with a {@link NotModifiedShortcutProcessor}
+ * skipping 304s straight to it. Saved outlinks are persisted along with
+ * the rest of the history, and carried forward by each 304.
+ */
+public class OutlinksHistoryProcessor extends Processor {
+    private static final Logger logger =
+        Logger.getLogger(OutlinksHistoryProcessor.class.getName());
+
+    @SuppressWarnings("unused")
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Most outlinks to save per URI; a fetch with more saves none. 0
+     * saves none at all, though outlinks already saved are still given
+     * to 304s. Saved outlinks cost about 100 bytes each, as strings held
+     * in the fetch history, which rides in every queued CrawlURI and in
+     * its persist record: about 10KB per URI at 100, and 100KB at 1000.
+     */
+    protected int maxOutlinks = 100;
+    public int getMaxOutlinks() {
+        return maxOutlinks;
+    }
+    public void setMaxOutlinks(int maxOutlinks) {
+        this.maxOutlinks = maxOutlinks;
+    }
+
+    public OutlinksHistoryProcessor() {
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI curi) {
+        Map<String,Object>[] history = curi.getFetchHistory();
+        return curi.isHttpTransaction() && history != null
+                && history[0] != null;
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI curi) throws InterruptedException {
+        Map<String,Object>[] history = curi.getFetchHistory();
+        int status = curi.getFetchStatus();
+        if (status == 304) {
+            if (history.length > 1 && history[1] != null
+                    && history[1].containsKey(A_OUTLINKS)) {
+                @SuppressWarnings("unchecked")
+                ArrayList<String> saved = (ArrayList<String>) history[1].get(A_OUTLINKS);
+                int added = restoreOutlinks(curi, saved);
+                history[0].put(A_OUTLINKS, saved);
+                curi.getAnnotations().add("outlinksFromHistory:" + added);
+            }
+        } else if (status >= 200 && status < 300) {
+            int count = curi.getOutLinks().size();
+            if (count > 0 && count <= getMaxOutlinks()) {
+                history[0].put(A_OUTLINKS, saveOutlinks(curi));
+            }
+        }
+    }
+
+    /**
+     * @return curi's outlinks, each as its hop character, URI and
+     * context, separated by spaces
+     */
+    protected ArrayList<String> saveOutlinks(CrawlURI curi) {
+        ArrayList<String> saved = new ArrayList<String>(curi.getOutLinks().size());
+        for (CrawlURI link : curi.getOutLinks()) {
+            saved.add(link.getLastHop() + " " + link.getURI() + " "
+                    + link.getViaContext());
+        }
+        return saved;
+    }
+
+    /**
+     * Add saved outlinks to curi, as its extractors had found them.
+     *
+     * @return number of outlinks added
+     */
+    protected int restoreOutlinks(CrawlURI curi, ArrayList<String> saved) {
+        int added = 0;
+        for (String entry : saved) {
+            String[] parts = entry.split(" ", 3);
+            Hop hop = (parts.length == 3) ? Hop.forHopString(parts[0]) : null;
+            if (hop == null) {
+                logger.warning("unreadable saved outlink of " + curi + ": " + entry);
+                continue;
+            }
+            try {
+                curi.getOutLinks().add(curi.createCrawlURI(parts[1],
+                        new LinkContext.SimpleLinkContext(parts[2]), hop));
+                added++;
+            } catch (URIException e) {
+                // was valid when saved
+                logger.log(Level.FINE, "restoring " + parts[1], e);
+            }
+        }
+        return added;
+    }
+}
@@ -40,6 +40,8 @@ public interface RecrawlAttributeConstants {
     public static final String A_STATUS = "status"; 
     /** reference length (content length or virtual length */
     public static final String A_REFERENCE_LENGTH = "reference-length";
+    /** outlinks of the last full fetch (when in history) */
+    public static final String A_OUTLINKS = "outlinks";
     
     // constants for uri-agnostic content digest based dedupe
     /** content digest history map */
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.extractor.ContentFamily;
+import org.archive.modules.extractor.ExtractorCSS;
+import org.archive.modules.extractor.ExtractorJS;
+import org.archive.modules.extractor.ExtractorUniversal;
+import org.archive.modules.extractor.HTMLLinkContext;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+
+public class FetchChainTest extends TestCase {
+
+    protected CrawlURI curi(String uri, String contentType, LinkContext context)
+    throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri), "L",
+                UURIFactory.getInstance("http://example.com/"), context);
+        curi.setContentType(contentType);
+        return curi;
+    }
+
+    public void testClassify() throws URIException {
+        assertEquals(EnumSet.of(ContentFamily.HTML), ContentFamily.classify(
+                curi("http://example.com/", "text/html; charset=UTF-8", null)));
+        assertEquals(EnumSet.of(ContentFamily.HTML, ContentFamily.XML),
+                ContentFamily.classify(curi("http://example.com/",
+                        "application/xhtml+xml", null)));
+        assertEquals(EnumSet.of(ContentFamily.JAVASCRIPT), ContentFamily.classify(
+                curi("http://example.com/a", "text/plain", HTMLLinkContext.get("script/@src"))));
+        assertEquals(EnumSet.of(ContentFamily.JAVASCRIPT), ContentFamily.classify(
+                curi("http://example.com/a.JS", "text/plain", null)));
+        assertEquals(EnumSet.of(ContentFamily.CSS, ContentFamily.XML),
+                ContentFamily.classify(curi("http://example.com/a.css",
+                        "application/xml", null)));
+        assertEquals(EnumSet.of(ContentFamily.PDF), ContentFamily.classify(
+                curi("http://example.com/a", "APPLICATION/PDF", null)));
+        assertTrue(ContentFamily.classify(
+                curi("http://example.com/a.gif", "image/gif", null)).isEmpty());
+        // an extension adds to, and never overrides, the content type, as
+        // ExtractorCSS takes any .css URI
+        assertEquals(EnumSet.of(ContentFamily.JAVASCRIPT, ContentFamily.CSS),
+                ContentFamily.classify(curi("http://example.com/s.css",
+                        "application/javascript", null)));
+    }
+
+    public void testDispatch() throws URIException {
+        FetchChain chain = new FetchChain();
+        ExtractorCSS css = new ExtractorCSS();
+        ExtractorJS js = new ExtractorJS();
+        ExtractorUniversal universal = new ExtractorUniversal();
+        Processor other = new ScriptedProcessor();
+
+        // no extension, so families come from the content type alone
+        CrawlURI curi = curi("http://example.com/s", "text/css", null);
+        assertTrue(chain.shouldInvoke(other, curi));
+        assertTrue(chain.shouldInvoke(css, curi));
+        assertFalse(chain.shouldInvoke(js, curi));
+        assertTrue(chain.shouldInvoke(universal, curi));
+        assertEquals(EnumSet.of(ContentFamily.CSS), curi.getContentFamilies());
+
+        // reclassified when the content type changes
+        curi.setContentType("application/javascript");
+        assertNull(curi.getContentFamilies());
+        assertFalse(chain.shouldInvoke(css, curi));
+        assertTrue(chain.shouldInvoke(js, curi));
+
+        assertTrue(css.report().indexOf("1 CrawlURIs offered, 1 skipped") >= 0);
+        StringWriter report = new StringWriter();
+        chain.setProcessors(Arrays.<Processor>asList(css, js));
+        chain.reportTo(new PrintWriter(report));
+        assertTrue(report.toString().indexOf("JAVASCRIPT 1, CSS 1") >= 0);
+
+        chain.setDispatchByContentFamily(false);
+        assertTrue(chain.shouldInvoke(css, curi));
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Recorder;
+
+/**
+ * Measures the link-extraction throughput of each ContentExtractor on a
+ * fixed corpus, so that changes to ExtractorHTML and friends can be
+ * compared run to run.
+ *
+ * The built-in corpus is generated from a fixed seed, so is the same on
+ * every run: an HTML page, a script, a stylesheet, an XML sitemap and a
+ * PDF. Files in an optional corpus directory are added to it, typed by
+ * extension (.html, .js, .css, .xml, .pdf, .swf, .doc). Each document is
+ * recorded once; every extractor whose shouldExtract() accepts it then
+ * has its innerExtract() run repeatedly on replays of that recording,
+ * first to warm up and then for the measured period.
+ *
+ * Reported per extractor and document: MB of content per second, links
+ * found per second, and bytes allocated per page (where the JVM can
+ * count them). The results are written as tab-separated lines to a
+ * results file, and a previous results file there is first read, so
+ * each line also shows the change in throughput since the last run,
+ * flagged if it is a drop of more than REGRESSION_PERCENT.
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on the test machine may affect
+ * relative time tallies in unpredictable ways.
+ *
+ * Usage: BenchmarkExtractors [seconds [corpusDir|- [resultsFile]]]
+ */
+public class BenchmarkExtractors {
+    public static final int REGRESSION_PERCENT = 10;
+
+    protected static final String[][] TYPES_BY_EXTENSION = {
+        {".html", "text/html"},
+        {".htm", "text/html"},
+        {".js", "application/javascript"},
+        {".css", "text/css"},
+        {".xml", "text/xml"},
+        {".pdf", "application/pdf"},
+        {".swf", "application/x-shockwave-flash"},
+        {".doc", "application/msword"},
+    };
+
+    protected static class Document {
+        String name;
+        String contentType;
+        byte[] content;
+        Recorder recorder;
+
+        Document(String name, String contentType, byte[] content) {
+            this.name = name;
+            this.contentType = contentType;
+            this.content = content;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        (new BenchmarkExtractors()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws Exception {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        File corpusDir = (args.length > 1 && !args[1].equals("-"))
+            ? new File(args[1]) : null;
+        File resultsFile = new File((args.length > 2) ? args[2]
+                : "extractor-benchmark.tsv");
+
+        List<Document> corpus = builtInCorpus();
+        if (corpusDir != null) {
+            corpus.addAll(readCorpus(corpusDir));
+        }
+        Map<String, ContentExtractor> extractors = makeExtractors();
+        Map<String, Double> previous = readResults(resultsFile);
+
+        System.out.println("seconds=" + seconds + " documents=" + corpus.size()
+                + " results=" + resultsFile);
+        List<String> results = new ArrayList<String>();
+        for (Document doc : corpus) {
+            doc.recorder = ContentExtractorTestBase.createRecorder(doc.content);
+            for (Map.Entry<String, ContentExtractor> e : extractors.entrySet()) {
+                ContentExtractor extractor = e.getValue();
+                if (!extractor.shouldExtract(crawlURI(doc))) {
+                    continue;
+                }
+                String key = e.getKey() + "\t" + doc.name;
+                String result = key + "\t" + measure(extractor, doc, seconds);
+                results.add(result);
+                System.out.println(result + compare(previous.get(key), result));
+            }
+        }
+
+        PrintWriter out = new PrintWriter(resultsFile);
+        try {
+            out.println("# extractor\tdocument\tMB/s\tlinks/s\tbytes allocated/page");
+            for (String result : results) {
+                out.println(result);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    protected Map<String, ContentExtractor> makeExtractors() {
+        Map<String, ContentExtractor> extractors =
+            new LinkedHashMap<String, ContentExtractor>();
+        extractors.put("ExtractorHTML", configure(new ExtractorHTML()));
+        extractors.put("StreamingExtractorHTML",
+                configure(new StreamingExtractorHTML()));
+        StreamingExtractorHTML bytes = new StreamingExtractorHTML();
+        bytes.setByteStreamExtraction(true);
+        extractors.put("StreamingExtractorHTML-bytes", configure(bytes));
+        extractors.put("ExtractorJS", configure(new ExtractorJS()));
+        extractors.put("ExtractorCSS", configure(new ExtractorCSS()));
+        extractors.put("ExtractorXML", configure(new ExtractorXML()));
+        extractors.put("ExtractorPDF", configure(new ExtractorPDF()));
+        ExtractorSWF swf = new ExtractorSWF();
+        swf.setExtractorJS(new ExtractorJS());
+        extractors.put("ExtractorSWF", configure(swf));
+        extractors.put("ExtractorDOC", configure(new ExtractorDOC()));
+        return extractors;
+    }
+
+    protected ContentExtractor configure(ContentExtractor extractor) {
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        if (extractor instanceof ExtractorHTML) {
+            ExtractorHTML html = (ExtractorHTML) extractor;
+            CrawlMetadata metadata = new CrawlMetadata();
+            metadata.afterPropertiesSet();
+            html.setMetadata(metadata);
+            html.setExtractorJS(new ExtractorJS());
+            html.afterPropertiesSet();
+        }
+        return extractor;
+    }
+
+    protected CrawlURI crawlURI(Document doc) throws IOException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                "http://www.example.com/bench/" + doc.name));
+        curi.setContentType(doc.contentType);
+        curi.setRecorder(doc.recorder);
+        curi.setContentSize(doc.content.length);
+        return curi;
+    }
+
+    /**
+     * @return number of links found in one extraction
+     */
+    protected int extractOnce(ContentExtractor extractor, Document doc)
+    throws IOException {
+        CrawlURI curi = crawlURI(doc);
+        extractor.innerExtract(curi);
+        doc.recorder.endReplays();
+        return curi.getOutLinks().size();
+    }
+
+    /**
+     * @return tab-separated MB/s, links/s and bytes allocated per page
+     */
+    protected String measure(ContentExtractor extractor, Document doc,
+            int seconds) throws IOException {
+        long warmupEnd = System.currentTimeMillis() + Math.max(1000, seconds * 400);
+        while (System.currentTimeMillis() < warmupEnd) {
+            extractOnce(extractor, doc);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = allocatedBytes(threads, thread);
+        long pages = 0;
+        long links = 0;
+        long start = System.nanoTime();
+        long end = start + seconds * 1000000000L;
+        long now;
+        do {
+            links += extractOnce(extractor, doc);
+            pages++;
+            now = System.nanoTime();
+        } while (now < end);
+        long allocatedAfter = allocatedBytes(threads, thread);
+
+        double elapsed = (now - start) / 1e9;
+        return String.format("%.2f\t%.0f\t%s",
+                pages * doc.content.length / elapsed / (1024 * 1024),
+                links / elapsed,
+                (allocatedBefore < 0 || allocatedAfter < 0) ? "n/a"
+                        : Long.toString((allocatedAfter - allocatedBefore) / pages));
+    }
+
+    /**
+     * @return bytes allocated by the thread so far, or -1 if unavailable
+     */
+    protected long allocatedBytes(ThreadMXBean threads, long thread) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(thread);
+        }
+        return -1;
+    }
+
+    /**
+     * @return change in MB/s from the previous run, if any
+     */
+    protected String compare(Double previous, String result) {
+        if (previous == null || previous <= 0) {
+            return "";
+        }
+        double current = Double.parseDouble(result.split("\t")[2]);
+        long percent = Math.round((current - previous) * 100 / previous);
+        return "\t" + (percent >= 0 ? "+" : "") + percent + "%"
+            + (percent < -REGRESSION_PERCENT ? " REGRESSION" : "");
+    }
+
+    /**
+     * @return MB/s by extractor and document from a previous results
+     * file, if there is one
+     */
+    protected Map<String, Double> readResults(File resultsFile)
+    throws IOException {
+        Map<String, Double> results = new HashMap<String, Double>();
+        if (!resultsFile.exists()) {
+            return results;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(resultsFile));
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] fields = line.split("\t");
+                if (line.startsWith("#") || fields.length < 3) {
+                    continue;
+                }
+                try {
+                    results.put(fields[0] + "\t" + fields[1],
+                            Double.valueOf(fields[2]));
+                } catch (NumberFormatException e) {
+                    // not a result line
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return results;
+    }
+
+    protected List<Document> readCorpus(File dir) throws IOException {
+        List<Document> corpus = new ArrayList<Document>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("not a directory: " + dir);
+        }
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            for (String[] type : TYPES_BY_EXTENSION) {
+                if (name.endsWith(type[0])) {
+                    FileInputStream in = new FileInputStream(file);
+                    try {
+                        corpus.add(new Document(file.getName(), type[1],
+                                IOUtils.toByteArray(in)));
+                    } finally {
+                        IOUtils.closeQuietly(in);
+                    }
+                    break;
+                }
+            }
+        }
+        return corpus;
+    }
+
+    //
+    // built-in corpus, generated from a fixed seed
+    //
+
+    protected static final String[] WORDS = {"archive", "crawl", "link",
+        "page", "the", "of", "and", "web", "content", "frontier", "queue",
+        "host", "server", "fetch", "extract", "heritrix", "a", "to", "in"};
+
+    protected List<Document> builtInCorpus() throws IOException {
+        Random random = new Random(0);
+        List<Document> corpus = new ArrayList<Document>();
+        corpus.add(new Document("page.html", "text/html", utf8(html(random, 2000))));
+        corpus.add(new Document("app.js", "application/javascript",
+                utf8(script(random, 3000))));
+        corpus.add(new Document("site.css", "text/css", utf8(stylesheet(random, 3000))));
+        corpus.add(new Document("sitemap.xml", "text/xml", utf8(sitemap(random, 2000))));
+        corpus.add(new Document("report.pdf", "application/pdf", pdf(random, 500)));
+        return corpus;
+    }
+
+    protected static byte[] utf8(CharSequence text) throws IOException {
+        return text.toString().getBytes("UTF-8");
+    }
+
+    protected static void words(Random random, StringBuilder sb, int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+    }
+
+    protected CharSequence html(Random random, int items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\">")
+            .append("<title>Benchmark</title>\n")
+            .append("<link rel=\"stylesheet\" href=\"/css/site.css\">\n")
+            .append("<script src=\"/js/app.js\"></script>\n")
+            .append("<style>body{background:url(/img/bg.png)}</style>\n")
+            .append("</head><body>\n");
+        for (int i = 0; i < items; i++) {
+            int n = random.nextInt(100000);
+            sb.append("<div class=\"item\" style=\"background-image:url('/img/i")
+                .append(n).append(".png')\">");
+            sb.append("<a href=\"/page/").append(n).append(".html\" title=\"");
+            words(random, sb, 3);
+            sb.append("\">");
+            words(random, sb, 4);
+            sb.append("</a> <img src=\"/img/t").append(n)
+                .append(".jpg\" alt=\"thumbnail\" width=\"80\" height=\"60\">\n<p>");
+            words(random, sb, 30 + random.nextInt(30));
+            sb.append("</p>");
+            if (i % 10 == 0) {
+                sb.append("<script>var u").append(i).append(" = '/ajax/")
+                    .append(n).append(".json';</script>");
+            }
+            if (i % 25 == 0) {
+                sb.append("<form action=\"/search\" method=\"get\">")
+                    .append("<input type=\"text\" name=\"q\"></form>");
+            }
+            sb.append("</div>\n");
+        }
+        sb.append("</body></html>\n");
+        return sb;
+    }
+
+    protected CharSequence script(Random random, int functions) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            int n = random.nextInt(100000);
+            sb.append("function f").append(i).append("(a, b) {\n")
+                .append("  var url = \"/api/v1/item/").append(n).append("\";\n")
+                .append("  var label = '");
+            words(random, sb, 4);
+            sb.append("';\n  if (a > ").append(n % 100).append(") { return b.get(url); }\n")
+                .append("  return document.getElementById('f").append(i)
+                .append("').innerHTML = label + \"<img src='/img/")
+                .append(n).append(".gif'>\";\n}\n");
+        }
+        return sb;
+    }
+
+    protected CharSequence stylesheet(Random random, int rules) {
+        StringBuilder sb = new StringBuilder("@import url(\"base.css\");\n");
+        for (int i = 0; i < rules; i++) {
+            sb.append(".c").append(i).append(":hover,.c").append(i)
+                .append(".active{color:#").append(Integer.toHexString(random.nextInt(0xffffff)))
+                .append(";margin:0 ").append(random.nextInt(20))
+                .append("px;box-shadow:inset 0 3px 5px rgba(0,0,0,.125)}\n");
+            if (i % 8 == 0) {
+                sb.append(".i").append(i).append("{background:url('../img/sprite-")
+                    .append(random.nextInt(1000)).append(".png') no-repeat}\n");
+            }
+        }
+        return sb;
+    }
+
+    protected CharSequence sitemap(Random random, int urls) {
+        StringBuilder sb = new StringBuilder(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        for (int i = 0; i < urls; i++) {
+            sb.append("<url><loc>http://www.example.com/page/")
+                .append(random.nextInt(1000000)).append(".html</loc><lastmod>2013-0")
+                .append(1 + random.nextInt(9)).append("-1")
+                .append(random.nextInt(10)).append("</lastmod>")
+                .append("<changefreq>weekly</changefreq></url>\n");
+        }
+        sb.append("</urlset>\n");
+        return sb;
+    }
+
+    protected byte[] pdf(Random random, int pages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("%PDF-1.4\n".getBytes("ISO-8859-1"));
+        int obj = 1;
+        for (int i = 0; i < pages; i++) {
+            StringBuilder text = new StringBuilder("BT /F1 12 Tf 72 720 Td (");
+            words(random, text, 200);
+            text.append(") Tj ET\n");
+            byte[] content = deflate(text.toString().getBytes("ISO-8859-1"));
+            out.write((obj++ + " 0 obj << /Length " + content.length
+                    + " /Filter /FlateDecode >>\nstream\n").getBytes("ISO-8859-1"));
+            out.write(content);
+            out.write("\nendstream\nendobj\n".getBytes("ISO-8859-1"));
+            for (int j = 0; j < 3; j++) {
+                out.write((obj++ + " 0 obj << /Type /Annot /Subtype /Link"
+                        + " /Rect [72 " + (100 + j * 20) + " 300 " + (112 + j * 20) + "]"
+                        + " /A << /S /URI /URI (http://www.example.com/doc/"
+                        + random.nextInt(100000) + ".html) >> >>\nendobj\n")
+                        .getBytes("ISO-8859-1"));
+            }
+        }
+        out.write("trailer << /Size ".getBytes("ISO-8859-1"));
+        out.write((obj + " >>\n%%EOF\n").getBytes("ISO-8859-1"));
+        return out.toByteArray();
+    }
+
+    protected static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+public class ByteStreamCharSequenceTest extends TestCase {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    protected ByteStreamCharSequence sequence(String text, Charset charset) {
+        return new ByteStreamCharSequence(
+                new ByteArrayInputStream(text.getBytes(charset)), charset);
+    }
+
+    public void testAsciiCompatible() {
+        assertTrue(ByteStreamCharSequence.isAsciiCompatible(UTF8));
+        assertTrue(ByteStreamCharSequence.isAsciiCompatible(LATIN1));
+        assertTrue(ByteStreamCharSequence.isAsciiCompatible(
+                Charset.forName("windows-1251")));
+        assertFalse(ByteStreamCharSequence.isAsciiCompatible(
+                Charset.forName("UTF-16")));
+        assertFalse(ByteStreamCharSequence.isAsciiCompatible(
+                Charset.forName("Shift_JIS")));
+    }
+
+    public void testUtf8Presentation() {
+        String text = "<a title=\"\u00e9t\u00e9\" href=x>";
+        ByteStreamCharSequence cs = sequence(text, UTF8);
+        assertTrue(cs.has(0));
+        assertEquals('<', cs.charAt(0));
+        // each byte of a multi-byte character is one placeholder char
+        assertEquals('\uFFFD', cs.charAt(10));
+        assertEquals('\uFFFD', cs.charAt(11));
+        assertEquals('t', cs.charAt(12));
+        int length = text.getBytes(UTF8).length;
+        assertTrue(cs.has(length - 1));
+        assertFalse(cs.has(length));
+        assertEquals(length, cs.length());
+        // slices decode properly
+        CharSequence value = cs.subSequence(10, 15);
+        assertEquals("\u00e9t\u00e9", value.toString());
+        assertEquals(5, value.length());
+        assertEquals("t\u00e9", value.subSequence(2, 5).toString());
+    }
+
+    public void testSingleBytePresentation() {
+        String text = "caf\u00e9 \u0085";
+        ByteStreamCharSequence cs = sequence(text, LATIN1);
+        assertEquals('\u00e9', cs.charAt(3));
+        assertEquals('\u0085', cs.charAt(5));
+        assertEquals(text, cs.subSequence(0, 6).toString());
+    }
+
+    public void testReleaseAndCharOffset() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("\u00e9<b ");
+        }
+        String text = sb.toString();
+        ByteStreamCharSequence cs = sequence(text, UTF8);
+        int byteIndex = 0;
+        int charIndex = 0;
+        while (cs.has(byteIndex)) {
+            if (cs.charAt(byteIndex) == '<') {
+                cs.release(byteIndex);
+                assertEquals(charIndex + 1, cs.charOffset(byteIndex));
+                charIndex += 4;
+            }
+            byteIndex++;
+        }
+        assertEquals(text.getBytes(UTF8).length, byteIndex);
+        // buffer stays small once released bytes are discarded
+        assertTrue(cs.buf.length <= 2 * ByteStreamCharSequence.INITIAL_BUFFER);
+        try {
+            cs.charAt(0);
+            fail("released bytes should be unavailable");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testMaxRetained() {
+        StringBuilder sb = new StringBuilder("<b ");
+        for (int i = 0; i < 100000; i++) {
+            sb.append("x");
+        }
+        ByteStreamCharSequence cs = sequence(sb.toString(), LATIN1);
+        cs.setMaxRetained(20000);
+        assertTrue(cs.has(19999));
+        try {
+            cs.has(20000);
+            fail("should not read 20000 bytes past the release point");
+        } catch (ByteStreamCharSequence.RetainedLimitException e) {
+            // expected
+        }
+        cs.release(19000);
+        assertTrue(cs.has(38999));
+        assertEquals('x', cs.charAt(38999));
+        assertTrue(cs.buf.length <= 4 * ByteStreamCharSequence.INITIAL_BUFFER);
+    }
+
+    public void testPrefixString() {
+        ByteStreamCharSequence cs = sequence("<meta charset=utf-8>\u00e9", UTF8);
+        assertEquals("<meta", cs.prefixString(5));
+        assertEquals("<meta charset=utf-8>\u00e9", cs.prefixString(1000));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.archive.net.UURI;
+
+/**
+ * Checks that {@link CSSURIScanner} finds exactly the URIs that
+ * {@link ExtractorCSS#CSS_URI_EXTRACTOR} does, unescaped the same way.
+ */
+public class CSSURIScannerTest extends TestCase {
+
+    protected static final String[] CORPUS = {
+        "@import url(a.css); @IMPORT \"b.css\"; @import 'c.css' screen;",
+        "body { background: URL( \"img/bg.png\" ) no-repeat; }",
+        "a{b:url()} c{d:url( )} e{f:url(' ')} g{h:url(\"\")}",
+        "@import url(\"unterminated.css\";\n.x{y:url(z.png)}",
+        "x{y:url(a\nb.png)} x{y:url(\na.png)}",
+        "x{y:url('a)b.png')} x{y:url(a\\)b.png)} x{y:url(a\\,b\\ c\\'d.png)}",
+        "x{y:url(a.php?b=1&amp;c=2&ampd=3)}",
+        "x{y:url(\\\\\\)a.png)} @import url(u.css",
+        "@import\turl(tab.css); @importurl(no.css); @import url(\"x\" ) ;",
+        "x{y:url('a\"b.png')} x{y:url(\"a'b\"c.png\")}",
+        "x{y:u\u0130url(a.png)} x{y:url(a\u2028b.png)}",
+    };
+
+    protected List<String> regexUris(String doc, int maxLength) {
+        Pattern pattern = Pattern.compile(maxLength == UURI.MAX_URL_LENGTH
+                ? ExtractorCSS.CSS_URI_EXTRACTOR
+                : ExtractorCSS.CSS_URI_EXTRACTOR.replace(
+                        "{0," + UURI.MAX_URL_LENGTH + "}", "{0," + maxLength + "}"));
+        List<String> result = new ArrayList<String>();
+        Matcher m = pattern.matcher(doc);
+        while (m.find()) {
+            String uri = m.group(2).replaceAll("&amp", "&");
+            uri = uri.replaceAll(ExtractorCSS.CSS_BACKSLASH_ESCAPE, "$1");
+            result.add(m.start(2) + " " + uri);
+        }
+        return result;
+    }
+
+    protected List<String> scannerUris(CSSURIScanner scanner, String doc) {
+        List<String> result = new ArrayList<String>();
+        scanner.reset(doc);
+        while (scanner.find()) {
+            result.add(scanner.start() + " " + scanner.uri());
+        }
+        return result;
+    }
+
+    public void testCorpus() {
+        CSSURIScanner scanner = new CSSURIScanner(UURI.MAX_URL_LENGTH);
+        for (String doc : CORPUS) {
+            assertEquals(doc, regexUris(doc, UURI.MAX_URL_LENGTH),
+                    scannerUris(scanner, doc));
+        }
+        for (int i = 0; i < ExtractorCSSTest.VALID_TEST_DATA.length; i += 2) {
+            String doc = ExtractorCSSTest.VALID_TEST_DATA[i];
+            assertEquals(doc, regexUris(doc, UURI.MAX_URL_LENGTH),
+                    scannerUris(scanner, doc));
+        }
+    }
+
+    public void testRandomDocuments() {
+        String[] pieces = {"@import ", "@IMPORT url(", "url(", "URL(", " ",
+                "\n", "'", "\"", "(", ")", ";", "\\", "&amp", ",", "x", ".",
+                "/", "\u2028"};
+        Random random = new Random(0);
+        for (int maxLength : new int[] {4, UURI.MAX_URL_LENGTH}) {
+            CSSURIScanner scanner = new CSSURIScanner(maxLength);
+            for (int i = 0; i < 20000; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = random.nextInt(30); j > 0; j--) {
+                    sb.append(pieces[random.nextInt(pieces.length)]);
+                }
+                String doc = sb.toString();
+                assertEquals(doc, regexUris(doc, maxLength),
+                        scannerUris(scanner, doc));
+            }
+        }
+    }
+
+    /**
+     * Compare scanning rates over a large, framework-like stylesheet;
+     * renamed 'xest' to skip in normal runs.
+     */
+    public void xestThroughput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append(".btn-").append(i).append(":hover,.btn-").append(i)
+                .append(".active{color:#fff;background-color:#286090;")
+                .append("border-color:#204d74;-webkit-box-shadow:inset 0 3px 5px ")
+                .append("rgba(0,0,0,.125);box-shadow:inset 0 3px 5px rgba(0,0,0,.125)}\n");
+            if (i % 20 == 0) {
+                sb.append(".icon-").append(i).append("{background-image:url(")
+                    .append("\"../img/sprite-").append(i).append(".png\")}\n");
+            }
+        }
+        String doc = sb.toString();
+        CSSURIScanner scanner = new CSSURIScanner(UURI.MAX_URL_LENGTH);
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            regexUris(doc, UURI.MAX_URL_LENGTH);
+            long regex = System.nanoTime() - start;
+            start = System.nanoTime();
+            scannerUris(scanner, doc);
+            long scanned = System.nanoTime() - start;
+            System.out.println("regex " + regex / 1000000 + "ms, scanner "
+                    + scanned / 1000000 + "ms");
+        }
+    }
+}
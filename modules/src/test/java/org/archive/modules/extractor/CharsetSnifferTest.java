@@ -0,0 +1,179 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.net.CrawlServer;
+
+/**
+ * Checks that {@link CharsetSniffer} finds the declarations that
+ * {@link ExtractorHTML#getContentDeclaredCharset} does.
+ */
+public class CharsetSnifferTest extends TestCase {
+
+    protected static final String[] CORPUS = {
+        "<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=iso-8859-2\"></head>",
+        "<META HTTP-EQUIV='content-type' CONTENT='text/html;charset=Shift_JIS'>",
+        "<meta content=\"text/html; charset=koi8-r\" http-equiv=\"content-type\">",
+        "<meta http-equiv=\"content-type\" content=\"text/html\"><meta charset=\"big5\">",
+        "<meta http-equiv=\"content-type\" content=\"text/html; CHARSET=gbk\"><meta charset='utf-8'>",
+        "<meta charset=\"utf-8\"><meta http-equiv=\"content-type\" content=\"text/html; charset=euc-jp\">",
+        "<meta charset=utf-8><meta name=x charset='a' charset='windows-1251'>",
+        "<meta\tcharset=\"utf-8\"'>",
+        "<metacharset=\"utf-8\">",
+        "<meta charset=\"\">",
+        "<meta charset=\"a b\"><meta charset=\"c\">",
+        "<?xml version=\"1.0\" encoding=\"ISO-8859-15\"?><html>",
+        "<?XML encoding='x>y' encoding=\"latin1'>",
+        "<?xml version=\"1.0\"?><meta charset=\"utf-16\">",
+        "<meta http-equiv = 'content-type' content='charset=x' ",
+        "<p>no declaration</p>",
+        "",
+    };
+
+    protected static final String[] PATTERNS = {
+        "(?is)<meta\\s+[^>]*http-equiv\\s*=\\s*['\"]content-type['\"][^>]*>",
+        "(?si)<meta\\s+[^>]*charset=['\"]([^'\";\\s>]+)['\"]",
+        "(?is)<\\?xml\\s+[^>]*encoding=['\"]([^'\"]+)['\"]",
+    };
+
+    /**
+     * @return name found as getContentDeclaredCharset finds it
+     */
+    protected String regexName(String prefix) {
+        Matcher m = Pattern.compile(PATTERNS[0]).matcher(prefix);
+        if (m.find()) {
+            Matcher c = Pattern.compile("charset=([^'\";\\s>]+)").matcher(m.group());
+            if (c.find()) {
+                return c.group(1);
+            }
+        }
+        for (int i = 1; i < PATTERNS.length; i++) {
+            m = Pattern.compile(PATTERNS[i]).matcher(prefix);
+            if (m.find()) {
+                return m.group(1);
+            }
+        }
+        return null;
+    }
+
+    protected String sniffedName(String doc, String charset)
+    throws UnsupportedEncodingException {
+        byte[] bytes = doc.getBytes(charset);
+        return CharsetSniffer.sniff(bytes, bytes.length,
+                Charset.forName(charset)).getDeclaredCharsetName();
+    }
+
+    protected String prefix(String doc) {
+        return doc.substring(0, Math.min(doc.length(), CharsetSniffer.PREFIX_CHARS));
+    }
+
+    public void testCorpus() throws UnsupportedEncodingException {
+        for (String doc : CORPUS) {
+            assertEquals(doc, regexName(doc), sniffedName(doc, "ISO-8859-1"));
+            assertEquals(doc, regexName(doc), sniffedName(doc, "UTF-8"));
+        }
+        assertEquals("iso-8859-2", sniffedName(CORPUS[0], "UTF-8"));
+        assertEquals("big5", sniffedName(CORPUS[3], "UTF-8"));
+        assertEquals("windows-1251", sniffedName(CORPUS[6], "UTF-8"));
+        assertEquals("ISO-8859-15", sniffedName(CORPUS[11], "UTF-8"));
+    }
+
+    public void testPrefixLength() throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 970; i++) {
+            sb.append('\u00e9');
+        }
+        sb.append("<meta charset=\"x\"><meta charset=\"koi8-r\">");
+        String doc = sb.toString();
+        // the first fits in the prefix as chars, though not as UTF-8 bytes
+        assertEquals(regexName(prefix(doc)), sniffedName(doc, "UTF-8"));
+        assertEquals("x", sniffedName(doc, "UTF-8"));
+        assertNull(sniffedName("<p><p><p><p><p>" + doc, "UTF-8"));
+        assertEquals("x", sniffedName(doc, "ISO-8859-1"));
+    }
+
+    public void testBom() throws UnsupportedEncodingException {
+        byte[] bytes = "\ufeff<meta charset=\"iso-8859-1\">".getBytes("UTF-8");
+        CharsetSniffer sniffer = CharsetSniffer.sniff(bytes, bytes.length,
+                Charset.forName("ISO-8859-1"));
+        assertEquals(Charset.forName("UTF-8"), sniffer.getBomCharset());
+        assertFalse(sniffer.isAscii());
+
+        bytes = "\ufeff<p>".getBytes("UTF-16LE");
+        sniffer = CharsetSniffer.sniff(bytes, bytes.length, Charset.forName("UTF-8"));
+        assertEquals(Charset.forName("UTF-16LE"), sniffer.getBomCharset());
+
+        bytes = "<p>".getBytes("US-ASCII");
+        sniffer = CharsetSniffer.sniff(bytes, bytes.length, Charset.forName("UTF-8"));
+        assertNull(sniffer.getBomCharset());
+        assertTrue(sniffer.isAscii());
+    }
+
+    public void testRandomDocuments() throws UnsupportedEncodingException {
+        String[] pieces = {"<meta", "<META", "<?xml", " ", "\t", ">", "'", "\"",
+                "=", ";", "http-equiv", "HTTP-EQUIV", "content-type",
+                "charset=", "CHARSET=", "encoding=", "utf-8", "x", "\u00e9", "<"};
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(30); j > 0; j--) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            String doc = sb.toString();
+            assertEquals(doc, regexName(doc), sniffedName(doc, "windows-1252"));
+            assertEquals(doc, regexName(doc), sniffedName(doc, "UTF-8"));
+        }
+    }
+
+    public void testServerConsistency() {
+        CrawlServer server = new CrawlServer("example.com");
+        assertFalse(server.trustDeclaredCharset("Shift_JIS", 1, 10));
+        server.noteDeclaredCharset("Shift_JIS", true);
+        server.noteDeclaredCharset("Shift_JIS", true);
+        assertTrue(server.trustDeclaredCharset("Shift_JIS", 2, 10));
+        assertFalse(server.trustDeclaredCharset("Shift_JIS", 3, 10));
+        assertFalse(server.trustDeclaredCharset("EUC-JP", 1, 10));
+        server.noteDeclaredCharset("EUC-JP", true);
+        assertFalse(server.trustDeclaredCharset("Shift_JIS", 1, 10));
+        server.noteDeclaredCharset("EUC-JP", false);
+        assertFalse(server.trustDeclaredCharset("EUC-JP", 1, 10));
+    }
+
+    public void testServerTrustLapses() {
+        CrawlServer server = new CrawlServer("example.com");
+        server.noteDeclaredCharset("Shift_JIS", true);
+        assertTrue(server.trustDeclaredCharset("Shift_JIS", 1, 2));
+        assertTrue(server.trustDeclaredCharset("Shift_JIS", 1, 2));
+        // must be checked again
+        assertFalse(server.trustDeclaredCharset("Shift_JIS", 1, 2));
+        server.noteDeclaredCharset("Shift_JIS", true);
+        assertTrue(server.trustDeclaredCharset("Shift_JIS", 1, 2));
+        // a failed check drops trust
+        server.noteDeclaredCharset("Shift_JIS", false);
+        assertFalse(server.trustDeclaredCharset("Shift_JIS", 1, 2));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+public class ExtractionCacheTest extends TestCase {
+
+    /**
+     * Extractor adding fixed relative links, and any extra given,
+     * counting its parses.
+     */
+    protected static class CountingExtractor extends ContentExtractor {
+        int parses = 0;
+        boolean fail = false;
+        String base = null;
+        List<String> extra = new ArrayList<String>();
+
+        @Override
+        protected boolean shouldExtract(CrawlURI uri) {
+            return true;
+        }
+
+        @Override
+        protected boolean innerExtract(CrawlURI uri) {
+            parses++;
+            try {
+                if (base != null) {
+                    uri.setBaseURI(base);
+                }
+                addRelativeToBase(uri, 100, "a.html", LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+                addRelativeToBase(uri, 100, "b.png", LinkContext.EMBED_MISC, Hop.EMBED);
+                for (String link : extra) {
+                    addRelativeToBase(uri, 100, link, LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+                }
+            } catch (URIException e) {
+                fail(e.toString());
+            }
+            uri.getAnnotations().add("parsed");
+            uri.getDataList("offsets").add(7);
+            if (fail) {
+                uri.getNonFatalFailures().add(new Exception("test"));
+            }
+            return true;
+        }
+    }
+
+    protected CountingExtractor extractor;
+    protected ExtractionCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new ExtractionCache();
+        extractor = new CountingExtractor();
+        extractor.setExtractionCache(cache);
+    }
+
+    protected CrawlURI curi(String uri, String digest) throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setContentType("text/html");
+        if (digest != null) {
+            curi.setContentDigest("sha1", digest.getBytes());
+        }
+        return curi;
+    }
+
+    public void testReplaysIdenticalContent() throws Exception {
+        CrawlURI first = curi("http://example.com/x/one", "same");
+        extractor.extract(first);
+        CrawlURI second = curi("http://example.com/x/two", "same");
+        extractor.extract(second);
+        assertEquals(1, extractor.parses);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertEquals(first.getOutLinks().size(), second.getOutLinks().size());
+        Iterator<CrawlURI> expected = first.getOutLinks().iterator();
+        for (CrawlURI link : second.getOutLinks()) {
+            CrawlURI e = expected.next();
+            assertEquals(e.getURI(), link.getURI());
+            assertEquals(e.getViaContext(), link.getViaContext());
+            assertEquals(e.getLastHop(), link.getLastHop());
+            assertEquals(second.getUURI(), link.getVia());
+        }
+        assertTrue(second.getAnnotations().contains("parsed"));
+        assertEquals(first.getDataList("offsets"), second.getDataList("offsets"));
+        assertTrue(second.hasBeenLinkExtracted());
+        assertTrue(extractor.report().indexOf("50.0% hit rate") >= 0);
+    }
+
+    public void testDistinguishesDigestAndType() throws Exception {
+        extractor.extract(curi("http://example.com/x/one", "same"));
+        extractor.extract(curi("http://example.com/x/two", "other"));
+        CrawlURI css = curi("http://example.com/x/three", "same");
+        css.setContentType("text/css");
+        extractor.extract(css);
+        assertEquals(3, extractor.parses);
+        assertEquals(0, cache.getHits());
+    }
+
+    protected List<String> linkURIs(CrawlURI curi) {
+        List<String> uris = new ArrayList<String>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            uris.add(link.getURI());
+        }
+        return uris;
+    }
+
+    public void testKeyedByBaseDirectory() throws Exception {
+        extractor.extract(curi("http://example.com/x/one", "same"));
+        extractor.extract(curi("http://example.com/x/two?q=1", "same"));
+        assertEquals(1, extractor.parses);
+
+        CrawlURI elsewhere = curi("http://example.com/y/z/two", "same");
+        extractor.extract(elsewhere);
+        CrawlURI otherHost = curi("https://other.example.org/x/one", "same");
+        extractor.extract(otherHost);
+        assertEquals(3, extractor.parses);
+        assertEquals(1, cache.getHits());
+        assertEquals(Arrays.asList("http://example.com/y/z/a.html",
+                "http://example.com/y/z/b.png"), linkURIs(elsewhere));
+        assertEquals(Arrays.asList("https://other.example.org/x/a.html",
+                "https://other.example.org/x/b.png"), linkURIs(otherHost));
+    }
+
+    public void testAbsoluteLinksReplayedAsFound() throws Exception {
+        extractor.extra.add("http://example.com/login");
+        extractor.extra.add("http://example.com/x/foo");
+        extractor.extract(curi("http://example.com/x/one", "same"));
+        CrawlURI second = curi("http://example.com/x/two", "same");
+        extractor.extract(second);
+        assertEquals(1, extractor.parses);
+        assertEquals(Arrays.asList("http://example.com/x/a.html",
+                "http://example.com/x/b.png", "http://example.com/login",
+                "http://example.com/x/foo"), linkURIs(second));
+    }
+
+    public void testLinksToSelfNotCached() throws Exception {
+        extractor.extra.add("?page=2");
+        extractor.extract(curi("http://example.com/x/one", "same"));
+        CrawlURI second = curi("http://example.com/x/two", "same");
+        extractor.extract(second);
+        assertEquals(2, extractor.parses);
+        assertEquals(0, cache.getEntryCount());
+        assertTrue(linkURIs(second).contains("http://example.com/x/two?page=2"));
+    }
+
+    public void testKeyedByOverlays() throws Exception {
+        CrawlURI first = curi("http://example.com/x/one", "same");
+        first.getOverlayNames().add("slowSheet");
+        extractor.extract(first);
+        extractor.extract(curi("http://example.com/x/two", "same"));
+        CrawlURI third = curi("http://example.com/x/three", "same");
+        third.getOverlayNames().add("slowSheet");
+        extractor.extract(third);
+        assertEquals(2, extractor.parses);
+        assertEquals(1, cache.getHits());
+    }
+
+    public void testContentBaseHeldAbsolute() throws Exception {
+        extractor.base = "http://cdn.example.net/base/";
+        extractor.extract(curi("http://example.com/x/one", "same"));
+        CrawlURI second = curi("http://example.com/x/two", "same");
+        extractor.extract(second);
+        assertEquals(1, extractor.parses);
+        assertEquals(Arrays.asList("http://cdn.example.net/base/a.html",
+                "http://cdn.example.net/base/b.png"), linkURIs(second));
+        assertEquals("http://cdn.example.net/base/",
+                second.getBaseURI().toString());
+    }
+
+    public void testNoDigestNoCaching() throws Exception {
+        extractor.extract(curi("http://example.com/x/one", null));
+        extractor.extract(curi("http://example.com/x/two", null));
+        assertEquals(2, extractor.parses);
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    public void testFailuresNotCached() throws Exception {
+        extractor.fail = true;
+        extractor.extract(curi("http://example.com/x/one", "same"));
+        extractor.fail = false;
+        extractor.extract(curi("http://example.com/x/two", "same"));
+        assertEquals(2, extractor.parses);
+    }
+
+    public void testMemoryCap() throws Exception {
+        cache.setMaxBytes(2000);
+        for (int i = 0; i < 50; i++) {
+            extractor.extract(curi("http://example.com/x/one", "digest" + i));
+        }
+        assertTrue(cache.getBytes() <= 2000);
+        assertTrue(cache.getEvictions() > 0);
+        // most recent still cached
+        extractor.extract(curi("http://example.com/x/two", "digest49"));
+        assertEquals(50, extractor.parses);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.archive.net.UURI;
+import org.archive.util.UriUtils;
+
+/**
+ * Checks that {@link JSStringScanner} finds exactly the strings that
+ * {@link ExtractorJS#JAVASCRIPT_STRING_EXTRACTOR} does.
+ */
+public class JSStringScannerTest extends TestCase {
+
+    protected static final String[] CORPUS = {
+        "var a = 'b.html', c = \"d/e\";",
+        "'a'+'b'+\"c\"",
+        "\"mixed quotes' here\"",
+        "f('x.js\\'); g(\\'y.js\\')",
+        "\\\\\\'example.org/outlink\\\\\\' \\\\\\\\\\\\\\\\\\'nine\\'",
+        "\\u0027escaped/uri.html\\u0027 u0022bare.html\\u0022 u0022a/u0022b/u0022",
+        "x = 'unterminated.html",
+        "'with space.html' '' \"\"",
+        "{\"url\":\"http:\\/\\/example.com\\/x\",\"n\":1}",
+        "'a<b/c' '<script src=x.js>'",
+        "'line\nbreak.html'",
+    };
+
+    protected List<String> regexStrings(String doc, int maxLength) {
+        Pattern pattern = Pattern.compile(maxLength == UURI.MAX_URL_LENGTH
+                ? ExtractorJS.JAVASCRIPT_STRING_EXTRACTOR
+                : ExtractorJS.JAVASCRIPT_STRING_EXTRACTOR.replace(
+                        "{1," + UURI.MAX_URL_LENGTH + "}", "{1," + maxLength + "}"));
+        List<String> result = new ArrayList<String>();
+        Matcher m = pattern.matcher(doc);
+        int startIndex = 0;
+        while (m.find(startIndex)) {
+            String s = m.group(2);
+            result.add(s + " " + UriUtils.isPossibleUri(s));
+            startIndex = m.end(1);
+        }
+        return result;
+    }
+
+    protected List<String> scannerStrings(String doc, int maxLength) {
+        List<String> result = new ArrayList<String>();
+        JSStringScanner scanner = new JSStringScanner(doc, maxLength);
+        while (scanner.find()) {
+            result.add(doc.substring(scanner.start(), scanner.end()) + " "
+                    + scanner.isPossibleUri());
+        }
+        return result;
+    }
+
+    public void testCorpus() {
+        for (String doc : CORPUS) {
+            assertEquals(doc, regexStrings(doc, UURI.MAX_URL_LENGTH),
+                    scannerStrings(doc, UURI.MAX_URL_LENGTH));
+        }
+        for (int i = 0; i < ExtractorJSTest.VALID_TEST_DATA.length; i += 2) {
+            String doc = ExtractorJSTest.VALID_TEST_DATA[i];
+            assertEquals(doc, regexStrings(doc, UURI.MAX_URL_LENGTH),
+                    scannerStrings(doc, UURI.MAX_URL_LENGTH));
+        }
+    }
+
+    public void testRandomDocuments() {
+        String[] pieces = {"\\", "'", "\"", "u0027", "u0022", "\\u0027",
+                "\\\\\\\"", ".", "/", "x", " ", "<", "u002",
+                "\\\\\\\\\\\\\\\\\\'"};
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(40); j > 0; j--) {
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            }
+            String doc = sb.toString();
+            int maxLength = random.nextBoolean() ? 5 : UURI.MAX_URL_LENGTH;
+            assertEquals(doc, regexStrings(doc, maxLength),
+                    scannerStrings(doc, maxLength));
+        }
+    }
+
+    /**
+     * Compare scanning rates; renamed 'xest' to skip in normal runs.
+     */
+    public void xestThroughput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            sb.append("var a").append(i).append("={b:\"/img/x").append(i)
+                .append(".png\",c:'hello world',d:function(e){return e.f(\"g\")+u(i);}};");
+        }
+        String doc = sb.toString();
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            regexStrings(doc, UURI.MAX_URL_LENGTH);
+            long regex = System.nanoTime() - start;
+            start = System.nanoTime();
+            scannerStrings(doc, UURI.MAX_URL_LENGTH);
+            long scanner = System.nanoTime() - start;
+            System.out.println("regex " + regex / 1000000 + "ms, scanner "
+                    + scanner / 1000000 + "ms");
+        }
+    }
+}
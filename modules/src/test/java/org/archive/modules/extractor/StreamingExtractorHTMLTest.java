@@ -0,0 +1,382 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Runs all the ExtractorHTML tests against StreamingExtractorHTML,
+ * and checks that the two produce identical outlinks for markup that
+ * exercises the corners of the ExtractorHTML patterns.
+ */
+public class StreamingExtractorHTMLTest extends ExtractorHTMLTest {
+
+    /** malformed or unusual markup on which the two must agree */
+    protected static final String[] PARITY_DOCUMENTS = {
+        "<a href=foo.html>x</a><A HREF='bar.html'>y</A>",
+        "<a href = \"spaced.html\" >",
+        "<a href=\"unclosed.html>more text<img src=i.gif>",
+        "<a href='unclosed-at-end.html",
+        "<a xhref=nothere.html ahref=\"nor-here.html\" href=here.html>",
+        "<a on-click=\"no.html\" onclick=\"location='js.html'\">",
+        "<img src=a.gif lowsrc=b.gif longdesc=c.html usemap=#m>",
+        "<object codebase=\"/applets/\" classid=\"java:Foo.class\" "
+            + "archive=\"a.jar,b.jar\" data=\"d.bin\">",
+        "<applet code=Applet.class codebase=\"cb/\">",
+        "<param name=movie value=\"movie.swf\">",
+        "<div style=\"background: url('bg.png')\">",
+        "<form action=\"/search\" method=\"get\"><input value=\"x.html\"></form>",
+        "<form action=\"/post\" method=\"post\"></form>",
+        "<meta http-equiv=\"refresh\" content=\"0; url=refreshed.html\">",
+        "<metadata href=notmeta.html>",
+        "<script>var x = '<a href=\"inscript.html\">';</script><a href=after.html>",
+        "<script src=\"unclosed.js\"><a href=still.html>",
+        "<SCRIPT type=\"text/javascript\">document.write('x.html')</SCRIPT>",
+        "<style>@import 'imported.css';</style><style media=all>",
+        "<!-- <a href=commented.html> --><a href=uncommented.html>",
+        "<!--[if IE]><a href=conditional.html><![endif]-->",
+        "<!-- unclosed comment <a href=x.html>",
+        "<a data-remote=\"true\" href=\"remote.html\">",
+        "<a data-remote = 'true' href='remote2.html' title='t'>",
+        "<a data-remote=\"true\"\nhref=\"remote3.html\">",
+        "<a\nhref=\"newline.html\"\n>",
+        "<a href=\"entity.html?a=1&amp;b=2\">",
+        "<link rel=stylesheet href=s.css><link rel=\"icon\" href=i.ico>",
+        "<base href=\"http://other.example.com/dir/\"><a href=rel.html>",
+        "<a href=\"one.html\" href=\"two.html\" ",
+        "<<a href=double.html>>",
+        "<a " + repeat("x", 100) + "href=long-name.html>",
+        "<" + repeat("b", 100) + " href=long-element.html>",
+        "<a href='" + repeat("v", 3000) + "'>",
+    };
+
+    @Override
+    protected Extractor makeExtractor() {
+        return configure(new StreamingExtractorHTML());
+    }
+
+    protected ExtractorHTML configure(ExtractorHTML result) {
+        UriErrorLoggerModule ulm = new UnitTestUriLoggerModule();
+        result.setLoggerModule(ulm);
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        result.setMetadata(metadata);
+        result.setExtractorJS(new ExtractorJS());
+        result.afterPropertiesSet();
+        return result;
+    }
+
+    protected static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return sorted descriptions of each outlink: URI, hop type and
+     * link context
+     */
+    protected List<String> outlinks(ExtractorHTML extractor, CharSequence doc)
+    throws URIException {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/start/"));
+        extractor.extract(curi, doc);
+        List<String> result = new ArrayList<String>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            result.add(link.getURI() + " " + link.getLastHop() + " "
+                    + link.getViaContext());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    public void testParityWithRegexExtractor() throws URIException {
+        ExtractorHTML regex = configure(new ExtractorHTML());
+        for (String doc : PARITY_DOCUMENTS) {
+            List<String> expected = outlinks(regex, doc);
+            assertEquals("outlinks for: " + doc, expected,
+                    outlinks(getExtractor(), doc));
+        }
+    }
+
+    public void testParityWithSmallLimits() throws URIException {
+        ExtractorHTML regex = configure(new ExtractorHTML());
+        ExtractorHTML streaming = configure(new StreamingExtractorHTML());
+        for (ExtractorHTML e : new ExtractorHTML[] {regex, streaming}) {
+            e.setMaxElementLength(3);
+            e.setMaxAttributeNameLength(4);
+            e.setMaxAttributeValLength(12);
+            e.afterPropertiesSet();
+        }
+        for (String doc : PARITY_DOCUMENTS) {
+            assertEquals("outlinks for: " + doc, outlinks(regex, doc),
+                    outlinks(streaming, doc));
+        }
+    }
+
+    public void testParityFromBytes() throws Exception {
+        ExtractorHTML regex = configure(new ExtractorHTML());
+        String[] charsets = {"UTF-8", "ISO-8859-1", "windows-1252"};
+        for (String name : charsets) {
+            Charset charset = Charset.forName(name);
+            for (String doc : PARITY_DOCUMENTS) {
+                doc = "<p title=caf\u00e9>\u00e9t\u00e9</p>" + doc
+                    + "<a href=\"r\u00e9sum\u00e9.html\">";
+                ByteStreamCharSequence bytes = new ByteStreamCharSequence(
+                        new ByteArrayInputStream(doc.getBytes(charset)), charset);
+                assertEquals(name + " outlinks for: " + doc,
+                        outlinks(regex, doc), outlinks(getExtractor(), bytes));
+            }
+        }
+    }
+
+    public void testFormOffsetsFromBytes() throws Exception {
+        String doc = "<p>\u00e9\u00e9\u00e9</p><form action=x method=get></form>";
+        Charset utf8 = Charset.forName("UTF-8");
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/start/"));
+        getExtractor().extract(curi, new ByteStreamCharSequence(
+                new ByteArrayInputStream(doc.getBytes(utf8)), utf8));
+        assertEquals(doc.indexOf("<form"),
+                curi.getDataList(ExtractorHTML.A_FORM_OFFSETS).get(0));
+    }
+
+    public void testDataRemoteLink() {
+        ExtractorHTML regex = new ExtractorHTML();
+        StreamingExtractorHTML streaming = new StreamingExtractorHTML();
+        String[] tags = {
+            "a data-remote=\"true\" href=\"x\"",
+            "a data-remote='true' href='x'",
+            "a data-remote=\"true' href='x'",
+            "a DATA-REMOTE = \"TRUE\" href=\"x\"",
+            "a data-remote=\n\"true\" href=\"x\"",
+            "a\ndata-remote=\"true\" href=\"x\"",
+            "a data-remote=\"true\"\nhref=\"x\"",
+            "a data-remote=\"true\"",
+            "a data-remote=\"false\" href=\"x\"",
+            "a href=\"x\"",
+            "",
+        };
+        for (String tag : tags) {
+            assertEquals(tag, regex.isDataRemoteLink("a", tag),
+                    streaming.isDataRemoteLink("a", tag));
+        }
+        assertFalse(streaming.isDataRemoteLink("link", tags[0]));
+    }
+
+    public void testMaxSpanFromBytes() throws Exception {
+        Charset latin1 = Charset.forName("ISO-8859-1");
+        String text = "<a href=before.html>" + repeat("text ", 1000)
+            + "<a href=after.html>";
+        ByteStreamCharSequence bytes = new ByteStreamCharSequence(
+                new ByteArrayInputStream(text.getBytes(latin1)), latin1);
+        bytes.setMaxRetained(100);
+        // long text between tags is not held
+        assertEquals(2, outlinks(getExtractor(), bytes).size());
+
+        String unterminated = "<a href=before.html><script>"
+            + repeat("var x = 1; ", 1000);
+        bytes = new ByteStreamCharSequence(
+                new ByteArrayInputStream(unterminated.getBytes(latin1)), latin1);
+        bytes.setMaxRetained(100);
+        try {
+            outlinks(getExtractor(), bytes);
+            fail("unterminated script should exceed the span");
+        } catch (ByteStreamCharSequence.RetainedLimitException e) {
+            // expected: extractContent() then extracts decoded content
+        }
+    }
+
+    public void testExtractionStateRestored() throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/start/"));
+        curi.getAnnotations().add("prior");
+        StreamingExtractorHTML.ExtractionState before =
+            new StreamingExtractorHTML.ExtractionState(curi);
+        ExtractorHTML extractor = (ExtractorHTML) getExtractor();
+        extractor.extract(curi, "<base href=\"http://other.example.com/dir/\">"
+                + "<meta name=robots content=noarchive>"
+                + "<a href=one.html><form action=x method=post>");
+        curi.incrementDiscardedOutLinks();
+        curi.getAnnotations().add("later");
+        assertEquals("noarchive", curi.getData().get(ExtractorHTML.A_META_ROBOTS));
+
+        before.restore(curi);
+        assertEquals(0, curi.getOutLinks().size());
+        assertEquals(0, curi.getDiscardedOutLinks());
+        assertEquals("http://www.example.com/start/", curi.getBaseURI().toString());
+        assertNull(curi.getData().get(ExtractorHTML.A_META_ROBOTS));
+        assertFalse(curi.containsDataKey(ExtractorHTML.A_FORM_OFFSETS));
+        assertEquals(Collections.singletonList("prior"),
+                new ArrayList<String>(curi.getAnnotations()));
+    }
+
+    /**
+     * A byte-stream pass abandoned part way leaves the CrawlURI and the
+     * extractor's totals just as if only the decoded pass had run.
+     */
+    public void testAbandonedPassUndone() throws Exception {
+        String doc = "<base href=\"http://other.example.com/dir/\">"
+            + "<meta name=robots content=noarchive>"
+            + "<a href=one.html><a href=two.html><form action=x method=post>"
+            + "<script>" + repeat("var x = 1; ", 1000);
+        ExtractorHTML regex = configure(new ExtractorHTML());
+        StreamingExtractorHTML streaming =
+            (StreamingExtractorHTML) configure(new StreamingExtractorHTML());
+        streaming.setByteStreamExtraction(true);
+        streaming.setByteStreamMaxSpan(100);
+        ExtractorParameters oneOutlink = new ExtractorParameters() {
+            public int getMaxOutlinks() {
+                return 1;
+            }
+            public boolean getExtractIndependently() {
+                return false;
+            }
+            public boolean getExtract404s() {
+                return false;
+            }
+        };
+        List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        for (ExtractorHTML e : new ExtractorHTML[] {regex, streaming}) {
+            e.setExtractorParameters(oneOutlink);
+            CrawlURI curi = new CrawlURI(
+                    UURIFactory.getInstance("http://www.example.com/start/"));
+            curi.setContentType("text/html");
+            curi.setRecorder(createRecorder(doc, "ISO-8859-1"));
+            curi.setContentSize(doc.length());
+            curi.getAnnotations().add("prior");
+            e.process(curi);
+            curis.add(curi);
+        }
+        CrawlURI expected = curis.get(0);
+        CrawlURI actual = curis.get(1);
+        assertEquals(regex.numberOfLinksExtracted.get(),
+                streaming.numberOfLinksExtracted.get());
+        assertEquals(expected.getOutLinks().size(), actual.getOutLinks().size());
+        assertEquals(expected.getDiscardedOutLinks(),
+                actual.getDiscardedOutLinks());
+        assertEquals(expected.getBaseURI(), actual.getBaseURI());
+        assertEquals(expected.getData().get(ExtractorHTML.A_META_ROBOTS),
+                actual.getData().get(ExtractorHTML.A_META_ROBOTS));
+        assertEquals(expected.getDataList(ExtractorHTML.A_FORM_OFFSETS),
+                actual.getDataList(ExtractorHTML.A_FORM_OFFSETS));
+        assertEquals(new ArrayList<String>(expected.getAnnotations()),
+                new ArrayList<String>(actual.getAnnotations()));
+    }
+
+    /**
+     * Counts the characters read through it and its subsequences.
+     */
+    protected static class CountingCharSequence implements CharSequence {
+        protected CharSequence cs;
+        protected long[] reads;
+
+        protected CountingCharSequence(CharSequence cs, long[] reads) {
+            this.cs = cs;
+            this.reads = reads;
+        }
+
+        public char charAt(int index) {
+            reads[0]++;
+            return cs.charAt(index);
+        }
+
+        public int length() {
+            return cs.length();
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new CountingCharSequence(cs.subSequence(start, end), reads);
+        }
+
+        @Override
+        public String toString() {
+            reads[0] += cs.length();
+            return cs.toString();
+        }
+    }
+
+    /**
+     * @return characters read extracting from the given document
+     */
+    protected long charactersRead(String doc) throws URIException {
+        long[] reads = new long[1];
+        outlinks(getExtractor(), new CountingCharSequence(doc, reads));
+        return reads[0];
+    }
+
+    /**
+     * Pathological markup on which the regex-based extractor
+     * backtracks heavily: many unterminated tags. Twice the markup
+     * should take about twice the reads, not four times.
+     */
+    public void testUnterminatedTagsAreLinear() throws URIException {
+        long single = charactersRead(repeat("<a href=x.html ", 10000));
+        long doubled = charactersRead(repeat("<a href=x.html ", 20000));
+        assertTrue("read " + single + " then " + doubled,
+                doubled < 3 * single);
+    }
+
+    /**
+     * Compare extraction rates; renamed 'xest' to skip in normal runs.
+     */
+    public void xestThroughput() throws URIException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<html><head><title>t</title>");
+        sb.append("<link rel=stylesheet href=\"/s.css\">");
+        sb.append("<script>var a = 'b.html';</script></head><body>");
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<div class=\"item\" id=\"i").append(i).append("\">");
+            sb.append("<a href=\"/page/").append(i).append(".html\" ");
+            sb.append("title=\"Page ").append(i).append("\">link</a> ");
+            sb.append("<img src=\"/img/").append(i).append(".png\" alt=\"\">");
+            sb.append("<!-- item ").append(i).append(" --></div>\n");
+        }
+        sb.append("</body></html>");
+        String doc = sb.toString();
+        ExtractorHTML[] extractors = {
+            configure(new ExtractorHTML()), configure(new StreamingExtractorHTML())};
+        for (ExtractorHTML e : extractors) {
+            for (int warm = 0; warm < 5; warm++) {
+                outlinks(e, doc);
+            }
+            int rounds = 50;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                outlinks(e, doc);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(e.getClass().getSimpleName() + ": "
+                    + (doc.length() * (long) rounds / seconds / (1024 * 1024))
+                    + " MB/s");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+public class StreamingPDFParserTest extends TestCase {
+
+    protected static byte[] latin1(String s) throws IOException {
+        return s.getBytes("ISO-8859-1");
+    }
+
+    protected static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    protected static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Parse, feeding the parser chunkSize bytes at a time.
+     */
+    protected List<String> parse(byte[] pdf, int chunkSize) {
+        StreamingPDFParser parser = new StreamingPDFParser();
+        for (int i = 0; i < pdf.length; i += chunkSize) {
+            parser.write(pdf, i, Math.min(chunkSize, pdf.length - i));
+        }
+        parser.finish();
+        return parser.getURIs();
+    }
+
+    protected void assertURIs(List<String> expected, byte[] pdf) {
+        for (int chunkSize : new int[] {1, 2, 7, 64, pdf.length}) {
+            assertEquals("chunk size " + chunkSize, expected,
+                    parse(pdf, chunkSize));
+        }
+    }
+
+    public void testAnnotations() throws IOException {
+        byte[] pdf = latin1("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n"
+            + "1 0 obj\n<< /Type /Catalog /Pages 2 0 R /URI << /Base (http://base/) >> >>\nendobj\n"
+            + "4 0 obj\n<</Type/Annot/Subtype/Link/A<</S/URI/URI(http://example.com/a)>>>>\nendobj\n"
+            + "5 0 obj\n<< /A << /S /URI /URI <687474703a2f2f6578616d706c652e636f6d2f62> >> >>\nendobj\n"
+            + "6 0 obj\n<< /A << /S /Launch /URL (http://example.com/c\\(1\\)\\\n.html) >> >>\nendobj\n"
+            + "7 0 obj\n<< /A << /S /URI /U#52I (http://example.com/d%20e) % comment\n>> >>\nendobj\n"
+            + "8 0 obj\n(/URI \\(not-a-key\\)) endobj\n"
+            + "trailer\n<< /Root 1 0 R >>\n%%EOF\n");
+        assertURIs(Arrays.asList("http://example.com/a", "http://example.com/b",
+                "http://example.com/c(1).html", "http://example.com/d%20e"), pdf);
+    }
+
+    public void testSkipsContentStreams() throws IOException {
+        byte[] content = latin1("BT /URI (http://in-content/) Tj ET (unbalanced");
+        byte[] pdf = concat(
+            latin1("3 0 obj\n<< /Length " + content.length + " >>\nstream\r\n"),
+            content,
+            latin1("\r\nendstream\nendobj\n"
+                + "4 0 obj\n<< /Length 9 0 R >>\nstream\n"),
+            content,
+            latin1("\nendstream\nendobj\n"
+                + "5 0 obj << /URI (http://example.com/after) >> endobj\n"));
+        assertURIs(Arrays.asList("http://example.com/after"), pdf);
+    }
+
+    public void testObjectStreams() throws IOException {
+        byte[] objects = latin1("10 0 11 40 "
+            + "<< /Type /Annot /A 11 0 R >> "
+            + "<< /S /URI /URI (http://example.com/compressed) >>");
+        byte[] compressed = deflate(objects);
+        byte[] pdf = concat(
+            latin1("%PDF-1.5\n"
+                + "12 0 obj\n<< /Type /ObjStm /N 2 /First 11 /Filter /FlateDecode /Length "
+                + compressed.length + " >>\nstream\n"),
+            compressed,
+            latin1("\nendstream\nendobj\n"
+                + "13 0 obj\n<< /Type /ObjStm /Filter /FlateDecode /Length 14 0 R >>\nstream\r\n"),
+            compressed,
+            latin1("\r\nendstream\nendobj\n"
+                + "14 0 obj " + compressed.length + " endobj\n"
+                + "15 0 obj\n<< /Type /ObjStm /Filter [/ASCIIHexDecode /FlateDecode] /Length 3 >>\nstream\n"
+                + "ABC\nendstream\nendobj\n"
+                + "16 0 obj << /URI (http://example.com/plain) >> endobj\n"));
+        assertURIs(Arrays.asList("http://example.com/compressed",
+                "http://example.com/compressed", "http://example.com/plain"), pdf);
+    }
+
+    public void testCorruptObjectStream() throws IOException {
+        byte[] pdf = latin1("1 0 obj << /Type /ObjStm /Filter /FlateDecode /Length 99 0 R >>\n"
+            + "stream\nnot deflate data\nendstream endobj\n"
+            + "2 0 obj << /URI (http://example.com/after) >> endobj\n");
+        assertURIs(Arrays.asList("http://example.com/after"), pdf);
+    }
+
+    public void testUnicodeString() throws IOException {
+        byte[] pdf = latin1("1 0 obj << /URI <FEFF0068007400740070003a002f002f0078002f00e9> >> endobj");
+        assertURIs(Arrays.asList("http://x/\u00e9"), pdf);
+    }
+
+    public void testEncrypted() throws IOException {
+        byte[] pdf = latin1("1 0 obj << /URI (\u0093\u00ff\u0001) >> endobj\n"
+            + "trailer << /Root 1 0 R /Encrypt 2 0 R >>\n");
+        StreamingPDFParser parser = new StreamingPDFParser();
+        parser.parse(new ByteArrayInputStream(pdf));
+        assertTrue(parser.isEncrypted());
+        assertFalse(new StreamingPDFParser().parse(new ByteArrayInputStream(
+                latin1("1 0 obj << /URI (http://x/) >> endobj"))).isEmpty());
+    }
+
+    public void testBoundedOnLongStrings() throws IOException {
+        StringBuilder sb = new StringBuilder("1 0 obj << /URI (");
+        for (int i = 0; i < 100000; i++) {
+            sb.append('x');
+        }
+        sb.append(") /URI (http://example.com/short) >> endobj");
+        StreamingPDFParser parser = new StreamingPDFParser();
+        parser.parse(new ByteArrayInputStream(latin1(sb.toString())));
+        assertEquals(Arrays.asList("http://example.com/short"), parser.getURIs());
+        assertTrue(parser.string.length <= StreamingPDFParser.MAX_STRING_LENGTH);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.Credibility;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.Type;
+
+/**
+ * Exercises {@link AsyncDNSResolver} against a stub DNS server on the
+ * loopback interface, which answers every A query after a fixed delay:
+ * with NXDOMAIN for names beginning 'nx', with a CNAME to 'victim' in
+ * the same domain and an A record for that for names beginning 'poison',
+ * otherwise with 10.0.0.1. It may instead be told to hold all answers until a
+ * number of queries have arrived.
+ */
+public class AsyncDNSResolverTest extends TestCase {
+    protected static final long ANSWER_DELAY_MS = 100;
+
+    protected DatagramSocket serverSocket;
+    protected AtomicInteger queriesReceived = new AtomicInteger(0);
+    /** if positive, queries to receive before answering any */
+    protected volatile int holdAnswersFor = 0;
+    protected List<Runnable> heldAnswers = new ArrayList<Runnable>();
+    /** source port of each query received */
+    protected List<Integer> clientPorts =
+        Collections.synchronizedList(new ArrayList<Integer>());
+    protected volatile Message lastQuery;
+    protected volatile SocketAddress lastClient;
+    protected ScheduledExecutorService answerer;
+    protected AsyncDNSResolver resolver;
+    /** unique per test, as answers stay in dnsjava's shared cache */
+    protected String domain;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        domain = "t" + System.nanoTime() + ".test.";
+        serverSocket = new DatagramSocket(
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        answerer = Executors.newScheduledThreadPool(4);
+        Thread listener = new Thread("stub DNS server") {
+            public void run() {
+                serve();
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+
+        resolver = new AsyncDNSResolver();
+        resolver.setDnsServer("127.0.0.1:" + serverSocket.getLocalPort());
+        resolver.setTimeoutMs(2000);
+        resolver.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        resolver.stop();
+        answerer.shutdownNow();
+        serverSocket.close();
+        super.tearDown();
+    }
+
+    protected void serve() {
+        byte[] buf = new byte[512];
+        while (!serverSocket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            final Message query;
+            try {
+                serverSocket.receive(packet);
+                query = new Message(Arrays.copyOf(buf, packet.getLength()));
+            } catch (IOException e) {
+                continue;
+            }
+            final SocketAddress client = packet.getSocketAddress();
+            clientPorts.add(packet.getPort());
+            lastQuery = query;
+            lastClient = client;
+            Runnable answer = new Runnable() {
+                public void run() {
+                    answer(query, client);
+                }
+            };
+            int received = queriesReceived.incrementAndGet();
+            if (holdAnswersFor <= 0) {
+                answerer.schedule(answer, ANSWER_DELAY_MS, TimeUnit.MILLISECONDS);
+                continue;
+            }
+            heldAnswers.add(answer);
+            if (received >= holdAnswersFor) {
+                for (Runnable held : heldAnswers) {
+                    answerer.execute(held);
+                }
+                heldAnswers.clear();
+            }
+        }
+    }
+
+    protected void answer(Message query, SocketAddress client) {
+        try {
+            Record question = query.getQuestion();
+            Message response = new Message(query.getHeader().getID());
+            response.getHeader().setFlag(Flags.QR);
+            response.getHeader().setFlag(Flags.AA);
+            response.addRecord(question, Section.QUESTION);
+            Name name = question.getName();
+            if (name.getLabelString(0).startsWith("nx")) {
+                response.getHeader().setRcode(Rcode.NXDOMAIN);
+                Name zone = Name.fromString(domain);
+                response.addRecord(new SOARecord(zone, DClass.IN, 300,
+                        Name.fromString("ns." + domain),
+                        Name.fromString("admin." + domain),
+                        1, 3600, 600, 86400, 300), Section.AUTHORITY);
+            } else if (name.getLabelString(0).startsWith("poison")) {
+                Name victim = Name.fromString("victim." + domain);
+                response.addRecord(new CNAMERecord(name, DClass.IN, 300,
+                        victim), Section.ANSWER);
+                response.addRecord(new ARecord(victim, DClass.IN, 300,
+                        InetAddress.getByName("10.6.6.6")), Section.ANSWER);
+            } else {
+                response.addRecord(new ARecord(name, DClass.IN, 300,
+                        InetAddress.getByName("10.0.0.1")), Section.ANSWER);
+            }
+            byte[] wire = response.toWire();
+            serverSocket.send(new DatagramPacket(wire, wire.length, client));
+        } catch (IOException e) {
+            // client will time out
+        }
+    }
+
+    /**
+     * @return a Lookup that can only be answered from the shared cache,
+     * its resolver being the stub server's unused neighbor port
+     */
+    protected Lookup cacheOnlyLookup(String host) throws Exception {
+        SimpleResolver dead = new SimpleResolver("127.0.0.1");
+        dead.setPort(serverSocket.getLocalPort() == 65535
+                ? 65534 : serverSocket.getLocalPort() + 1);
+        dead.setTimeout(1);
+        Lookup lookup = new Lookup(host, Type.A, DClass.IN);
+        lookup.setResolver(dead);
+        return lookup;
+    }
+
+    /**
+     * @return a Lookup that goes to the stub server as FetchDNS's would
+     */
+    protected Lookup serverLookup(String host) throws Exception {
+        SimpleResolver stub = new SimpleResolver("127.0.0.1");
+        stub.setPort(serverSocket.getLocalPort());
+        Lookup lookup = new Lookup(host, Type.A, DClass.IN);
+        lookup.setResolver(stub);
+        return lookup;
+    }
+
+    /**
+     * Wait for any query in flight for host, which may already have been
+     * answered, and check it is done.
+     */
+    protected void awaitResolved(String host) throws InterruptedException {
+        resolver.awaitPrefetch(host, 5000);
+        assertFalse(resolver.byName.containsKey(
+                AsyncDNSResolver.lookupName(host)));
+    }
+
+    public void testPrefetchAnswersFromCache() throws Exception {
+        String host = "www." + domain;
+        resolver.prefetch(host);
+        assertTrue(resolver.awaitPrefetch(host, 5000));
+        Lookup lookup = cacheOnlyLookup(host);
+        Record[] records = lookup.run();
+        assertEquals(Lookup.SUCCESSFUL, lookup.getResult());
+        assertEquals("10.0.0.1",
+                ((ARecord) records[0]).getAddress().getHostAddress());
+        // nothing more to wait for, and no second query
+        assertFalse(resolver.awaitPrefetch(host, 5000));
+        resolver.prefetch(host);
+        assertEquals(1, resolver.queriesSent.get());
+    }
+
+    public void testNegativeAnswerCached() throws Exception {
+        String host = "nx1." + domain;
+        resolver.prefetch(host);
+        assertTrue(resolver.awaitPrefetch(host, 5000));
+        assertEquals(1, resolver.negativeAnswersCached.get());
+        Lookup lookup = cacheOnlyLookup(host);
+        lookup.run();
+        assertEquals(Lookup.HOST_NOT_FOUND, lookup.getResult());
+    }
+
+    public void testNumericHostIgnored() {
+        resolver.prefetch("192.168.1.1");
+        assertEquals(0, resolver.queriesSent.get());
+    }
+
+    /**
+     * All queries must be in flight at once: the stub answers none until
+     * it has received every one.
+     */
+    public void testPipelined() throws Exception {
+        int hosts = 50;
+        holdAnswersFor = hosts;
+        for (int i = 0; i < hosts; i++) {
+            resolver.prefetch("h" + i + "." + domain);
+        }
+        for (int i = 0; i < hosts; i++) {
+            awaitResolved("h" + i + "." + domain);
+        }
+        assertEquals(hosts, queriesReceived.get());
+        assertEquals(hosts, resolver.queriesSent.get());
+        assertEquals(hosts, resolver.answersCached.get());
+        for (int i = 0; i < hosts; i++) {
+            Lookup lookup = cacheOnlyLookup("h" + i + "." + domain);
+            lookup.run();
+            assertEquals(Lookup.SUCCESSFUL, lookup.getResult());
+        }
+    }
+
+    /**
+     * A host resolved ahead needs no query of its own when its first
+     * fetch looks it up, as FetchDNS does; one not resolved ahead does.
+     */
+    public void testFirstFetchAnsweredFromCache() throws Exception {
+        int hosts = 10;
+        for (int i = 0; i < hosts; i++) {
+            resolver.prefetch("p" + i + "." + domain);
+        }
+        for (int i = 0; i < hosts; i++) {
+            awaitResolved("p" + i + "." + domain);
+        }
+        assertEquals(hosts, queriesReceived.get());
+        for (int i = 0; i < hosts; i++) {
+            Lookup lookup = serverLookup("p" + i + "." + domain);
+            lookup.run();
+            assertEquals(Lookup.SUCCESSFUL, lookup.getResult());
+        }
+        assertEquals(hosts, queriesReceived.get());
+
+        Lookup lookup = serverLookup("b0." + domain);
+        lookup.run();
+        assertEquals(Lookup.SUCCESSFUL, lookup.getResult());
+        assertEquals(hosts + 1, queriesReceived.get());
+    }
+
+    /**
+     * Queries are spread over several sockets, each replaced by one on
+     * another port once it has sent its share.
+     */
+    public void testSourcePortsRotated() throws Exception {
+        resolver.stop();
+        resolver = new AsyncDNSResolver();
+        resolver.setDnsServer("127.0.0.1:" + serverSocket.getLocalPort());
+        resolver.setSockets(4);
+        resolver.setQueriesPerSocket(5);
+        resolver.start();
+        int hosts = 60;
+        for (int i = 0; i < hosts; i++) {
+            resolver.prefetch("r" + i + "." + domain);
+            awaitResolved("r" + i + "." + domain);
+        }
+        assertEquals(hosts, clientPorts.size());
+        Map<Integer,Integer> queriesByPort = new HashMap<Integer,Integer>();
+        for (int port : clientPorts) {
+            Integer count = queriesByPort.get(port);
+            queriesByPort.put(port, count == null ? 1 : count + 1);
+        }
+        assertTrue(queriesByPort.size() >= hosts / 5);
+        for (int count : queriesByPort.values()) {
+            assertTrue(count <= 5);
+        }
+    }
+
+    /**
+     * An answer matching a query's id and question, but arriving on a
+     * socket other than the one the query went out on, is ignored.
+     */
+    public void testAnswerOnOtherSocketIgnored() throws Exception {
+        holdAnswersFor = 2;
+        String host = "s." + domain;
+        resolver.prefetch(host);
+        for (int i = 0; i < 50 && queriesReceived.get() < 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, queriesReceived.get());
+        int queryPort = ((InetSocketAddress) lastClient).getPort();
+        int forged = 0;
+        for (AsyncDNSResolver.Port port : resolver.ports) {
+            int other = port.socket.getLocalPort();
+            if (other != queryPort) {
+                answer(lastQuery, new InetSocketAddress(
+                        InetAddress.getByName("127.0.0.1"), other));
+                forged++;
+            }
+        }
+        assertTrue(forged > 0);
+        assertFalse(resolver.awaitPrefetch(host, 500));
+        assertEquals(0, resolver.answersCached.get());
+
+        answer(lastQuery, lastClient);
+        awaitResolved(host);
+        assertEquals(1, resolver.answersCached.get());
+    }
+
+    /**
+     * Records a response carries for names other than the one asked about
+     * are not cached, even those a CNAME for it points to.
+     */
+    public void testOnlyQueriedNameCached() throws Exception {
+        String host = "poison1." + domain;
+        resolver.prefetch(host);
+        assertTrue(resolver.awaitPrefetch(host, 5000));
+        assertEquals(1, resolver.answersCached.get());
+        assertTrue(resolver.cache.lookupRecords(Name.fromString(host),
+                Type.A, Credibility.NORMAL).isCNAME());
+
+        Lookup lookup = cacheOnlyLookup("victim." + domain);
+        lookup.run();
+        assertFalse(Lookup.SUCCESSFUL == lookup.getResult());
+    }
+}
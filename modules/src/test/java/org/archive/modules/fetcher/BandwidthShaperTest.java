@@ -0,0 +1,186 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.net.CrawlHost;
+
+/**
+ * Tests of TokenBucket and BandwidthShaper, reading from memory.
+ */
+public class BandwidthShaperTest extends TestCase {
+
+    public void testTokenBucket() {
+        long start = System.nanoTime();
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        // burst of 100 bytes available at once
+        assertEquals(0, bucket.charge(100, start));
+        // then overdrawn: 50 bytes take 50ms to repay
+        assertEquals(50000000, bucket.charge(50, start), 1000000);
+        // a second later, refilled only to the burst
+        assertEquals(0, bucket.charge(100, start + 1000000000L));
+        assertTrue(bucket.charge(1, start + 1000000000L) > 0);
+
+        // readers sharing a bucket wait in turn
+        TokenBucket shared = new TokenBucket(1000, 0);
+        assertEquals(50000000, shared.charge(50, start + 2000000000L), 1000000);
+        assertEquals(100000000, shared.charge(50, start + 2000000000L), 1000000);
+        // and the debt is repaid at the rate
+        assertEquals(50000000, shared.charge(0, start + 2050000000L), 1000000);
+
+        TokenBucket unlimited = new TokenBucket(0, 100);
+        assertEquals(0, unlimited.charge(1000000, start));
+        unlimited.setRate(1000, 100);
+        assertTrue(unlimited.charge(1000, System.nanoTime()) > 0);
+    }
+
+    protected long readAll(InputStream in) throws IOException {
+        byte[] buf = new byte[4096];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Read the given streams at once, each from its own thread.
+     *
+     * @return elapsed milliseconds
+     */
+    protected long readConcurrently(final InputStream... streams) throws Exception {
+        Thread[] threads = new Thread[streams.length];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < streams.length; i++) {
+            final InputStream in = streams[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        readAll(in);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    protected InputStream kb(int kb) {
+        return new ByteArrayInputStream(new byte[kb * 1024]);
+    }
+
+    public void testUnlimitedNotWrapped() {
+        BandwidthShaper shaper = new BandwidthShaper();
+        InputStream in = kb(1);
+        assertSame(in, shaper.wrap(in, new CrawlHost("example.com"), "example.com"));
+    }
+
+    public void testTotalLimitShared() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper();
+        shaper.setMaxTotalKBSec(200);
+        // 400KB at 200KB/sec, less the 50KB burst, however many read
+        // at once
+        long elapsed = readConcurrently(
+                shaper.wrap(kb(100), new CrawlHost("a.example.com"), "a"),
+                shaper.wrap(kb(100), new CrawlHost("b.example.com"), "b"),
+                shaper.wrap(kb(100), new CrawlHost("c.example.com"), "c"),
+                shaper.wrap(kb(100), new CrawlHost("d.example.com"), "d"));
+        // (lower bound only: a loaded machine may take longer)
+        assertTrue("took " + elapsed + "ms", elapsed > 1500);
+        assertEquals(400 * 1024, shaper.getBytesRead());
+        assertTrue(shaper.getWaitMs() > 0);
+    }
+
+    public void testPerQueueLimit() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper();
+        shaper.setMaxPerQueueKBSec(100);
+        // two fetches on one queue share its 100KB/sec (after a 25KB
+        // burst); another's is its own
+        long elapsed = readConcurrently(
+                shaper.wrap(kb(50), null, "a"),
+                shaper.wrap(kb(50), null, "a"),
+                shaper.wrap(kb(50), null, "b"));
+        assertTrue("took " + elapsed + "ms", elapsed > 600);
+        assertEquals(2, shaper.queueBuckets.size());
+        elapsed = readConcurrently(shaper.wrap(kb(50), null, "c"));
+        assertTrue("took " + elapsed + "ms", elapsed > 150);
+        assertEquals(3, shaper.queueBuckets.size());
+    }
+
+    public void testPerIpLimit() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper();
+        shaper.setMaxPerIpKBSec(100);
+        // hosts not yet resolved are charged by name
+        long elapsed = readConcurrently(
+                shaper.wrap(kb(50), new CrawlHost("a.example.com"), "a"),
+                shaper.wrap(kb(50), new CrawlHost("a.example.com"), "b"));
+        assertTrue("took " + elapsed + "ms", elapsed > 600);
+        assertEquals(1, shaper.ipBuckets.size());
+    }
+
+    public void testChangeAtRuntime() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper();
+        shaper.setMaxTotalKBSec(50);
+        InputStream in = shaper.wrap(kb(100), null, null);
+        byte[] buf = new byte[1024];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 25; i++) {
+            in.read(buf);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        // 25KB at 50KB/sec, less a 12.5KB burst
+        assertTrue("took " + elapsed + "ms", elapsed > 200);
+        // the stream already open reads at the new rate
+        shaper.setMaxTotalKBSec(500);
+        assertEquals(500 * 1024, shaper.totalBucket.getBytesPerSecond());
+        readAll(in);
+        assertEquals(100 * 1024, shaper.getBytesRead());
+    }
+
+    public void testSkipCharged() throws Exception {
+        BandwidthShaper shaper = new BandwidthShaper();
+        InputStream huge = new InputStream() {
+            public int read() {
+                return -1;
+            }
+            public long skip(long n) {
+                return n;
+            }
+        };
+        InputStream in = shaper.new ShapedInputStream(huge,
+                new TokenBucket[] {new TokenBucket(0, 250), null, null});
+        assertEquals(1024, in.skip(1024));
+        assertEquals(1024, shaper.getBytesRead());
+        // beyond an int: charged as much as an int can say, not wrapped
+        // negative
+        assertEquals(3L << 30, in.skip(3L << 30));
+        assertEquals(1024L + Integer.MAX_VALUE, shaper.getBytesRead());
+    }
+}
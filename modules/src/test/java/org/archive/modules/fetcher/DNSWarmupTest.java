@@ -0,0 +1,210 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlHost;
+import org.archive.net.UURIFactory;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.TextParseException;
+
+/**
+ * Tests {@link DNSWarmup} against a stub resolver.
+ */
+public class DNSWarmupTest extends TestCase {
+
+    /**
+     * Answers from a fixed table, counting lookups of each name and the
+     * most in progress at once.
+     */
+    protected static class StubWarmup extends DNSWarmup {
+        Map<String,InetAddress> answers = new ConcurrentHashMap<String,InetAddress>();
+        ConcurrentHashMap<String,AtomicInteger> lookups = new ConcurrentHashMap<String,AtomicInteger>();
+        AtomicInteger inProgress = new AtomicInteger(0);
+        AtomicInteger mostInProgress = new AtomicInteger(0);
+
+        @Override
+        protected Record[] lookup(String lookupName) throws TextParseException {
+            int now = inProgress.incrementAndGet();
+            try {
+                int most;
+                while (now > (most = mostInProgress.get())
+                        && !mostInProgress.compareAndSet(most, now)) {
+                }
+                AtomicInteger count = new AtomicInteger(0);
+                AtomicInteger prior = lookups.putIfAbsent(lookupName, count);
+                (prior != null ? prior : count).incrementAndGet();
+                InetAddress answer = answers.get(lookupName);
+                if (answer == null) {
+                    return null;
+                }
+                return new Record[] {new ARecord(Name.fromString(lookupName),
+                        DClass.IN, 300, answer)};
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        }
+
+        int lookupsOf(String lookupName) {
+            AtomicInteger count = lookups.get(lookupName);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    protected DefaultServerCache servers;
+    protected StubWarmup warmup;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        servers = new DefaultServerCache();
+        warmup = new StubWarmup();
+        warmup.setServerCache(servers);
+        warmup.setMaxConcurrent(2);
+        warmup.answers.put("a.example.com.",
+                InetAddress.getByAddress(new byte[] {10, 0, 0, 1}));
+        warmup.answers.put("b.example.com.",
+                InetAddress.getByAddress(new byte[] {10, 0, 0, 2}));
+        warmup.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        warmup.stop();
+        super.tearDown();
+    }
+
+    protected void seed(String uri) throws Exception {
+        warmup.addedSeed(new CrawlURI(UURIFactory.getInstance(uri)));
+    }
+
+    public void testBatches() throws Exception {
+        seed("http://a.example.com/1");
+        seed("http://a.example.com/2");
+        seed("https://b.example.com/");
+        seed("http://nx.example.com/");
+        seed("http://10.0.0.3/");
+        seed("dns:c.example.com");
+        warmup.concludedSeedBatch();
+
+        // each host once per batch; IPs and other schemes not at all
+        assertEquals(1, warmup.lookupsOf("a.example.com."));
+        assertEquals(1, warmup.lookupsOf("b.example.com."));
+        assertEquals(1, warmup.lookupsOf("nx.example.com."));
+        assertEquals(3, warmup.lookups.size());
+        assertTrue(warmup.mostInProgress.get() <= 2);
+
+        CrawlHost a = servers.getHostFor("a.example.com");
+        assertTrue(a.hasBeenLookedUp());
+        assertEquals(warmup.answers.get("a.example.com."), a.getIP());
+        assertEquals(300, a.getIpTTL());
+        assertFalse(servers.getHostFor("nx.example.com").hasBeenLookedUp());
+
+        // resolved hosts are known to the next batch; unresolved are retried
+        seed("http://a.example.com/3");
+        seed("http://nx.example.com/");
+        warmup.concludedSeedBatch();
+        assertEquals(1, warmup.lookupsOf("a.example.com."));
+        assertEquals(2, warmup.lookupsOf("nx.example.com."));
+
+        assertTrue(warmup.report(), warmup.report().startsWith(
+                "DNS warmup: 2 hosts resolved, 2 unresolved, 0 in progress, "
+                + "of 4 queued (1 already known) in 2 batches; last batch took "));
+        assertTrue(warmup.report().endsWith("ms\n"));
+    }
+
+    public void testCacheOnly() throws Exception {
+        warmup.setAssignHostIPs(false);
+        seed("http://a.example.com/");
+        warmup.concludedSeedBatch();
+        assertEquals(1, warmup.lookupsOf("a.example.com."));
+        // left for its 'dns:' fetch, and record
+        assertFalse(servers.getHostFor("a.example.com").hasBeenLookedUp());
+        assertTrue(warmup.report().startsWith("DNS warmup: 1 hosts resolved, "));
+    }
+
+    public void testWarm() throws Exception {
+        warmup.warm(UURIFactory.getInstance("http://a.example.com/"));
+        warmup.warm(UURIFactory.getInstance("http://10.0.0.3/"));
+        // a batch waits on lookups begun outside it, though none are its own
+        warmup.concludeBatch();
+        assertEquals(1, warmup.lookupsOf("a.example.com."));
+        assertTrue(servers.getHostFor("a.example.com").hasBeenLookedUp());
+
+        warmup.warm(UURIFactory.getInstance("http://a.example.com/2"));
+        warmup.concludeBatch();
+        assertEquals(1, warmup.lookupsOf("a.example.com."));
+        assertTrue(warmup.report(), warmup.report().startsWith(
+                "DNS warmup: 1 hosts resolved, 0 unresolved, 0 in progress, "
+                + "of 1 queued (1 already known) in 0 batches"));
+    }
+
+    public void testWarmInProgressOnce() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        StubWarmup slow = new StubWarmup() {
+            @Override
+            protected Record[] lookup(String lookupName) throws TextParseException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.lookup(lookupName);
+            }
+        };
+        slow.setServerCache(servers);
+        slow.answers.putAll(warmup.answers);
+        slow.start();
+        try {
+            slow.warm(UURIFactory.getInstance("http://a.example.com/1"));
+            slow.warm(UURIFactory.getInstance("http://a.example.com/2"));
+            // nor again by a batch while still in progress
+            slow.addToBatch(UURIFactory.getInstance("http://a.example.com/3"));
+            assertEquals(1, slow.pendingCount());
+            release.countDown();
+            slow.concludeBatch();
+            assertEquals(1, slow.lookupsOf("a.example.com."));
+            assertTrue(servers.getHostFor("a.example.com").hasBeenLookedUp());
+        } finally {
+            slow.stop();
+        }
+    }
+
+    public void testNotRunning() throws Exception {
+        warmup.stop();
+        seed("http://a.example.com/");
+        warmup.warm(UURIFactory.getInstance("http://b.example.com/"));
+        warmup.concludedSeedBatch();
+        assertEquals(0, warmup.lookups.size());
+        assertTrue(warmup.report().startsWith(
+                "DNS warmup: 0 hosts resolved, 0 unresolved, 0 in progress, "
+                + "of 0 queued (0 already known) in 0 batches"));
+    }
+}
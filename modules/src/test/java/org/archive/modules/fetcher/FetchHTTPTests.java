@@ -28,6 +28,7 @@ import static org.archive.modules.fetcher.FetchHTTPTest.DIGEST_AUTH_PASSWORD;
 import static org.archive.modules.fetcher.FetchHTTPTest.DIGEST_AUTH_REALM;
 import static org.archive.modules.fetcher.FetchHTTPTest.ETAG_TEST_VALUE;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
@@ -58,6 +59,9 @@ import org.apache.http.NoHttpResponseException;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.message.BasicNameValuePair;
 import org.archive.httpclient.ConfigurableX509TrustManager.TrustLevel;
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCReaderFactory;
 import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlMetadata;
 import org.archive.modules.CrawlURI;
@@ -67,8 +71,11 @@ import org.archive.modules.credential.HttpAuthenticationCredential;
 import org.archive.modules.deciderules.RejectDecideRule;
 import org.archive.modules.recrawl.FetchHistoryProcessor;
 import org.archive.modules.revisit.ServerNotModifiedRevisit;
+import org.archive.modules.writer.WARCWriterProcessor;
+import org.archive.modules.writer.WARCWriterProcessorTest;
 import org.archive.net.UURI;
 import org.archive.util.OneLineSimpleLogger;
+import org.archive.util.TmpDirTestCase;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.littleshoot.proxy.DefaultHttpProxyServer;
 import org.littleshoot.proxy.HttpFilter;
@@ -119,7 +126,9 @@ public class FetchHTTPTests extends ProcessorTestBase {
             assertTrue(requestString.startsWith("GET / HTTP/1.0\r\n"));
         }
         assertTrue(requestString.contains("User-Agent: " + getUserAgentString() + "\r\n"));
-        assertTrue(requestString.matches("(?s).*Connection: [Cc]lose\r\n.*"));
+        if (!exclusions.contains("connectionClose")) {
+            assertTrue(requestString.matches("(?s).*Connection: [Cc]lose\r\n.*"));
+        }
         if (!exclusions.contains("acceptHeaders")) {
             assertTrue(requestString.contains("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"));
         }
@@ -708,6 +717,104 @@ public class FetchHTTPTests extends ProcessorTestBase {
         assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
     }
 
+    public void testReuseConnections() throws Exception {
+        fetcher().setReuseConnections(true);
+        CrawlURI first = makeCrawlURI("http://localhost:7777/");
+        fetcher().process(first);
+        int firstPort = FetchHTTPTest.getLastRequest().getRemotePort();
+        runDefaultChecks(first, "requestLine", "connectionClose");
+        assertTrue(httpRequestString(first).startsWith("GET / HTTP/1.1\r\n"));
+        assertFalse(httpRequestString(first).matches("(?s).*Connection: [Cc]lose\r\n.*"));
+
+        // same connection, recorded afresh
+        CrawlURI second = makeCrawlURI("http://localhost:7777/");
+        fetcher().process(second);
+        assertEquals(firstPort, FetchHTTPTest.getLastRequest().getRemotePort());
+        runDefaultChecks(second, "requestLine", "connectionClose");
+    }
+
+    public void testReuseConnectionsChunked() throws Exception {
+        fetcher().setReuseConnections(true);
+        CrawlURI curi = makeCrawlURI("http://localhost:7777/chunked.txt");
+        fetcher().process(curi);
+        int port = FetchHTTPTest.getLastRequest().getRemotePort();
+        assertEquals("chunked", curi.getHttpResponseHeader("transfer-encoding"));
+        assertEquals("25\r\n" + DEFAULT_PAYLOAD_STRING + "\r\n0\r\n\r\n", messageBodyString(curi));
+        assertEquals(DEFAULT_PAYLOAD_STRING, entityString(curi));
+        // ended by the last chunk, not by a timeout...
+        assertTrue(curi.getNonFatalFailures().isEmpty());
+        assertTrue(curi.getAnnotations().isEmpty());
+
+        // ...so the connection, still open, serves the next fetch
+        CrawlURI next = makeCrawlURI("http://localhost:7777/");
+        fetcher().process(next);
+        assertEquals(port, FetchHTTPTest.getLastRequest().getRemotePort());
+        runDefaultChecks(next, "requestLine", "connectionClose");
+    }
+
+    /**
+     * Fetches over pooled connections are written to WARCs byte for byte
+     * as unpooled fetches sending the same requests are.
+     */
+    public void testReuseConnectionsWarcRecords() throws Exception {
+        String[] uris = {"http://localhost:7777/",
+                "http://localhost:7777/chunked.txt", "http://localhost:7777/"};
+        fetcher().getServerCache().getHostFor("localhost").setIP(
+                InetAddress.getByName("127.0.0.1"), -1);
+
+        // unpooled, reading until the server gives up on the connection,
+        // as in testChunked()
+        fetcher().setUseHTTP11(true);
+        fetcher().setSendConnectionClose(false);
+        fetcher().setSoTimeoutMs(500);
+        fetcher().setTimeoutSeconds(1);
+        List<byte[]> unpooled = warcRecordBlocks("unpooled", uris);
+
+        fetcher().setReuseConnections(true);
+        List<byte[]> pooled = warcRecordBlocks("pooled", uris);
+
+        assertEquals(uris.length * 2, pooled.size());
+        assertEquals(unpooled.size(), pooled.size());
+        for (int i = 0; i < pooled.size(); i++) {
+            assertEquals(new String(unpooled.get(i), "ISO-8859-1"),
+                    new String(pooled.get(i), "ISO-8859-1"));
+        }
+    }
+
+    /**
+     * @return the content blocks of the request and response records
+     * written to a new WARC for each of the given URIs, in order
+     */
+    protected List<byte[]> warcRecordBlocks(String name, String... uris)
+    throws Exception {
+        File dir = new File(TmpDirTestCase.tmpDir(), getClass().getSimpleName()
+                + "-" + name);
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        WARCWriterProcessor writer = WARCWriterProcessorTest.newTestWarcWriter(
+                dir.getName());
+        writer.setServerCache(fetcher().getServerCache());
+        writer.start();
+        for (String uri : uris) {
+            CrawlURI curi = makeCrawlURI(uri);
+            fetcher().process(curi);
+            writer.process(curi);
+        }
+        writer.stop();
+
+        List<byte[]> blocks = new ArrayList<byte[]>();
+        for (File warc : new File(dir, "warcs").listFiles()) {
+            ArchiveReader reader = WARCReaderFactory.get(warc);
+            for (ArchiveRecord record : reader) {
+                Object type = record.getHeader().getHeaderValue("WARC-Type");
+                if ("request".equals(type) || "response".equals(type)) {
+                    blocks.add(IOUtils.toByteArray(record));
+                }
+            }
+            reader.close();
+        }
+        return blocks;
+    }
+
     protected static class NoResponseServer extends Thread {
         protected String listenAddress;
         protected int listenPort;
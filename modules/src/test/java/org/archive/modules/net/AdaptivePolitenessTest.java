@@ -0,0 +1,72 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import junit.framework.TestCase;
+
+public class AdaptivePolitenessTest extends TestCase {
+
+    protected long update(AdaptivePoliteness p, long durationMs, boolean error) {
+        return p.update(durationMs, error, 3000, 1000, 30000, 250, 2.0f);
+    }
+
+    public void testHealthyServerSpedUp() {
+        AdaptivePoliteness p = new AdaptivePoliteness();
+        assertEquals(2750, update(p, 100, false));
+        assertEquals(2500, update(p, 100, false));
+        for (int i = 0; i < 20; i++) {
+            update(p, 100, false);
+        }
+        assertEquals(1000, p.getDelayMs());
+        assertEquals(0, p.getBackoffs());
+        assertEquals(0.0, p.getErrorRateAverage(), 0.001);
+    }
+
+    public void testStrugglingServerBackedOff() {
+        AdaptivePoliteness p = new AdaptivePoliteness();
+        update(p, 100, false);
+        assertEquals(5500, update(p, 100, true));
+        assertEquals(11000, update(p, 100, true));
+        assertEquals(22000, update(p, 100, true));
+        assertEquals(30000, update(p, 100, true));
+        assertEquals(4, p.getBackoffs());
+        assertTrue(p.getErrorRateAverage() > 0.5);
+        // recovery is gradual
+        assertEquals(29750, update(p, 100, false));
+    }
+
+    public void testSlowResponseBacksOff() {
+        AdaptivePoliteness p = new AdaptivePoliteness();
+        for (int i = 0; i < 3; i++) {
+            update(p, 100, false);
+        }
+        long delay = p.getDelayMs();
+        assertEquals(delay * 2, update(p, 1000, false));
+        assertEquals(1, p.getBackoffs());
+    }
+
+    public void testNeverBelowResponseTime() {
+        AdaptivePoliteness p = new AdaptivePoliteness();
+        for (int i = 0; i < 40; i++) {
+            update(p, 2000, false);
+        }
+        assertEquals(2000, p.getDelayMs());
+        assertEquals(2000.0, p.getResponseMsAverage(), 0.001);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Simple benchmarking of robots.txt handling: time per
+ * RobotsDirectives.allows() against the sorted-set prefix lookup it
+ * replaced, and heap held per CrawlServer's robots.txt when many servers
+ * serve the same one, each parsing its own copy versus sharing one
+ * interned by digest.
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and any other activity on test machine may affect
+ * relative time tallies in unpredictable ways.
+ */
+public class BenchmarkRobots {
+
+    public static void main(String[] args) throws IOException {
+        (new BenchmarkRobots()).instanceMain(args);
+    }
+
+    /**
+     * The Allow/Disallow lookup RobotsDirectives used before RobotsMatcher,
+     * for comparison.
+     */
+    protected static class SkipListDirectives {
+        ConcurrentSkipListSet<String> disallows = new ConcurrentSkipListSet<String>();
+        ConcurrentSkipListSet<String> allows = new ConcurrentSkipListSet<String>();
+
+        boolean allows(String path) {
+            return !(longestPrefixLength(disallows, path) > longestPrefixLength(allows, path));
+        }
+
+        int longestPrefixLength(ConcurrentSkipListSet<String> prefixSet, String str) {
+            String possiblePrefix = prefixSet.floor(str);
+            if (possiblePrefix != null && str.startsWith(possiblePrefix)) {
+                return possiblePrefix.length();
+            } else {
+                return 0;
+            }
+        }
+    }
+
+    /** kept reachable while heap is measured */
+    protected Robotstxt[] held;
+
+    public void instanceMain(String[] args) throws IOException {
+        int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int rules = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        int lookups = (args.length > 2) ? Integer.parseInt(args[2]) : 2000000;
+        int servers = (args.length > 3) ? Integer.parseInt(args[3]) : 20000;
+
+        System.out.println("reps=" + reps + " rules=" + rules + " lookups="
+                + lookups + " servers=" + servers);
+
+        Random random = new Random(0);
+        String[] ruleSet = new String[rules];
+        StringBuilder body = new StringBuilder("User-agent: *\n");
+        SkipListDirectives previous = new SkipListDirectives();
+        for (int i = 0; i < rules; i++) {
+            ruleSet[i] = randomPath(random);
+            boolean allow = random.nextInt(4) == 0;
+            body.append(allow ? "Allow: " : "Disallow: ").append(ruleSet[i]).append('\n');
+            if (allow) {
+                previous.allows.add(ruleSet[i]);
+            } else {
+                previous.disallows.add(ruleSet[i]);
+            }
+        }
+        String robots = body.toString();
+        RobotsDirectives current = parse(robots).getDirectivesFor("anybot");
+
+        String[] paths = new String[4096];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = random.nextBoolean()
+                ? ruleSet[random.nextInt(rules)] + randomPath(random)
+                : randomPath(random);
+        }
+
+        for (int r = 0; r < reps; r++) {
+            int allowed = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                allowed += previous.allows(paths[i & 4095]) ? 1 : 0;
+            }
+            long previousNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                allowed += current.allows(paths[i & 4095]) ? 1 : 0;
+            }
+            long currentNanos = System.nanoTime() - start;
+            System.out.println("allows(): skip-list " + previousNanos / lookups
+                    + "ns/op, matcher " + currentNanos / lookups + "ns/op ("
+                    + allowed + ")");
+        }
+
+        for (int r = 0; r < reps; r++) {
+            held = null;
+            long base = usedHeap();
+            held = new Robotstxt[servers];
+            for (int i = 0; i < servers; i++) {
+                held[i] = parse(robots);
+                held[i].getDirectivesFor("anybot").allows("/");
+            }
+            long separate = (usedHeap() - base) / servers;
+            held = null;
+            base = usedHeap();
+            held = new Robotstxt[servers];
+            for (int i = 0; i < servers; i++) {
+                String digest = Robotstxt.digest(
+                        new ByteArrayInputStream(robots.getBytes("UTF-8")));
+                held[i] = Robotstxt.getInterned(digest);
+                if (held[i] == null) {
+                    held[i] = parse(robots).intern(digest);
+                }
+                held[i].getDirectivesFor("anybot").allows("/");
+            }
+            long interned = (usedHeap() - base) / servers;
+            System.out.println("robots.txt heap per server: parsed each "
+                    + separate + " bytes, interned " + interned + " bytes ("
+                    + held.length + ")");
+        }
+    }
+
+    protected Robotstxt parse(String robots) throws IOException {
+        return new Robotstxt(new BufferedReader(new StringReader(robots)));
+    }
+
+    protected String randomPath(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 1 + random.nextInt(3); j > 0; j--) {
+            sb.append('/');
+            for (int k = 2 + random.nextInt(6); k > 0; k--) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    protected long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
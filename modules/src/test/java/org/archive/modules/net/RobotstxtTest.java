@@ -19,9 +19,13 @@
 package org.archive.modules.net;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -170,6 +174,116 @@ public class RobotstxtTest extends TestCase {
         assertFalse(r.getDirectivesFor("anybot").allows("/index.html"));
         assertEquals(30f,r.getDirectivesFor("anybot").getCrawlDelay());
     }
+    public void testLongestMatchAmongSiblings() throws IOException {
+        Robotstxt r = new Robotstxt(new BufferedReader(new StringReader(
+                "User-agent: *\n" +
+                "Disallow: /a\n" +
+                "Allow: /ab\n" +
+                "Allow: /a/public\n")));
+        RobotsDirectives d = r.getDirectivesFor("anybot");
+        assertFalse(d.allows("/ac"));
+        assertFalse(d.allows("/a/private"));
+        assertTrue(d.allows("/abc"));
+        assertTrue(d.allows("/a/public/x"));
+        assertTrue(d.allows("/b"));
+    }
+
+    public void testWildcards() throws IOException {
+        Robotstxt r = new Robotstxt(new BufferedReader(new StringReader(
+                "User-agent: *\n" +
+                "Disallow: /*.pdf$\n" +
+                "Disallow: /*?sessionid=\n" +
+                "Disallow: /private*/\n" +
+                "Allow: /private*/open$\n" +
+                "Disallow: /fish*\n")));
+        RobotsDirectives d = r.getDirectivesFor("anybot");
+        assertFalse(d.allows("/docs/a.pdf"));
+        assertTrue(d.allows("/docs/a.pdf?download=1"));
+        assertTrue(d.allows("/docs/a.pdfx"));
+        assertFalse(d.allows("/page?sessionid=2&a=1"));
+        assertTrue(d.allows("/page?a=1"));
+        assertFalse(d.allows("/private-stuff/x"));
+        assertFalse(d.allows("/private/"));
+        assertTrue(d.allows("/private-stuff/open"));
+        assertFalse(d.allows("/private-stuff/open/x"));
+        assertTrue(d.allows("/privatestuff"));
+        assertFalse(d.allows("/fish"));
+        assertFalse(d.allows("/fishheads.html"));
+        assertTrue(d.allows("/Fish"));
+    }
+
+    public void testMatcherAgainstPrefixRules() {
+        // for literal rules, same as checking every rule as a prefix
+        String[] pieces = {"/", "a", "b", "ab", "?", "="};
+        Random random = new Random(0);
+        for (int round = 0; round < 2000; round++) {
+            RobotsDirectives d = new RobotsDirectives();
+            List<String> allows = new ArrayList<String>();
+            List<String> disallows = new ArrayList<String>();
+            for (int i = random.nextInt(6); i >= 0; i--) {
+                String rule = randomPath(random, pieces);
+                if (random.nextBoolean()) {
+                    d.addAllow(rule);
+                    allows.add(rule);
+                } else if (rule.length() > 0) {
+                    d.addDisallow(rule);
+                    disallows.add(rule);
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                String path = randomPath(random, pieces);
+                assertEquals(path, 
+                        !(longestPrefix(disallows, path) > longestPrefix(allows, path)), 
+                        d.allows(path));
+            }
+        }
+    }
+
+    protected String randomPath(Random random, String[] pieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = random.nextInt(5); j > 0; j--) {
+            sb.append(pieces[random.nextInt(pieces.length)]);
+        }
+        return sb.toString();
+    }
+
+    protected int longestPrefix(List<String> rules, String path) {
+        int longest = 0;
+        for (String rule : rules) {
+            if (path.startsWith(rule)) {
+                longest = Math.max(longest, rule.length());
+            }
+        }
+        return longest;
+    }
+
+    public void testInterning() throws IOException {
+        String body = "User-agent: *\nDisallow: /cgi-bin/\n";
+        String digest = Robotstxt.digest(new ByteArrayInputStream(body.getBytes("UTF-8")));
+        assertEquals(digest, 
+                Robotstxt.digest(new ByteArrayInputStream(body.getBytes("UTF-8"))));
+        assertFalse(digest.equals(Robotstxt.digest(
+                new ByteArrayInputStream((body + "#").getBytes("UTF-8")))));
+        
+        assertNull(Robotstxt.getInterned(digest));
+        Robotstxt first = new Robotstxt(new BufferedReader(new StringReader(body))).intern(digest);
+        Robotstxt second = new Robotstxt(new BufferedReader(new StringReader(body))).intern(digest);
+        assertSame(first, second);
+        assertSame(first, Robotstxt.getInterned(digest));
+        
+        // the digest is not persisted
+        AutoKryo kryo = new AutoKryo();
+        kryo.autoregister(Robotstxt.class);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        kryo.writeObject(buffer, first);
+        buffer.flip();
+        Robotstxt reloaded = kryo.readObject(buffer, Robotstxt.class);
+        assertNull(reloaded.digest);
+        assertFalse(reloaded.interned);
+        assertTrue(reloaded.getDirectivesFor("anybot").allows("/"));
+        assertFalse(reloaded.getDirectivesFor("anybot").allows("/cgi-bin/x"));
+    }
+
     /**
      * Test serialization/deserialization of Robotstxt object.
      * Improper behavior, such as failure to restore shared RobotsDirectives objects,
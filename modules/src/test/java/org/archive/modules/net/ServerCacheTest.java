@@ -18,8 +18,12 @@
  */
 package org.archive.modules.net;
 
+import java.util.Collections;
+import java.util.Set;
+
 import junit.framework.TestCase;
 
+import org.apache.commons.collections.Closure;
 import org.apache.commons.httpclient.URIException;
 import org.archive.modules.fetcher.DefaultServerCache;
 import org.archive.net.UURI;
@@ -59,4 +63,27 @@ public class ServerCacheTest extends TestCase {
         assertTrue("cache lost host",
             servers.containsHost(uuri.getHost()));
     }
+    
+    public void testContainsServerDefault() {
+        // a cache written before containsServer() still builds, and 
+        // creates nothing when asked
+        ServerCache servers = new ServerCache() {
+            int created = 0;
+            public CrawlHost getHostFor(String host) {
+                return new CrawlHost(host);
+            }
+            public CrawlServer getServerFor(String serverKey) {
+                created++;
+                return new CrawlServer(serverKey);
+            }
+            public void forAllHostsDo(Closure action) {
+            }
+            public Set<String> hostKeys() {
+                assertEquals(0, created);
+                return Collections.emptySet();
+            }
+        };
+        assertFalse(servers.containsServer("www.example.com"));
+        servers.hostKeys();
+    }
 }
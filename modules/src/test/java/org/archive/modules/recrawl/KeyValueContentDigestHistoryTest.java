@@ -0,0 +1,136 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.recrawl;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.Base32;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.kvstore.KeyValueStoreProvider;
+import org.archive.util.kvstore.LsmStoreProvider;
+
+public class KeyValueContentDigestHistoryTest extends TmpDirTestCase {
+    protected ConfigPath basePath;
+    protected BdbModule bdb;
+    protected LsmStoreProvider lsm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        basePath = new ConfigPath("testBase", 
+                new File(getTmpDir(), "KeyValueContentDigestHistoryTest").getAbsolutePath());
+        FileUtils.deleteDirectory(basePath.getFile());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (bdb != null) {
+            bdb.close();
+        }
+        if (lsm != null) {
+            lsm.close();
+        }
+        FileUtils.deleteDirectory(basePath.getFile());
+        super.tearDown();
+    }
+
+    protected BdbModule bdb() {
+        ConfigPath bdbDir = new ConfigPath("bdb", "bdb");
+        bdbDir.setBase(basePath);
+        bdb = new BdbModule();
+        bdb.setDir(bdbDir);
+        bdb.start();
+        return bdb;
+    }
+
+    protected LsmStoreProvider lsm() {
+        ConfigPath lsmDir = new ConfigPath("lsm", "lsm");
+        lsmDir.setBase(basePath);
+        lsm = new LsmStoreProvider();
+        lsm.setDir(lsmDir);
+        return lsm;
+    }
+
+    protected KeyValueContentDigestHistory history(KeyValueStoreProvider provider) {
+        KeyValueContentDigestHistory history = new KeyValueContentDigestHistory();
+        history.setStoreProvider(provider);
+        history.start();
+        return history;
+    }
+
+    protected CrawlURI curi(String uri) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        // sha1 of "monkey\n", point is to have a value there
+        curi.setContentDigest("sha1", Base32.decode("orfjublpcrnymm4seg5uk6vfoeu7kw6c"));
+        return curi;
+    }
+
+    protected void roundTrip(KeyValueContentDigestHistory history) throws Exception {
+        CrawlURI first = curi("http://example.org/1");
+        history.load(first);
+        assertTrue(first.getContentDigestHistory().isEmpty());
+        first.getContentDigestHistory().put(RecrawlAttributeConstants.A_ORIGINAL_URL,
+                first.toString());
+        history.store(first);
+
+        CrawlURI second = curi("http://example.org/2");
+        history.load(second);
+        assertEquals(first.toString(), second.getContentDigestHistory().get(
+                RecrawlAttributeConstants.A_ORIGINAL_URL));
+    }
+
+    public void testRoundTripBdb() throws Exception {
+        roundTrip(history(bdb()));
+    }
+
+    public void testRoundTripLsm() throws Exception {
+        roundTrip(history(lsm()));
+    }
+
+    public void testDefaultNameDistinct() throws Exception {
+        assertFalse(new BdbContentDigestHistory().getHistoryDbName().equals(
+                new KeyValueContentDigestHistory().getHistoryStoreName()));
+    }
+
+    public void testBdbHistoryUnreadableNotFatal() throws Exception {
+        BdbContentDigestHistory bdbHistory = new BdbContentDigestHistory();
+        bdbHistory.setBdbModule(bdb());
+        bdbHistory.start();
+        CrawlURI stored = curi("http://example.org/1");
+        stored.getContentDigestHistory().put(RecrawlAttributeConstants.A_ORIGINAL_URL,
+                stored.toString());
+        bdbHistory.store(stored);
+        bdbHistory.stop();
+        bdb.closeDatabase(bdbHistory.getHistoryDbName());
+
+        // misconfigured to read BdbContentDigestHistory's store
+        KeyValueContentDigestHistory history = new KeyValueContentDigestHistory();
+        history.setStoreProvider(bdb);
+        history.setHistoryStoreName(bdbHistory.getHistoryDbName());
+        history.start();
+        CrawlURI loaded = curi("http://example.org/2");
+        history.load(loaded);
+        assertTrue(loaded.getContentDigestHistory().isEmpty());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_OUTLINKS;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.CrawlURI.FetchType;
+import org.archive.modules.extractor.Hop;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests that outlinks saved by one fetch are given to a later 304.
+ */
+public class OutlinksHistoryProcessorTest extends TestCase {
+
+    protected FetchHistoryProcessor fetchHistory = new FetchHistoryProcessor();
+    protected OutlinksHistoryProcessor outlinksHistory = new OutlinksHistoryProcessor();
+
+    /**
+     * @return URI fetched with the given status, after an earlier fetch
+     * with the given history, if any
+     */
+    protected CrawlURI fetched(int status, CrawlURI earlier) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/a/"));
+        curi.setFetchType(FetchType.HTTP_GET);
+        curi.setFetchStatus(status);
+        curi.setFetchBeginTime(System.currentTimeMillis());
+        if (earlier != null) {
+            curi.getData().put(A_FETCH_HISTORY, earlier.getFetchHistory());
+        }
+        return curi;
+    }
+
+    protected void process(CrawlURI curi) throws InterruptedException {
+        fetchHistory.process(curi);
+        outlinksHistory.process(curi);
+    }
+
+    public void testNotModifiedGetsSavedOutlinks() throws Exception {
+        CrawlURI first = fetched(200, null);
+        first.getOutLinks().add(first.createCrawlURI("b.html",
+                LinkContext.NAVLINK_MISC, Hop.NAVLINK));
+        first.getOutLinks().add(first.createCrawlURI("/c.js",
+                new LinkContext.SimpleLinkContext("script src"), Hop.EMBED));
+        process(first);
+        assertTrue(first.getFetchHistory()[0].containsKey(A_OUTLINKS));
+
+        CrawlURI second = fetched(304, first);
+        process(second);
+        assertTrue(second.getAnnotations().contains("outlinksFromHistory:2"));
+        assertEquals(first.getOutLinks().size(), second.getOutLinks().size());
+        Iterator<CrawlURI> expected = first.getOutLinks().iterator();
+        for (CrawlURI link : second.getOutLinks()) {
+            CrawlURI e = expected.next();
+            assertEquals(e.getURI(), link.getURI());
+            assertEquals(e.getViaContext(), link.getViaContext());
+            assertEquals(e.getLastHop(), link.getLastHop());
+            assertEquals(second.getUURI(), link.getVia());
+        }
+
+        // carried forward to the next 304
+        CrawlURI third = fetched(304, second);
+        process(third);
+        assertEquals(2, third.getOutLinks().size());
+    }
+
+    public void testTooManyNotSaved() throws Exception {
+        outlinksHistory.setMaxOutlinks(1);
+        CrawlURI first = fetched(200, null);
+        first.getOutLinks().add(first.createCrawlURI("b.html",
+                LinkContext.NAVLINK_MISC, Hop.NAVLINK));
+        first.getOutLinks().add(first.createCrawlURI("c.html",
+                LinkContext.NAVLINK_MISC, Hop.NAVLINK));
+        process(first);
+        assertFalse(first.getFetchHistory()[0].containsKey(A_OUTLINKS));
+
+        CrawlURI second = fetched(304, first);
+        process(second);
+        assertEquals(0, second.getOutLinks().size());
+        assertTrue(second.getAnnotations().isEmpty());
+    }
+}